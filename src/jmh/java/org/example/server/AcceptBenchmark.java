@@ -0,0 +1,86 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection churn over loopback: every operation opens a connection, makes
+ * one request with {@code Connection: close} and reads the response to the
+ * end, from 8 client threads at once. Compares one acceptor with several
+ * sharing the port through {@code SO_REUSEPORT} on each transport; the
+ * difference shows with as many cores as acceptors.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class AcceptBenchmark {
+    private static final int PORT = 18081;
+    private static final byte[] REQUEST = ("GET /hello HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"1", "4"})
+    public int acceptors;
+
+    @Param({"BLOCKING", "NIO"})
+    public Transport transport;
+
+    private HttpServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ServerConfig config = new ServerConfig()
+                .setTransport(transport)
+                .setExecutionMode(ExecutionMode.VIRTUAL_THREADS)
+                .setEventLoopCount(Math.max(acceptors, Runtime.getRuntime().availableProcessors()))
+                .setAcceptorCount(acceptors)
+                .setBacklog(4096);
+        server = new HttpServer(PORT, (request, response) -> {
+            response.setContentType("text/plain");
+            response.setBody("Hello, World!");
+        }, config);
+        server.start();
+        Thread.sleep(200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int connectAndRequest() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("localhost", PORT));
+            socket.getOutputStream().write(REQUEST);
+            // The server closes first, so TIME_WAIT does not use up the client's ephemeral ports
+            InputStream in = socket.getInputStream();
+            return in.readAllBytes().length;
+        }
+    }
+}
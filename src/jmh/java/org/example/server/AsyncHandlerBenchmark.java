@@ -0,0 +1,151 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An I/O-bound handler on the NIO transport with two worker threads: every
+ * request waits 5 ms for a simulated downstream call, from 32 persistent
+ * connections at once. {@code SYNC} sleeps on the worker, so throughput is
+ * capped at two requests per 5 ms; {@code ASYNC} returns a stage that a
+ * timer completes, so all 32 requests wait at the same time.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class AsyncHandlerBenchmark {
+    private static final int PORT = 18082;
+    private static final long DOWNSTREAM_MILLIS = 5;
+    private static final byte[] REQUEST = ("GET /hello HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public enum Style {
+        SYNC, ASYNC
+    }
+
+    @Param({"SYNC", "ASYNC"})
+    public Style style;
+
+    private HttpServer server;
+    private ScheduledExecutorService downstream;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        downstream = Executors.newSingleThreadScheduledExecutor();
+        ServerConfig config = new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setWorkerThreads(2)
+                .setKeepAliveTimeoutMillis(60_000)
+                .setMaxRequestsPerConnection(Integer.MAX_VALUE)
+                .setRequestTimeout(Duration.ofSeconds(5));
+        RequestHandler handler;
+        if (style == Style.SYNC) {
+            handler = (request, response) -> {
+                try {
+                    Thread.sleep(DOWNSTREAM_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setBody("Hello, World!");
+            };
+        } else {
+            handler = (AsyncRequestHandler) (request, response) -> {
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                downstream.schedule(() -> {
+                    response.setBody("Hello, World!");
+                    done.complete(null);
+                }, DOWNSTREAM_MILLIS, TimeUnit.MILLISECONDS);
+                return done;
+            };
+        }
+        server = new HttpServer(PORT, handler, config);
+        server.start();
+        Thread.sleep(200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        downstream.shutdownNow();
+    }
+
+    /**
+     * The persistent connection of one client thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+
+        @Setup(Level.Trial)
+        public void connect(AsyncHandlerBenchmark benchmark) throws IOException {
+            socket = new Socket("localhost", PORT);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int request(Client client) throws IOException {
+        client.out.write(REQUEST);
+        client.out.flush();
+        int contentLength = 0;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = client.in.read();
+            if (b < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            if (line.length() <= 1) {
+                break;
+            }
+            if (line.toString().regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line.setLength(0);
+        }
+        client.in.skipNBytes(contentLength);
+        return contentLength;
+    }
+}
@@ -0,0 +1,186 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests over loopback against a running server, with 1, 64 and 1024
+ * persistent connections on each transport.
+ *
+ * <p>One operation is a round in which every connection sends a request and
+ * reads the response, all connections at once. The throughput score is
+ * rounds per second, so requests per second are the score times the number
+ * of connections; the sampled round time is the latency of the slowest
+ * request in a round.</p>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final int PORT = 18080;
+    private static final byte[] REQUEST = ("GET /hello HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "User-Agent: jmh\r\n"
+            + "Accept: */*\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"1", "64", "1024"})
+    public int connections;
+
+    @Param({"BLOCKING", "NIO"})
+    public Transport transport;
+
+    private HttpServer server;
+    private Client[] clients;
+    private ExecutorService executor;
+
+    /**
+     * A keep-alive connection reading Content-Length delimited responses.
+     */
+    private static final class Client {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        Client() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("localhost", PORT));
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        int exchange() throws IOException {
+            out.write(REQUEST);
+            out.flush();
+            int contentLength = 0;
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Server closed the connection");
+                }
+                if (b != '\n') {
+                    line.append((char) b);
+                    continue;
+                }
+                if (line.length() <= 1) {
+                    break;
+                }
+                if (line.toString().regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+                line.setLength(0);
+            }
+            in.skipNBytes(contentLength);
+            return contentLength;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ServerConfig config = new ServerConfig()
+                .setTransport(transport)
+                .setExecutionMode(ExecutionMode.VIRTUAL_THREADS)
+                .setKeepAliveTimeoutMillis(60_000)
+                .setMaxRequestsPerConnection(Integer.MAX_VALUE);
+        server = new HttpServer(PORT, (request, response) -> {
+            response.setContentType("text/plain");
+            response.setBody("Hello, World!");
+        }, config);
+        server.start();
+
+        clients = new Client[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = connect();
+        }
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    private static Client connect() throws IOException {
+        // The acceptor may not be listening yet right after start()
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Client();
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.close();
+        for (Client client : clients) {
+            if (client != null) {
+                client.socket.close();
+            }
+        }
+        server.stop();
+    }
+
+    private int round() throws IOException, InterruptedException, ExecutionException {
+        if (clients.length == 1) {
+            return clients[0].exchange();
+        }
+        List<Future<Integer>> results = new ArrayList<>(clients.length);
+        for (Client client : clients) {
+            results.add(executor.submit(client::exchange));
+        }
+        int bytes = 0;
+        for (Future<Integer> result : results) {
+            bytes += result.get();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int throughput() throws Exception {
+        return round();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int latency() throws Exception {
+        return round();
+    }
+}
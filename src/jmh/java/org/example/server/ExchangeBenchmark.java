@@ -0,0 +1,64 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One keep-alive exchange as a connection serves it, without the socket:
+ * parse a browser request, run a small handler, serialize the response.
+ * Run with {@code -prof gc} to see the bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangeBenchmark {
+
+    private final HttpResponseBenchmark.DiscardChannel channel = new HttpResponseBenchmark.DiscardChannel();
+    private final List<HttpRequest> batch = new ArrayList<>();
+    private final List<HttpResponse> responses = new ArrayList<>();
+    private HttpServer server;
+    private final ExchangePool exchanges = new ExchangePool();
+    private HttpRequestParser parser;
+    private ByteBuffer input;
+
+    @Setup
+    public void setUp() {
+        server = new HttpServer(0, (request, response) -> {
+            response.setContentType("text/plain");
+            response.setBody("Hello, World!");
+        });
+        parser = server.newRequestParser();
+        parser.setExchangePool(exchanges);
+        input = ByteBuffer.wrap(HttpRequestParserBenchmark.BROWSER_REQUEST.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public long exchange() throws IOException {
+        input.rewind();
+        batch.add(parser.parse(input));
+        server.serveBatch(batch, 0, responses, data -> { }, exchanges);
+        HttpResponse.send(responses, channel);
+        exchanges.recycle(batch, responses);
+        batch.clear();
+        responses.clear();
+        return channel.written;
+    }
+}
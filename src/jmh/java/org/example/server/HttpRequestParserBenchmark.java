@@ -0,0 +1,81 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput for a browser-like GET request, fed in one piece and in
+ * small fragments as the non-blocking transport may see it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestParserBenchmark {
+
+    static final String BROWSER_REQUEST = "GET /products/42?view=full HTTP/1.1\r\n"
+            + "Host: shop.example.org\r\n"
+            + "Connection: keep-alive\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: en-US,en;q=0.9,de;q=0.8\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "Cookie: session=7f3c2a9e4b1d8c6f; theme=dark; consent=yes\r\n"
+            + "Referer: https://shop.example.org/products\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "\r\n";
+
+    private HttpRequestParser parser;
+    private ByteBuffer input;
+
+    @Setup
+    public void setUp() {
+        parser = new HttpRequestParser();
+        input = ByteBuffer.wrap(BROWSER_REQUEST.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public HttpRequest parseWhole() throws IOException {
+        input.rewind();
+        return parser.parse(input);
+    }
+
+    @Benchmark
+    public HttpRequest parseInFragments() throws IOException {
+        HttpRequest request = null;
+        for (int start = 0; start < input.capacity(); start += 64) {
+            input.limit(Math.min(start + 64, input.capacity())).position(start);
+            request = parser.parse(input);
+        }
+        input.clear();
+        return request;
+    }
+
+    @Benchmark
+    public void parseAndReadHeaders(Blackhole blackhole) throws IOException {
+        input.rewind();
+        HttpRequest request = parser.parse(input);
+        blackhole.consume(request.getHeader("Host"));
+        blackhole.consume(request.getHeader("Accept-Encoding"));
+        blackhole.consume(request.getHeader("Cookie"));
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a typical HTML response into a sink that discards the
+ * bytes, through the stream and the gathering channel path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseBenchmark {
+
+    @Param({"128", "16384"})
+    public int bodySize;
+
+    private byte[] body;
+    private final DiscardChannel channel = new DiscardChannel();
+    private final OutputStream stream = OutputStream.nullOutputStream();
+
+    /**
+     * A channel that accepts and drops everything, like an infinitely fast socket.
+     */
+    static final class DiscardChannel implements GatheringByteChannel {
+        long written;
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                count += sources[i].remaining();
+                sources[i].position(sources[i].limit());
+            }
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            return (int) write(new ByteBuffer[] {source});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+    }
+
+    private HttpResponse response() {
+        return new HttpResponse()
+                .setContentType("text/html")
+                .setHeader("Cache-Control", "max-age=60")
+                .setHeader("Connection", "keep-alive")
+                .setBody(body);
+    }
+
+    @Benchmark
+    public void sendToStream() throws IOException {
+        response().send(stream);
+    }
+
+    @Benchmark
+    public long sendToChannel() throws IOException {
+        response().send(channel);
+        return channel.written;
+    }
+}
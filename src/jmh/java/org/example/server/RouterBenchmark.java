@@ -0,0 +1,79 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookup time as the number of routes grows. Every route has a literal
+ * prefix and a parameter, like a REST API; the requests hit the first, a
+ * middle and the last registered route, so a linear scan would show up as
+ * growing times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    private Router router;
+    private HttpRequest first;
+    private HttpRequest middle;
+    private HttpRequest last;
+    private HttpResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        router = new Router();
+        RequestHandler handler = (request, response) -> { };
+        for (int i = 0; i < routes; i++) {
+            router.get("/api/v1/resource" + i + "/{id}", handler);
+            router.get("/api/v1/resource" + i + "/{id}/items", handler);
+        }
+        first = request("/api/v1/resource0/42");
+        middle = request("/api/v1/resource" + routes / 2 + "/42/items");
+        last = request("/api/v1/resource" + (routes - 1) + "/42");
+        response = new HttpResponse();
+    }
+
+    private static HttpRequest request(String path) throws IOException {
+        String text = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        return new HttpRequestParser().parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    public HttpResponse routeFirst() {
+        router.handle(first, response);
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse routeMiddle() {
+        router.handle(middle, response);
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse routeLast() {
+        router.handle(last, response);
+        return response;
+    }
+}
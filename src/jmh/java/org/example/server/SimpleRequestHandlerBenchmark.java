@@ -0,0 +1,93 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the demo handler rendering its HTML page for a browser request,
+ * against the StringBuilder rendering it used before {@link HtmlTemplate}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRequestHandlerBenchmark {
+
+    private final SimpleRequestHandler handler = new SimpleRequestHandler();
+    // Routed like SimpleRequestHandler, so that only the rendering differs
+    private final Router stringBuilderHandler = new Router()
+            .get("/*", SimpleRequestHandlerBenchmark::renderWithStringBuilder);
+    private HttpRequest request;
+    // Reset between invocations, as a connection reuses its responses
+    private final HttpResponse response = new HttpResponse();
+
+    @Setup
+    public void setUp() throws IOException {
+        request = new HttpRequestParser().parse(ByteBuffer.wrap(
+                HttpRequestParserBenchmark.BROWSER_REQUEST.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    public HttpResponse handle() {
+        response.reset();
+        handler.handle(request, response);
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse handleWithStringBuilder() {
+        response.reset();
+        stringBuilderHandler.handle(request, response);
+        return response;
+    }
+
+    /**
+     * The default page as the handler rendered it before it used a template.
+     */
+    private static void renderWithStringBuilder(HttpRequest request, HttpResponse response) {
+        response.setContentType("text/html");
+        StringBuilder htmlBuilder = new StringBuilder();
+        htmlBuilder.append("<!DOCTYPE html>\n");
+        htmlBuilder.append("<html>\n");
+        htmlBuilder.append("<head>\n");
+        htmlBuilder.append("    <title>Basic HTTP Server</title>\n");
+        htmlBuilder.append("</head>\n");
+        htmlBuilder.append("<body>\n");
+        htmlBuilder.append("    <h1>Hello, World!</h1>\n");
+        htmlBuilder.append("    <p>This is a response from the Basic HTTP Server.</p>\n");
+        htmlBuilder.append("    <h2>Request Details:</h2>\n");
+        htmlBuilder.append("    <ul>\n");
+        htmlBuilder.append("        <li>Method: ").append(request.getMethod()).append("</li>\n");
+        htmlBuilder.append("        <li>Path: ").append(request.getPath()).append("</li>\n");
+        htmlBuilder.append("        <li>HTTP Version: ").append(request.getVersion()).append("</li>\n");
+        htmlBuilder.append("    </ul>\n");
+        htmlBuilder.append("    <h2>Headers:</h2>\n");
+        htmlBuilder.append("    <ul>\n");
+        for (String headerName : request.getHeaders().keySet()) {
+            htmlBuilder.append("        <li>")
+                    .append(headerName)
+                    .append(": ")
+                    .append(request.getHeader(headerName))
+                    .append("</li>\n");
+        }
+        htmlBuilder.append("    </ul>\n");
+        htmlBuilder.append("</body>\n");
+        htmlBuilder.append("</html>");
+        response.setBody(htmlBuilder.toString());
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTPS over loopback against a running server on each transport, with a
+ * self-signed certificate generated for the run.
+ *
+ * <p>{@code handshake} opens a connection, completes the handshake and
+ * makes one small request, invalidating the session afterwards so that
+ * every handshake is a full one; {@code resumedHandshake} does the same but
+ * keeps the session, so the client resumes it. {@code bulk}
+ * downloads a 1 MiB body on a persistent connection; its throughput times
+ * 1 MiB is the payload rate.</p>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsBenchmark {
+    private static final int PORT = 18443;
+    private static final int BULK_SIZE = 1024 * 1024;
+    private static final byte[] SMALL_REQUEST = ("GET /hello HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BULK_REQUEST = ("GET /bulk HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"BLOCKING", "NIO"})
+    public Transport transport;
+
+    private HttpServer server;
+    private SSLContext clientContext;
+    private SSLSocket bulkSocket;
+    private OutputStream bulkOut;
+    private InputStream bulkIn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] bulk = new byte[BULK_SIZE];
+        ServerConfig config = new ServerConfig()
+                .setTransport(transport)
+                .setExecutionMode(ExecutionMode.VIRTUAL_THREADS)
+                .setKeepAliveTimeoutMillis(60_000)
+                .setMaxRequestsPerConnection(Integer.MAX_VALUE)
+                .setKeyStore(TestCertificates.keyStore(), TestCertificates.PASSWORD);
+        server = new HttpServer(PORT, (request, response) -> {
+            response.setContentType(request.getPath().equals("/bulk") ? "application/octet-stream" : "text/plain");
+            if (request.getPath().equals("/bulk")) {
+                response.setBody(bulk);
+            } else {
+                response.setBody("Hello, World!");
+            }
+        }, config);
+        server.start();
+        Thread.sleep(200);
+
+        clientContext = TestCertificates.clientContext();
+        bulkSocket = connect(clientContext);
+        bulkOut = bulkSocket.getOutputStream();
+        bulkIn = new BufferedInputStream(bulkSocket.getInputStream(), 64 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        bulkSocket.close();
+        server.stop();
+    }
+
+    private static SSLSocket connect(SSLContext context) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", PORT);
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static int exchange(OutputStream out, InputStream in, byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+        int contentLength = 0;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            if (line.length() <= 1) {
+                break;
+            }
+            if (line.toString().regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line.setLength(0);
+        }
+        in.skipNBytes(contentLength);
+        return contentLength;
+    }
+
+    private int connectAndRequest(boolean resume) throws IOException {
+        try (SSLSocket socket = connect(clientContext)) {
+            int length = exchange(socket.getOutputStream(), new BufferedInputStream(socket.getInputStream()),
+                    SMALL_REQUEST);
+            if (!resume) {
+                socket.getSession().invalidate();
+            }
+            return length;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int handshake() throws IOException {
+        return connectAndRequest(false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int resumedHandshake() throws IOException {
+        return connectAndRequest(true);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int bulk() throws IOException {
+        return exchange(bulkOut, bulkIn, BULK_REQUEST);
+    }
+}
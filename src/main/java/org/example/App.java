@@ -1,11 +1,15 @@
 package org.example;
 
+import org.example.server.AccessLog;
+import org.example.server.CompressingRequestHandler;
 import org.example.server.HttpServer;
+import org.example.server.ServerConfig;
 import org.example.server.SimpleRequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Main application class that starts the HTTP server.
@@ -30,7 +34,10 @@ public class App
         // Create and start the server
         try {
             logger.info("Starting HTTP server on port {}", port);
-            HttpServer server = new HttpServer(port, new SimpleRequestHandler());
+            AccessLog accessLog = new AccessLog(Path.of("logs", "access.log"), AccessLog.Format.COMBINED,
+                    8192, AccessLog.OverflowPolicy.DROP);
+            ServerConfig config = new ServerConfig().setAccessLog(accessLog);
+            HttpServer server = new HttpServer(port, new CompressingRequestHandler(new SimpleRequestHandler()), config);
             server.start();
 
             // Add shutdown hook to stop the server gracefully
@@ -38,6 +45,7 @@ public class App
                 try {
                     logger.info("Shutting down HTTP server");
                     server.stop();
+                    accessLog.close();
                 } catch (IOException e) {
                     logger.error("Error stopping server", e);
                 }
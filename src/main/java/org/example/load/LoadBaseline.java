@@ -0,0 +1,148 @@
+package org.example.load;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput and latency of a load test, stored as a properties file to
+ * compare later runs against.
+ */
+public class LoadBaseline {
+    private static final String THROUGHPUT = "throughput";
+    private static final String P50 = "latency.p50.micros";
+    private static final String P99 = "latency.p99.micros";
+
+    private final double throughput;
+    private final long p50Micros;
+    private final long p99Micros;
+
+    /**
+     * Creates a baseline.
+     *
+     * @param throughput the requests per second
+     * @param p50Micros the median latency in microseconds
+     * @param p99Micros the 99th percentile latency in microseconds
+     */
+    public LoadBaseline(double throughput, long p50Micros, long p99Micros) {
+        this.throughput = throughput;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+    }
+
+    /**
+     * Takes the baseline of a load test.
+     *
+     * @param report the results of the test
+     * @return the baseline
+     */
+    public static LoadBaseline of(LoadReport report) {
+        return new LoadBaseline(report.getThroughput(), report.getLatency(50, TimeUnit.MICROSECONDS),
+                report.getLatency(99, TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * Reads a baseline written by {@link #write(Path)}.
+     *
+     * @param file the properties file
+     * @return the baseline
+     * @throws IOException if the file cannot be read or lacks a value
+     */
+    public static LoadBaseline read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            properties.load(reader);
+        }
+        try {
+            return new LoadBaseline(Double.parseDouble(required(properties, THROUGHPUT)),
+                    Long.parseLong(required(properties, P50)), Long.parseLong(required(properties, P99)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in baseline " + file, e);
+        }
+    }
+
+    private static String required(Properties properties, String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("Baseline lacks " + key);
+        }
+        return value.trim();
+    }
+
+    /**
+     * Writes the baseline as a properties file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(THROUGHPUT, String.format(Locale.ROOT, "%.1f", throughput));
+        properties.setProperty(P50, Long.toString(p50Micros));
+        properties.setProperty(P99, Long.toString(p99Micros));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+            properties.store(writer, "Load test baseline");
+        }
+    }
+
+    /**
+     * Compares a later run against this baseline.
+     *
+     * @param current the baseline of the later run
+     * @param maxThroughputDropPercent how far the throughput may fall below this one
+     * @param maxP99IncreasePercent how far the 99th percentile latency may rise above this one
+     * @return a description of each regression, empty if there is none
+     */
+    public List<String> regressions(LoadBaseline current, double maxThroughputDropPercent,
+                                    double maxP99IncreasePercent) {
+        List<String> regressions = new ArrayList<>();
+        double minThroughput = throughput * (1 - maxThroughputDropPercent / 100);
+        if (current.throughput < minThroughput) {
+            regressions.add(String.format(Locale.ROOT,
+                    "Throughput %.1f/s is more than %.1f%% below the baseline of %.1f/s",
+                    current.throughput, maxThroughputDropPercent, throughput));
+        }
+        double maxP99 = p99Micros * (1 + maxP99IncreasePercent / 100);
+        if (current.p99Micros > maxP99) {
+            regressions.add(String.format(Locale.ROOT,
+                    "p99 latency %.3f ms is more than %.1f%% above the baseline of %.3f ms",
+                    current.p99Micros / 1000.0, maxP99IncreasePercent, p99Micros / 1000.0));
+        }
+        return regressions;
+    }
+
+    /**
+     * Gets the throughput.
+     *
+     * @return the requests per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Gets the median latency.
+     *
+     * @return the latency in microseconds
+     */
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    /**
+     * Gets the 99th percentile latency.
+     *
+     * @return the latency in microseconds
+     */
+    public long getP99Micros() {
+        return p99Micros;
+    }
+}
@@ -0,0 +1,235 @@
+package org.example.load;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of a load test run by {@link LoadGenerator}.
+ */
+public class LoadConfig {
+    private final URI uri;
+    private int connections = 16;
+    private Duration duration = Duration.ofSeconds(10);
+    private Duration warmup = Duration.ofSeconds(2);
+    private int rate;
+    private int pipelineDepth = 1;
+    private boolean keepAlive = true;
+    private Duration timeout = Duration.ofSeconds(10);
+    private final List<String> headers = new ArrayList<>();
+
+    /**
+     * Creates a load test configuration.
+     *
+     * @param uri the http URI to request
+     */
+    public LoadConfig(URI uri) {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            throw new IllegalArgumentException("Only http:// URIs with a host are supported: " + uri);
+        }
+        this.uri = uri;
+    }
+
+    /**
+     * Gets the URI that is requested.
+     *
+     * @return the URI
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * Sets the number of connections, each driven by its own thread.
+     *
+     * @param connections the number of connections, at least 1
+     * @return this config for chaining
+     */
+    public LoadConfig setConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1");
+        }
+        this.connections = connections;
+        return this;
+    }
+
+    /**
+     * Gets the number of connections.
+     *
+     * @return the number of connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Sets how long requests are measured, after the warm-up.
+     *
+     * @param duration the measured duration, positive
+     * @return this config for chaining
+     */
+    public LoadConfig setDuration(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * Gets how long requests are measured.
+     *
+     * @return the measured duration
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sets how long load is applied before measuring starts, so that the
+     * server's JIT, pools and caches are warm.
+     *
+     * @param warmup the warm-up duration, zero to measure from the start
+     * @return this config for chaining
+     */
+    public LoadConfig setWarmup(Duration warmup) {
+        if (warmup.isNegative()) {
+            throw new IllegalArgumentException("warmup must not be negative");
+        }
+        this.warmup = warmup;
+        return this;
+    }
+
+    /**
+     * Gets how long load is applied before measuring starts.
+     *
+     * @return the warm-up duration
+     */
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Sets a constant request rate, spread evenly over the connections. The
+     * test then runs as an open loop: requests are due on a fixed schedule
+     * whether or not earlier ones have been answered, and latency is counted
+     * from when a request was due rather than when it could be sent, which
+     * corrects for coordinated omission. A rate of 0 runs a closed loop,
+     * where each connection sends its next requests as soon as the previous
+     * ones are answered.
+     *
+     * @param rate the total requests per second, or 0 for a closed loop
+     * @return this config for chaining
+     */
+    public LoadConfig setRate(int rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * Gets the request rate of an open loop.
+     *
+     * @return the total requests per second, 0 for a closed loop
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets how many requests a connection sends before reading the
+     * responses. Requests beyond the first are pipelined.
+     *
+     * @param pipelineDepth the requests in flight per connection, at least 1
+     * @return this config for chaining
+     */
+    public LoadConfig setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("pipelineDepth must be at least 1");
+        }
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    /**
+     * Gets how many requests a connection sends before reading the responses.
+     *
+     * @return the requests in flight per connection
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets whether connections are reused. Without keep-alive every request
+     * opens a new connection, and its latency includes the connect; requests
+     * are then not pipelined.
+     *
+     * @param keepAlive true to reuse connections
+     * @return this config for chaining
+     */
+    public LoadConfig setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Checks whether connections are reused.
+     *
+     * @return true if connections are reused
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets how long a connection waits for a response before the request
+     * counts as failed.
+     *
+     * @param timeout the read timeout, positive
+     * @return this config for chaining
+     */
+    public LoadConfig setTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Gets how long a connection waits for a response.
+     *
+     * @return the read timeout
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Adds a header to every request.
+     *
+     * @param header the header line, such as {@code Accept: text/html}
+     * @return this config for chaining
+     */
+    public LoadConfig addHeader(String header) {
+        int colon = header.indexOf(':');
+        if (colon <= 0 || header.indexOf('\r') >= 0 || header.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Invalid header: " + header);
+        }
+        headers.add(header.substring(0, colon).trim() + ": " + header.substring(colon + 1).trim());
+        return this;
+    }
+
+    /**
+     * Gets the headers added to every request.
+     *
+     * @return the header lines
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,387 @@
+package org.example.load;
+
+import org.example.server.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an HTTP/1.1 server with load and measures its throughput and
+ * latency. Each connection is run by its own virtual thread over a plain
+ * socket, which writes a batch of requests, pipelined if the depth is above
+ * one, and reads their responses before it writes the next batch.
+ *
+ * <p>In a closed loop a connection sends its next batch as soon as the last
+ * one is answered, which finds the highest throughput but lets a slow server
+ * hold back the requests it would have been sent meanwhile. In an open loop
+ * requests are due at a constant rate instead; a connection that falls
+ * behind sends the requests that are due together, and their latency counts
+ * from when they were due, so a stall shows in the percentiles as it would
+ * for independent clients.</p>
+ *
+ * <p>Run from the command line with {@code --help} for the options. Against
+ * a baseline saved by an earlier run the command fails if throughput or p99
+ * latency have regressed past the given thresholds.</p>
+ */
+public class LoadGenerator {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: LoadGenerator [options] <http-url>",
+            "  -c, --connections <n>          concurrent connections (default 16)",
+            "  -d, --duration <time>          measured duration, such as 30s or 500ms (default 10s)",
+            "  -w, --warmup <time>            load applied before measuring (default 2s)",
+            "  -R, --rate <n>                 open loop at n requests/s in total, corrected for",
+            "                                 coordinated omission (default: closed loop)",
+            "  -p, --pipeline <n>             requests in flight per connection (default 1)",
+            "      --no-keep-alive            open a new connection for every request",
+            "  -H, --header <name: value>     add a header to every request",
+            "      --timeout <time>           wait for a response at most this long (default 10s)",
+            "      --save-baseline <file>     store throughput and latency for later runs",
+            "      --baseline <file>          fail if the results regress against a stored baseline",
+            "      --max-throughput-drop <%>  allowed throughput drop against the baseline (default 10)",
+            "      --max-p99-increase <%>     allowed p99 latency increase against the baseline (default 20)");
+
+    private final LoadConfig config;
+    private final InetSocketAddress address;
+    // The request repeated for a whole pipelined batch, of which the first requests are written
+    private final byte[] requests;
+    private final int requestLength;
+    private final int depth;
+
+    /**
+     * Creates a load generator.
+     *
+     * @param config the load test settings
+     */
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        URI uri = config.getUri();
+        int port = uri.getPort() < 0 ? 80 : uri.getPort();
+        this.address = new InetSocketAddress(uri.getHost(), port);
+        this.depth = config.isKeepAlive() ? config.getPipelineDepth() : 1;
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        StringBuilder request = new StringBuilder()
+                .append("GET ").append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(uri.getHost()).append(uri.getPort() < 0 ? "" : ":" + port).append("\r\n");
+        for (String header : config.getHeaders()) {
+            request.append(header).append("\r\n");
+        }
+        if (!config.isKeepAlive()) {
+            request.append("Connection: close\r\n");
+        }
+        byte[] single = request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+        this.requestLength = single.length;
+        this.requests = new byte[single.length * depth];
+        for (int i = 0; i < depth; i++) {
+            System.arraycopy(single, 0, requests, i * single.length, single.length);
+        }
+    }
+
+    /**
+     * Runs the load test: the warm-up, then the measured duration.
+     *
+     * @return the results of the measured duration
+     */
+    public LoadReport run() {
+        Run run = new Run(System.nanoTime());
+        // Closing waits for every connection to finish
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.getConnections(); i++) {
+                threads.execute(new Connection(run, i));
+            }
+        }
+        long[] statusClasses = new long[run.statusClasses.length];
+        for (int i = 0; i < statusClasses.length; i++) {
+            statusClasses[i] = run.statusClasses[i].sum();
+        }
+        return new LoadReport(config, run.latency, statusClasses, run.errors.sum(), run.unsent.sum());
+    }
+
+    /**
+     * The schedule and the shared results of one run.
+     */
+    private final class Run {
+        final long start;
+        final long measureStart;
+        final long end;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder[] statusClasses = new LongAdder[6];
+        final LongAdder errors = new LongAdder();
+        final LongAdder unsent = new LongAdder();
+
+        Run(long start) {
+            this.start = start;
+            this.measureStart = start + config.getWarmup().toNanos();
+            this.end = measureStart + config.getDuration().toNanos();
+            for (int i = 0; i < statusClasses.length; i++) {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+
+        boolean isMeasured(long time) {
+            return time >= measureStart && time < end;
+        }
+    }
+
+    /**
+     * One connection and the thread that drives it. Responses and failures
+     * are only counted if they happen within the measured duration; an
+     * overloaded open loop then counts the backlog of the warm-up too.
+     */
+    private final class Connection implements Runnable {
+        private final Run run;
+        // Time between this connection's requests in an open loop, 0 in a closed loop
+        private final long interval;
+        private final long[] due = new long[depth];
+        private long next;
+        private Socket socket;
+        private OutputStream out;
+        private ResponseReader reader;
+
+        Connection(Run run, int index) {
+            this.run = run;
+            if (config.getRate() > 0) {
+                // The connections take turns, so the requests are spread evenly over time
+                double spacing = 1e9 / config.getRate();
+                this.interval = Math.round(spacing * config.getConnections());
+                this.next = run.start + Math.round(spacing * index);
+            } else {
+                this.interval = 0;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= run.end) {
+                        break;
+                    }
+                    int count;
+                    if (interval == 0) {
+                        count = depth;
+                        Arrays.fill(due, now);
+                    } else {
+                        if (next > now) {
+                            LockSupport.parkNanos(Math.min(next, run.end) - now);
+                            continue;
+                        }
+                        count = 0;
+                        while (count < depth && next <= now) {
+                            due[count++] = next;
+                            next += interval;
+                        }
+                    }
+                    exchange(count);
+                }
+                if (interval != 0) {
+                    // Due in the measured duration but never sent, the server fell behind the rate
+                    long from = Math.max(next, run.measureStart);
+                    if (from < run.end) {
+                        run.unsent.add((run.end - from + interval - 1) / interval);
+                    }
+                }
+            } finally {
+                closeSocket();
+            }
+        }
+
+        /**
+         * Sends a batch of requests and reads their responses.
+         */
+        private void exchange(int count) {
+            int answered = 0;
+            try {
+                if (socket == null) {
+                    connect();
+                }
+                out.write(requests, 0, count * requestLength);
+                for (; answered < count; answered++) {
+                    int status = reader.readResponse();
+                    long done = System.nanoTime();
+                    if (run.isMeasured(done)) {
+                        run.latency.record(done - due[answered]);
+                        run.statusClasses[status / 100 < 6 ? status / 100 : 0].increment();
+                    }
+                }
+                if (!config.isKeepAlive() || reader.isClose()) {
+                    closeSocket();
+                }
+            } catch (IOException e) {
+                if (run.isMeasured(System.nanoTime())) {
+                    run.errors.add(count - answered);
+                }
+                boolean connected = socket != null;
+                closeSocket();
+                if (!connected) {
+                    // Refused connections would otherwise be retried in a busy loop
+                    LockSupport.parkNanos(10_000_000);
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket connection = new Socket();
+            try {
+                connection.setTcpNoDelay(true);
+                int timeout = (int) Math.min(config.getTimeout().toMillis(), Integer.MAX_VALUE);
+                connection.connect(address, timeout);
+                connection.setSoTimeout(timeout);
+                out = connection.getOutputStream();
+                reader = new ResponseReader(connection.getInputStream());
+                socket = connection;
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        private void closeSocket() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to read from it
+                }
+                socket = null;
+            }
+        }
+    }
+
+    /**
+     * Runs a load test from the command line and exits with 0 on success, 1
+     * on a regression against the baseline, and 2 on invalid arguments.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * Runs a load test from command line arguments.
+     *
+     * @param args the command line arguments
+     * @param out receives the report
+     * @return the exit code: 0 on success, 1 on a regression, 2 on invalid arguments or baseline files
+     */
+    static int run(String[] args, PrintStream out) {
+        LoadConfig config;
+        Path baseline = null;
+        Path saveBaseline = null;
+        double maxThroughputDrop = 10;
+        double maxP99Increase = 20;
+        try {
+            URI uri = null;
+            List<String[]> options = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")) {
+                    out.println(USAGE);
+                    return 0;
+                } else if (arg.equals("--no-keep-alive")) {
+                    options.add(new String[] {arg, null});
+                } else if (arg.startsWith("-")) {
+                    if (i + 1 == args.length) {
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    options.add(new String[] {arg, args[++i]});
+                } else if (uri == null) {
+                    uri = URI.create(arg);
+                } else {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+            }
+            if (uri == null) {
+                throw new IllegalArgumentException("No URL given");
+            }
+            config = new LoadConfig(uri);
+            for (String[] option : options) {
+                String value = option[1];
+                switch (option[0]) {
+                    case "-c", "--connections" -> config.setConnections(Integer.parseInt(value));
+                    case "-d", "--duration" -> config.setDuration(parseDuration(value));
+                    case "-w", "--warmup" -> config.setWarmup(parseDuration(value));
+                    case "-R", "--rate" -> config.setRate(Integer.parseInt(value));
+                    case "-p", "--pipeline" -> config.setPipelineDepth(Integer.parseInt(value));
+                    case "--no-keep-alive" -> config.setKeepAlive(false);
+                    case "-H", "--header" -> config.addHeader(value);
+                    case "--timeout" -> config.setTimeout(parseDuration(value));
+                    case "--save-baseline" -> saveBaseline = Path.of(value);
+                    case "--baseline" -> baseline = Path.of(value);
+                    case "--max-throughput-drop" -> maxThroughputDrop = Double.parseDouble(value);
+                    case "--max-p99-increase" -> maxP99Increase = Double.parseDouble(value);
+                    default -> throw new IllegalArgumentException("Unknown option: " + option[0]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Also a NumberFormatException
+            out.println("Error: " + e.getMessage());
+            out.println(USAGE);
+            return 2;
+        }
+
+        LoadReport report = new LoadGenerator(config).run();
+        out.print(report.format());
+        try {
+            if (saveBaseline != null) {
+                LoadBaseline.of(report).write(saveBaseline);
+                out.println("Baseline written to " + saveBaseline);
+            }
+            if (baseline != null) {
+                List<String> regressions = LoadBaseline.read(baseline)
+                        .regressions(LoadBaseline.of(report), maxThroughputDrop, maxP99Increase);
+                for (String regression : regressions) {
+                    out.println("REGRESSION: " + regression);
+                }
+                if (!regressions.isEmpty()) {
+                    return 1;
+                }
+                out.println("No regression against " + baseline);
+            }
+        } catch (IOException e) {
+            out.println("Error: " + e.getMessage());
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a duration such as {@code 30s}, {@code 500ms} or {@code 2m}; a plain number is in seconds.
+     *
+     * @param value the duration
+     * @return the parsed duration
+     */
+    static Duration parseDuration(String value) {
+        String text = value.trim();
+        try {
+            if (text.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+            } else if (text.endsWith("s")) {
+                return Duration.ofSeconds(Long.parseLong(text.substring(0, text.length() - 1)));
+            } else if (text.endsWith("m")) {
+                return Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+            }
+            return Duration.ofSeconds(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+    }
+}
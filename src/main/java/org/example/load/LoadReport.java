@@ -0,0 +1,128 @@
+package org.example.load;
+
+import org.example.server.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of a load test: the requests answered within the measured
+ * duration, their status codes, failures, and the latency distribution.
+ */
+public class LoadReport {
+    private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99, 100};
+
+    private final LoadConfig config;
+    private final LatencyHistogram latency;
+    private final long[] statusClasses;
+    private final long errors;
+    private final long unsent;
+
+    /**
+     * Creates a report.
+     *
+     * @param config the configuration of the test
+     * @param latency the latencies of the answered requests
+     * @param statusClasses the answered requests by the first digit of their status, 0 for others
+     * @param errors the requests that failed without a response
+     * @param unsent the requests of an open loop that were due but not sent by the end
+     */
+    LoadReport(LoadConfig config, LatencyHistogram latency, long[] statusClasses, long errors, long unsent) {
+        this.config = config;
+        this.latency = latency;
+        this.statusClasses = statusClasses;
+        this.errors = errors;
+        this.unsent = unsent;
+    }
+
+    /**
+     * Gets the number of requests answered within the measured duration.
+     *
+     * @return the number of responses, whatever their status
+     */
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    /**
+     * Gets the number of answered requests with a status of the given class.
+     *
+     * @param statusClass the first digit of the status, from 1 to 5
+     * @return the number of responses
+     */
+    public long getStatusCount(int statusClass) {
+        return statusClass >= 1 && statusClass <= 5 ? statusClasses[statusClass] : 0;
+    }
+
+    /**
+     * Gets the number of requests that failed without a response, because a
+     * connection could not be opened, was closed, or timed out.
+     *
+     * @return the number of failed requests
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Gets the number of requests of an open loop that were due but had not
+     * been sent when the test ended, because the server fell behind the rate.
+     *
+     * @return the number of unsent requests, always 0 in a closed loop
+     */
+    public long getUnsent() {
+        return unsent;
+    }
+
+    /**
+     * Gets the answered requests per second over the measured duration.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+        return getRequests() * 1e9 / config.getDuration().toNanos();
+    }
+
+    /**
+     * Gets a latency percentile. Latencies are measured from when a request
+     * was sent in a closed loop, and from when it was due in an open loop.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param unit the unit of the result
+     * @return the latency, within the histogram's precision of 12.5%
+     */
+    public long getLatency(double percentile, TimeUnit unit) {
+        return latency.getValueAtPercentile(percentile, unit);
+    }
+
+    /**
+     * Formats the report for the console.
+     *
+     * @return the report as lines of text
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%s for %.1f s against %s%n",
+                config.getRate() > 0 ? "Open loop at " + config.getRate() + " requests/s" : "Closed loop",
+                config.getDuration().toMillis() / 1000.0, config.getUri()));
+        text.append(String.format(Locale.ROOT, "  %d connections, pipeline depth %d, %s%n", config.getConnections(),
+                config.isKeepAlive() ? config.getPipelineDepth() : 1,
+                config.isKeepAlive() ? "keep-alive" : "a new connection per request"));
+        text.append(String.format(Locale.ROOT, "Requests:    %d (%.1f/s)%n", getRequests(), getThroughput()));
+        text.append(String.format(Locale.ROOT, "Status:      1xx %d, 2xx %d, 3xx %d, 4xx %d, 5xx %d, other %d%n",
+                statusClasses[1], statusClasses[2], statusClasses[3], statusClasses[4], statusClasses[5],
+                statusClasses[0]));
+        text.append(String.format(Locale.ROOT, "Errors:      %d%n", errors));
+        if (config.getRate() > 0) {
+            text.append(String.format(Locale.ROOT, "Unsent:      %d%n", unsent));
+        }
+        text.append(String.format(config.getRate() > 0
+                ? "Latency from when each request was due (corrected for coordinated omission):%n"
+                : "Latency:%n"));
+        for (double percentile : PERCENTILES) {
+            text.append(String.format(Locale.ROOT, "  %7.3f%%  %10.3f ms%n", percentile,
+                    getLatency(percentile, TimeUnit.MICROSECONDS) / 1000.0));
+        }
+        return text.toString();
+    }
+}
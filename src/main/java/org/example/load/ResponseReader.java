@@ -0,0 +1,192 @@
+package org.example.load;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reads HTTP/1.1 responses from a connection and skips their bodies, with
+ * as little work as possible so that the client does not slow down what it
+ * measures. Only the status code and the headers that frame the body are
+ * looked at.
+ */
+class ResponseReader {
+    private static final int MAX_LINE = 8192;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[16 * 1024];
+    private final byte[] line = new byte[MAX_LINE];
+    private int position;
+    private int limit;
+    // Framing of the response being read
+    private long contentLength;
+    private boolean chunked;
+    private boolean close;
+
+    /**
+     * Creates a reader.
+     *
+     * @param in the connection's input
+     */
+    ResponseReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads a complete response.
+     *
+     * @return the status code
+     * @throws IOException if the connection fails or the response is malformed
+     */
+    int readResponse() throws IOException {
+        int status;
+        do {
+            status = readHead();
+            // An interim response is followed by the final one
+        } while (status / 100 == 1 && status != 101);
+        if (status == 101 || status == 204 || status == 304) {
+            return status;
+        }
+        if (chunked) {
+            skipChunks();
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            // Delimited by the end of the connection
+            close = true;
+            while (fill() > 0) {
+                position = limit;
+            }
+        }
+        return status;
+    }
+
+    private int readHead() throws IOException {
+        int length = readLine();
+        if (length < 12 || !startsWith(length, "HTTP/1.")) {
+            throw new IOException("Malformed status line");
+        }
+        int status = (int) parseDecimal(9, 12);
+        contentLength = -1;
+        chunked = false;
+        close = line[7] == '0';
+        while ((length = readLine()) > 0) {
+            if (startsWith(length, "content-length:")) {
+                contentLength = parseDecimal(15, length);
+            } else if (startsWith(length, "transfer-encoding:")) {
+                chunked = contains(18, length, "chunked");
+            } else if (startsWith(length, "connection:")) {
+                close = contains(11, length, "close");
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Checks whether the server closes the connection after the last response.
+     *
+     * @return true if the connection cannot be reused
+     */
+    boolean isClose() {
+        return close;
+    }
+
+    private void skipChunks() throws IOException {
+        while (true) {
+            int length = readLine();
+            long size = 0;
+            for (int i = 0; i < length; i++) {
+                int digit = Character.digit(line[i], 16);
+                if (digit < 0) {
+                    break;
+                }
+                size = size * 16 + digit;
+            }
+            if (size == 0) {
+                // Trailer fields up to the empty line
+                while (readLine() > 0) {
+                    // Skipped
+                }
+                return;
+            }
+            skip(size);
+            readLine();
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            if (position == limit && fill() < 0) {
+                throw new EOFException("Connection closed in the middle of a response body");
+            }
+            int skipped = (int) Math.min(count, limit - position);
+            position += skipped;
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads a line without its CRLF into the line buffer.
+     *
+     * @return the length of the line
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit && fill() < 0) {
+                throw new EOFException("Connection closed before a complete response");
+            }
+            byte b = buffer[position++];
+            if (b == '\n') {
+                return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+            }
+            if (length == MAX_LINE) {
+                throw new IOException("Response line too long");
+            }
+            line[length++] = b;
+        }
+    }
+
+    private int fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read;
+    }
+
+    private boolean startsWith(int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(line[i]) != Character.toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean contains(int from, int to, String token) {
+        return new String(line, from, to - from, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT).contains(token);
+    }
+
+    private long parseDecimal(int from, int to) throws IOException {
+        long value = 0;
+        boolean digits = false;
+        for (int i = from; i < to; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                digits = true;
+            } else if (digits || (b != ' ' && b != '\t')) {
+                break;
+            }
+        }
+        if (!digits) {
+            throw new IOException("Malformed number in response");
+        }
+        return value;
+    }
+}
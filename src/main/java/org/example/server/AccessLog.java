@@ -0,0 +1,379 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous access log in the Common or Combined Log Format.
+ *
+ * <p>Workers copy the fields of an exchange into a preallocated slot of a
+ * fixed-size ring buffer and return; a background thread formats the
+ * records in batches into a reusable buffer and appends them to the file.
+ * Neither side takes a lock, and logging does not allocate on the worker
+ * beyond what the request has already decoded. When the ring is full,
+ * records are either dropped and counted, or the worker waits for the
+ * writer.</p>
+ */
+public class AccessLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ROOT);
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long FULL_PARK_NANOS = 10_000;
+    // Escaped client-supplied fields are cut at this many bytes
+    private static final int MAX_FIELD_SIZE = 1024;
+    // Four such fields, and room to spare for the address, time, version and numbers
+    private static final int MAX_LINE_SIZE = 4 * MAX_FIELD_SIZE + 256;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The line format.
+     */
+    public enum Format {
+        /**
+         * host ident authuser [date] "request" status bytes
+         */
+        COMMON,
+
+        /**
+         * The common format followed by the Referer and User-Agent headers.
+         */
+        COMBINED
+    }
+
+    /**
+     * What a worker does when the writer has fallen behind by the whole ring.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the record and count it, see {@link #getDroppedCount()}.
+         */
+        DROP,
+
+        /**
+         * Wait until the writer has freed a slot.
+         */
+        BLOCK
+    }
+
+    /**
+     * A slot of the ring, reused for every record that passes through it.
+     */
+    private static final class Record {
+        long timeMillis;
+        InetSocketAddress remoteAddress;
+        String method;
+        String path;
+        HttpVersion version;
+        int status;
+        long bytes;
+        String referer;
+        String userAgent;
+    }
+
+    private final Format format;
+    private final OverflowPolicy overflowPolicy;
+    private final FileChannel channel;
+    private final Record[] records;
+    private final int mask;
+    // Sequence of the last record written to each slot, -1 while empty
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Owned by the writer thread
+    private final ByteBuffer output = ByteBuffer.allocateDirect(64 * 1024);
+    private final ZoneId zone = ZoneId.systemDefault();
+    private long formattedSecond = Long.MIN_VALUE;
+    private byte[] formattedTime;
+
+    /**
+     * Opens an access log that appends to a file.
+     *
+     * @param file the log file, created if it does not exist
+     * @param format the line format
+     * @param capacity the number of records the ring holds, rounded up to a power of two
+     * @param overflowPolicy what to do when the ring is full
+     * @throws IOException if the file cannot be opened
+     */
+    public AccessLog(Path file, Format format, int capacity, OverflowPolicy overflowPolicy) throws IOException {
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^24");
+        }
+        this.format = format;
+        this.overflowPolicy = overflowPolicy;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.records = new Record[size];
+        for (int i = 0; i < size; i++) {
+            records[i] = new Record();
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.writer = new Thread(this::drain, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a completed exchange.
+     *
+     * @param request the request
+     * @param response the response
+     */
+    public void log(HttpRequest request, HttpResponse response) {
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= records.length) {
+                if (overflowPolicy == OverflowPolicy.DROP || closed) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } else if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        Record record = records[(int) sequence & mask];
+        record.timeMillis = System.currentTimeMillis();
+        record.remoteAddress = request.getRemoteAddress();
+        record.method = request.getMethod();
+        record.path = request.getPath();
+        record.version = request.getHttpVersion();
+        record.status = response.getStatusCode();
+        record.bytes = response.bodyLength();
+        if (format == Format.COMBINED) {
+            record.referer = request.getHeader("Referer");
+            record.userAgent = request.getHeader("User-Agent");
+        }
+        published.lazySet((int) sequence & mask, sequence);
+    }
+
+    /**
+     * Gets the number of records discarded because the ring was full.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the remaining records and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void drain() {
+        long next = 0;
+        while (true) {
+            boolean closing = closed;
+            int index = (int) next & mask;
+            while (published.get(index) == next) {
+                Record record = records[index];
+                try {
+                    write(record);
+                } catch (IOException | RuntimeException e) {
+                    // The record is lost, but the writer carries on with the next
+                    logger.error("Error writing access log", e);
+                }
+                // Let go of the request's strings before the slot is reused
+                record.remoteAddress = null;
+                record.referer = null;
+                record.userAgent = null;
+                next++;
+                consumed.lazySet(next);
+                index = (int) next & mask;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.error("Error writing access log", e);
+            }
+            if (closing && next == claimed.get()) {
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        if (output.remaining() < MAX_LINE_SIZE) {
+            flush();
+        }
+        int lineStart = output.position();
+        try {
+            append(record);
+        } catch (RuntimeException e) {
+            // Drop the partial line, not the ones before it
+            output.position(lineStart);
+            throw e;
+        }
+    }
+
+    private void append(Record record) {
+        InetSocketAddress remote = record.remoteAddress;
+        // The literal address of an accepted connection, without a reverse lookup; an unresolved one has none
+        putAscii(remote != null ? remote.getHostString() : "-");
+        putAscii(" - - [");
+        output.put(formattedTime(record.timeMillis));
+        putAscii("] \"");
+        putText(record.method);
+        output.put((byte) ' ');
+        putText(record.path);
+        output.put((byte) ' ');
+        putAscii(record.version != null ? record.version.text() : "-");
+        putAscii("\" ");
+        putNumber(record.status);
+        output.put((byte) ' ');
+        if (record.bytes > 0) {
+            putNumber(record.bytes);
+        } else {
+            output.put((byte) '-');
+        }
+        if (format == Format.COMBINED) {
+            putAscii(" \"");
+            putText(record.referer != null ? record.referer : "-");
+            putAscii("\" \"");
+            putText(record.userAgent != null ? record.userAgent : "-");
+            output.put((byte) '"');
+        }
+        output.put((byte) '\n');
+    }
+
+    private byte[] formattedTime(long timeMillis) {
+        long second = timeMillis / 1000;
+        if (second != formattedSecond) {
+            formattedSecond = second;
+            formattedTime = TIMESTAMP.format(Instant.ofEpochSecond(second).atZone(zone)).getBytes(StandardCharsets.US_ASCII);
+        }
+        return formattedTime;
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            output.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes client-supplied text, escaping quotes, backslashes and control
+     * characters so that a request cannot forge log lines. Other characters
+     * outside printable ASCII are written as their escaped UTF-8 bytes. The
+     * escaped text is cut at {@link #MAX_FIELD_SIZE} bytes, never inside an
+     * escape.
+     */
+    private void putText(String text) {
+        int end = output.position() + MAX_FIELD_SIZE;
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, text.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                // Has no encoding, replaced as String.getBytes would
+                c = '?';
+            }
+            if (c >= 0x20 && c < 0x7f && c != '"' && c != '\\') {
+                if (output.position() == end) {
+                    return;
+                }
+                output.put((byte) c);
+            } else if (c == '"' || c == '\\') {
+                if (end - output.position() < 2) {
+                    return;
+                }
+                output.put((byte) '\\').put((byte) c);
+            } else if (!putEscaped(c, end)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a code point with every byte as \xNN.
+     *
+     * @return false if the escapes would not fit before the end
+     */
+    private boolean putEscaped(int codePoint, int end) {
+        int length = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+        if (end - output.position() < 4 * length) {
+            return false;
+        }
+        if (length == 1) {
+            putHex(codePoint);
+            return true;
+        }
+        // The lead byte has as many high bits set as the sequence has bytes
+        putHex(0xff00 >> length & 0xff | codePoint >> 6 * (length - 1));
+        for (int shift = 6 * (length - 2); shift >= 0; shift -= 6) {
+            putHex(0x80 | codePoint >> shift & 0x3f);
+        }
+        return true;
+    }
+
+    private void putHex(int value) {
+        output.put((byte) '\\').put((byte) 'x').put(HEX_DIGITS[value >> 4]).put(HEX_DIGITS[value & 0xf]);
+    }
+
+    private void putNumber(long value) {
+        if (value >= 10) {
+            putNumber(value / 10);
+        }
+        output.put((byte) ('0' + value % 10));
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        try {
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+        } finally {
+            // After a failed write the batch is given up, so the buffer takes lines again
+            output.clear();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A request handler that completes its response later, for handlers that
+ * mostly wait on downstream calls. {@link #handleAsync} starts the work and
+ * returns at once; the server sends the response when the returned stage
+ * completes, and on the NIO transport no server thread is held meanwhile.
+ *
+ * <p>The handler may fill the response from any thread, up to the
+ * completion of its stage. The server may call {@code handleAsync} for the
+ * next pipelined request on the thread that completed the stage, so it
+ * should return promptly rather than block. With
+ * {@link ServerConfig#setRequestTimeout} a stage still pending at the
+ * deadline is cancelled and the client gets a 504 Gateway Timeout instead;
+ * the handler must then leave the request and response alone.</p>
+ *
+ * <p>An asynchronous handler is also a {@link RequestHandler}, so it can be
+ * used wherever a synchronous one is expected, for example as a route. The
+ * server only calls {@code handleAsync} on the handler it was created with,
+ * though; nested in another handler it is waited for on the calling
+ * thread.</p>
+ */
+@FunctionalInterface
+public interface AsyncRequestHandler extends RequestHandler {
+
+    /**
+     * Starts handling an HTTP request.
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response to be filled until the stage completes
+     * @return a stage that completes once the response is ready, or completes exceptionally to close the connection
+     */
+    CompletionStage<Void> handleAsync(HttpRequest request, HttpResponse response);
+
+    /**
+     * Handles a request synchronously, waiting for the stage on the calling thread.
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response to be filled
+     */
+    @Override
+    default void handle(HttpRequest request, HttpResponse response) {
+        try {
+            handleAsync(request, response).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Adapts a synchronous handler. The returned handler runs it on the
+     * calling thread and returns an already completed stage.
+     *
+     * @param handler the synchronous handler
+     * @return the handler itself if it is asynchronous already, otherwise the adapter
+     */
+    static AsyncRequestHandler of(RequestHandler handler) {
+        if (handler instanceof AsyncRequestHandler asyncHandler) {
+            return asyncHandler;
+        }
+        CompletionStage<Void> completed = CompletableFuture.completedStage(null);
+        return (request, response) -> {
+            try {
+                handler.handle(request, response);
+                return completed;
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedStage(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, thread-safe pool of equally sized heap or direct buffers.
+ * Buffers may be released from a different thread than the one that
+ * acquired them.
+ */
+class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled the maximum number of idle buffers kept
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, false);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled the maximum number of idle buffers kept
+     * @param direct true for direct buffers, which channels read and write without a copy
+     */
+    BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return a buffer in write mode
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers of a different size, or beyond
+     * the pool limit, are left to the garbage collector.
+     *
+     * @param buffer the buffer, which must not be used afterwards
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || pooled.incrementAndGet() > maxPooled) {
+            if (buffer.capacity() == bufferSize) {
+                pooled.decrementAndGet();
+            }
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Gets the capacity of the pooled buffers.
+     *
+     * @return the buffer size in bytes
+     */
+    int bufferSize() {
+        return bufferSize;
+    }
+}
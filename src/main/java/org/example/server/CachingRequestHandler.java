@@ -0,0 +1,385 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link RequestHandler} decorator that keeps complete responses to GET
+ * requests in memory.
+ *
+ * <p>Entries are keyed by path and the request headers named in the
+ * response's Vary header, bounded by a total byte size with least recently
+ * used eviction, and expire after the response's max-age or a default time
+ * to live. The header names a path varies by are kept as an entry of their
+ * own under the path, so they are evicted and counted like responses.
+ * Responses marked no-store, private or no-cache, responses that set
+ * cookies, streamed responses and non-200 responses are not stored.
+ * Concurrent misses for the same key are coalesced, so the delegate runs once
+ * and the other requests wait for its result.</p>
+ */
+public class CachingRequestHandler implements RequestHandler {
+    // Per-exchange headers that must not be replayed from the cache
+    private static final String[] HOP_BY_HOP = {"Connection", "Content-Length", "Keep-Alive"};
+    private static final String[] NO_VARY = new String[0];
+
+    private final RequestHandler delegate;
+    private final long maxBytes;
+    private final long defaultTtlNanos;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * A stored response, or the Vary header names of the responses stored
+     * for a path.
+     */
+    private static final class Entry {
+        final int statusCode;
+        final String statusMessage;
+        final HttpHeaders headers;
+        final ByteBuffer body;
+        final String[] varyValues;
+        // Only set on the entry that holds a path's Vary header names
+        final String[] varyNames;
+        final long expiresAt;
+        final long size;
+
+        Entry(String path, String[] varyNames, long expiresAt) {
+            this.statusCode = 0;
+            this.statusMessage = null;
+            this.headers = null;
+            this.body = null;
+            this.varyValues = NO_VARY;
+            this.varyNames = varyNames;
+            this.expiresAt = expiresAt;
+            long size = path.length();
+            for (String name : varyNames) {
+                size += name.length() + 2;
+            }
+            this.size = size;
+        }
+
+        Entry(HttpResponse response, String[] varyValues, long expiresAt) {
+            this.statusCode = response.getStatusCode();
+            this.statusMessage = response.getStatusMessage();
+            this.headers = new HttpHeaders(response.getHttpHeaders());
+            for (String name : HOP_BY_HOP) {
+                headers.remove(name);
+            }
+            ByteBuffer source = response.getBodyBuffer();
+            this.body = ByteBuffer.allocate(source.remaining()).put(source).flip().asReadOnlyBuffer();
+            this.varyValues = varyValues;
+            this.varyNames = null;
+            this.expiresAt = expiresAt;
+            long headerBytes = 0;
+            for (int i = 0; i < headers.size(); i++) {
+                headerBytes += headers.name(i).length() + headers.value(i).length() + 4;
+            }
+            this.size = body.capacity() + headerBytes;
+        }
+
+        void applyTo(HttpResponse response) {
+            response.setStatus(statusCode, statusMessage);
+            response.getHttpHeaders().setAll(headers);
+            response.setBody(body.duplicate());
+        }
+    }
+
+    /**
+     * Creates a caching handler.
+     *
+     * @param delegate the handler producing responses on a miss
+     * @param maxBytes the maximum total size of stored bodies and headers
+     * @param defaultTtl how long responses without max-age are kept
+     */
+    public CachingRequestHandler(RequestHandler delegate, long maxBytes, Duration defaultTtl) {
+        this(delegate, maxBytes, defaultTtl, System::nanoTime);
+    }
+
+    CachingRequestHandler(RequestHandler delegate, long maxBytes, Duration defaultTtl, LongSupplier clock) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.defaultTtlNanos = defaultTtl.toNanos();
+        this.clock = clock;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) {
+        HttpMethod method = request.getHttpMethod();
+        String requestCacheControl = request.getHeader("Cache-Control");
+        if ((method != HttpMethod.GET && method != HttpMethod.HEAD) || hasDirective(requestCacheControl, "no-store")) {
+            delegate.handle(request, response);
+            return;
+        }
+
+        // HEAD is answered from GET entries; the server drops the body
+        String path = request.getPath();
+        String[] varyNames = storedVaryNames(path);
+        String[] varyValues = varyValues(request, varyNames);
+        String key = key(path, varyValues);
+
+        if (!hasDirective(requestCacheControl, "no-cache")) {
+            Entry entry = lookup(key, varyValues);
+            if (entry != null) {
+                hits.increment();
+                entry.applyTo(response);
+                return;
+            }
+        }
+        misses.increment();
+
+        if (method == HttpMethod.HEAD) {
+            delegate.handle(request, response);
+            return;
+        }
+
+        CompletableFuture<Entry> loading = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inFlight.putIfAbsent(key, loading);
+        if (existing != null) {
+            Entry entry = existing.join();
+            if (entry != null && Arrays.equals(entry.varyValues, varyValues(request, varyNames(entry.headers.get("Vary"))))) {
+                entry.applyTo(response);
+            } else {
+                delegate.handle(request, response);
+            }
+            return;
+        }
+
+        Entry entry = null;
+        try {
+            delegate.handle(request, response);
+            entry = store(path, request, response);
+        } finally {
+            inFlight.remove(key, loading);
+            loading.complete(entry);
+        }
+    }
+
+    private String[] storedVaryNames(String path) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(path);
+            if (entry == null || entry.varyNames == null) {
+                return NO_VARY;
+            }
+            if (entry.expiresAt - clock.getAsLong() <= 0) {
+                remove(path);
+                return NO_VARY;
+            }
+            return entry.varyNames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry lookup(String key, String[] varyValues) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.varyNames != null) {
+                return null;
+            }
+            if (entry.expiresAt - clock.getAsLong() <= 0 || !Arrays.equals(entry.varyValues, varyValues)) {
+                remove(key);
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry store(String path, HttpRequest request, HttpResponse response) {
+        if (response.getStatusCode() != 200 || response.hasFileBody() || response.isStreaming()
+                || response.getHeader("Set-Cookie") != null) {
+            return null;
+        }
+        String cacheControl = response.getHeader("Cache-Control");
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")
+                || hasDirective(cacheControl, "no-cache")) {
+            return null;
+        }
+        long ttl = ttlNanos(cacheControl);
+        if (ttl <= 0) {
+            return null;
+        }
+
+        String vary = response.getHeader("Vary");
+        if (vary != null && vary.trim().equals("*")) {
+            return null;
+        }
+        String[] varyNames = varyNames(vary);
+        String[] varyValues = varyValues(request, varyNames);
+        long expiresAt = clock.getAsLong() + ttl;
+        Entry entry = new Entry(response, varyValues, expiresAt);
+        Entry names = varyNames.length == 0 ? null : new Entry(path, varyNames, expiresAt);
+        if (entry.size + (names == null ? 0 : names.size) > maxBytes) {
+            return entry;
+        }
+
+        String key = key(path, varyValues);
+        lock.lock();
+        try {
+            if (names != null) {
+                put(path, names);
+            }
+            put(key, entry);
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                currentBytes -= eldest.next().getValue().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entry;
+    }
+
+    private void put(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        currentBytes += entry.size;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.size;
+        }
+    }
+
+    private long ttlNanos(String cacheControl) {
+        if (cacheControl != null) {
+            for (String directive : new String[] {"s-maxage=", "max-age="}) {
+                int index = cacheControl.toLowerCase(Locale.ROOT).indexOf(directive);
+                if (index >= 0) {
+                    String value = cacheControl.substring(index + directive.length()).split(",")[0].trim();
+                    try {
+                        return Duration.ofSeconds(Long.parseLong(value)).toNanos();
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return defaultTtlNanos;
+    }
+
+    private static String[] varyNames(String vary) {
+        if (vary == null) {
+            return new String[0];
+        }
+        return Arrays.stream(vary.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+
+    private static String[] varyValues(HttpRequest request, String[] varyNames) {
+        String[] values = new String[varyNames.length];
+        for (int i = 0; i < varyNames.length; i++) {
+            values[i] = request.getHeader(varyNames[i]);
+        }
+        return values;
+    }
+
+    private static String key(String path, String[] varyValues) {
+        if (varyValues.length == 0) {
+            return path;
+        }
+        StringBuilder key = new StringBuilder(path);
+        for (String value : varyValues) {
+            // Marks an absent header apart from any value it could have
+            key.append('\n');
+            if (value == null) {
+                key.append('-');
+            } else {
+                key.append('=').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String part : cacheControl.split(",")) {
+            if (part.trim().equalsIgnoreCase(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of requests answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of cacheable requests that had to run the delegate,
+     * including requests that were coalesced with a concurrent miss.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of entries evicted to stay within the size limit.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the total size of the stored entries.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        lock.lock();
+        try {
+            return currentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of stored entries.
+     *
+     * @return the entry count
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for the chunked transfer coding. Like the request
+ * parser it can be fed arbitrary fragments of the byte stream; chunk
+ * extensions and trailer fields are skipped.
+ */
+class ChunkedDecoder {
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+    private enum State { SIZE, EXTENSION, DATA, DATA_END, TRAILER, DONE }
+
+    private State state = State.SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+    private long chunkRemaining;
+    private int lineLength;
+
+    /**
+     * Decodes bytes from the input into the output array. Stops when the
+     * output is full, the input is exhausted or the last chunk and trailer
+     * have been read. Bytes after the end of the body are left in the input.
+     *
+     * @param input the encoded bytes, in read mode
+     * @param output the array receiving decoded bytes
+     * @param offset the position of the first decoded byte in the array
+     * @param length the maximum number of bytes to decode
+     * @return the number of decoded bytes, possibly 0
+     * @throws HttpParseException if the encoding is malformed
+     */
+    int decode(ByteBuffer input, byte[] output, int offset, int length) throws HttpParseException {
+        int decoded = 0;
+        while (input.hasRemaining() && state != State.DONE) {
+            if (state == State.DATA) {
+                int count = (int) Math.min(Math.min(chunkRemaining, input.remaining()), length - decoded);
+                if (count == 0) {
+                    break;
+                }
+                input.get(output, offset + decoded, count);
+                decoded += count;
+                chunkRemaining -= count;
+                if (chunkRemaining == 0) {
+                    state = State.DATA_END;
+                }
+                continue;
+            }
+            onFramingByte(input.get());
+        }
+        return decoded;
+    }
+
+    /**
+     * Checks whether the terminating chunk and trailer have been read.
+     *
+     * @return true once the body is complete
+     */
+    boolean isFinished() {
+        return state == State.DONE;
+    }
+
+    private void onFramingByte(byte b) throws HttpParseException {
+        if (b != '\n' && ++lineLength > MAX_LINE_LENGTH) {
+            throw HttpParseException.badRequest("Chunk framing line too long");
+        }
+        switch (state) {
+            case SIZE -> {
+                int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (++sizeDigits > 15) {
+                        throw new HttpParseException(413, "Content Too Large", "Chunk size too large");
+                    }
+                    chunkSize = chunkSize * 16 + digit;
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = State.EXTENSION;
+                } else if (b == '\n') {
+                    endSizeLine();
+                } else if (b != '\r') {
+                    throw HttpParseException.badRequest("Invalid chunk size");
+                }
+            }
+            case EXTENSION -> {
+                if (b == '\n') {
+                    endSizeLine();
+                }
+            }
+            case DATA_END -> {
+                if (b == '\n') {
+                    state = State.SIZE;
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    throw HttpParseException.badRequest("Missing line break after chunk data");
+                }
+            }
+            case TRAILER -> {
+                if (b == '\n') {
+                    // An empty line ends the trailer section
+                    state = lineLength == 0 ? State.DONE : State.TRAILER;
+                    lineLength = 0;
+                } else if (b == '\r') {
+                    lineLength--;
+                }
+            }
+            default -> throw new IllegalStateException("Unexpected state " + state);
+        }
+    }
+
+    private void endSizeLine() throws HttpParseException {
+        if (sizeDigits == 0) {
+            throw HttpParseException.badRequest("Missing chunk size");
+        }
+        lineLength = 0;
+        chunkRemaining = chunkSize;
+        state = chunkSize == 0 ? State.TRAILER : State.DATA;
+        chunkSize = 0;
+        sizeDigits = 0;
+    }
+}
@@ -0,0 +1,349 @@
+package org.example.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link RequestHandler} decorator that compresses response bodies with
+ * gzip or deflate, as negotiated from the request's Accept-Encoding header.
+ *
+ * <p>Only text-like content types of at least a minimum size are compressed;
+ * images, archives and bodies that already carry a Content-Encoding are left
+ * alone, as are file and streamed bodies. Compressed variants of cacheable
+ * responses are kept in a bounded least recently used cache, keyed by path
+ * and encoding and validated against the response's strong ETag or its
+ * uncompressed bytes, so a hot response is compressed once.</p>
+ */
+public class CompressingRequestHandler implements RequestHandler {
+    /**
+     * The default minimum body size worth compressing.
+     */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    /**
+     * The default size of the compressed variant cache.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final String[] COMPRESSIBLE_TYPES = {
+        "text/", "application/json", "application/javascript", "application/xml", "application/xhtml+xml",
+        "image/svg+xml"
+    };
+
+    /**
+     * A supported content coding, with a pool of deflaters. Connections may
+     * run on virtual threads, so a deflater per thread would mean one per
+     * connection; the pool keeps about as many as are in use at once.
+     */
+    private enum Encoding {
+        GZIP("gzip", true),
+        DEFLATE("deflate", false);
+
+        private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 2;
+
+        final String token;
+        private final boolean nowrap;
+        private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        Encoding(String token, boolean nowrap) {
+            this.token = token;
+            this.nowrap = nowrap;
+        }
+
+        Deflater acquire() {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+            }
+            pooled.decrementAndGet();
+            return deflater;
+        }
+
+        void release(Deflater deflater) {
+            if (pooled.incrementAndGet() > MAX_POOLED) {
+                pooled.decrementAndGet();
+                deflater.end();
+                return;
+            }
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    /**
+     * A cached compressed variant.
+     */
+    private static final class Variant {
+        final String etag;
+        // The uncompressed body, kept only when there is no strong ETag to compare
+        final ByteBuffer source;
+        final byte[] compressed;
+        final long size;
+
+        Variant(String etag, ByteBuffer source, byte[] compressed) {
+            this.etag = etag;
+            this.source = source;
+            this.compressed = compressed;
+            this.size = compressed.length + (source != null ? source.capacity() : 0);
+        }
+
+        boolean matches(String etag, ByteBuffer body) {
+            return this.etag != null ? this.etag.equals(etag) : source.equals(body);
+        }
+    }
+
+    private final RequestHandler delegate;
+    private final int minSize;
+    private final long maxCacheBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes;
+
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * Creates a compressing handler with the default minimum size and cache size.
+     *
+     * @param delegate the handler producing the responses
+     */
+    public CompressingRequestHandler(RequestHandler delegate) {
+        this(delegate, DEFAULT_MIN_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a compressing handler.
+     *
+     * @param delegate the handler producing the responses
+     * @param minSize the minimum body size to compress, smaller bodies are sent as they are
+     * @param maxCacheBytes the maximum total size of cached variants, 0 to disable the cache
+     */
+    public CompressingRequestHandler(RequestHandler delegate, int minSize, long maxCacheBytes) {
+        if (minSize < 0 || maxCacheBytes < 0) {
+            throw new IllegalArgumentException("Sizes must not be negative");
+        }
+        this.delegate = delegate;
+        this.minSize = minSize;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) {
+        delegate.handle(request, response);
+        if (!isCompressible(response)) {
+            return;
+        }
+
+        // Whatever this client gets, others may get a different representation
+        String vary = response.getHeader("Vary");
+        if (vary == null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase(Locale.ROOT).contains("accept-encoding")) {
+            response.setHeader("Vary", vary + ", Accept-Encoding");
+        }
+
+        Encoding encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return;
+        }
+        ByteBuffer body = response.getBodyBuffer();
+        byte[] compressed = isCacheable(response)
+                ? variant(request.getPath(), encoding, response.getHeader("ETag"), body)
+                : compress(body, encoding);
+        if (compressed.length >= body.remaining()) {
+            return;
+        }
+
+        response.setBody(compressed);
+        response.setHeader("Content-Encoding", encoding.token);
+        String etag = response.getHeader("ETag");
+        if (etag != null && etag.endsWith("\"")) {
+            // The compressed representation needs its own validator
+            response.setHeader("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding.token + "\"");
+        }
+    }
+
+    private boolean isCompressible(HttpResponse response) {
+        int status = response.getStatusCode();
+        if (status < 200 || status == 204 || status == 206 || status == 304) {
+            return false;
+        }
+        if (response.hasFileBody() || response.isStreaming() || response.getHeader("Content-Encoding") != null
+                || response.getBodyBuffer().remaining() < minSize) {
+            return false;
+        }
+        String contentType = response.getHeader("Content-Type");
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        for (String compressible : COMPRESSIBLE_TYPES) {
+            if (type.startsWith(compressible)) {
+                return true;
+            }
+        }
+        return type.contains("+json") || type.contains("+xml");
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.ROOT);
+            if (directives.contains("no-store") || directives.contains("private")) {
+                return false;
+            }
+        }
+        return response.getHeader("Set-Cookie") == null;
+    }
+
+    /**
+     * Chooses the encoding the client prefers, gzip on a tie.
+     *
+     * @param acceptEncoding the Accept-Encoding header, may be null
+     * @return the encoding, or null if the body should be sent as it is
+     */
+    private static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = quality;
+                case "deflate" -> deflate = quality;
+                case "*" -> any = quality;
+                default -> {
+                    // Not supported
+                }
+            }
+        }
+        // Codings that are not listed explicitly take the quality of the wildcard
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+    }
+
+    private byte[] variant(String path, Encoding encoding, String etag, ByteBuffer body) {
+        if (etag != null && etag.startsWith("W/")) {
+            // Weak validators do not promise identical bytes
+            etag = null;
+        }
+        String key = path + '\n' + encoding.token;
+        lock.lock();
+        try {
+            Variant variant = variants.get(key);
+            if (variant != null && variant.matches(etag, body)) {
+                cacheHits.increment();
+                return variant.compressed;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        byte[] compressed = compress(body, encoding);
+        ByteBuffer source = etag == null ? ByteBuffer.allocate(body.remaining()).put(body.duplicate()).flip() : null;
+        Variant variant = new Variant(etag, source, compressed);
+        if (variant.size > maxCacheBytes) {
+            return compressed;
+        }
+        lock.lock();
+        try {
+            Variant replaced = variants.put(key, variant);
+            if (replaced != null) {
+                cacheBytes -= replaced.size;
+            }
+            cacheBytes += variant.size;
+            Iterator<Variant> eldest = variants.values().iterator();
+            while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+                cacheBytes -= eldest.next().size;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return compressed;
+    }
+
+    private byte[] compress(ByteBuffer body, Encoding encoding) {
+        compressions.increment();
+        Deflater deflater = encoding.acquire();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.remaining() / 4));
+            if (encoding == Encoding.GZIP) {
+                out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            }
+            deflater.setInput(body.duplicate());
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            if (encoding == Encoding.GZIP) {
+                CRC32 crc = new CRC32();
+                crc.update(body.duplicate());
+                writeIntLittleEndian(out, (int) crc.getValue());
+                writeIntLittleEndian(out, body.remaining());
+            }
+            return out.toByteArray();
+        } finally {
+            encoding.release(deflater);
+        }
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Gets the number of bodies compressed, not counting cache hits.
+     *
+     * @return the compression count
+     */
+    public long getCompressionCount() {
+        return compressions.sum();
+    }
+
+    /**
+     * Gets the number of responses served from the compressed variant cache.
+     *
+     * @return the cache hit count
+     */
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An adaptive limit on concurrent requests using additive increase and
+ * multiplicative decrease (AIMD), as in TCP congestion control. While
+ * requests complete within the latency target and the limit is in use, it
+ * grows by about one per limit's worth of completions; a request over the
+ * target cuts it by a tenth, at most once per target interval so that one
+ * slow burst does not collapse it.
+ */
+class ConcurrencyLimiter {
+    private static final double BACKOFF = 0.9;
+
+    private final long targetNanos;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // The limit as double bits, so that additive steps below 1 accumulate
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecrease;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param targetNanos the latency target in nanoseconds
+     * @param initialLimit the starting limit
+     * @param minLimit the lowest the limit may fall to, at least 1
+     * @param maxLimit the highest the limit may grow to
+     */
+    ConcurrencyLimiter(long targetNanos, int initialLimit, int minLimit, int maxLimit) {
+        this.targetNanos = targetNanos;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        this.lastDecrease = new AtomicLong(System.nanoTime() - targetNanos);
+    }
+
+    /**
+     * Admits a request if the limit allows.
+     *
+     * @return true if the request may run; it must then call {@link #release(long)}
+     */
+    boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > getLimit()) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends an admitted request and adapts the limit to its latency.
+     *
+     * @param nanos the latency of the request
+     */
+    void release(long nanos) {
+        int concurrent = inFlight.getAndDecrement();
+        if (nanos > targetNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last >= targetNanos && lastDecrease.compareAndSet(last, now)) {
+                update(limit -> Math.max(minLimit, limit * BACKOFF));
+            }
+        } else if (concurrent * 2 >= getLimit()) {
+            // Only grow a limit that is actually being used
+            update(limit -> Math.min(maxLimit, limit + 1 / limit));
+        }
+    }
+
+    private void update(DoubleUnaryOperator function) {
+        while (true) {
+            long bits = limitBits.get();
+            double next = function.applyAsDouble(Double.longBitsToDouble(bits));
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return the number of requests that may run at once
+     */
+    int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    /**
+     * Gets the number of admitted requests still running.
+     *
+     * @return the in-flight count
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+}
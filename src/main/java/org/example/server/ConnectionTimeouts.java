@@ -0,0 +1,255 @@
+package org.example.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The input of a connection on the blocking transport, enforcing the read
+ * timeouts of the phase the connection is in, and the deadline of its writes.
+ *
+ * <p>Before each read the socket timeout is set to what is left of the
+ * current phase: the keep-alive timeout while waiting for a request, the
+ * header read timeout once its first byte has arrived, and the body read
+ * timeout while a handler reads the body. With a minimum data rate a read
+ * also ends when waiting any longer would put the client below it. A read
+ * that times out within a request fails with a 408 {@link HttpParseException},
+ * which the parser and the body stream report like a malformed request.</p>
+ *
+ * <p>A blocking write cannot time out by itself. Writes are bracketed by
+ * {@link #beginWrite()} and {@link #endWrite()} instead, and the server
+ * periodically closes the socket under a write that has taken too long.</p>
+ */
+class ConnectionTimeouts extends FilterInputStream {
+    private enum Phase { REQUEST, BODY, FRAMES }
+
+    private final Socket socket;
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final byte[] single = new byte[1];
+    private HttpRequestParser parser;
+    // Tells whether an HTTP/2 connection has no stream in progress
+    private BooleanSupplier framesIdle;
+    private volatile Phase phase = Phase.REQUEST;
+    // Start of the current request head, 0 while waiting for its first byte
+    private long headStart;
+    // Bytes received and milliseconds spent waiting for them in the current phase
+    private long received;
+    private long waited;
+    // Set while blocked in a read that waits for the first byte of a request, or for a frame
+    private volatile boolean waiting;
+    // Start of the write in progress, 0 if none
+    private volatile long writeStart;
+    private volatile boolean writeExpired;
+
+    /**
+     * Creates the input of a newly accepted connection. The head of its
+     * first request is timed from now, so a client that connects and sends
+     * nothing does not get the longer keep-alive timeout.
+     *
+     * @param socket the client socket
+     * @param in the socket's input stream
+     * @param config the server configuration
+     * @param metrics receives the timeouts
+     */
+    ConnectionTimeouts(Socket socket, InputStream in, ServerConfig config, ServerMetrics metrics) {
+        super(in);
+        this.socket = socket;
+        this.config = config;
+        this.metrics = metrics;
+        this.headStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the parser of the connection, which tells whether a request has started.
+     *
+     * @param parser the parser
+     */
+    void setParser(HttpRequestParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Starts waiting for the next request, after the responses to the previous ones were sent.
+     */
+    void awaitRequest() {
+        phase = Phase.REQUEST;
+        headStart = 0;
+        received = 0;
+        waited = 0;
+    }
+
+    /**
+     * Switches to the body of a request whose head is complete.
+     */
+    void readBody() {
+        phase = Phase.BODY;
+        received = 0;
+        waited = 0;
+    }
+
+    /**
+     * Switches to HTTP/2 frames, which are read with the keep-alive timeout
+     * as the connection's own idle detection expects.
+     *
+     * @param idle tells whether no stream is in progress
+     */
+    void readFrames(BooleanSupplier idle) {
+        framesIdle = idle;
+        phase = Phase.FRAMES;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long now = System.currentTimeMillis();
+        if (phase == Phase.FRAMES) {
+            socket.setSoTimeout(config.getKeepAliveTimeoutMillis());
+            waiting = true;
+            try {
+                return in.read(b, off, len);
+            } finally {
+                waiting = false;
+            }
+        }
+        ServerMetrics.Timeout kind;
+        long timeout;
+        if (phase == Phase.BODY) {
+            kind = ServerMetrics.Timeout.BODY;
+            timeout = config.getBodyReadTimeoutMillis();
+        } else if (headStart == 0 && (parser == null || parser.isIdle())) {
+            kind = ServerMetrics.Timeout.IDLE;
+            // Without keep-alive no further request is awaited, this only covers leftovers of the last one
+            timeout = config.isKeepAliveEnabled() ? config.getKeepAliveTimeoutMillis() : config.getHeaderReadTimeoutMillis();
+        } else {
+            if (headStart == 0) {
+                // Part of the head arrived with the previous request
+                headStart = now;
+            }
+            kind = ServerMetrics.Timeout.HEADER;
+            timeout = headStart + config.getHeaderReadTimeoutMillis() - now;
+        }
+        int minDataRate = config.getMinDataRate();
+        if (kind != ServerMetrics.Timeout.IDLE && minDataRate > 0) {
+            // The client falls below the rate once it has been waited for longer than its bytes allow
+            long allowed = Math.max(config.getMinDataRateGracePeriodMillis(), received * 1000 / minDataRate) - waited;
+            if (allowed < timeout) {
+                timeout = allowed;
+                kind = ServerMetrics.Timeout.MIN_DATA_RATE;
+            }
+        }
+        if (timeout <= 0) {
+            throw timedOut(kind);
+        }
+        socket.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+        // Also a new connection that has sent nothing yet, although it is timed like a request head
+        waiting = phase == Phase.REQUEST && (parser == null || parser.isIdle());
+        int read;
+        try {
+            read = in.read(b, off, len);
+        } catch (SocketTimeoutException e) {
+            throw timedOut(kind);
+        } finally {
+            waiting = false;
+            if (kind != ServerMetrics.Timeout.IDLE) {
+                waited += System.currentTimeMillis() - now;
+            }
+        }
+        if (read > 0) {
+            if (kind == ServerMetrics.Timeout.IDLE) {
+                headStart = System.currentTimeMillis();
+            }
+            received += read;
+        }
+        return read;
+    }
+
+    private IOException timedOut(ServerMetrics.Timeout kind) {
+        metrics.connectionTimedOut(kind);
+        return switch (kind) {
+            case IDLE -> new SocketTimeoutException("No request within the keep-alive timeout");
+            case HEADER -> HttpParseException.requestTimeout("Request head not received within "
+                    + config.getHeaderReadTimeoutMillis() + " ms");
+            case BODY -> HttpParseException.requestTimeout("Request body stalled for "
+                    + config.getBodyReadTimeoutMillis() + " ms");
+            default -> HttpParseException.requestTimeout("Request sent below " + config.getMinDataRate()
+                    + " bytes per second");
+        };
+    }
+
+    /**
+     * Checks whether the connection waits for a new request, or for a frame
+     * of an HTTP/2 connection without streams, so that closing it loses nothing.
+     *
+     * @return true if the connection is idle
+     */
+    boolean isIdle() {
+        return waiting && (phase != Phase.FRAMES || framesIdle.getAsBoolean());
+    }
+
+    /**
+     * Marks the start of a blocking write.
+     */
+    void beginWrite() {
+        writeStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the end of a blocking write.
+     */
+    void endWrite() {
+        writeStart = 0;
+    }
+
+    /**
+     * Closes the socket if the write in progress has taken longer than the
+     * write timeout, which makes the write fail. Called by the server's sweep.
+     *
+     * @param now the current time in milliseconds
+     */
+    void closeIfWriteExpired(long now) {
+        long start = writeStart;
+        if (start != 0 && now - start > config.getWriteTimeoutMillis() && !writeExpired) {
+            writeExpired = true;
+            metrics.connectionTimedOut(ServerMetrics.Timeout.WRITE);
+            close();
+        }
+    }
+
+    /**
+     * Checks whether the connection was closed because a write took too long.
+     *
+     * @return true after a write timeout
+     */
+    boolean isWriteExpired() {
+        return writeExpired;
+    }
+
+    /**
+     * Gets the client socket.
+     *
+     * @return the socket
+     */
+    Socket socket() {
+        return socket;
+    }
+
+    /**
+     * Closes the socket, failing any read or write in progress.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.server;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Spare request and response objects of one connection. Once the responses
+ * of a batch have been written, the exchanges are reset and kept for the
+ * next batch, so a persistent connection in steady state reuses the same
+ * objects, header buffers and maps instead of allocating them per request.
+ *
+ * <p>The pool is not thread-safe. A connection hands its batch from thread
+ * to thread, but only one of them works on it at a time, and the handoffs
+ * (executor submission, event loop tasks) order the accesses.</p>
+ */
+class ExchangePool {
+    // Enough for a full pipelined batch, see ServerConfig.getMaxPipelineDepth()
+    private static final int MAX_SPARE = 16;
+
+    private final ArrayDeque<HttpRequest> requests = new ArrayDeque<>();
+    private final ArrayDeque<HttpResponse> responses = new ArrayDeque<>();
+
+    /**
+     * Takes a request to fill, allocating one if none is spare.
+     *
+     * @return an empty request
+     */
+    HttpRequest request() {
+        HttpRequest request = requests.poll();
+        return request != null ? request : new HttpRequest();
+    }
+
+    /**
+     * Takes a response in its initial state, allocating one if none is spare.
+     *
+     * @return a 200 OK response without a body
+     */
+    HttpResponse response() {
+        HttpResponse response = responses.poll();
+        return response != null ? response : new HttpResponse();
+    }
+
+    /**
+     * Returns the exchanges of a batch whose responses have been written.
+     * Neither the requests nor the responses may be used afterwards.
+     *
+     * @param batch the requests
+     * @param sent the responses
+     */
+    void recycle(List<HttpRequest> batch, List<HttpResponse> sent) {
+        for (HttpRequest request : batch) {
+            if (requests.size() < MAX_SPARE) {
+                request.recycle();
+                requests.push(request);
+            }
+        }
+        for (HttpResponse response : sent) {
+            if (responses.size() < MAX_SPARE) {
+                response.reset();
+                responses.push(response);
+            } else {
+                response.closeFile();
+            }
+        }
+    }
+}
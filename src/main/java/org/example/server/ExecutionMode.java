@@ -0,0 +1,17 @@
+package org.example.server;
+
+/**
+ * How an {@link HttpServer} runs connection and request handling work.
+ */
+public enum ExecutionMode {
+    /**
+     * A fixed pool of platform threads, sized by {@link ServerConfig#setWorkerThreads(int)}.
+     */
+    PLATFORM_POOL,
+
+    /**
+     * A new virtual thread per task. Handlers that block on I/O release their
+     * carrier thread, so the number of concurrent connections is not capped by a pool size.
+     */
+    VIRTUAL_THREADS
+}
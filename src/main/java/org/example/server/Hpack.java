@@ -0,0 +1,510 @@
+package org.example.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541).
+ *
+ * <p>Both directions share the static table and the Huffman code. A
+ * {@link Decoder} reads the header blocks of one connection and an
+ * {@link Encoder} writes them; each keeps a dynamic table that the peer
+ * mirrors, so blocks must be processed in exactly the order they are sent
+ * and neither side may be shared between connections.</p>
+ */
+final class Hpack {
+    /**
+     * The dynamic table size both sides start with, and the most either
+     * side of this server uses.
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    // Added to the length of name and value when sizing table entries
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final int STATIC_TABLE_LENGTH = 61;
+
+    // Index 0 is unused, the tables are 1-based
+    private static final String[] STATIC_NAMES = {
+        null, ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme", ":status", ":status",
+        ":status", ":status", ":status", ":status", ":status", "accept-charset", "accept-encoding",
+        "accept-language", "accept-ranges", "accept", "access-control-allow-origin", "age", "allow",
+        "authorization", "cache-control", "content-disposition", "content-encoding", "content-language",
+        "content-length", "content-location", "content-range", "content-type", "cookie", "date", "etag", "expect",
+        "expires", "from", "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+        "if-unmodified-since", "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+        "proxy-authorization", "range", "referer", "refresh", "retry-after", "server", "set-cookie",
+        "strict-transport-security", "transfer-encoding", "user-agent", "vary", "via", "www-authenticate"
+    };
+    private static final String[] STATIC_VALUES = new String[STATIC_TABLE_LENGTH + 1];
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+
+    // Code lengths of the canonical Huffman code by symbol, 256 being EOS (RFC 7541, Appendix B)
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+    private static final int EOS = 256;
+    private static final int MAX_CODE_LENGTH = 30;
+    private static final int[] HUFFMAN_CODES = new int[EOS + 1];
+    // Canonical decoding: per code length, its first code, the number of codes and where its symbols start
+    private static final int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] CODE_COUNT = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] FIRST_SYMBOL = new int[MAX_CODE_LENGTH + 1];
+    private static final int[] SYMBOLS = new int[EOS + 1];
+
+    static {
+        STATIC_VALUES[2] = "GET";
+        STATIC_VALUES[3] = "POST";
+        STATIC_VALUES[4] = "/";
+        STATIC_VALUES[5] = "/index.html";
+        STATIC_VALUES[6] = "http";
+        STATIC_VALUES[7] = "https";
+        String[] statuses = {"200", "204", "206", "304", "400", "404", "500"};
+        System.arraycopy(statuses, 0, STATIC_VALUES, 8, statuses.length);
+        STATIC_VALUES[16] = "gzip, deflate";
+        for (int i = 1; i <= STATIC_TABLE_LENGTH; i++) {
+            if (STATIC_VALUES[i] == null) {
+                STATIC_VALUES[i] = "";
+            }
+            STATIC_NAME_INDEX.putIfAbsent(STATIC_NAMES[i], i);
+            STATIC_FIELD_INDEX.put(fieldKey(STATIC_NAMES[i], STATIC_VALUES[i]), i);
+        }
+
+        // The code is canonical, so the lengths determine every code
+        int next = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            FIRST_SYMBOL[length] = next;
+            for (int symbol = 0; symbol <= EOS; symbol++) {
+                if (HUFFMAN_LENGTHS[symbol] == length) {
+                    SYMBOLS[next++] = symbol;
+                    CODE_COUNT[length]++;
+                }
+            }
+        }
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            FIRST_CODE[length] = code;
+            for (int i = 0; i < CODE_COUNT[length]; i++) {
+                HUFFMAN_CODES[SYMBOLS[FIRST_SYMBOL[length] + i]] = code + i;
+            }
+            code = (code + CODE_COUNT[length]) << 1;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    private static String fieldKey(String name, String value) {
+        return name + '\0' + value;
+    }
+
+    private static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Decodes the header blocks received on a connection.
+     */
+    static final class Decoder {
+        private final DynamicTable table;
+        // The table size advertised to the peer, which its updates may not exceed
+        private final int maxTableSize;
+        private byte[] data;
+        private int position;
+        private int end;
+
+        /**
+         * Creates a decoder.
+         *
+         * @param maxTableSize the SETTINGS_HEADER_TABLE_SIZE sent to the peer
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.table = new DynamicTable(maxTableSize);
+        }
+
+        /**
+         * Decodes a complete header block.
+         *
+         * @param block the buffer holding the block
+         * @param offset the start of the block
+         * @param length the length of the block
+         * @return the field names and values, alternating, in block order
+         * @throws Http2Exception a connection error if the block is malformed
+         */
+        List<String> decode(byte[] block, int offset, int length) throws Http2Exception {
+            data = block;
+            position = offset;
+            end = offset + length;
+            List<String> fields = new ArrayList<>();
+            try {
+                while (position < end) {
+                    int first = data[position] & 0xff;
+                    if ((first & 0x80) != 0) {
+                        int index = readInteger(7);
+                        fields.add(name(index));
+                        fields.add(value(index));
+                    } else if ((first & 0x40) != 0) {
+                        readLiteral(6, true, fields);
+                    } else if ((first & 0x20) != 0) {
+                        if (!fields.isEmpty()) {
+                            throw error("Table size update after a header field");
+                        }
+                        int size = readInteger(5);
+                        if (size > maxTableSize) {
+                            throw error("Table size update above the advertised limit");
+                        }
+                        table.setMaxSize(size);
+                    } else {
+                        // Without indexing or never indexed, the same to a decoder
+                        readLiteral(4, false, fields);
+                    }
+                }
+            } finally {
+                data = null;
+            }
+            return fields;
+        }
+
+        private void readLiteral(int prefixBits, boolean indexing, List<String> fields) throws Http2Exception {
+            int index = readInteger(prefixBits);
+            String name = index == 0 ? readString() : name(index);
+            String value = readString();
+            if (indexing) {
+                table.add(name, value);
+            }
+            fields.add(name);
+            fields.add(value);
+        }
+
+        private String name(int index) throws Http2Exception {
+            if (index >= 1 && index <= STATIC_TABLE_LENGTH) {
+                return STATIC_NAMES[index];
+            }
+            return table.name(dynamicIndex(index));
+        }
+
+        private String value(int index) throws Http2Exception {
+            if (index >= 1 && index <= STATIC_TABLE_LENGTH) {
+                return STATIC_VALUES[index];
+            }
+            return table.value(dynamicIndex(index));
+        }
+
+        private int dynamicIndex(int index) throws Http2Exception {
+            int dynamic = index - STATIC_TABLE_LENGTH - 1;
+            if (dynamic < 0 || dynamic >= table.count) {
+                throw error("Invalid table index " + index);
+            }
+            return dynamic;
+        }
+
+        private int readInteger(int prefixBits) throws Http2Exception {
+            int max = (1 << prefixBits) - 1;
+            long value = data[position++] & max;
+            if (value < max) {
+                return (int) value;
+            }
+            int shift = 0;
+            while (true) {
+                if (position == end) {
+                    throw error("Truncated integer");
+                }
+                int b = data[position++] & 0xff;
+                value += (long) (b & 0x7f) << shift;
+                if (value > Integer.MAX_VALUE) {
+                    throw error("Integer overflow");
+                }
+                if ((b & 0x80) == 0) {
+                    return (int) value;
+                }
+                shift += 7;
+            }
+        }
+
+        private String readString() throws Http2Exception {
+            if (position == end) {
+                throw error("Truncated string");
+            }
+            boolean huffman = (data[position] & 0x80) != 0;
+            int length = readInteger(7);
+            if (length > end - position) {
+                throw error("Truncated string");
+            }
+            String text = huffman ? decodeHuffman(data, position, length)
+                    : new String(data, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
+            return text;
+        }
+
+        private static String decodeHuffman(byte[] source, int offset, int length) throws Http2Exception {
+            // The shortest code has 5 bits
+            byte[] decoded = new byte[length * 8 / 5 + 1];
+            int count = 0;
+            int code = 0;
+            int bits = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int b = source[i];
+                for (int bit = 7; bit >= 0; bit--) {
+                    code = code << 1 | (b >>> bit & 1);
+                    bits++;
+                    int rank = code - FIRST_CODE[bits];
+                    if (rank >= 0 && rank < CODE_COUNT[bits]) {
+                        int symbol = SYMBOLS[FIRST_SYMBOL[bits] + rank];
+                        if (symbol == EOS) {
+                            throw error("EOS in Huffman string");
+                        }
+                        decoded[count++] = (byte) symbol;
+                        code = 0;
+                        bits = 0;
+                    } else if (bits == MAX_CODE_LENGTH) {
+                        throw error("Invalid Huffman code");
+                    }
+                }
+            }
+            // Padding is the most significant bits of EOS, that is all ones, and shorter than a byte
+            if (bits > 7 || code != (1 << bits) - 1) {
+                throw error("Invalid Huffman padding");
+            }
+            return new String(decoded, 0, count, StandardCharsets.ISO_8859_1);
+        }
+
+        private static Http2Exception error(String detail) {
+            return Http2Exception.connectionError(Http2Exception.COMPRESSION_ERROR, detail);
+        }
+    }
+
+    /**
+     * Encodes the header blocks sent on a connection.
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        // Smallest table size since the last block; both it and the current size must be announced
+        private int smallestSize = -1;
+
+        /**
+         * Applies the peer's SETTINGS_HEADER_TABLE_SIZE. The table is kept
+         * at the default size at most, whatever the peer allows.
+         *
+         * @param size the size the peer's decoder allows
+         */
+        void setMaxTableSize(int size) {
+            int limited = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (limited != table.maxSize) {
+                smallestSize = smallestSize < 0 ? limited : Math.min(smallestSize, limited);
+                table.setMaxSize(limited);
+            }
+        }
+
+        /**
+         * Starts a header block, announcing a changed table size first.
+         *
+         * @param out receives the block
+         */
+        void beginBlock(ByteArrayOutputStream out) {
+            if (smallestSize >= 0) {
+                if (smallestSize < table.maxSize) {
+                    writeInteger(smallestSize, 5, 0x20, out);
+                }
+                writeInteger(table.maxSize, 5, 0x20, out);
+                smallestSize = -1;
+            }
+        }
+
+        /**
+         * Encodes a header field, as a table index where possible.
+         *
+         * @param name the lower-case field name
+         * @param value the field value
+         * @param indexing whether the field may be added to the dynamic table;
+         *                 false for values that rarely repeat, like Content-Length
+         * @param out receives the block
+         */
+        void encode(String name, String value, boolean indexing, ByteArrayOutputStream out) {
+            Integer fieldIndex = STATIC_FIELD_INDEX.get(fieldKey(name, value));
+            if (fieldIndex != null) {
+                writeInteger(fieldIndex, 7, 0x80, out);
+                return;
+            }
+            int dynamic = table.indexOf(name, value);
+            if (dynamic >= 0) {
+                writeInteger(STATIC_TABLE_LENGTH + 1 + dynamic, 7, 0x80, out);
+                return;
+            }
+            int nameIndex = STATIC_NAME_INDEX.getOrDefault(name, 0);
+            if (nameIndex == 0) {
+                int dynamicName = table.indexOfName(name);
+                nameIndex = dynamicName < 0 ? 0 : STATIC_TABLE_LENGTH + 1 + dynamicName;
+            }
+            if (indexing) {
+                writeInteger(nameIndex, 6, 0x40, out);
+            } else {
+                writeInteger(nameIndex, 4, 0x00, out);
+            }
+            if (nameIndex == 0) {
+                writeString(name, out);
+            }
+            writeString(value, out);
+            if (indexing) {
+                table.add(name, value);
+            }
+        }
+
+        private static void writeInteger(int value, int prefixBits, int flags, ByteArrayOutputStream out) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                out.write(flags | value);
+                return;
+            }
+            out.write(flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write(value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private static void writeString(String text, ByteArrayOutputStream out) {
+            long bits = 0;
+            for (int i = 0; i < text.length(); i++) {
+                bits += HUFFMAN_LENGTHS[octet(text.charAt(i))];
+            }
+            int huffmanLength = (int) ((bits + 7) / 8);
+            if (huffmanLength >= text.length()) {
+                writeInteger(text.length(), 7, 0x00, out);
+                for (int i = 0; i < text.length(); i++) {
+                    out.write(octet(text.charAt(i)));
+                }
+                return;
+            }
+            writeInteger(huffmanLength, 7, 0x80, out);
+            long pending = 0;
+            int pendingBits = 0;
+            for (int i = 0; i < text.length(); i++) {
+                int symbol = octet(text.charAt(i));
+                pending = pending << HUFFMAN_LENGTHS[symbol] | HUFFMAN_CODES[symbol];
+                pendingBits += HUFFMAN_LENGTHS[symbol];
+                while (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    out.write((int) (pending >>> pendingBits));
+                }
+                pending &= (1L << pendingBits) - 1;
+            }
+            if (pendingBits > 0) {
+                // Pad with the most significant bits of EOS
+                out.write((int) (pending << (8 - pendingBits)) | 0xff >>> pendingBits);
+            }
+        }
+
+        private static int octet(char c) {
+            return c < 256 ? c : '?';
+        }
+    }
+
+    /**
+     * The dynamic table: a ring of entries, newest first, evicted from the
+     * oldest end to stay within the size limit.
+     */
+    private static final class DynamicTable {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        // Slot of the newest entry
+        private int first;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            while (count > 0 && size + entrySize > maxSize) {
+                evict();
+            }
+            if (entrySize > maxSize) {
+                // An entry larger than the table just empties it
+                return;
+            }
+            if (count == names.length) {
+                String[] newNames = new String[count * 2];
+                String[] newValues = new String[count * 2];
+                for (int i = 0; i < count; i++) {
+                    newNames[i] = name(i);
+                    newValues[i] = value(i);
+                }
+                names = newNames;
+                values = newValues;
+                first = 0;
+            }
+            first = (first - 1 + names.length) % names.length;
+            names[first] = name;
+            values[first] = value;
+            count++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            while (size > maxSize) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            int last = (first + count - 1) % names.length;
+            size -= entrySize(names[last], values[last]);
+            names[last] = null;
+            values[last] = null;
+            count--;
+        }
+
+        String name(int index) {
+            return names[(first + index) % names.length];
+        }
+
+        String value(int index) {
+            return values[(first + index) % values.length];
+        }
+
+        int indexOf(String name, String value) {
+            for (int i = 0; i < count; i++) {
+                if (name(i).equals(name) && value(i).equals(value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int indexOfName(String name) {
+            for (int i = 0; i < count; i++) {
+                if (name(i).equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
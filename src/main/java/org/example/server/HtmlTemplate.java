@@ -0,0 +1,350 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precompiled HTML template.
+ *
+ * <p>A template is parsed once into static text, already encoded as UTF-8,
+ * and slots. Rendering copies the static bytes and writes slot values,
+ * HTML-escaped and encoded on the fly, into a single byte array that becomes
+ * the response body; no intermediate strings are built. Rendered into a
+ * response, pages that fit use one of the response's pooled buffers.</p>
+ *
+ * <p>The syntax has two constructs:</p>
+ * <ul>
+ *   <li>{@code {{name}}} inserts the escaped text of a value.</li>
+ *   <li>{@code {{#name}}...{{/name}}} is a section. If the value is a
+ *       {@link Map} or {@link HttpHeaders}, the section is rendered once per
+ *       entry or field, with {@code {{key}}} and {@code {{value}}} bound to
+ *       its name and value. Otherwise it
+ *       is rendered once if the value is present, that is neither null,
+ *       {@code false} nor an empty string.</li>
+ * </ul>
+ *
+ * <p>Slot names are declared when the template is compiled, and values are
+ * passed to {@link #render(Object...)} in the same order.</p>
+ */
+public class HtmlTemplate {
+    private static final byte[][] ESCAPES = new byte[128][];
+    private static final int MAX_SIZE_HINT = 16 * 1024;
+
+    static {
+        ESCAPES['&'] = "&amp;".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['<'] = "&lt;".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['>'] = "&gt;".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['"'] = "&quot;".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\''] = "&#39;".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final int LITERAL = 0;
+    private static final int TEXT = 1;
+    private static final int SECTION = 2;
+    private static final int ENTRY_KEY = 3;
+    private static final int ENTRY_VALUE = 4;
+
+    /**
+     * A piece of a compiled template: static bytes, a slot, or a section
+     * with its own segments.
+     */
+    private static final class Segment {
+        final int kind;
+        final byte[] bytes;
+        final int slot;
+        final Segment[] body;
+
+        Segment(int kind, byte[] bytes, int slot, Segment[] body) {
+            this.kind = kind;
+            this.bytes = bytes;
+            this.slot = slot;
+            this.body = body;
+        }
+    }
+
+    private final Segment[] segments;
+    private final int slotCount;
+    private final int staticSize;
+    // Size of the last rendering, a good first guess for the next one
+    private volatile int sizeHint;
+
+    private HtmlTemplate(Segment[] segments, int slotCount) {
+        this.segments = segments;
+        this.slotCount = slotCount;
+        this.staticSize = staticSize(segments);
+        this.sizeHint = staticSize + 256;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param source the template text
+     * @param slots the names of the values passed to {@link #render(Object...)}, in order
+     * @return the template
+     * @throws IllegalArgumentException if the template is malformed or uses an undeclared name
+     */
+    public static HtmlTemplate compile(String source, String... slots) {
+        Parser parser = new Parser(source, List.of(slots));
+        Segment[] segments = parser.parse(null);
+        return new HtmlTemplate(segments, slots.length);
+    }
+
+    /**
+     * Compiles a template from a class path resource, encoded as UTF-8.
+     *
+     * @param resource the resource name, relative to the class path root
+     * @param slots the names of the values passed to {@link #render(Object...)}, in order
+     * @return the template
+     * @throws IllegalArgumentException if the resource does not exist or the template is malformed
+     * @throws UncheckedIOException if the resource cannot be read
+     */
+    public static HtmlTemplate load(String resource, String... slots) {
+        try (InputStream in = HtmlTemplate.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Template not found: " + resource);
+            }
+            return compile(new String(in.readAllBytes(), StandardCharsets.UTF_8), slots);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Renders the template.
+     *
+     * @param values the slot values, in the order the slots were declared
+     * @return the UTF-8 encoded result, a buffer over a fresh array
+     * @throws IllegalArgumentException if the number of values does not match the slots
+     */
+    public ByteBuffer render(Object... values) {
+        checkValues(values);
+        Output out = new Output(new byte[sizeHint]);
+        render(segments, values, null, null, out);
+        // Bounded, so that one huge page does not inflate every later one
+        sizeHint = Math.min(out.length, Math.max(staticSize, MAX_SIZE_HINT));
+        return ByteBuffer.wrap(out.bytes, 0, out.length);
+    }
+
+    /**
+     * Renders the template as the body of a response. The page is written
+     * into a pooled buffer that the response returns once it has been sent,
+     * and only a page too large for it is moved to an array of its own.
+     *
+     * @param response the response whose body is set
+     * @param values the slot values, in the order the slots were declared
+     * @throws IllegalArgumentException if the number of values does not match the slots
+     */
+    public void renderTo(HttpResponse response, Object... values) {
+        checkValues(values);
+        ByteBuffer buffer = HttpResponse.acquireBuffer();
+        Output out = new Output(buffer.array());
+        out.pooled = buffer;
+        render(segments, values, null, null, out);
+        if (out.pooled != null) {
+            response.setPooledBody(out.pooled, out.length);
+        } else {
+            response.setBody(ByteBuffer.wrap(out.bytes, 0, out.length));
+        }
+    }
+
+    private void checkValues(Object[] values) {
+        if (values.length != slotCount) {
+            throw new IllegalArgumentException("Expected " + slotCount + " values, got " + values.length);
+        }
+    }
+
+    private static void render(Segment[] segments, Object[] values, Object key, Object entryValue, Output out) {
+        for (Segment segment : segments) {
+            switch (segment.kind) {
+                case LITERAL -> out.write(segment.bytes);
+                case TEXT -> out.writeEscaped(values[segment.slot]);
+                case ENTRY_KEY -> out.writeEscaped(key);
+                case ENTRY_VALUE -> out.writeEscaped(entryValue);
+                default -> {
+                    Object value = values[segment.slot];
+                    if (value instanceof Map<?, ?> map) {
+                        for (Map.Entry<?, ?> item : map.entrySet()) {
+                            render(segment.body, values, item.getKey(), item.getValue(), out);
+                        }
+                    } else if (value instanceof HttpHeaders headers) {
+                        for (int i = 0; i < headers.size(); i++) {
+                            render(segment.body, values, headers.name(i), headers.value(i), out);
+                        }
+                    } else if (isPresent(value)) {
+                        render(segment.body, values, key, entryValue, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isPresent(Object value) {
+        return value != null && !Boolean.FALSE.equals(value)
+                && !(value instanceof CharSequence text && text.isEmpty());
+    }
+
+    private static int staticSize(Segment[] segments) {
+        int size = 0;
+        for (Segment segment : segments) {
+            if (segment.kind == LITERAL) {
+                size += segment.bytes.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A growable byte array that encodes and escapes text as it goes.
+     */
+    private static final class Output {
+        byte[] bytes;
+        int length;
+        // The pooled buffer whose array is written, null once the output has outgrown it
+        ByteBuffer pooled;
+
+        Output(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void write(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, length, data.length);
+            length += data.length;
+        }
+
+        void writeEscaped(Object value) {
+            if (value == null) {
+                return;
+            }
+            String text = value.toString();
+            ensure(text.length());
+            // Most values are plain ASCII, copied without escaping or encoding
+            int clean = 0;
+            while (clean < text.length()) {
+                char c = text.charAt(clean);
+                if (c >= 0x80 || ESCAPES[c] != null) {
+                    break;
+                }
+                bytes[length++] = (byte) c;
+                clean++;
+            }
+            for (int i = clean; i < text.length(); i++) {
+                // Room for the longest escape or UTF-8 sequence
+                if (bytes.length - length < 6) {
+                    ensure(Math.max(6, text.length() - i));
+                }
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    byte[] escape = ESCAPES[c];
+                    if (escape != null) {
+                        System.arraycopy(escape, 0, bytes, length, escape.length);
+                        length += escape.length;
+                    } else {
+                        bytes[length++] = (byte) c;
+                    }
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xc0 | c >> 6);
+                    bytes[length++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[length++] = (byte) (0xf0 | codePoint >> 18);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    bytes[length++] = (byte) (0x80 | codePoint & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate, as String.getBytes encodes it
+                    bytes[length++] = '?';
+                } else {
+                    bytes[length++] = (byte) (0xe0 | c >> 12);
+                    bytes[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    bytes[length++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+        }
+
+        private void ensure(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+                if (pooled != null) {
+                    HttpResponse.releaseBuffer(pooled);
+                    pooled = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the source into segments, recursing into sections.
+     */
+    private static final class Parser {
+        private final String source;
+        private final List<String> slots;
+        private int pos;
+
+        Parser(String source, List<String> slots) {
+            this.source = source;
+            this.slots = slots;
+        }
+
+        /**
+         * Parses up to the end of a section, or of the source.
+         *
+         * @param section the name of the enclosing section, null at the top level
+         */
+        Segment[] parse(String section) {
+            List<Segment> segments = new ArrayList<>();
+            while (true) {
+                int open = source.indexOf("{{", pos);
+                int end = open < 0 ? source.length() : open;
+                if (end > pos) {
+                    segments.add(new Segment(LITERAL, source.substring(pos, end).getBytes(StandardCharsets.UTF_8), -1, null));
+                }
+                if (open < 0) {
+                    if (section != null) {
+                        throw new IllegalArgumentException("Unclosed section {{#" + section + "}}");
+                    }
+                    return segments.toArray(new Segment[0]);
+                }
+                int close = source.indexOf("}}", open + 2);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed tag at offset " + open);
+                }
+                String tag = source.substring(open + 2, close).trim();
+                pos = close + 2;
+                if (tag.startsWith("/")) {
+                    String name = tag.substring(1).trim();
+                    if (!name.equals(section)) {
+                        throw new IllegalArgumentException("Unexpected {{/" + name + "}} at offset " + open);
+                    }
+                    return segments.toArray(new Segment[0]);
+                }
+                if (tag.startsWith("#")) {
+                    String name = tag.substring(1).trim();
+                    segments.add(new Segment(SECTION, null, slot(name, open), parse(name)));
+                } else if (section != null && tag.equals("key") && !slots.contains("key")) {
+                    segments.add(new Segment(ENTRY_KEY, null, -1, null));
+                } else if (section != null && tag.equals("value") && !slots.contains("value")) {
+                    segments.add(new Segment(ENTRY_VALUE, null, -1, null));
+                } else {
+                    segments.add(new Segment(TEXT, null, slot(tag, open), null));
+                }
+            }
+        }
+
+        private int slot(String name, int offset) {
+            int slot = slots.indexOf(name);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Undeclared slot {{" + name + "}} at offset " + offset);
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,1077 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One HTTP/2 connection, over TLS or cleartext TCP (h2c), served on a blocking socket.
+ *
+ * <p>The connection thread reads frames and decodes header blocks, which
+ * HPACK requires to happen in order. Once the client has sent the headers
+ * and body of a request, its stream gets a virtual thread of its own and
+ * runs through {@link HttpServer#serve}, the same path as an HTTP/1.1
+ * exchange, so the streams of a connection are handled concurrently.
+ * Responses are encoded and written under a write lock, one frame at a
+ * time so that streams interleave; DATA frames wait for flow-control credit
+ * from the client, which only holds up the stream that ran out of it.</p>
+ *
+ * <p>Request bodies are collected in memory, up to the configured maximum
+ * body size, before the handler runs. Responses are not written while the
+ * handler runs: a streaming body is collected and sent afterwards, and a
+ * file body is read from the file as the client grants credit.</p>
+ */
+class Http2Connection {
+    private static final Logger logger = LoggerFactory.getLogger(Http2Connection.class);
+
+    /**
+     * The client connection preface that starts every HTTP/2 connection.
+     */
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65_535;
+    // Largest frame payload in either direction, the protocol default; larger frames are never sent
+    private static final int MAX_FRAME_SIZE = 16_384;
+    // Credit granted for request bodies, per stream and for the connection, so uploads are not throttled
+    private static final int RECEIVE_WINDOW = 1 << 20;
+
+    /**
+     * A request/response exchange on the connection.
+     */
+    private static final class Stream {
+        final int id;
+        // Read by the connection thread until the stream is dispatched
+        List<String> fields;
+        HttpRequest request;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean endStream;
+        // Set when the body grew too large: further DATA is dropped and a 413 sent
+        boolean discarding;
+        int receiveWindow = RECEIVE_WINDOW;
+        int unacknowledged;
+        // Guarded by the write lock
+        long sendWindow;
+        boolean reset;
+
+        Stream(int id, long sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    private final HttpServer server;
+    private final ServerConfig config;
+    private final InetSocketAddress remoteAddress;
+    private final DataInputStream in;
+    private final GatheringByteChannel channel;
+    private final ExecutorService executor;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    // Owned by the connection thread
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final byte[] payload = new byte[MAX_FRAME_SIZE];
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength;
+    // The stream whose header block continues in CONTINUATION frames, 0 if none
+    private int continuedStreamId;
+    private boolean continuedEndStream;
+    private int lastStreamId;
+    private int connectionReceiveWindow = DEFAULT_WINDOW_SIZE;
+    private int connectionUnacknowledged;
+
+    // Guarded by the write lock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition changed = writeLock.newCondition();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int initialSendWindow = DEFAULT_WINDOW_SIZE;
+    // Streams handed to a handler whose response has not been written yet
+    private int activeStreams;
+    private boolean closed;
+
+    /**
+     * Creates a connection.
+     *
+     * @param server the server whose handler serves the streams
+     * @param config the server configuration
+     * @param socket the client socket
+     * @param inputStream the stream to read frames from
+     * @param channel the blocking channel to write frames to
+     * @param executor runs the stream handlers
+     */
+    Http2Connection(HttpServer server, ServerConfig config, Socket socket, InputStream inputStream,
+                    GatheringByteChannel channel, ExecutorService executor) {
+        this.server = server;
+        this.config = config;
+        this.remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
+        this.in = new DataInputStream(new BufferedInputStream(inputStream, FRAME_HEADER_LENGTH + MAX_FRAME_SIZE));
+        this.channel = channel;
+        this.executor = executor;
+    }
+
+    /**
+     * Checks whether no stream is in progress, so the connection can be closed without losing a request.
+     *
+     * @return true if the connection has no open streams
+     */
+    boolean isIdle() {
+        return streams.isEmpty();
+    }
+
+    /**
+     * Checks whether a request asks to upgrade the connection to h2c.
+     *
+     * @param request an HTTP/1.1 request
+     * @return the decoded HTTP2-Settings payload, or null if the request is
+     *         not a valid upgrade request and is to be served as HTTP/1.1
+     */
+    static byte[] upgradeSettings(HttpRequest request) {
+        String settings = request.getHeader("HTTP2-Settings");
+        if (request.getHttpVersion() != HttpVersion.HTTP_1_1 || settings == null
+                || !HttpServer.hasToken(request.getHeader("Upgrade"), "h2c")
+                || !HttpServer.hasToken(request.getHeader("Connection"), "HTTP2-Settings")) {
+            return null;
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(settings.trim());
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the start of a connection for as long as it matches the HTTP/2
+     * preface. An HTTP/1.x request differs within its first bytes, so this
+     * does not wait for bytes that an HTTP/1.x client will not send.
+     *
+     * @param inputStream the connection stream
+     * @return the bytes read, all of the preface if the client speaks HTTP/2
+     * @throws IOException if the connection cannot be read
+     */
+    static byte[] readPrefaceStart(InputStream inputStream) throws IOException {
+        byte[] start = new byte[PREFACE.length];
+        int length = 0;
+        while (length < start.length) {
+            int read = inputStream.read(start, length, start.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            if (!Arrays.equals(start, 0, length, PREFACE, 0, length)) {
+                break;
+            }
+        }
+        return Arrays.copyOf(start, length);
+    }
+
+    /**
+     * Serves the connection until the client closes it, it stays idle for
+     * the keep-alive timeout, or a connection error occurs.
+     *
+     * @param upgrade the HTTP/1.1 request that upgraded the connection, with
+     *                its body read, or null for a connection with prior knowledge
+     * @param upgradeSettings the decoded HTTP2-Settings of the upgrade request
+     * @throws IOException if the connection fails
+     */
+    void serve(HttpRequest upgrade, byte[] upgradeSettings) throws IOException {
+        try {
+            if (upgrade != null) {
+                applySettings(upgradeSettings, upgradeSettings.length);
+                ByteBuffer response = ByteBuffer.wrap(SWITCHING_PROTOCOLS);
+                while (response.hasRemaining()) {
+                    channel.write(response);
+                }
+            }
+            writeSettings();
+            if (upgrade != null) {
+                // The upgrade request becomes stream 1, half-closed by the client
+                Stream stream = new Stream(1, initialSendWindow);
+                stream.request = upgrade;
+                stream.endStream = true;
+                streams.put(1, stream);
+                lastStreamId = 1;
+                start(stream, null);
+            }
+            readPreface();
+            if (readFrames()) {
+                awaitStreams();
+            }
+        } catch (Http2Exception e) {
+            logger.debug("HTTP/2 connection error with {}: {}", remoteAddress, e.getMessage());
+            goAway(e.getErrorCode(), e.getMessage());
+        } finally {
+            writeLock.lock();
+            try {
+                closed = true;
+                changed.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void readPreface() throws IOException {
+        byte[] preface = new byte[PREFACE.length];
+        in.readFully(preface);
+        if (!Arrays.equals(preface, PREFACE)) {
+            throw Http2Exception.connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+        }
+    }
+
+    /**
+     * Reads and handles frames.
+     *
+     * @return true if the client closed the connection, false if it was idle
+     */
+    private boolean readFrames() throws IOException {
+        boolean settingsReceived = false;
+        while (true) {
+            int first;
+            try {
+                first = in.read();
+            } catch (SocketTimeoutException e) {
+                if (streams.isEmpty()) {
+                    logger.debug("Closing idle HTTP/2 connection from {}", remoteAddress);
+                    goAway(Http2Exception.NO_ERROR, "Idle");
+                    return false;
+                }
+                continue;
+            }
+            if (first < 0) {
+                if (continuedStreamId != 0) {
+                    throw new EOFException("Connection closed in the middle of a header block");
+                }
+                return true;
+            }
+            int length = first << 16 | in.readUnsignedShort();
+            int type = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            int streamId = in.readInt() & 0x7fffffff;
+            if (length > MAX_FRAME_SIZE) {
+                throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Frame exceeds " + MAX_FRAME_SIZE);
+            }
+            in.readFully(payload, 0, length);
+
+            if (!settingsReceived && type != SETTINGS) {
+                throw protocolError("Connection preface without SETTINGS");
+            }
+            settingsReceived = true;
+            if (continuedStreamId != 0 && (type != CONTINUATION || streamId != continuedStreamId)) {
+                throw protocolError("Header block interrupted");
+            }
+            try {
+                switch (type) {
+                    case DATA -> onData(flags, streamId, length);
+                    case HEADERS -> onHeaders(flags, streamId, length);
+                    case PRIORITY -> onPriority(streamId, length);
+                    case RST_STREAM -> onRstStream(streamId, length);
+                    case SETTINGS -> onSettings(flags, streamId, length);
+                    case PUSH_PROMISE -> throw protocolError("PUSH_PROMISE from a client");
+                    case PING -> onPing(flags, streamId, length);
+                    case GOAWAY -> onGoAway(streamId);
+                    case WINDOW_UPDATE -> onWindowUpdate(streamId, length);
+                    case CONTINUATION -> onContinuation(flags, streamId, length);
+                    default -> {
+                        // Unknown frame types are ignored
+                    }
+                }
+            } catch (Http2Exception e) {
+                if (e.getStreamId() == 0) {
+                    throw e;
+                }
+                logger.debug("HTTP/2 stream error with {}: {}", remoteAddress, e.getMessage());
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0) {
+            throw protocolError("DATA on stream 0");
+        }
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padding = padLength(length);
+            offset = 1;
+        }
+        // Flow control counts the whole frame, padding included
+        connectionReceiveWindow -= length;
+        if (connectionReceiveWindow < 0) {
+            throw Http2Exception.connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        connectionUnacknowledged += length;
+        if (connectionUnacknowledged >= RECEIVE_WINDOW / 2) {
+            writeWindowUpdate(0, connectionUnacknowledged);
+            connectionReceiveWindow += connectionUnacknowledged;
+            connectionUnacknowledged = 0;
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw protocolError("DATA on idle stream " + streamId);
+            }
+            // A stream that was reset or answered early; its frames may still be in flight
+            return;
+        }
+        if (stream.endStream && !stream.discarding) {
+            throw Http2Exception.streamError(Http2Exception.STREAM_CLOSED, streamId, "DATA after END_STREAM");
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            throw Http2Exception.streamError(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+        if (stream.discarding) {
+            // The rest of a body answered with 413, sent before the client saw the response
+            return;
+        }
+        int dataLength = length - offset - padding;
+        if (stream.body.size() + (long) dataLength > config.getMaxBodySize()) {
+            stream.discarding = true;
+            stream.endStream = true;
+            HttpParseException tooLarge = new HttpParseException(413, "Content Too Large",
+                    "Request body exceeds " + config.getMaxBodySize() + " bytes");
+            start(stream, HttpServer.errorResponse(tooLarge));
+            return;
+        }
+        stream.body.write(payload, offset, dataLength);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.endStream = true;
+            dispatch(stream);
+            return;
+        }
+        stream.unacknowledged += length;
+        if (stream.unacknowledged >= RECEIVE_WINDOW / 2) {
+            writeWindowUpdate(streamId, stream.unacknowledged);
+            stream.receiveWindow += stream.unacknowledged;
+            stream.unacknowledged = 0;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, int length) throws IOException {
+        if (streamId == 0) {
+            throw protocolError("HEADERS on stream 0");
+        }
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padding = padLength(length);
+            offset = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            // Stream dependency and weight; streams are not prioritized
+            offset += 5;
+        }
+        if (offset + padding > length) {
+            throw protocolError("HEADERS frame too short");
+        }
+        headerBlockLength = 0;
+        appendHeaderBlock(offset, length - offset - padding);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId, (flags & FLAG_END_STREAM) != 0);
+        } else {
+            continuedStreamId = streamId;
+            continuedEndStream = (flags & FLAG_END_STREAM) != 0;
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, int length) throws IOException {
+        if (continuedStreamId == 0) {
+            throw protocolError("CONTINUATION without HEADERS");
+        }
+        appendHeaderBlock(0, length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            continuedStreamId = 0;
+            onHeaderBlock(streamId, continuedEndStream);
+        }
+    }
+
+    private void appendHeaderBlock(int offset, int length) throws Http2Exception {
+        int required = headerBlockLength + length;
+        // The block cannot be skipped without losing the HPACK state, so a huge one ends the connection
+        if (required > 2 * config.getMaxHeaderSize()) {
+            throw Http2Exception.connectionError(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if (required > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(required, headerBlock.length * 2));
+        }
+        System.arraycopy(payload, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength = required;
+    }
+
+    private void onHeaderBlock(int streamId, boolean endStream) throws IOException {
+        // Decoded even when the stream is refused, to keep the dynamic table in step
+        List<String> fields = decoder.decode(headerBlock, 0, headerBlockLength);
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            // Trailers, which end the request; their fields are not passed on
+            if (stream.endStream && !stream.discarding) {
+                throw Http2Exception.streamError(Http2Exception.STREAM_CLOSED, streamId, "HEADERS after END_STREAM");
+            }
+            if (!endStream) {
+                throw Http2Exception.streamError(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+            }
+            if (!stream.endStream) {
+                stream.endStream = true;
+                dispatch(stream);
+            }
+            return;
+        }
+        if (streamId % 2 == 0) {
+            throw protocolError("Even stream id " + streamId + " from a client");
+        }
+        if (streamId <= lastStreamId) {
+            // Trailers of a stream that has been reset
+            return;
+        }
+        lastStreamId = streamId;
+        if (streams.size() >= config.getMaxConcurrentStreams()) {
+            throw Http2Exception.streamError(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+        }
+        stream = new Stream(streamId, initialSendWindow);
+        stream.fields = fields;
+        streams.put(streamId, stream);
+        if (endStream) {
+            stream.endStream = true;
+            dispatch(stream);
+        }
+    }
+
+    private void onPriority(int streamId, int length) throws Http2Exception {
+        if (streamId == 0) {
+            throw protocolError("PRIORITY on stream 0");
+        }
+        if (length != 5) {
+            throw Http2Exception.streamError(Http2Exception.FRAME_SIZE_ERROR, streamId, "PRIORITY frame size");
+        }
+    }
+
+    private void onRstStream(int streamId, int length) throws Http2Exception {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw protocolError("RST_STREAM on idle stream " + streamId);
+        }
+        if (length != 4) {
+            throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM frame size");
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            writeLock.lock();
+            try {
+                stream.reset = true;
+                changed.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, int length) throws IOException {
+        if (streamId != 0) {
+            throw protocolError("SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS frame size");
+        }
+        applySettings(payload, length);
+        writeFrame(SETTINGS, FLAG_ACK, 0, ByteBuffer.allocate(0));
+    }
+
+    private void applySettings(byte[] settings, int length) throws Http2Exception {
+        writeLock.lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(settings, 0, length);
+            while (buffer.hasRemaining()) {
+                int id = buffer.getShort() & 0xffff;
+                int value = buffer.getInt();
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    case SETTINGS_ENABLE_PUSH -> {
+                        if (value != 0 && value != 1) {
+                            throw protocolError("Invalid SETTINGS_ENABLE_PUSH");
+                        }
+                    }
+                    case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                        if (value < 0) {
+                            throw Http2Exception.connectionError(Http2Exception.FLOW_CONTROL_ERROR,
+                                    "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                        }
+                        // Applies to the windows of open streams too
+                        int delta = value - initialSendWindow;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                            if (stream.sendWindow > Integer.MAX_VALUE) {
+                                throw Http2Exception.connectionError(Http2Exception.FLOW_CONTROL_ERROR,
+                                        "Stream window overflow");
+                            }
+                        }
+                        initialSendWindow = value;
+                    }
+                    case SETTINGS_MAX_FRAME_SIZE -> {
+                        if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw protocolError("Invalid SETTINGS_MAX_FRAME_SIZE");
+                        }
+                    }
+                    default -> {
+                        // MAX_CONCURRENT_STREAMS limits pushes, which are never sent; others are unknown or advisory
+                    }
+                }
+            }
+            changed.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, int length) throws IOException {
+        if (streamId != 0) {
+            throw protocolError("PING on stream " + streamId);
+        }
+        if (length != 8) {
+            throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "PING frame size");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            writeFrame(PING, FLAG_ACK, 0, ByteBuffer.wrap(Arrays.copyOf(payload, 8)));
+        }
+    }
+
+    private void onGoAway(int streamId) throws Http2Exception {
+        if (streamId != 0) {
+            throw protocolError("GOAWAY on stream " + streamId);
+        }
+        // The client opens no more streams and closes the connection once its streams are answered
+        logger.debug("HTTP/2 client {} is going away", remoteAddress);
+    }
+
+    private void onWindowUpdate(int streamId, int length) throws Http2Exception {
+        if (length != 4) {
+            throw Http2Exception.connectionError(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE frame size");
+        }
+        int increment = ByteBuffer.wrap(payload, 0, 4).getInt() & 0x7fffffff;
+        writeLock.lock();
+        try {
+            if (streamId == 0) {
+                if (increment == 0) {
+                    throw protocolError("Zero WINDOW_UPDATE increment");
+                }
+                connectionSendWindow += increment;
+                if (connectionSendWindow > Integer.MAX_VALUE) {
+                    throw Http2Exception.connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    if (streamId > lastStreamId) {
+                        throw protocolError("WINDOW_UPDATE on idle stream " + streamId);
+                    }
+                    return;
+                }
+                if (increment == 0) {
+                    throw Http2Exception.streamError(Http2Exception.PROTOCOL_ERROR, streamId, "Zero WINDOW_UPDATE increment");
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > Integer.MAX_VALUE) {
+                    throw Http2Exception.streamError(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+            }
+            changed.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int padLength(int length) throws Http2Exception {
+        if (length < 1 || (payload[0] & 0xff) >= length) {
+            throw protocolError("Padding exceeds the frame");
+        }
+        return payload[0] & 0xff;
+    }
+
+    /**
+     * Turns a complete request into an {@link HttpRequest} and starts its handler.
+     */
+    private void dispatch(Stream stream) throws Http2Exception {
+        HttpResponse error = null;
+        try {
+            stream.request = toRequest(stream);
+        } catch (HttpParseException e) {
+            error = HttpServer.errorResponse(e);
+        }
+        stream.fields = null;
+        start(stream, error);
+    }
+
+    private void start(Stream stream, HttpResponse error) {
+        writeLock.lock();
+        try {
+            activeStreams++;
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            executor.execute(() -> respond(stream, error));
+        } catch (RejectedExecutionException e) {
+            // The server is stopping
+            finish(stream);
+        }
+    }
+
+    /**
+     * Builds the request of a stream. Header names stay in the lower case
+     * HTTP/2 requires; lookups ignore case, and common names read back in
+     * their usual capitalization.
+     */
+    private HttpRequest toRequest(Stream stream) throws Http2Exception, HttpParseException {
+        List<String> fields = stream.fields;
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        String cookie = null;
+        boolean hasHost = false;
+        long contentLength = -1;
+        long listSize = 0;
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int[] offsets = new int[fields.size() * 2 + 8];
+        int count = 0;
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            listSize += name.length() + value.length() + 32;
+            if (!isValidValue(value)) {
+                throw malformed(stream, "Invalid value of " + name);
+            }
+            if (name.startsWith(":")) {
+                if (count > 0 || cookie != null) {
+                    throw malformed(stream, "Pseudo-header after regular header");
+                }
+                switch (name) {
+                    case ":method" -> method = pseudoHeader(stream, method, value);
+                    case ":path" -> path = pseudoHeader(stream, path, value);
+                    case ":scheme" -> scheme = pseudoHeader(stream, scheme, value);
+                    case ":authority" -> authority = pseudoHeader(stream, authority, value);
+                    default -> throw malformed(stream, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || isConnectionSpecific(name)
+                    || name.equals("te") && !value.equals("trailers")) {
+                throw malformed(stream, "Invalid header " + name);
+            }
+            if (name.equals("cookie")) {
+                // Clients may split cookies into several fields
+                cookie = cookie == null ? value : cookie + "; " + value;
+                continue;
+            }
+            if (name.equals("host")) {
+                hasHost = true;
+            } else if (name.equals("content-length")) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw malformed(stream, "Invalid content-length");
+                }
+            }
+            count = addHeader(head, offsets, count, name, value);
+        }
+        if (method == null || path == null || path.isEmpty() || scheme == null) {
+            throw malformed(stream, "Missing pseudo-header");
+        }
+        if (listSize > config.getMaxHeaderSize() || fields.size() / 2 > config.getMaxHeaderCount()) {
+            throw new HttpParseException(431, "Request Header Fields Too Large", "Request headers exceed the limits");
+        }
+        if (!hasHost && authority != null) {
+            count = addHeader(head, offsets, count, "host", authority);
+        }
+        if (cookie != null) {
+            count = addHeader(head, offsets, count, "cookie", cookie);
+        }
+        byte[] body = stream.body.size() > 0 ? stream.body.toByteArray() : null;
+        if (contentLength >= 0 && contentLength != stream.body.size()) {
+            throw malformed(stream, "Body does not match content-length");
+        }
+
+        byte[] methodBytes = method.getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest request = new HttpRequest();
+        request.init(HttpMethod.lookup(methodBytes, 0, methodBytes.length), method, path, HttpVersion.HTTP_2,
+                head.toByteArray(), head.size(), offsets, count, body, null);
+        request.setRemoteAddress(remoteAddress);
+        return request;
+    }
+
+    private static String pseudoHeader(Stream stream, String previous, String value) throws Http2Exception {
+        if (previous != null) {
+            throw malformed(stream, "Repeated pseudo-header");
+        }
+        return value;
+    }
+
+    /**
+     * Appends a header in the layout {@link HttpRequestParser} produces.
+     *
+     * @return the new header count
+     */
+    private static int addHeader(ByteArrayOutputStream head, int[] offsets, int count, String name, String value) {
+        int nameStart = head.size();
+        head.writeBytes(name.getBytes(StandardCharsets.US_ASCII));
+        int nameEnd = head.size();
+        head.write(':');
+        head.write(' ');
+        int valueStart = head.size();
+        head.writeBytes(value.getBytes(StandardCharsets.ISO_8859_1));
+        int valueEnd = head.size();
+        head.write('\r');
+        head.write('\n');
+        offsets[count * 4] = nameStart;
+        offsets[count * 4 + 1] = nameEnd;
+        offsets[count * 4 + 2] = valueStart;
+        offsets[count * 4 + 3] = valueEnd;
+        return count + 1;
+    }
+
+    private static boolean isValidValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isConnectionSpecific(String name) {
+        return name.equals("connection") || name.equals("keep-alive") || name.equals("proxy-connection")
+                || name.equals("transfer-encoding") || name.equals("upgrade");
+    }
+
+    private static Http2Exception malformed(Stream stream, String detail) {
+        return Http2Exception.streamError(Http2Exception.PROTOCOL_ERROR, stream.id, detail);
+    }
+
+    private static Http2Exception protocolError(String detail) {
+        return Http2Exception.connectionError(Http2Exception.PROTOCOL_ERROR, detail);
+    }
+
+    /**
+     * Runs the handler of a stream, or sends the error it was refused with,
+     * on the stream's own thread.
+     */
+    private void respond(Stream stream, HttpResponse error) {
+        HttpResponse response = error;
+        try {
+            if (response == null) {
+                response = new HttpResponse();
+                // Streams do not count against maxRequestsPerConnection, and the Connection header is not sent
+                response = server.serveAndWait(stream.request, response, 1);
+            }
+            writeResponse(stream, response);
+            if (stream.discarding) {
+                // Answered before the body was complete: the client may stop sending it
+                resetStream(stream.id, Http2Exception.NO_ERROR);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error handling HTTP/2 stream {} from {}", stream.id, remoteAddress, e);
+            try {
+                resetStream(stream.id, Http2Exception.INTERNAL_ERROR);
+            } catch (IOException resetError) {
+                logger.debug("Error resetting stream", resetError);
+            }
+        } catch (IOException e) {
+            logger.debug("Error writing HTTP/2 stream {} to {}: {}", stream.id, remoteAddress, e.getMessage());
+        } finally {
+            if (response != null) {
+                response.closeFile();
+            }
+            finish(stream);
+        }
+    }
+
+    private void finish(Stream stream) {
+        streams.remove(stream.id);
+        writeLock.lock();
+        try {
+            activeStreams--;
+            changed.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeResponse(Stream stream, HttpResponse response) throws IOException {
+        // A HEAD response announces the length of the body it leaves out
+        long contentLength = response.hasFileBody() || response.isHeadOnly() && response.fileBodyLength() > 0
+                ? response.fileBodyLength() : response.getBodyBuffer().remaining();
+        long length = response.isHeadOnly() ? 0 : contentLength;
+        writeLock.lock();
+        try {
+            if (stream.reset || closed) {
+                return;
+            }
+            encoded.reset();
+            encoder.beginBlock(encoded);
+            encoder.encode(":status", Integer.toString(response.getStatusCode()), true, encoded);
+            boolean hasLength = false;
+            HttpHeaders headers = response.getHttpHeaders();
+            for (int i = 0; i < headers.size(); i++) {
+                String name = headers.lowerCaseName(i);
+                if (isConnectionSpecific(name)) {
+                    continue;
+                }
+                hasLength |= name.equals("content-length");
+                // Values that differ from response to response would only churn the table
+                boolean indexing = !name.equals("content-length") && !name.equals("date") && !name.equals("set-cookie");
+                encoder.encode(name, headers.value(i), indexing, encoded);
+            }
+            if (!hasLength) {
+                encoder.encode("content-length", Long.toString(contentLength), false, encoded);
+            }
+            writeHeaderBlock(stream.id, length == 0);
+        } finally {
+            writeLock.unlock();
+        }
+        if (length == 0) {
+            return;
+        }
+        if (response.hasFileBody()) {
+            FileBodyChannel target = new FileBodyChannel(stream, length);
+            long sent = 0;
+            while (sent < length) {
+                long transferred = response.transferFileBody(sent, target);
+                if (transferred == 0) {
+                    throw new EOFException("File body is shorter than its Content-Length");
+                }
+                sent += transferred;
+            }
+        } else {
+            writeData(stream, response.getBodyBuffer(), true);
+        }
+    }
+
+    /**
+     * Writes an encoded header block as a HEADERS frame followed by as many
+     * CONTINUATION frames as needed. The caller holds the write lock, so that
+     * no other frame comes between them.
+     */
+    private void writeHeaderBlock(int streamId, boolean endStream) throws IOException {
+        byte[] block = encoded.toByteArray();
+        int offset = 0;
+        do {
+            int length = Math.min(block.length - offset, MAX_FRAME_SIZE);
+            int flags = offset + length == block.length ? FLAG_END_HEADERS : 0;
+            if (offset == 0 && endStream) {
+                flags |= FLAG_END_STREAM;
+            }
+            writeFrame(offset == 0 ? HEADERS : CONTINUATION, flags, streamId, ByteBuffer.wrap(block, offset, length));
+            offset += length;
+        } while (offset < block.length);
+    }
+
+    /**
+     * Writes body data in DATA frames, waiting for flow-control credit. The
+     * write lock is taken per frame, so other streams can interleave.
+     */
+    private void writeData(Stream stream, ByteBuffer data, boolean endStream) throws IOException {
+        do {
+            writeLock.lock();
+            try {
+                int length;
+                while (true) {
+                    if (stream.reset || closed) {
+                        throw new IOException("Stream " + stream.id + " was reset");
+                    }
+                    long credit = Math.min(connectionSendWindow, stream.sendWindow);
+                    length = (int) Math.min(Math.min(data.remaining(), MAX_FRAME_SIZE), Math.max(credit, 0));
+                    if (length > 0 || !data.hasRemaining()) {
+                        break;
+                    }
+                    try {
+                        changed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for flow-control credit");
+                    }
+                }
+                ByteBuffer chunk = data.slice(data.position(), length);
+                data.position(data.position() + length);
+                connectionSendWindow -= length;
+                stream.sendWindow -= length;
+                writeFrame(DATA, endStream && !data.hasRemaining() ? FLAG_END_STREAM : 0, stream.id, chunk);
+            } finally {
+                writeLock.unlock();
+            }
+        } while (data.hasRemaining());
+    }
+
+    /**
+     * Frames the chunks that {@link HttpResponse#transferFileBody} reads from
+     * a file body, ending the stream with the last one.
+     */
+    private final class FileBodyChannel implements WritableByteChannel {
+        private final Stream stream;
+        private long remaining;
+
+        FileBodyChannel(Stream stream, long length) {
+            this.stream = stream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int length = source.remaining();
+            remaining -= length;
+            writeData(stream, source, remaining <= 0);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // The connection stays open
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        ByteBuffer settings = ByteBuffer.allocate(18);
+        settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(config.getMaxConcurrentStreams());
+        settings.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(RECEIVE_WINDOW);
+        settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(config.getMaxHeaderSize());
+        writeFrame(SETTINGS, 0, 0, settings.flip());
+        // The connection window can only be raised by WINDOW_UPDATE
+        writeWindowUpdate(0, RECEIVE_WINDOW - DEFAULT_WINDOW_SIZE);
+        connectionReceiveWindow = RECEIVE_WINDOW;
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        writeFrame(WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(increment).flip());
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Stream stream = streams.remove(streamId);
+        writeLock.lock();
+        try {
+            if (stream != null) {
+                stream.reset = true;
+                changed.signalAll();
+            }
+            if (!closed) {
+                writeFrame(RST_STREAM, 0, streamId, ByteBuffer.allocate(4).putInt(errorCode).flip());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void goAway(int errorCode, String detail) {
+        byte[] debugData = detail.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer goAway = ByteBuffer.allocate(8 + debugData.length).putInt(lastStreamId).putInt(errorCode).put(debugData);
+        try {
+            writeFrame(GOAWAY, 0, 0, goAway.flip());
+        } catch (IOException e) {
+            logger.debug("Error sending GOAWAY", e);
+        }
+    }
+
+    /**
+     * Waits until every dispatched stream has been answered, after the
+     * client has closed its side.
+     */
+    private void awaitStreams() throws InterruptedIOException {
+        writeLock.lock();
+        try {
+            while (activeStreams > 0) {
+                changed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing streams");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, ByteBuffer framePayload) throws IOException {
+        writeLock.lock();
+        try {
+            int length = framePayload.remaining();
+            frameHeader.clear();
+            frameHeader.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+            frameHeader.put((byte) type).put((byte) flags).putInt(streamId).flip();
+            frame[0] = frameHeader;
+            frame[1] = framePayload;
+            while (framePayload.hasRemaining() || frameHeader.hasRemaining()) {
+                channel.write(frame);
+            }
+        } finally {
+            frame[1] = null;
+            writeLock.unlock();
+        }
+    }
+}
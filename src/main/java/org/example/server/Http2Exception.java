@@ -0,0 +1,72 @@
+package org.example.server;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 protocol violation by the peer. A connection error ends the
+ * whole connection with GOAWAY; a stream error only resets its stream.
+ */
+class Http2Exception extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private final int errorCode;
+    private final int streamId;
+
+    private Http2Exception(int errorCode, int streamId, String detail) {
+        super(detail);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Creates an error that ends the connection.
+     *
+     * @param errorCode the HTTP/2 error code
+     * @param detail a description of the problem
+     * @return the exception
+     */
+    static Http2Exception connectionError(int errorCode, String detail) {
+        return new Http2Exception(errorCode, 0, detail);
+    }
+
+    /**
+     * Creates an error that resets one stream.
+     *
+     * @param errorCode the HTTP/2 error code
+     * @param streamId the stream
+     * @param detail a description of the problem
+     * @return the exception
+     */
+    static Http2Exception streamError(int errorCode, int streamId, String detail) {
+        return new Http2Exception(errorCode, streamId, detail);
+    }
+
+    /**
+     * Gets the error code sent to the peer.
+     *
+     * @return the HTTP/2 error code
+     */
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets the stream the error is confined to.
+     *
+     * @return the stream id, 0 for a connection error
+     */
+    int getStreamId() {
+        return streamId;
+    }
+}
@@ -0,0 +1,563 @@
+package org.example.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The header fields of a request or response, in a flat table of name and
+ * value slots kept in the order they were added.
+ *
+ * <p>Names compare case-insensitively, as HTTP requires, and a name may occur
+ * several times. The fields can be iterated by index or with
+ * {@link #forEach(BiConsumer)} without allocating. Common field names are
+ * constants of this class: each has a fixed id, so that looking one up in a
+ * response costs an array read rather than a string comparison per field,
+ * and parsed names that match one are returned as the constant instead of a
+ * new string.</p>
+ *
+ * <p>The fields of a parsed request stay as byte ranges of the raw head;
+ * names and values are decoded when they are first read.</p>
+ */
+public final class HttpHeaders {
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ACCEPT_LANGUAGE = "Accept-Language";
+    public static final String ALLOW = "Allow";
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String CONNECTION = "Connection";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String COOKIE = "Cookie";
+    public static final String DATE = "Date";
+    public static final String ETAG = "ETag";
+    public static final String EXPECT = "Expect";
+    public static final String HOST = "Host";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String LOCATION = "Location";
+    public static final String REFERER = "Referer";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String SERVER = "Server";
+    public static final String SET_COOKIE = "Set-Cookie";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String UPGRADE = "Upgrade";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String VARY = "Vary";
+
+    private static final String[] KNOWN = {ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, ALLOW, AUTHORIZATION,
+            CACHE_CONTROL, CONNECTION, CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_TYPE, COOKIE, DATE, ETAG, EXPECT,
+            HOST, IF_MODIFIED_SINCE, IF_NONE_MATCH, LAST_MODIFIED, LOCATION, REFERER, RETRY_AFTER, SERVER, SET_COOKIE,
+            TRANSFER_ENCODING, UPGRADE, USER_AGENT, VARY};
+    private static final String[] KNOWN_LOWER_CASE = new String[KNOWN.length];
+    // "Name: " as sent on the wire
+    private static final byte[][] KNOWN_PREFIXES = new byte[KNOWN.length][];
+    // Open addressing table from a case-insensitive hash of length and end characters to id + 1
+    private static final byte[] KNOWN_TABLE = new byte[128];
+    private static final int UNKNOWN = -1;
+    private static final int UNRESOLVED = -2;
+    private static final String[] NO_STRINGS = new String[0];
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final int[] NO_OFFSETS = new int[0];
+
+    static {
+        for (int id = 0; id < KNOWN.length; id++) {
+            KNOWN_LOWER_CASE[id] = KNOWN[id].toLowerCase(Locale.ROOT);
+            KNOWN_PREFIXES[id] = (KNOWN[id] + ": ").getBytes(StandardCharsets.US_ASCII);
+            int slot = hash(KNOWN[id].length(), KNOWN[id].charAt(0), KNOWN[id].charAt(KNOWN[id].length() - 1));
+            while (KNOWN_TABLE[slot] != 0) {
+                slot = (slot + 1) & (KNOWN_TABLE.length - 1);
+            }
+            KNOWN_TABLE[slot] = (byte) (id + 1);
+        }
+    }
+
+    // Allocated on first use, since a parsed request only decodes the few fields it is asked for
+    private String[] names = NO_STRINGS;
+    private String[] values = NO_STRINGS;
+    private byte[] ids = NO_BYTES;
+    private int size;
+    // Slot of the last field with each known id, plus one; 0 if there is none. Only
+    // kept for up to 127 fields, larger tables are scanned
+    private byte[] lastSlot;
+    private boolean indexed = true;
+    // Loaded from a parsed head, so names may still be unresolved byte ranges
+    private boolean parsed;
+    // A parsed head: four offsets per field, name start and end, value start and end
+    private byte[] source = NO_BYTES;
+    private int[] offsets = NO_OFFSETS;
+
+    /**
+     * Creates an empty table.
+     */
+    public HttpHeaders() {
+    }
+
+    /**
+     * Creates a table with the fields of another one.
+     *
+     * @param other the fields to copy
+     */
+    public HttpHeaders(HttpHeaders other) {
+        ensureCapacity(other.size);
+        for (int i = 0; i < other.size; i++) {
+            add(other.name(i), other.value(i));
+        }
+    }
+
+    /**
+     * Gets the number of fields, counting each occurrence of a repeated name.
+     *
+     * @return the number of fields
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the name of a field. Names of common fields are returned in the
+     * case of their constant, whatever case they were received in.
+     *
+     * @param index the index of the field, from 0 to {@link #size()} - 1
+     * @return the field name
+     */
+    public String name(int index) {
+        checkIndex(index);
+        if (names.length < size) {
+            names = Arrays.copyOf(names, size);
+        }
+        String name = names[index];
+        if (name == null) {
+            int id = id(index);
+            int start = offsets[index * 4];
+            name = id >= 0 ? KNOWN[id]
+                    : new String(source, start, offsets[index * 4 + 1] - start, StandardCharsets.US_ASCII);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Gets the value of a field.
+     *
+     * @param index the index of the field, from 0 to {@link #size()} - 1
+     * @return the field value
+     */
+    public String value(int index) {
+        checkIndex(index);
+        if (values.length < size) {
+            values = Arrays.copyOf(values, size);
+        }
+        String value = values[index];
+        if (value == null) {
+            int start = offsets[index * 4 + 2];
+            value = new String(source, start, offsets[index * 4 + 3] - start, StandardCharsets.ISO_8859_1);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value of a field. If the name occurs several times, the last
+     * occurrence wins.
+     *
+     * @param name the field name, in any case
+     * @return the value, or null if there is no such field
+     */
+    public String get(String name) {
+        int index = lastIndexOf(name);
+        return index >= 0 ? value(index) : null;
+    }
+
+    /**
+     * Gets the values of every occurrence of a field.
+     *
+     * @param name the field name, in any case
+     * @return the values in the order they were added, empty if there is no such field
+     */
+    public List<String> getAll(String name) {
+        List<String> all = null;
+        int id = knownId(name);
+        for (int i = 0; i < size; i++) {
+            if (matches(i, id, name)) {
+                if (all == null) {
+                    all = new ArrayList<>(2);
+                }
+                all.add(value(i));
+            }
+        }
+        return all != null ? all : List.of();
+    }
+
+    /**
+     * Checks whether a field is present.
+     *
+     * @param name the field name, in any case
+     * @return true if the field occurs at least once
+     */
+    public boolean contains(String name) {
+        return lastIndexOf(name) >= 0;
+    }
+
+    /**
+     * Sets a field, replacing every occurrence the name already has.
+     *
+     * @param name the field name
+     * @param value the field value
+     * @return this table for chaining
+     */
+    public HttpHeaders set(String name, String value) {
+        int id = knownId(name);
+        int index = indexOf(id, name, 0);
+        if (index < 0) {
+            append(name, value, id);
+            return this;
+        }
+        ensureCapacity(size);
+        names[index] = id >= 0 ? KNOWN[id] : name;
+        values[index] = value;
+        if (id >= 0) {
+            ids[index] = (byte) id;
+        }
+        // Repeated fields are rare, so the rest of the table is only scanned for them when there may be any
+        if (id < 0 || !indexed || lastSlot()[id] - 1 != index) {
+            removeFrom(index + 1, id, name);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a field, keeping earlier occurrences of the name.
+     *
+     * @param name the field name
+     * @param value the field value
+     * @return this table for chaining
+     */
+    public HttpHeaders add(String name, String value) {
+        append(name, value, knownId(name));
+        return this;
+    }
+
+    /**
+     * Removes every occurrence of a field.
+     *
+     * @param name the field name, in any case
+     * @return this table for chaining
+     */
+    public HttpHeaders remove(String name) {
+        removeFrom(0, knownId(name), name);
+        return this;
+    }
+
+    /**
+     * Replaces the fields that another table has with all of its values.
+     * Fields of this table that the other one does not have are kept.
+     *
+     * @param other the fields to set
+     * @return this table for chaining
+     */
+    public HttpHeaders setAll(HttpHeaders other) {
+        for (int i = 0; i < other.size; i++) {
+            remove(other.name(i));
+        }
+        for (int i = 0; i < other.size; i++) {
+            add(other.name(i), other.value(i));
+        }
+        return this;
+    }
+
+    /**
+     * Removes all fields, keeping the table's buffers.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, Math.min(size, names.length), null);
+        Arrays.fill(values, 0, Math.min(size, values.length), null);
+        if (lastSlot != null) {
+            Arrays.fill(lastSlot, (byte) 0);
+        }
+        indexed = true;
+        parsed = false;
+        size = 0;
+    }
+
+    /**
+     * Passes every field to an action, in order.
+     *
+     * @param action receives the name and value of each field
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(name(i), value(i));
+        }
+    }
+
+    /**
+     * Copies the fields into a map. The values of a repeated name are
+     * combined into one, separated by commas.
+     *
+     * @return an unmodifiable map of the fields, in the order their names first occur
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            // Keyed by the first occurrence, whatever case later ones are in
+            int first = indexOf(id(i), name(i), 0);
+            map.merge(name(first), value(i), (earlier, next) -> earlier + ", " + next);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    /**
+     * Replaces the fields with those of a parsed head. The head is copied
+     * into the table's own buffers, which are reused by later calls.
+     *
+     * @param head the raw request line and headers
+     * @param headLength the number of bytes of the head
+     * @param headerOffsets four offsets per field: name start and end, value start and end
+     * @param count the number of fields
+     */
+    void load(byte[] head, int headLength, int[] headerOffsets, int count) {
+        clear();
+        if (source.length < headLength) {
+            source = new byte[headLength];
+        }
+        System.arraycopy(head, 0, source, 0, headLength);
+        if (offsets.length < count * 4) {
+            offsets = new int[count * 4];
+        }
+        System.arraycopy(headerOffsets, 0, offsets, 0, count * 4);
+        // Names and values get their slots when the first of them is decoded
+        if (ids.length < count) {
+            ids = new byte[count];
+        }
+        Arrays.fill(ids, 0, count, (byte) UNRESOLVED);
+        size = count;
+        indexed = false;
+        parsed = true;
+    }
+
+    /**
+     * Gets the name of a field in lower case, as HTTP/2 sends it.
+     *
+     * @param index the index of the field
+     * @return the lower case name
+     */
+    String lowerCaseName(int index) {
+        int id = id(index);
+        return id >= 0 ? KNOWN_LOWER_CASE[id] : name(index).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the name of a common field as it starts a header line.
+     *
+     * @param index the index of the field
+     * @return the bytes of the name followed by a colon and a space, or null if the name is not a constant
+     */
+    byte[] linePrefix(int index) {
+        int id = id(index);
+        return id >= 0 ? KNOWN_PREFIXES[id] : null;
+    }
+
+    private void append(String name, String value, int id) {
+        ensureCapacity(size + 1);
+        names[size] = id >= 0 ? KNOWN[id] : name;
+        values[size] = value;
+        ids[size] = (byte) id;
+        if (id >= 0 && indexed) {
+            if (size < Byte.MAX_VALUE) {
+                lastSlot()[id] = (byte) (size + 1);
+            } else {
+                indexed = false;
+            }
+        }
+        size++;
+    }
+
+    private void removeFrom(int from, int id, String name) {
+        int kept = from;
+        for (int i = from; i < size; i++) {
+            if (matches(i, id, name)) {
+                continue;
+            }
+            if (kept != i) {
+                // Parsed slots are decoded first, since their offsets stay where they are
+                names[kept] = name(i);
+                values[kept] = value(i);
+                ids[kept] = (byte) id(i);
+            }
+            kept++;
+        }
+        if (kept == size) {
+            return;
+        }
+        ensureCapacity(size);
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+        indexed = false;
+    }
+
+    private int lastIndexOf(String name) {
+        int id = knownId(name);
+        // A request is looked up a few times only, so resolving all of its names would not pay off
+        if (id >= 0 && !parsed && index()) {
+            return lastSlot[id] - 1;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            if (matches(i, id, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(int id, String name, int from) {
+        for (int i = from; i < size; i++) {
+            if (matches(i, id, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int index, int id, String name) {
+        int slotId = ids[index];
+        if (id >= 0 && slotId != UNRESOLVED) {
+            return slotId == id;
+        }
+        if (index < names.length && names[index] != null) {
+            return names[index].equalsIgnoreCase(name);
+        }
+        // A parsed name, compared in place; only a match tells its id
+        int start = offsets[index * 4];
+        if (offsets[index * 4 + 1] - start != name.length() || !equalsIgnoreCase(name, source, start)) {
+            return false;
+        }
+        if (id >= 0) {
+            ids[index] = (byte) id;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the last slot of every known id if fields were removed.
+     *
+     * @return false if the table is too large to be indexed
+     */
+    private boolean index() {
+        if (indexed) {
+            lastSlot();
+            return true;
+        }
+        if (size >= Byte.MAX_VALUE) {
+            return false;
+        }
+        byte[] slots = lastSlot();
+        Arrays.fill(slots, (byte) 0);
+        for (int i = 0; i < size; i++) {
+            int id = id(i);
+            if (id >= 0) {
+                slots[id] = (byte) (i + 1);
+            }
+        }
+        indexed = true;
+        return true;
+    }
+
+    private byte[] lastSlot() {
+        if (lastSlot == null) {
+            lastSlot = new byte[KNOWN.length];
+        }
+        return lastSlot;
+    }
+
+    private int id(int index) {
+        int id = ids[index];
+        if (id == UNRESOLVED) {
+            int start = offsets[index * 4];
+            id = knownId(source, start, offsets[index * 4 + 1]);
+            ids[index] = (byte) id;
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (names.length < capacity) {
+            names = Arrays.copyOf(names, Math.max(Math.max(names.length * 2, capacity), 8));
+        }
+        if (values.length < capacity) {
+            values = Arrays.copyOf(values, Math.max(Math.max(values.length * 2, capacity), 8));
+        }
+        if (ids.length < capacity) {
+            ids = Arrays.copyOf(ids, Math.max(Math.max(ids.length * 2, capacity), 8));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size + " fields");
+        }
+    }
+
+    private static int knownId(String name) {
+        int length = name.length();
+        if (length == 0) {
+            return UNKNOWN;
+        }
+        int slot = hash(length, name.charAt(0), name.charAt(length - 1));
+        for (int entry; (entry = KNOWN_TABLE[slot]) != 0; slot = (slot + 1) & (KNOWN_TABLE.length - 1)) {
+            String known = KNOWN[entry - 1];
+            // The constants themselves are the usual argument
+            if (known == name || known.length() == length && known.equalsIgnoreCase(name)) {
+                return entry - 1;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static int knownId(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return UNKNOWN;
+        }
+        int slot = hash(length, bytes[start], bytes[end - 1]);
+        for (int entry; (entry = KNOWN_TABLE[slot]) != 0; slot = (slot + 1) & (KNOWN_TABLE.length - 1)) {
+            String known = KNOWN[entry - 1];
+            if (known.length() == length && equalsIgnoreCase(known, bytes, start)) {
+                return entry - 1;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean equalsIgnoreCase(String known, byte[] bytes, int start) {
+        for (int i = 0; i < known.length(); i++) {
+            if (toLowerCase(bytes[start + i]) != toLowerCase(known.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int length, int first, int last) {
+        return (length * 31 + toLowerCase(first) * 7 + toLowerCase(last)) & (KNOWN_TABLE.length - 1);
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The request methods known to the server.
+ */
+public enum HttpMethod {
+    GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH;
+
+    private static final HttpMethod[] VALUES = values();
+
+    private final byte[] token = name().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Looks up a method by its token without allocating.
+     *
+     * @param bytes the buffer holding the token
+     * @param offset the start of the token
+     * @param length the length of the token
+     * @return the method, or null if the token is not a known method
+     */
+    static HttpMethod lookup(byte[] bytes, int offset, int length) {
+        for (HttpMethod method : VALUES) {
+            if (Arrays.equals(method.token, 0, method.token.length, bytes, offset, offset + length)) {
+                return method;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request cannot be parsed or violates a configured limit.
+ * Carries the status the server answers with before closing the connection.
+ */
+public class HttpParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String statusMessage;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param statusCode the response status code
+     * @param statusMessage the response status message
+     * @param detail a description of the problem
+     */
+    public HttpParseException(int statusCode, String statusMessage, String detail) {
+        super(detail);
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+    }
+
+    /**
+     * Creates a 400 Bad Request exception.
+     *
+     * @param detail a description of the problem
+     * @return the exception
+     */
+    static HttpParseException badRequest(String detail) {
+        return new HttpParseException(400, "Bad Request", detail);
+    }
+
+    /**
+     * Creates a 408 Request Timeout exception.
+     *
+     * @param detail a description of the problem
+     * @return the exception
+     */
+    static HttpParseException requestTimeout(String detail) {
+        return new HttpParseException(408, "Request Timeout", detail);
+    }
+
+    /**
+     * Gets the status code to respond with.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the status message to respond with.
+     *
+     * @return the status message
+     */
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+}
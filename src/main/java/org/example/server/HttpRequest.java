@@ -1,83 +1,108 @@
 package org.example.server;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
  * Represents an HTTP request.
  */
 public class HttpRequest {
-    private static final Logger logger = LoggerFactory.getLogger(HttpRequest.class);
-    
-    private String method;
+
+    private HttpMethod method;
+    private String methodName;
     private String path;
-    private String version;
-    private final Map<String, String> headers = new HashMap<>();
-    private String body;
-    
+    private HttpVersion version;
+    // Raw header fields, decoded on first access
+    private final HttpHeaders headers = new HttpHeaders();
+    private Map<String, String> headerMap;
+    // Either the buffered body, or a stream reading it from the connection
+    private byte[] body;
+    private RequestBodyInputStream bodyStream;
+    private boolean bodyStreamTaken;
+    private String bodyText;
+    // Names and values of the path parameters matched by a Router, alternating
+    private String[] pathParameters;
+    private String route;
+    private InetSocketAddress remoteAddress;
+
+    /**
+     * Creates an empty request, filled by {@link HttpRequestParser}.
+     */
+    HttpRequest() {
+    }
+
+    /**
+     * Fills the request from the output of {@link HttpRequestParser}. The
+     * head is copied into the request's own buffers, which are reused when
+     * the request is recycled.
+     */
+    void init(HttpMethod method, String methodName, String path, HttpVersion version, byte[] head, int headLength,
+              int[] headerOffsets, int headerCount, byte[] body, RequestBodyInputStream bodyStream) {
+        this.method = method;
+        this.methodName = method != null ? method.name() : methodName;
+        this.path = path;
+        this.version = version;
+        headers.load(head, headLength, headerOffsets, headerCount);
+        this.body = body;
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * Clears the request for reuse, keeping its buffers.
+     */
+    void recycle() {
+        method = null;
+        methodName = null;
+        path = null;
+        version = null;
+        headers.clear();
+        headerMap = null;
+        body = null;
+        bodyStream = null;
+        bodyStreamTaken = false;
+        bodyText = null;
+        pathParameters = null;
+        route = null;
+        remoteAddress = null;
+    }
+
     /**
-     * Parses an HTTP request from an input stream.
+     * Parses an HTTP request from an input stream. The stream is read in
+     * blocks, so bytes following the request may be consumed; use an
+     * {@link HttpRequestParser} per connection to read several requests.
      *
      * @param inputStream the input stream to read from
-     * @return the parsed HTTP request
-     * @throws IOException if an I/O error occurs
+     * @return the parsed HTTP request, or null if the stream ended before a request
+     * @throws IOException if an I/O error occurs or the request is malformed
      */
     public static HttpRequest parse(InputStream inputStream) throws IOException {
-        HttpRequest request = new HttpRequest();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        
-        // Parse request line
-        String requestLine = reader.readLine();
-        if (requestLine != null) {
-            String[] parts = requestLine.split(" ");
-            if (parts.length >= 3) {
-                request.method = parts[0];
-                request.path = parts[1];
-                request.version = parts[2];
-            }
-        }
-        
-        // Parse headers
-        String headerLine;
-        while ((headerLine = reader.readLine()) != null && !headerLine.isEmpty()) {
-            int colonIndex = headerLine.indexOf(':');
-            if (colonIndex > 0) {
-                String name = headerLine.substring(0, colonIndex).trim();
-                String value = headerLine.substring(colonIndex + 1).trim();
-                request.headers.put(name, value);
-            }
-        }
-        
-        // Parse body if Content-Length is present
-        if (request.headers.containsKey("Content-Length")) {
-            int contentLength = Integer.parseInt(request.headers.get("Content-Length"));
-            if (contentLength > 0) {
-                char[] bodyChars = new char[contentLength];
-                reader.read(bodyChars, 0, contentLength);
-                request.body = new String(bodyChars);
-            }
-        }
-        
-        logger.debug("Parsed HTTP request: {} {} {}", request.method, request.path, request.version);
-        return request;
+        return new HttpRequestParser().readRequest(inputStream);
     }
-    
+
     /**
      * Gets the HTTP method.
      *
      * @return the HTTP method
      */
     public String getMethod() {
+        return methodName;
+    }
+
+    /**
+     * Gets the HTTP method as a constant.
+     *
+     * @return the HTTP method, or null for an extension method not in {@link HttpMethod}
+     */
+    public HttpMethod getHttpMethod() {
         return method;
     }
-    
+
     /**
      * Gets the request path.
      *
@@ -86,41 +111,241 @@ public class HttpRequest {
     public String getPath() {
         return path;
     }
-    
+
     /**
      * Gets the HTTP version.
      *
      * @return the HTTP version
      */
     public String getVersion() {
+        return version.text();
+    }
+
+    /**
+     * Gets the HTTP version as a constant.
+     *
+     * @return the HTTP version
+     */
+    public HttpVersion getHttpVersion() {
         return version;
     }
-    
+
     /**
-     * Gets a header value.
+     * Gets a header value. Names are case-insensitive.
      *
      * @param name the header name
-     * @return the header value, or null if not present
+     * @return the header value, the last one if the header is repeated, or null if not present
      */
     public String getHeader(String name) {
         return headers.get(name);
     }
-    
+
     /**
-     * Gets all headers.
+     * Gets all headers as a map. The map is built on the first call and
+     * shared by later calls; prefer {@link #getHeader(String)} for single
+     * lookups and {@link #getHttpHeaders()} to iterate.
      *
-     * @return the headers
+     * @return an unmodifiable map of the headers, in request order, with the values of repeated headers combined
      */
     public Map<String, String> getHeaders() {
-        return new HashMap<>(headers);
+        if (headerMap == null) {
+            headerMap = headers.toMap();
+        }
+        return headerMap;
+    }
+
+    /**
+     * Gets the header fields, including every occurrence of repeated ones.
+     *
+     * @return the header table of this request, valid until the request is recycled
+     */
+    public HttpHeaders getHttpHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets a parameter captured from the path by a {@link Router} pattern.
+     *
+     * @param name the parameter name, or "*" for an unnamed wildcard
+     * @return the parameter value, or null if the route has no such parameter
+     */
+    public String getPathParameter(String name) {
+        if (pathParameters != null) {
+            for (int i = 0; i < pathParameters.length; i += 2) {
+                if (pathParameters[i].equals(name)) {
+                    return pathParameters[i + 1];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the path parameters matched by a router.
+     *
+     * @param pathParameters names and values, alternating
+     */
+    void setPathParameters(String[] pathParameters) {
+        this.pathParameters = pathParameters;
+    }
+
+    /**
+     * Gets the route pattern a {@link Router} dispatched the request to.
+     *
+     * @return the pattern, or null if the request has not been routed
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * Sets the matched route pattern.
+     *
+     * @param route the pattern
+     */
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    /**
+     * Gets the address of the client that sent the request.
+     *
+     * @return the remote address, or null if the request was not read from a connection
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Sets the address of the client connection.
+     *
+     * @param remoteAddress the remote address
+     */
+    void setRemoteAddress(InetSocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
     }
-    
+
     /**
-     * Gets the request body.
+     * Checks whether the request has a body.
      *
-     * @return the request body
+     * @return true if the request carries a Content-Length or chunked body
+     */
+    public boolean hasBody() {
+        return body != null || bodyStream != null;
+    }
+
+    /**
+     * Gets the request body as a stream. Bodies read from a blocking
+     * connection are streamed from the socket as the stream is read, so
+     * uploads of any size run in constant memory; the stream ends at the end
+     * of the body and closing it leaves the connection open. A body the
+     * handler does not read is skipped before the next request.
+     *
+     * @return the body stream, empty if the request has no body
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream != null && body == null) {
+            bodyStreamTaken = true;
+            return bodyStream;
+        }
+        return body != null ? new ByteArrayInputStream(body) : InputStream.nullInputStream();
+    }
+
+    /**
+     * Gets the request body decoded with the charset from the Content-Type
+     * header, or UTF-8 if none is given. Reads a streamed body into memory,
+     * see {@link #getBodyBytes()}.
+     *
+     * @return the request body, or null if the request has no body
      */
     public String getBody() {
+        byte[] bytes = getBodyBytes();
+        if (bytes == null) {
+            return null;
+        }
+        if (bodyText == null) {
+            bodyText = new String(bytes, bodyCharset());
+        }
+        return bodyText;
+    }
+
+    /**
+     * Gets the raw request body. A streamed body is read into memory on the
+     * first call; the size is bounded by the server's maximum body size, so
+     * this is meant for small bodies. Use {@link #getBodyStream()} for uploads.
+     *
+     * @return the request body bytes, or null if the request has no body
+     * @throws IllegalStateException if the body stream has already been taken
+     * @throws UncheckedIOException if the body cannot be read
+     */
+    public byte[] getBodyBytes() {
+        if (body == null && bodyStream != null) {
+            if (bodyStreamTaken) {
+                throw new IllegalStateException("The body has already been read as a stream");
+            }
+            try {
+                body = bodyStream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return body;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the error that ended a streamed body, for the server to answer with.
+     *
+     * @return the error if the body was malformed or too large, otherwise null
+     */
+    HttpParseException getBodyError() {
+        return bodyStream != null ? bodyStream.getFailure() : null;
+    }
+
+    /**
+     * Checks whether the body still has to be read from the connection.
+     *
+     * @return true for a streamed body that has not been read completely
+     */
+    boolean hasUnreadBody() {
+        return bodyStream != null && !bodyStream.isFinished();
+    }
+
+    /**
+     * Skips what the handler left unread of a streamed body.
+     *
+     * @param limit the maximum number of bytes to skip
+     * @return true if the connection is positioned at the next request
+     */
+    boolean discardBody(long limit) {
+        return !hasUnreadBody() || bodyStream.discard(limit);
+    }
+
+    private Charset bodyCharset() {
+        String contentType = getHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            int index = indexOfCharset(contentType);
+            if (index >= 0) {
+                String name = contentType.substring(index + 8).split(";")[0].trim().replace("\"", "");
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    // Fall back to the default for unknown charsets
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Finds the charset parameter case-insensitively, independent of the
+     * default locale and on the original string, so that the index fits it.
+     */
+    private static int indexOfCharset(String contentType) {
+        for (int i = 0; i + 8 <= contentType.length(); i++) {
+            if (contentType.regionMatches(true, i, "charset=", 0, 8)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,519 @@
+package org.example.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request parser working directly on bytes.
+ *
+ * <p>One parser serves one connection. {@link #parse(ByteBuffer)} can be fed
+ * arbitrary fragments of the byte stream and resumes where the previous call
+ * stopped, which is what the non-blocking transport needs. The request line
+ * and headers are collected into a reusable buffer and only the method, path
+ * and header offsets are extracted; header values are decoded when a handler
+ * asks for them.</p>
+ *
+ * <p>Bodies, with a Content-Length or in the chunked transfer coding, are
+ * buffered by {@link #parse(ByteBuffer)}, in a buffer that grows as the body
+ * arrives. {@link #readRequest(InputStream)} instead returns the request as
+ * soon as its headers are complete and lets the handler stream the body from
+ * the connection, as does {@link #parse(ByteBuffer)} once a body source is
+ * set.</p>
+ */
+public class HttpRequestParser {
+
+    public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_HEADER_COUNT = 100;
+    public static final long DEFAULT_MAX_BODY_SIZE = 10 * 1024 * 1024;
+    // Largest body that can be buffered in a byte array
+    private static final long MAX_BUFFERED_BODY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final int INITIAL_HEAD_SIZE = 512;
+    private static final int INITIAL_BODY_SIZE = 4096;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+
+    private enum State { REQUEST_LINE, HEADERS, BODY }
+
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long maxBodySize;
+
+    private State state = State.REQUEST_LINE;
+    private byte[] head = new byte[INITIAL_HEAD_SIZE];
+    private int headLength;
+    private int lineStart;
+    // Four entries per header: name start, name end, value start, value end
+    private int[] headerOffsets = new int[4 * 16];
+    private int headerCount;
+
+    private HttpMethod method;
+    private String methodName;
+    private String path;
+    private HttpVersion version;
+    private long contentLength = -1;
+    private boolean chunked;
+    private ChunkedDecoder decoder;
+    private byte[] body;
+    private int bodyRead;
+
+    private ByteBuffer streamBuffer;
+    private InputStream stream;
+    // Set while parsing from the stream buffer: bodies are streamed rather than buffered
+    private boolean streaming;
+    private RequestBodyInputStream streamedBody;
+    // The stream that parse() reads bodies from, null to buffer them
+    private InputStream bodySource;
+    // The connection's peer, stamped on every request
+    private InetSocketAddress remoteAddress;
+    // Recycled requests of the connection, if the server pools them
+    private ExchangePool exchangePool;
+
+    /**
+     * Creates a parser with the default limits.
+     */
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_HEADER_COUNT);
+    }
+
+    /**
+     * Creates a parser with the given header limits and the default body limit.
+     *
+     * @param maxHeaderSize the maximum size of the request line and headers in bytes
+     * @param maxHeaderCount the maximum number of header fields
+     */
+    public HttpRequestParser(int maxHeaderSize, int maxHeaderCount) {
+        this(maxHeaderSize, maxHeaderCount, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * Creates a parser with the given limits.
+     *
+     * @param maxHeaderSize the maximum size of the request line and headers in bytes
+     * @param maxHeaderCount the maximum number of header fields
+     * @param maxBodySize the maximum size of a request body in bytes
+     */
+    public HttpRequestParser(int maxHeaderSize, int maxHeaderCount, long maxBodySize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Consumes bytes from the buffer until a request is complete or the buffer
+     * is exhausted. Bytes following a complete request are left in the buffer.
+     *
+     * @param input the buffer to read from, in read mode
+     * @return the parsed request, or null if more input is needed
+     * @throws HttpParseException if the request is malformed or exceeds a limit
+     */
+    public HttpRequest parse(ByteBuffer input) throws HttpParseException {
+        while (input.hasRemaining()) {
+            if (state == State.BODY) {
+                if (chunked ? readChunk(input) : readBody(input)) {
+                    return complete();
+                }
+                continue;
+            }
+
+            // Copy up to and including the next line feed in one go
+            int position = input.position();
+            int limit = input.limit();
+            int lineFeed = -1;
+            for (int i = position; i < limit; i++) {
+                if (input.get(i) == '\n') {
+                    lineFeed = i;
+                    break;
+                }
+            }
+            int count = (lineFeed < 0 ? limit : lineFeed + 1) - position;
+            ensureHeadCapacity(count);
+            input.get(head, headLength, count);
+            headLength += count;
+            if (lineFeed >= 0 && onLine()) {
+                return complete();
+            }
+        }
+        return null;
+    }
+
+    private boolean readBody(ByteBuffer input) {
+        if (bodyRead == body.length) {
+            // Grown as bytes arrive, so a Content-Length alone does not claim the memory
+            body = Arrays.copyOf(body, (int) Math.min(body.length * 2L, contentLength));
+        }
+        int count = Math.min(input.remaining(), body.length - bodyRead);
+        input.get(body, bodyRead, count);
+        bodyRead += count;
+        return bodyRead == contentLength;
+    }
+
+    private boolean readChunk(ByteBuffer input) throws HttpParseException {
+        if (bodyRead == body.length) {
+            if (body.length >= Math.min(maxBodySize, MAX_BUFFERED_BODY_SIZE)) {
+                throw bodyTooLarge();
+            }
+            body = Arrays.copyOf(body, (int) Math.min(body.length * 2L, Math.min(maxBodySize, MAX_BUFFERED_BODY_SIZE)));
+        }
+        bodyRead += decoder.decode(input, body, bodyRead, body.length - bodyRead);
+        if (decoder.isFinished()) {
+            body = Arrays.copyOf(body, bodyRead);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next request from a blocking stream. The request is returned
+     * once its headers are complete; a body is streamed from the connection by
+     * {@link HttpRequest#getBodyStream()}. Whatever the handler leaves unread
+     * is skipped by the next call. Bytes read past the end of the request are
+     * kept for the next call.
+     *
+     * @param inputStream the stream to read from
+     * @return the parsed request, or null if the stream ended between requests
+     * @throws IOException if an I/O error occurs or the request is malformed
+     */
+    public HttpRequest readRequest(InputStream inputStream) throws IOException {
+        if (streamBuffer == null) {
+            streamBuffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE).flip();
+        }
+        stream = inputStream;
+        if (streamedBody != null) {
+            streamedBody.drain();
+            streamedBody = null;
+        }
+        while (true) {
+            HttpRequest request = parseStream();
+            if (request != null) {
+                return request;
+            }
+            // parse() consumed everything, so the whole buffer can be refilled
+            int read = inputStream.read(streamBuffer.array(), 0, streamBuffer.capacity());
+            if (read < 0) {
+                streamBuffer.clear().flip();
+                if (isIdle()) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a request");
+            }
+            streamBuffer.clear().limit(read);
+        }
+    }
+
+    /**
+     * Parses the next request from bytes that an earlier {@link #readRequest(InputStream)}
+     * call has already read, without blocking. Used to collect pipelined requests.
+     *
+     * @return the parsed request, or null if the buffered bytes do not complete one
+     * @throws HttpParseException if the request is malformed or exceeds a limit
+     */
+    public HttpRequest readBufferedRequest() throws HttpParseException {
+        // The body of the previous request comes first and is still to be read by its handler
+        if (streamBuffer == null || !streamBuffer.hasRemaining() || streamedBody != null) {
+            return null;
+        }
+        return parseStream();
+    }
+
+    private HttpRequest parseStream() throws HttpParseException {
+        streaming = true;
+        try {
+            return parse(streamBuffer);
+        } finally {
+            streaming = false;
+        }
+    }
+
+    /**
+     * Checks whether the parser is between requests.
+     *
+     * @return true if no bytes of the next request have been received yet
+     */
+    public boolean isIdle() {
+        return state == State.REQUEST_LINE && headLength == 0;
+    }
+
+    /**
+     * Checks whether the parser has the head of a request and is waiting for its body.
+     *
+     * @return true while a body is being buffered
+     */
+    boolean isReadingBody() {
+        return state == State.BODY;
+    }
+
+    /**
+     * Handles the line that ends at the current end of the head buffer.
+     *
+     * @return true if the request is complete
+     */
+    private boolean onLine() throws HttpParseException {
+        int end = headLength - 1;
+        if (end > lineStart && head[end - 1] == '\r') {
+            end--;
+        }
+        int start = lineStart;
+        lineStart = headLength;
+
+        if (state == State.REQUEST_LINE) {
+            if (end == start) {
+                // Tolerate empty lines before the request line
+                headLength = 0;
+                lineStart = 0;
+                return false;
+            }
+            parseRequestLine(start, end);
+            state = State.HEADERS;
+            return false;
+        }
+
+        if (end > start) {
+            parseHeaderLine(start, end);
+            return false;
+        }
+
+        // Empty line: end of headers
+        if (chunked && contentLength >= 0) {
+            // Ambiguous framing, a classic request smuggling vector
+            throw HttpParseException.badRequest("Both Content-Length and Transfer-Encoding present");
+        }
+        if (!chunked && contentLength <= 0) {
+            return true;
+        }
+        if (chunked) {
+            decoder = new ChunkedDecoder();
+        }
+        if (streaming || bodySource != null) {
+            InputStream source = streaming ? stream : bodySource;
+            ByteBuffer buffer = streaming ? streamBuffer : ByteBuffer.allocate(STREAM_BUFFER_SIZE).flip();
+            streamedBody = chunked
+                    ? new RequestBodyInputStream(source, buffer, maxBodySize, decoder)
+                    : new RequestBodyInputStream(source, buffer, contentLength);
+            return true;
+        }
+        if (contentLength > MAX_BUFFERED_BODY_SIZE) {
+            throw bodyTooLarge();
+        }
+        body = new byte[(int) Math.min(INITIAL_BODY_SIZE, chunked ? maxBodySize : contentLength)];
+        state = State.BODY;
+        return false;
+    }
+
+    private void parseRequestLine(int start, int end) throws HttpParseException {
+        int methodEnd = indexOf(' ', start, end);
+        int targetEnd = methodEnd < 0 ? -1 : indexOf(' ', methodEnd + 1, end);
+        if (methodEnd <= start || targetEnd <= methodEnd + 1) {
+            throw HttpParseException.badRequest("Malformed request line");
+        }
+
+        method = HttpMethod.lookup(head, start, methodEnd - start);
+        if (method == null) {
+            methodName = new String(head, start, methodEnd - start, StandardCharsets.US_ASCII);
+        }
+        path = new String(head, methodEnd + 1, targetEnd - methodEnd - 1, StandardCharsets.UTF_8);
+        version = HttpVersion.lookup(head, targetEnd + 1, end - targetEnd - 1);
+        if (version == null) {
+            throw new HttpParseException(505, "HTTP Version Not Supported", "Unsupported protocol version");
+        }
+    }
+
+    private void parseHeaderLine(int start, int end) throws HttpParseException {
+        if (head[start] == ' ' || head[start] == '\t') {
+            throw HttpParseException.badRequest("Obsolete header line folding");
+        }
+        int colon = indexOf(':', start, end);
+        if (colon <= start || head[colon - 1] == ' ' || head[colon - 1] == '\t') {
+            throw HttpParseException.badRequest("Malformed header line");
+        }
+        if (headerCount == maxHeaderCount) {
+            throw new HttpParseException(431, "Request Header Fields Too Large", "Too many header fields");
+        }
+
+        int valueStart = colon + 1;
+        while (valueStart < end && (head[valueStart] == ' ' || head[valueStart] == '\t')) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+
+        if (headerOffsets.length < (headerCount + 1) * 4) {
+            headerOffsets = Arrays.copyOf(headerOffsets, headerOffsets.length * 2);
+        }
+        int slot = headerCount * 4;
+        headerOffsets[slot] = start;
+        headerOffsets[slot + 1] = colon;
+        headerOffsets[slot + 2] = valueStart;
+        headerOffsets[slot + 3] = valueEnd;
+        headerCount++;
+
+        if (equalsIgnoreCase(CONTENT_LENGTH, start, colon)) {
+            long length = parseContentLength(valueStart, valueEnd);
+            if (contentLength >= 0 && contentLength != length) {
+                throw HttpParseException.badRequest("Conflicting Content-Length headers");
+            }
+            contentLength = length;
+        } else if (equalsIgnoreCase(TRANSFER_ENCODING, start, colon)) {
+            String coding = new String(head, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+            if (chunked || !coding.equalsIgnoreCase("chunked")) {
+                throw new HttpParseException(501, "Not Implemented", "Unsupported transfer coding: " + coding);
+            }
+            chunked = true;
+        }
+    }
+
+    private long parseContentLength(int start, int end) throws HttpParseException {
+        if (start == end) {
+            throw HttpParseException.badRequest("Empty Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = head[i];
+            if (b < '0' || b > '9') {
+                throw HttpParseException.badRequest("Invalid Content-Length");
+            }
+            if (value > (Long.MAX_VALUE - 9) / 10) {
+                throw bodyTooLarge();
+            }
+            value = value * 10 + (b - '0');
+            if (value > maxBodySize) {
+                throw bodyTooLarge();
+            }
+        }
+        return value;
+    }
+
+    private HttpParseException bodyTooLarge() {
+        return new HttpParseException(413, "Content Too Large", "Request body exceeds " + maxBodySize + " bytes");
+    }
+
+    private void ensureHeadCapacity(int additional) throws HttpParseException {
+        int required = headLength + additional;
+        if (required > maxHeaderSize) {
+            if (state == State.REQUEST_LINE) {
+                throw new HttpParseException(414, "URI Too Long", "Request line exceeds " + maxHeaderSize + " bytes");
+            }
+            throw new HttpParseException(431, "Request Header Fields Too Large",
+                    "Request headers exceed " + maxHeaderSize + " bytes");
+        }
+        if (required > head.length) {
+            head = Arrays.copyOf(head, Math.min(Math.max(head.length * 2, required), maxHeaderSize));
+        }
+    }
+
+    private HttpRequest complete() {
+        HttpRequest request = exchangePool != null ? exchangePool.request() : new HttpRequest();
+        request.init(method, methodName, path, version, head, headLength, headerOffsets, headerCount,
+                body, streaming || bodySource != null ? streamedBody : null);
+        request.setRemoteAddress(remoteAddress);
+        reset();
+        return request;
+    }
+
+    /**
+     * Makes {@link #parse(ByteBuffer)} return a request with a body as soon
+     * as its headers are complete. The body is read from the given source,
+     * and the bytes that follow the head are left in the input for the
+     * caller to pass on to it.
+     *
+     * @param bodySource the stream bodies are read from
+     */
+    void setBodySource(InputStream bodySource) {
+        this.bodySource = bodySource;
+    }
+
+    /**
+     * Takes the body stream of the last request that {@link #parse(ByteBuffer)}
+     * returned with a body read from the body source.
+     *
+     * @return the body stream, or null if that request had none
+     */
+    RequestBodyInputStream takeStreamedBody() {
+        RequestBodyInputStream taken = streamedBody;
+        streamedBody = null;
+        return taken;
+    }
+
+    /**
+     * Sets the address of the client the requests come from.
+     *
+     * @param remoteAddress the remote address
+     */
+    void setRemoteAddress(InetSocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Sets the pool that requests are taken from, so that the buffers of
+     * completed exchanges are reused.
+     *
+     * @param exchangePool the pool of the connection
+     */
+    void setExchangePool(ExchangePool exchangePool) {
+        this.exchangePool = exchangePool;
+    }
+
+    /**
+     * Takes the bytes that {@link #readRequest(InputStream)} has read past the
+     * last request and its body, for a connection that switches protocols.
+     *
+     * @return the buffered bytes, possibly none
+     */
+    byte[] takeBuffered() {
+        if (streamBuffer == null) {
+            return new byte[0];
+        }
+        byte[] buffered = new byte[streamBuffer.remaining()];
+        streamBuffer.get(buffered);
+        return buffered;
+    }
+
+    private void reset() {
+        state = State.REQUEST_LINE;
+        headLength = 0;
+        lineStart = 0;
+        headerCount = 0;
+        method = null;
+        methodName = null;
+        path = null;
+        version = null;
+        contentLength = -1;
+        chunked = false;
+        decoder = null;
+        body = null;
+        bodyRead = 0;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (head[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(byte[] lowerCaseName, int from, int to) {
+        if (to - from != lowerCaseName.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            byte b = head[from + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,10 +3,19 @@ package org.example.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,20 +23,64 @@ import java.util.Map;
  */
 public class HttpResponse {
     private static final Logger logger = LoggerFactory.getLogger(HttpResponse.class);
-    
+
+    private static final BufferPool BUFFERS = new BufferPool(16 * 1024, 256);
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.allocate(0);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON_SPACE = {':', ' '};
+
     private int statusCode = 200;
     private String statusMessage = "OK";
-    private final Map<String, String> headers = new HashMap<>();
-    private String body = "";
-    
+    private final HttpHeaders headers = new HttpHeaders();
+    private ByteBuffer body = EMPTY_BODY;
+    private String bodyText = "";
+    // The pooled buffer behind the body, returned to the pool when the body is replaced or sent
+    private ByteBuffer pooledBody;
+    // A file region sent with FileChannel.transferTo instead of a heap body
+    private FileChannel file;
+    private long filePosition;
+    private long fileCount;
+    private boolean headOnly;
+    // Streaming mode: the connection to write to once committed, and the body stream
+    private ResponseSink sink;
+    private boolean chunkedAllowed = true;
+    private Runnable commitHook;
+    private ResponseOutputStream outputStream;
+    private boolean committed;
+
     /**
      * Creates a new HTTP response with default status 200 OK.
      */
     public HttpResponse() {
-        headers.put("Content-Type", "text/plain");
-        headers.put("Server", "BasicHttpServer/1.0");
+        setDefaultHeaders();
+    }
+
+    private void setDefaultHeaders() {
+        headers.set(HttpHeaders.CONTENT_TYPE, "text/plain");
+        headers.set(HttpHeaders.SERVER, "BasicHttpServer/1.0");
     }
-    
+
+    /**
+     * Returns the response to its initial state for reuse by another
+     * exchange, releasing a file or pooled body. The header table is kept.
+     */
+    void reset() {
+        closeFile();
+        releasePooledBody();
+        statusCode = 200;
+        statusMessage = "OK";
+        headers.clear();
+        setDefaultHeaders();
+        body = EMPTY_BODY;
+        bodyText = "";
+        headOnly = false;
+        sink = null;
+        chunkedAllowed = true;
+        commitHook = null;
+        outputStream = null;
+        committed = false;
+    }
+
     /**
      * Sets the status code and message.
      *
@@ -40,31 +93,263 @@ public class HttpResponse {
         this.statusMessage = statusMessage;
         return this;
     }
-    
+
     /**
-     * Sets a header.
+     * Sets the status code with its standard reason phrase.
+     *
+     * @param statusCode the status code
+     * @return this response for chaining
+     */
+    public HttpResponse setStatus(int statusCode) {
+        return setStatus(statusCode, HttpStatus.reasonPhrase(statusCode));
+    }
+
+    /**
+     * Sets a header, replacing any earlier value. Names are case-insensitive.
      *
      * @param name the header name
      * @param value the header value
      * @return this response for chaining
      */
     public HttpResponse setHeader(String name, String value) {
-        headers.put(name, value);
+        headers.set(name, value);
         return this;
     }
-    
+
     /**
-     * Sets the response body.
+     * Adds a header, keeping earlier values, for fields that may be
+     * repeated such as Set-Cookie.
+     *
+     * @param name the header name
+     * @param value the header value
+     * @return this response for chaining
+     */
+    public HttpResponse addHeader(String name, String value) {
+        headers.add(name, value);
+        return this;
+    }
+
+    /**
+     * Sets the response body, encoded as UTF-8.
      *
      * @param body the response body
      * @return this response for chaining
      */
     public HttpResponse setBody(String body) {
-        this.body = body;
-        setHeader("Content-Length", String.valueOf(body.length()));
+        setBody(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+        this.bodyText = body;
+        return this;
+    }
+
+    /**
+     * Sets the response body.
+     *
+     * @param body the response body bytes, which must not be modified afterwards
+     * @return this response for chaining
+     */
+    public HttpResponse setBody(byte[] body) {
+        return setBody(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Sets the response body to the remaining bytes of a buffer. The buffer's
+     * position is not changed, so the same buffer can be sent repeatedly.
+     *
+     * @param body the response body, which must not be modified afterwards
+     * @return this response for chaining
+     */
+    public HttpResponse setBody(ByteBuffer body) {
+        closeFile();
+        releasePooledBody();
+        this.body = body.slice();
+        this.bodyText = null;
+        setHeader("Content-Length", String.valueOf(this.body.remaining()));
         return this;
     }
-    
+
+    /**
+     * Sets the response body to a region of a file. The bytes are transferred
+     * from the file to the connection by the operating system where possible
+     * (sendfile), without passing through the Java heap. The response takes
+     * ownership of the channel and closes it once the body has been sent.
+     *
+     * @param file the open file
+     * @param position the position of the first byte to send
+     * @param count the number of bytes to send
+     * @return this response for chaining
+     */
+    public HttpResponse setBody(FileChannel file, long position, long count) {
+        closeFile();
+        releasePooledBody();
+        this.body = EMPTY_BODY;
+        this.bodyText = null;
+        this.file = file;
+        this.filePosition = position;
+        this.fileCount = count;
+        setHeader("Content-Length", String.valueOf(count));
+        return this;
+    }
+
+    /**
+     * Switches the response to streaming mode and returns the body stream.
+     * Any body set before is discarded. Status and headers must be set before
+     * the response is committed, which happens when the stream's buffer
+     * overflows or it is flushed. The body is sent with chunked transfer
+     * coding unless a Content-Length header was set; a body that is closed
+     * before the first commit is sent with a Content-Length. The server
+     * closes the stream when the handler returns.
+     *
+     * @return the body stream
+     * @throws IllegalStateException if the response has already been committed
+     */
+    public OutputStream getOutputStream() {
+        if (outputStream == null) {
+            if (committed) {
+                throw new IllegalStateException("Response has already been committed");
+            }
+            closeFile();
+            releasePooledBody();
+            body = EMPTY_BODY;
+            bodyText = null;
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            outputStream = new ResponseOutputStream(this, sink, sink != null ? BUFFERS.acquire() : null);
+        }
+        return outputStream;
+    }
+
+    /**
+     * Checks whether the status line and headers have already been sent.
+     * Only streaming responses are committed before the handler returns.
+     *
+     * @return true if the response has been committed
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Attaches the response to its connection, so that a streaming body is
+     * written while the handler runs. Responses that are not attached collect
+     * a streaming body in memory.
+     *
+     * @param sink the connection
+     * @param chunkedAllowed whether the client understands chunked transfer coding
+     */
+    void bind(ResponseSink sink, boolean chunkedAllowed) {
+        this.sink = sink;
+        this.chunkedAllowed = chunkedAllowed;
+    }
+
+    /**
+     * Sets the action that completes the headers right before a streaming
+     * response is committed.
+     *
+     * @param commitHook the action
+     */
+    void onCommit(Runnable commitHook) {
+        this.commitHook = commitHook;
+    }
+
+    /**
+     * Ends a streaming body, if the handler has not closed it already.
+     *
+     * @throws IOException if the rest of the body cannot be written
+     */
+    void finishBody() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Checks whether the handler has taken the body stream.
+     *
+     * @return true for a streaming response
+     */
+    boolean isStreaming() {
+        return outputStream != null;
+    }
+
+    boolean isChunkedAllowed() {
+        return chunkedAllowed;
+    }
+
+    boolean isHeadOnly() {
+        return headOnly;
+    }
+
+    /**
+     * Commits the response and encodes its head for the body stream.
+     *
+     * @return a pooled buffer with the status line and headers, in read mode
+     */
+    ByteBuffer commitHead() {
+        if (commitHook != null) {
+            commitHook.run();
+        }
+        committed = true;
+        ByteBuffer head = BUFFERS.acquire();
+        int capacity = head.capacity();
+        while (true) {
+            try {
+                encodeHead(head);
+                return head.flip();
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+                head = ByteBuffer.allocate(capacity);
+            }
+        }
+    }
+
+    /**
+     * Sets the body collected by a streaming response that was not committed.
+     *
+     * @param body the body
+     */
+    void setStreamedBody(ByteBuffer body) {
+        this.body = body;
+        this.bodyText = null;
+        setHeader("Content-Length", String.valueOf(body.remaining()));
+    }
+
+    /**
+     * Sets a body written into a buffer from {@link #acquireBuffer()}. The
+     * response returns the buffer to the pool once it has been reset for
+     * the next exchange, or when the body is replaced.
+     *
+     * @param buffer the pooled buffer
+     * @param length the number of body bytes at the start of its array
+     */
+    void setPooledBody(ByteBuffer buffer, int length) {
+        setBody(ByteBuffer.wrap(buffer.array(), buffer.arrayOffset(), length));
+        pooledBody = buffer;
+    }
+
+    private void releasePooledBody() {
+        if (pooledBody != null) {
+            BUFFERS.release(pooledBody);
+            pooledBody = null;
+        }
+    }
+
+    /**
+     * Takes a heap buffer from the pool that response heads and streaming bodies use.
+     *
+     * @return a buffer in write mode
+     */
+    static ByteBuffer acquireBuffer() {
+        return BUFFERS.acquire();
+    }
+
+    /**
+     * Returns a buffer obtained for a streaming body to the pool.
+     *
+     * @param buffer the buffer
+     */
+    static void releaseBuffer(ByteBuffer buffer) {
+        BUFFERS.release(buffer);
+    }
+
     /**
      * Sets the content type.
      *
@@ -75,34 +360,308 @@ public class HttpResponse {
         setHeader("Content-Type", contentType);
         return this;
     }
-    
+
     /**
-     * Sends the response to the output stream.
+     * Sends the response to the output stream. The status line, headers and,
+     * if it fits, the body are written with a single write call.
      *
      * @param outputStream the output stream to write to
      * @throws IOException if an I/O error occurs
      */
     public void send(OutputStream outputStream) throws IOException {
-        PrintWriter writer = new PrintWriter(outputStream, true);
-        
-        // Write status line
-        writer.println("HTTP/1.1 " + statusCode + " " + statusMessage);
-        
-        // Write headers
-        for (Map.Entry<String, String> header : headers.entrySet()) {
-            writer.println(header.getKey() + ": " + header.getValue());
-        }
-        
-        // Write empty line to separate headers from body
-        writer.println();
-        
-        // Write body
-        writer.print(body);
-        writer.flush();
-        
-        logger.debug("Sent HTTP response: {} {}", statusCode, statusMessage);
-    }
-    
+        if (committed) {
+            return;
+        }
+        ByteBuffer[] data = encode();
+        try {
+            for (ByteBuffer buffer : data) {
+                write(outputStream, buffer);
+            }
+            if (hasFileBody()) {
+                transferFile(Channels.newChannel(outputStream));
+            }
+            outputStream.flush();
+        } finally {
+            release(data);
+            closeFile();
+        }
+    }
+
+    /**
+     * Sends the response to a blocking channel with a gathering write. File
+     * bodies are transferred directly to the channel.
+     *
+     * @param channel the channel to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void send(GatheringByteChannel channel) throws IOException {
+        send(List.of(this), channel);
+    }
+
+    /**
+     * Sends several responses, in order, to a blocking channel. Consecutive
+     * responses are written together with one gathering write; only a file
+     * body interrupts the batch.
+     *
+     * @param responses the responses to send
+     * @param channel the channel to write to
+     * @throws IOException if an I/O error occurs
+     */
+    static void send(List<HttpResponse> responses, GatheringByteChannel channel) throws IOException {
+        // Streaming responses have already been written while their handler ran
+        responses = uncommitted(responses);
+        if (responses.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer[]> encoded = new ArrayList<>(responses.size());
+        try {
+            for (HttpResponse response : responses) {
+                encoded.add(response.encode());
+            }
+            int next = 0;
+            while (next < responses.size()) {
+                List<ByteBuffer> group = new ArrayList<>();
+                int end = group(responses, encoded, next, group);
+                ByteBuffer[] data = group.toArray(new ByteBuffer[0]);
+                while (data[data.length - 1].hasRemaining()) {
+                    channel.write(data);
+                }
+                HttpResponse last = responses.get(end - 1);
+                if (last.hasFileBody()) {
+                    last.transferFile(channel);
+                }
+                next = end;
+            }
+        } finally {
+            for (ByteBuffer[] data : encoded) {
+                release(data);
+            }
+            for (HttpResponse response : responses) {
+                response.closeFile();
+            }
+        }
+    }
+
+    /**
+     * Filters out responses that have already been committed, without
+     * copying the list in the common case that there are none.
+     *
+     * @param responses the responses
+     * @return the responses that still have to be sent, in order
+     */
+    static List<HttpResponse> uncommitted(List<HttpResponse> responses) {
+        for (int i = 0; i < responses.size(); i++) {
+            if (responses.get(i).committed) {
+                List<HttpResponse> pending = new ArrayList<>(responses.size() - 1);
+                for (HttpResponse response : responses) {
+                    if (!response.committed) {
+                        pending.add(response);
+                    }
+                }
+                return pending;
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Collects the encoded buffers of consecutive responses that can be
+     * written together, stopping after the first response with a file body.
+     *
+     * @param responses the responses
+     * @param encoded the {@link #encode()} result of each response
+     * @param from the index of the first response of the group
+     * @param target receives the buffers of the group
+     * @return the index after the last response of the group
+     */
+    static int group(List<HttpResponse> responses, List<ByteBuffer[]> encoded, int from, List<ByteBuffer> target) {
+        int index = from;
+        while (index < responses.size()) {
+            Collections.addAll(target, encoded.get(index));
+            if (responses.get(index++).hasFileBody()) {
+                break;
+            }
+        }
+        return index;
+    }
+
+    private void transferFile(WritableByteChannel target) throws IOException {
+        long sent = 0;
+        while (sent < fileCount) {
+            long transferred = transferFileBody(sent, target);
+            if (transferred == 0 && filePosition + sent >= file.size()) {
+                throw new EOFException("File body is shorter than its Content-Length");
+            }
+            sent += transferred;
+        }
+    }
+
+    /**
+     * Serializes the response. The first buffer comes from a pool and holds
+     * the status line and headers, plus the body when it fits; otherwise the
+     * body follows as a second buffer. Pass the result to {@link #release(ByteBuffer[])}
+     * once it has been written.
+     *
+     * @return the buffers to write, in read mode
+     */
+    ByteBuffer[] encode() {
+        ByteBuffer bodyData = headOnly ? EMPTY_BODY : body.duplicate();
+        ByteBuffer head = BUFFERS.acquire();
+        int capacity = head.capacity();
+        while (true) {
+            try {
+                encodeHead(head);
+                break;
+            } catch (BufferOverflowException e) {
+                // Unusually large headers, retry with a private buffer
+                capacity *= 2;
+                head = ByteBuffer.allocate(capacity);
+            }
+        }
+        if (bodyData.remaining() <= head.remaining()) {
+            head.put(bodyData);
+            return new ByteBuffer[] {head.flip()};
+        }
+        return new ByteBuffer[] {head.flip(), bodyData};
+    }
+
+    /**
+     * Returns the pooled buffer of an {@link #encode()} result.
+     *
+     * @param data the encoded buffers
+     */
+    static void release(ByteBuffer[] data) {
+        BUFFERS.release(data[0]);
+    }
+
+    /**
+     * Checks whether the body is a file region that still has to be sent
+     * after the buffers returned by {@link #encode()}.
+     *
+     * @return true for a file body that is not suppressed by a HEAD request
+     */
+    boolean hasFileBody() {
+        return file != null && !headOnly;
+    }
+
+    /**
+     * Transfers part of the file body to a channel.
+     *
+     * @param offset the number of body bytes already sent
+     * @param target the channel to write to; may be non-blocking
+     * @return the number of bytes transferred, possibly 0
+     * @throws IOException if an I/O error occurs
+     */
+    long transferFileBody(long offset, WritableByteChannel target) throws IOException {
+        return file.transferTo(filePosition + offset, fileCount - offset, target);
+    }
+
+    /**
+     * Gets the number of body bytes sent, or to be sent, for this response.
+     *
+     * @return the body length, 0 for a HEAD response
+     */
+    long bodyLength() {
+        if (headOnly) {
+            return 0;
+        }
+        if (file != null) {
+            return fileCount;
+        }
+        return outputStream != null && committed ? outputStream.getWritten() : body.remaining();
+    }
+
+    /**
+     * Gets the length of the file body.
+     *
+     * @return the number of bytes in the file region
+     */
+    long fileBodyLength() {
+        return fileCount;
+    }
+
+    /**
+     * Releases the file body, if any.
+     */
+    void closeFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.error("Error closing file body", e);
+        }
+        file = null;
+    }
+
+    /**
+     * Marks the response as the answer to a HEAD request: headers, including
+     * Content-Length, are sent but the body is not.
+     */
+    void setHeadOnly() {
+        this.headOnly = true;
+    }
+
+    private void encodeHead(ByteBuffer target) {
+        target.clear();
+        byte[] statusLine = HttpStatus.statusLine(statusCode, statusMessage);
+        if (statusLine != null) {
+            target.put(statusLine);
+        } else {
+            putAscii(target, "HTTP/1.1 ");
+            putAscii(target, Integer.toString(statusCode));
+            target.put((byte) ' ');
+            putAscii(target, statusMessage);
+            target.put(CRLF);
+        }
+
+        // Persistent connections rely on the length to find the end of the body
+        if (!committed && !headers.contains(HttpHeaders.CONTENT_LENGTH)) {
+            headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.remaining()));
+        }
+
+        for (int i = 0; i < headers.size(); i++) {
+            byte[] prefix = headers.linePrefix(i);
+            if (prefix != null) {
+                target.put(prefix);
+            } else {
+                putAscii(target, headers.name(i));
+                target.put(COLON_SPACE);
+            }
+            putAscii(target, headers.value(i));
+            target.put(CRLF);
+        }
+        target.put(CRLF);
+    }
+
+    /**
+     * Encodes text as ISO-8859-1 without an intermediate byte array.
+     */
+    private static void putAscii(ByteBuffer target, String text) {
+        if (target.remaining() < text.length()) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            target.put(c < 256 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void write(OutputStream outputStream, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+        while (buffer.hasRemaining()) {
+            int count = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, count);
+            outputStream.write(chunk, 0, count);
+        }
+    }
+
     /**
      * Gets the status code.
      *
@@ -111,7 +670,7 @@ public class HttpResponse {
     public int getStatusCode() {
         return statusCode;
     }
-    
+
     /**
      * Gets the status message.
      *
@@ -120,32 +679,55 @@ public class HttpResponse {
     public String getStatusMessage() {
         return statusMessage;
     }
-    
+
     /**
-     * Gets a header value.
+     * Gets a header value. Names are case-insensitive.
      *
      * @param name the header name
-     * @return the header value, or null if not present
+     * @return the header value, the last one if the header is repeated, or null if not present
      */
     public String getHeader(String name) {
         return headers.get(name);
     }
-    
+
     /**
-     * Gets all headers.
+     * Gets all headers as a map, copied on each call; prefer
+     * {@link #getHeader(String)} for single lookups and
+     * {@link #getHttpHeaders()} to iterate.
      *
-     * @return the headers
+     * @return an unmodifiable map of the headers, with the values of repeated headers combined
      */
     public Map<String, String> getHeaders() {
-        return new HashMap<>(headers);
+        return headers.toMap();
+    }
+
+    /**
+     * Gets the header fields. Changes to the table change the response.
+     *
+     * @return the header table of this response
+     */
+    public HttpHeaders getHttpHeaders() {
+        return headers;
     }
-    
+
     /**
-     * Gets the response body.
+     * Gets the response body decoded as UTF-8.
      *
      * @return the response body
      */
     public String getBody() {
-        return body;
+        if (bodyText == null) {
+            bodyText = StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+        }
+        return bodyText;
+    }
+
+    /**
+     * Gets the response body bytes.
+     *
+     * @return a read-only view of the response body
+     */
+    public ByteBuffer getBodyBuffer() {
+        return body.asReadOnlyBuffer();
     }
 }
\ No newline at end of file
@@ -3,23 +3,84 @@ package org.example.server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A simple HTTP server implementation using TCP sockets.
  */
 public class HttpServer {
     private static final Logger logger = LoggerFactory.getLogger(HttpServer.class);
+    private static final long MAX_DISCARDED_BODY_SIZE = 64 * 1024;
+    // Read from a shed connection before it is closed, enough for the head of a request
+    private static final int REJECTED_INPUT_SIZE = 8 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
     
     private final int port;
     private final RequestHandler requestHandler;
-    private final ExecutorService executorService;
-    private ServerSocket serverSocket;
-    private boolean running;
+    // The same handler if it completes asynchronously, otherwise null
+    private final AsyncRequestHandler asyncHandler;
+    private final ServerConfig config;
+    // The worker pools of the acceptors, set up by start() once the listening channels are open
+    private ExecutorService[] workerGroups;
+    private final ExecutorService pipelineExecutor;
+    // Runs the streams of HTTP/2 connections, which would otherwise hold up each other on a bounded pool
+    private final ExecutorService http2Executor;
+    private final Set<ConnectionTimeouts> openConnections = ConcurrentHashMap.newKeySet();
+    private final ServerMetrics metrics = new ServerMetrics();
+    // Connections accepted and not yet closed, including those waiting for a worker
+    private final AtomicInteger admittedConnections = new AtomicInteger();
+    private final ConcurrencyLimiter concurrencyLimiter;
+    // Cancels asynchronous requests that miss the request timeout and closes stalled writes, null without either
+    private final ScheduledThreadPoolExecutor timer;
+    // Written as is by the acceptor when a connection is shed
+    private final byte[] serviceUnavailable;
+    // Set up by start() when TLS is enabled
+    private SSLContext sslContext;
+    private BufferPool tlsBuffers;
+    private ServerSocketChannel[] serverChannels;
+    private NioEngine nioEngine;
+    private Thread[] acceptorThreads;
+    private volatile boolean running;
     
     /**
      * Creates a new HTTP server instance.
@@ -28,9 +89,110 @@ public class HttpServer {
      * @param requestHandler the handler for incoming requests
      */
     public HttpServer(int port, RequestHandler requestHandler) {
+        this(port, requestHandler, new ServerConfig());
+    }
+
+    /**
+     * Creates a new HTTP server instance with the given configuration.
+     *
+     * @param port the port to listen on
+     * @param requestHandler the handler for incoming requests, possibly an {@link AsyncRequestHandler}
+     * @param config the server configuration
+     */
+    public HttpServer(int port, RequestHandler requestHandler, ServerConfig config) {
         this.port = port;
         this.requestHandler = requestHandler;
-        this.executorService = Executors.newFixedThreadPool(10); // Thread pool for handling connections
+        this.asyncHandler = requestHandler instanceof AsyncRequestHandler handler ? handler : null;
+        this.config = config;
+        // Separate from the connection executor so that a full pool cannot deadlock on its own batches
+        this.pipelineExecutor = config.isParallelPipelining() ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.http2Executor = config.isHttp2Enabled() ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.concurrencyLimiter = config.getConcurrencyLatencyTarget() == null ? null : new ConcurrencyLimiter(
+                config.getConcurrencyLatencyTarget().toNanos(), 20, 1, config.getMaxConnections());
+        boolean requestDeadlines = asyncHandler != null && config.getRequestTimeout() != null;
+        boolean writeDeadlines = config.getTransport() == Transport.BLOCKING && config.getWriteTimeoutMillis() > 0;
+        this.timer = requestDeadlines || writeDeadlines ? createTimer() : null;
+        this.serviceUnavailable = ("HTTP/1.1 503 Service Unavailable\r\n"
+                + "Retry-After: " + config.getRetryAfterSeconds() + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: 23\r\n"
+                + "Connection: close\r\n"
+                + "\r\n"
+                + "503 Service Unavailable").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets the request and connection metrics of this server.
+     *
+     * @return the metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Creates the executors that run connection and request handling work,
+     * one per acceptor, so that each acceptor hands its connections to
+     * threads of its own rather than contending with the others for one
+     * queue. The platform pool's threads and queue capacity are divided
+     * among the groups, and each queue is bounded, so that work a group
+     * cannot take is rejected and shed rather than piling up. With fewer
+     * threads than acceptors, acceptors share groups. Virtual threads are
+     * not pooled, so all acceptors share one executor.
+     *
+     * @param count the number of acceptors
+     * @return the executor of each acceptor
+     */
+    ExecutorService[] createWorkerGroups(int count) {
+        ExecutorService[] groups = new ExecutorService[count];
+        if (config.getExecutionMode() == ExecutionMode.VIRTUAL_THREADS) {
+            Arrays.fill(groups, Executors.newVirtualThreadPerTaskExecutor());
+            workerGroups = groups;
+            return groups;
+        }
+        ThreadPoolExecutor[] pools = new ThreadPoolExecutor[Math.min(count, config.getWorkerThreads())];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = createPool(share(config.getWorkerThreads(), pools.length, i),
+                    share(config.getMaxQueuedTasks(), pools.length, i));
+        }
+        for (int i = 0; i < count; i++) {
+            groups[i] = pools[i % pools.length];
+        }
+        metrics.setPendingTasks(() -> {
+            int pending = 0;
+            for (ThreadPoolExecutor pool : pools) {
+                pending += pool.getQueue().size();
+            }
+            return pending;
+        });
+        workerGroups = pools;
+        return groups;
+    }
+
+    private static ThreadPoolExecutor createPool(int threads, int maxQueuedTasks) {
+        BlockingQueue<Runnable> queue = maxQueuedTasks == 0
+                ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(maxQueuedTasks);
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue);
+    }
+
+    /**
+     * Divides a total among groups, the first ones taking the remainder.
+     */
+    private static int share(int total, int groups, int index) {
+        return total / groups + (index < total % groups ? 1 : 0);
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "http-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most requests complete in time, their cancelled deadlines should not pile up in the queue
+        timer.setRemoveOnCancelPolicy(true);
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return timer;
     }
     
     /**
@@ -39,13 +201,108 @@ public class HttpServer {
      * @throws IOException if an I/O error occurs when opening the socket
      */
     public void start() throws IOException {
-        serverSocket = new ServerSocket(port);
+        if (config.isTlsEnabled()) {
+            sslContext = TlsChannel.createContext(config);
+            // Room for several records, so that reads and writes move them in batches
+            int packetSize = sslContext.createSSLEngine().getSession().getPacketBufferSize();
+            tlsBuffers = new BufferPool(4 * packetSize, 64, true);
+        }
         running = true;
         
-        logger.info("HTTP Server started on port {}", port);
+        if (config.getTransport() == Transport.NIO) {
+            nioEngine = new NioEngine(this, config);
+            nioEngine.start();
+            if (config.isHttp2Enabled()) {
+                logger.warn("HTTP/2 is only served by the blocking transport, NIO connections use HTTP/1.1");
+            }
+            logger.info("HTTP{} Server started on port {} with {} event loops", sslContext != null ? "S" : "", port,
+                    config.getEventLoopCount());
+            return;
+        }
+
+        // Blocking channels rather than ServerSockets, so that accepted sockets
+        // have a channel that file bodies can be transferred to without copying
+        serverChannels = openServerChannels(config.getAcceptorCount());
+        ExecutorService[] workers = createWorkerGroups(serverChannels.length);
+
+        logger.info("HTTP{} Server started on port {} ({}, {} acceptors)", sslContext != null ? "S" : "", port,
+                config.getExecutionMode(), serverChannels.length);
+
+        if (config.getWriteTimeoutMillis() > 0) {
+            long interval = sweepIntervalMillis(config.getWriteTimeoutMillis());
+            timer.scheduleAtFixedRate(this::closeStalledWrites, interval, interval, TimeUnit.MILLISECONDS);
+        }
         
-        // Accept connections in a separate thread
-        new Thread(this::acceptConnections).start();
+        // Accept connections in separate threads, one per listening socket
+        acceptorThreads = new Thread[serverChannels.length];
+        for (int i = 0; i < serverChannels.length; i++) {
+            ServerSocketChannel serverChannel = serverChannels[i];
+            ExecutorService group = workers[i];
+            acceptorThreads[i] = new Thread(() -> acceptConnections(serverChannel, group), "http-acceptor-" + i);
+            acceptorThreads[i].start();
+        }
+    }
+
+    /**
+     * Opens the listening channels on the server's port, one per acceptor.
+     * Several channels share the port with {@code SO_REUSEPORT}, so that the
+     * kernel spreads new connections over their accept queues.
+     *
+     * @param count the number of acceptors asked for
+     * @return the bound channels, in blocking mode; a single one if the port cannot be shared
+     * @throws IOException if a channel cannot be opened or bound
+     */
+    ServerSocketChannel[] openServerChannels(int count) throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        if (count > 1 && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.warn("SO_REUSEPORT is not supported, listening with a single acceptor");
+            count = 1;
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[count];
+        channels[0] = first;
+        int localPort = port;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    channels[i] = ServerSocketChannel.open();
+                }
+                ServerSocketChannel channel = channels[i];
+                // Lets a restarted server bind while connections of the previous one are in TIME_WAIT
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (count > 1) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                if (config.getReceiveBufferSize() > 0) {
+                    // Inherited by accepted sockets, and only then in time for the window scale of their handshake
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+                }
+                channel.bind(new InetSocketAddress(localPort), config.getBacklog());
+                // With port 0 the other channels join the port the first one was given
+                localPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Applies the configured options to an accepted connection. Called by
+     * the thread that takes the connection over, not by its acceptor.
+     *
+     * @param channel the accepted channel
+     * @throws IOException if an option cannot be set
+     */
+    void configureSocket(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getSendBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+        }
     }
     
     /**
@@ -56,22 +313,132 @@ public class HttpServer {
     public void stop() throws IOException {
         running = false;
         
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            serverSocket.close();
+        if (serverChannels != null) {
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                serverChannel.close();
+            }
+        }
+
+        // A pending accept() keeps the port bound until the acceptor has left it
+        if (acceptorThreads != null) {
+            try {
+                for (Thread acceptorThread : acceptorThreads) {
+                    acceptorThread.join(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (nioEngine != null) {
+            nioEngine.closeListeners();
+        }
+        drain();
+
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+
+        // Idle persistent connections would otherwise keep worker threads blocked in read
+        for (ConnectionTimeouts connection : openConnections) {
+            connection.close();
         }
         
-        executorService.shutdown();
+        if (workerGroups != null) {
+            for (ExecutorService group : workerGroups) {
+                group.shutdown();
+            }
+        }
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdown();
+        }
+        if (http2Executor != null) {
+            http2Executor.shutdown();
+        }
+        if (timer != null) {
+            timer.shutdown();
+        }
         logger.info("HTTP Server stopped");
     }
     
+    /**
+     * Lets the connections that are in the middle of a request finish it,
+     * for up to the shutdown timeout. Connections waiting for a request are
+     * closed right away, the others once their response is sent, which tells
+     * the client with {@code Connection: close}.
+     */
+    private void drain() {
+        long deadline = System.currentTimeMillis() + config.getShutdownTimeoutMillis();
+        while (true) {
+            if (nioEngine != null) {
+                nioEngine.closeIdleConnections();
+            }
+            for (ConnectionTimeouts connection : openConnections) {
+                if (connection.isIdle()) {
+                    connection.close();
+                }
+            }
+            if (metrics.getOpenConnections() == 0 || System.currentTimeMillis() >= deadline) {
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the connections of the blocking transport whose write has taken
+     * longer than the write timeout. Run periodically by the timer.
+     */
+    private void closeStalledWrites() {
+        long now = System.currentTimeMillis();
+        for (ConnectionTimeouts connection : openConnections) {
+            connection.closeIfWriteExpired(now);
+        }
+    }
+
+    /**
+     * Gets how often timeouts are checked: a quarter of the shortest one, so
+     * that they are enforced within 25% of their length.
+     *
+     * @param timeouts the timeouts in milliseconds, 0 for disabled ones
+     * @return the interval in milliseconds, from 10 ms to a second
+     */
+    static long sweepIntervalMillis(long... timeouts) {
+        long shortest = 4000;
+        for (long timeout : timeouts) {
+            if (timeout > 0) {
+                shortest = Math.min(shortest, timeout);
+            }
+        }
+        return Math.max(10, shortest / 4);
+    }
+
     /**
      * Accepts incoming connections and handles them in separate threads.
+     *
+     * @param serverChannel the listening channel of this acceptor
+     * @param workers the executor of this acceptor's connections
      */
-    private void acceptConnections() {
+    private void acceptConnections(ServerSocketChannel serverChannel, ExecutorService workers) {
         while (running) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                executorService.submit(() -> handleConnection(clientSocket));
+                SocketChannel channel = serverChannel.accept();
+                if (!admitConnection()) {
+                    rejectConnection(channel);
+                    continue;
+                }
+                Socket clientSocket = channel.socket();
+                try {
+                    workers.execute(() -> handleConnection(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    releaseConnection();
+                    rejectConnection(channel);
+                }
             } catch (IOException e) {
                 if (running) {
                     logger.error("Error accepting connection", e);
@@ -81,31 +448,823 @@ public class HttpServer {
     }
     
     /**
-     * Handles a client connection.
+     * Handles a client connection. Requests are served one after another on
+     * the same socket for as long as the connection is persistent; pipelined
+     * requests that arrive together are served as a batch.
      *
      * @param clientSocket the client socket
      */
     private void handleConnection(Socket clientSocket) {
+        ConnectionTimeouts timeouts = null;
+        metrics.connectionOpened();
+        TlsChannel tls = null;
         try {
-            // Create request and response objects
-            HttpRequest request = HttpRequest.parse(clientSocket.getInputStream());
-            HttpResponse response = new HttpResponse();
-            
-            // Let the handler process the request
-            requestHandler.handle(request, response);
-            
-            // Send the response back to the client
-            response.send(clientSocket.getOutputStream());
+            timeouts = new ConnectionTimeouts(clientSocket, clientSocket.getInputStream(), config, metrics);
+            openConnections.add(timeouts);
+            configureSocket(clientSocket.getChannel());
+            HttpRequestParser parser = newRequestParser();
+            parser.setRemoteAddress((InetSocketAddress) clientSocket.getRemoteSocketAddress());
+            ExchangePool exchanges = new ExchangePool();
+            parser.setExchangePool(exchanges);
+            timeouts.setParser(parser);
+            InputStream inputStream = timeouts;
+            GatheringByteChannel channel = clientSocket.getChannel();
+            if (sslContext != null) {
+                // Read through the socket's stream, which unlike its channel honors the timeout
+                tls = newTlsChannel(Channels.newChannel(inputStream), clientSocket.getChannel(), http2Executor != null);
+                tls.handshake();
+                inputStream = Channels.newInputStream(tls);
+                channel = tls;
+                if ("h2".equals(tls.getApplicationProtocol())) {
+                    serveHttp2(timeouts, inputStream, channel, null, null);
+                    return;
+                }
+            } else if (http2Executor != null) {
+                byte[] start = Http2Connection.readPrefaceStart(inputStream);
+                if (Arrays.equals(start, Http2Connection.PREFACE)) {
+                    // Prior knowledge: the client starts with HTTP/2 right away
+                    inputStream = new SequenceInputStream(new ByteArrayInputStream(start), inputStream);
+                    serveHttp2(timeouts, inputStream, channel, null, null);
+                    return;
+                }
+                inputStream = new SequenceInputStream(new ByteArrayInputStream(start), inputStream);
+            }
             
-            // Close the connection
-            clientSocket.close();
+            int served = 0;
+            boolean keepAlive = true;
+            List<HttpRequest> batch = new ArrayList<>();
+            List<HttpResponse> responses = new ArrayList<>();
+            GatheringByteChannel output = channel;
+            ConnectionTimeouts writes = timeouts;
+            ResponseSink sink = data -> {
+                writes.beginWrite();
+                try {
+                    // Earlier responses of the batch go first
+                    HttpResponse.send(responses, output);
+                    exchanges.recycle(List.of(), responses);
+                    responses.clear();
+                    while (data[data.length - 1].hasRemaining()) {
+                        output.write(data);
+                    }
+                } finally {
+                    writes.endWrite();
+                }
+            };
+            while (keepAlive && running) {
+                HttpParseException error = null;
+                try {
+                    HttpRequest request = parser.readRequest(inputStream);
+                    if (request == null) {
+                        // Client closed the connection between requests
+                        break;
+                    }
+                    if (served == 0 && http2Executor != null && tls == null
+                            && upgrade(timeouts, inputStream, parser, request)) {
+                        return;
+                    }
+                    batch.add(request);
+                    // Pipelined requests that have already arrived are served together
+                    int limit = pipelineLimit(served);
+                    while (batch.size() < limit && (request = parser.readBufferedRequest()) != null) {
+                        batch.add(request);
+                    }
+                    timeouts.readBody();
+                } catch (HttpParseException e) {
+                    logger.debug("Rejecting request from {}: {}", clientSocket.getRemoteSocketAddress(), e.getMessage());
+                    error = e;
+                }
+
+                if (!batch.isEmpty()) {
+                    // Only the last request of a batch can have a body still to be read
+                    sendContinueIfExpected(batch.get(batch.size() - 1), channel);
+                    keepAlive = serveBatch(batch, served, responses, sink, exchanges);
+                    served += batch.size();
+                }
+                if (error != null) {
+                    if (keepAlive) {
+                        responses.add(errorResponse(error));
+                    }
+                    keepAlive = false;
+                }
+
+                // Send the responses back to the client in one go
+                timeouts.beginWrite();
+                try {
+                    HttpResponse.send(responses, channel);
+                } finally {
+                    timeouts.endWrite();
+                }
+                exchanges.recycle(batch, responses);
+                batch.clear();
+                responses.clear();
+                timeouts.awaitRequest();
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Closing idle connection from {}", clientSocket.getRemoteSocketAddress());
+        } catch (SSLException e) {
+            logger.debug("TLS error with {}: {}", clientSocket.getRemoteSocketAddress(), e.getMessage());
+        } catch (IOException e) {
+            if (timeouts != null && timeouts.isWriteExpired()) {
+                logger.debug("Closing connection from {} after a write timeout", clientSocket.getRemoteSocketAddress());
+            } else if (running) {
+                logger.error("Error handling connection", e);
+            }
+        } finally {
+            if (timeouts != null) {
+                openConnections.remove(timeouts);
+            }
+            metrics.connectionClosed();
+            releaseConnection();
+            if (tls != null) {
+                closeQuietly(tls);
+            }
+            closeQuietly(clientSocket);
+        }
+    }
+
+    /**
+     * Switches a connection to HTTP/2 if its first request asks for h2c. The
+     * request is then answered on stream 1 of the new connection.
+     *
+     * @return true if the connection was upgraded and has been served to the end
+     */
+    private boolean upgrade(ConnectionTimeouts timeouts, InputStream inputStream, HttpRequestParser parser,
+                            HttpRequest request) throws IOException {
+        Socket clientSocket = timeouts.socket();
+        byte[] settings = Http2Connection.upgradeSettings(request);
+        if (settings == null) {
+            return false;
+        }
+        // The body is sent as HTTP/1.1 before the switch, so it has to be read first
+        sendContinueIfExpected(request, clientSocket.getChannel());
+        try {
+            request.getBodyBytes();
+        } catch (UncheckedIOException e) {
+            // Served as HTTP/1.1, which reports the body error
+            return false;
+        }
+        InputStream remaining = new SequenceInputStream(new ByteArrayInputStream(parser.takeBuffered()), inputStream);
+        serveHttp2(timeouts, remaining, clientSocket.getChannel(), request, settings);
+        return true;
+    }
+
+    /**
+     * Serves an HTTP/2 connection to the end, reading its frames with the keep-alive timeout.
+     */
+    private void serveHttp2(ConnectionTimeouts timeouts, InputStream inputStream, GatheringByteChannel channel,
+                            HttpRequest upgrade, byte[] upgradeSettings) throws IOException {
+        Http2Connection connection = new Http2Connection(this, config, timeouts.socket(), inputStream, channel,
+                http2Executor);
+        timeouts.readFrames(connection::isIdle);
+        connection.serve(upgrade, upgradeSettings);
+    }
+
+    /**
+     * Counts a newly accepted connection against the connection limit.
+     *
+     * @return true if the connection may be served; it must then be released when closed
+     */
+    boolean admitConnection() {
+        if (admittedConnections.incrementAndGet() > config.getMaxConnections()) {
+            admittedConnections.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a connection counted by {@link #admitConnection()}.
+     */
+    void releaseConnection() {
+        admittedConnections.decrementAndGet();
+    }
+
+    /**
+     * Sheds an accepted connection: writes the precomputed 503 response and
+     * closes it, without parsing the request or involving a worker.
+     *
+     * @param channel the accepted, blocking channel
+     */
+    void rejectConnection(SocketChannel channel) {
+        metrics.connectionRejected();
+        try (channel) {
+            if (sslContext != null) {
+                // A TLS client could not read the plain response, and a handshake costs more than it saves
+                return;
+            }
+            // Fits into any socket send buffer, so this does not block
+            channel.write(ByteBuffer.wrap(serviceUnavailable));
+            channel.shutdownOutput();
+            // Closing with unread input would reset the connection, and the client could lose
+            // the 503 with it, so the part of the request that has already arrived is read first
+            channel.configureBlocking(false);
+            ByteBuffer discard = ByteBuffer.allocate(REJECTED_INPUT_SIZE);
+            int read;
+            do {
+                read = channel.read(discard);
+            } while (read > 0 && discard.hasRemaining());
+        } catch (IOException e) {
+            logger.debug("Error rejecting connection", e);
+        }
+    }
+
+    /**
+     * Builds the response for work that was shed because the server is overloaded.
+     *
+     * @return a 503 response that closes the connection
+     */
+    HttpResponse serviceUnavailableResponse() {
+        HttpResponse response = new HttpResponse();
+        setServiceUnavailable(response);
+        response.setHeader("Connection", "close");
+        return response;
+    }
+
+    private void setServiceUnavailable(HttpResponse response) {
+        response.setStatus(503, "Service Unavailable");
+        response.setHeader("Retry-After", String.valueOf(config.getRetryAfterSeconds()));
+        response.setBody("503 Service Unavailable");
+    }
+
+    /**
+     * Runs the request handler for one exchange and marks the response with
+     * the resulting connection persistence. Shared by all transports.
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response to be filled
+     * @param served the number of requests served on the connection so far, including this one
+     * @return true if the connection should stay open after the response is sent
+     */
+    boolean serve(HttpRequest request, HttpResponse response, int served) {
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        boolean completed = false;
+        try {
+            boolean keepAlive = exchange(request, response, served);
+            completed = true;
+            return keepAlive;
+        } finally {
+            // A handler that threw leaves the connection to be closed without a proper response
+            record(request, response, completed, start);
+        }
+    }
+
+    private void record(HttpRequest request, HttpResponse response, boolean completed, long start) {
+        metrics.requestFinished(request.getRoute(), completed ? response.getStatusCode() : 500,
+                System.nanoTime() - start);
+        AccessLog accessLog = config.getAccessLog();
+        if (accessLog != null) {
+            accessLog.log(request, response);
+        }
+    }
+
+    private boolean exchange(HttpRequest request, HttpResponse response, int served) {
+        // A streaming response completes its headers when it commits, possibly while the handler runs
+        response.onCommit(() -> prepareHead(request, response, served, true));
+
+        // Let the handler process the request
+        try {
+            if (isMetricsRequest(request)) {
+                setMetrics(response);
+            } else if (concurrencyLimiter == null) {
+                requestHandler.handle(request, response);
+            } else if (concurrencyLimiter.tryAcquire()) {
+                long start = System.nanoTime();
+                try {
+                    requestHandler.handle(request, response);
+                } finally {
+                    concurrencyLimiter.release(System.nanoTime() - start);
+                }
+            } else {
+                metrics.requestShed();
+                setServiceUnavailable(response);
+            }
+        } catch (UncheckedIOException e) {
+            if (request.getBodyError() == null) {
+                throw e;
+            }
+        }
+        return finishExchange(request, response, served);
+    }
+
+    /**
+     * Completes an exchange once the handler is done with the response: ends
+     * a streamed body, reports a body error and decides whether the
+     * connection stays open.
+     *
+     * @return true if the connection should stay open after the response is sent
+     */
+    private boolean finishExchange(HttpRequest request, HttpResponse response, int served) {
+        try {
+            response.finishBody();
         } catch (IOException e) {
-            logger.error("Error handling connection", e);
+            logger.debug("Error streaming response body", e);
+            return false;
+        }
+
+        // A body that turned out malformed or too large while the handler streamed it
+        HttpParseException bodyError = request.getBodyError();
+        if (bodyError != null) {
+            if (!response.isCommitted()) {
+                response.setStatus(bodyError.getStatusCode(), bodyError.getStatusMessage());
+                response.setBody(bodyError.getStatusCode() + " " + bodyError.getStatusMessage());
+                response.setHeader("Connection", "close");
+            }
+            return false;
+        }
+
+        // Skipping a small unread body keeps the connection usable, for a large one closing is cheaper
+        boolean reusable = request.discardBody(MAX_DISCARDED_BODY_SIZE);
+        if (response.isCommitted()) {
+            return reusable && "keep-alive".equals(response.getHeader("Connection"));
+        }
+        return prepareHead(request, response, served, reusable);
+    }
+
+    private void setMetrics(HttpResponse response) {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setBody(metrics.toPrometheusText());
+    }
+
+    /**
+     * Checks whether requests are served by an {@link AsyncRequestHandler},
+     * so that a transport can release its thread while they are pending.
+     *
+     * @return true if the handler completes asynchronously
+     */
+    boolean isAsync() {
+        return asyncHandler != null;
+    }
+
+    /**
+     * Serves one exchange to the end on the calling thread, waiting for an
+     * asynchronous handler to complete.
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response to be filled
+     * @param served the number of requests served on the connection so far, including this one
+     * @return the response to send: the given one, or a 504 in its place if the request timed out
+     */
+    HttpResponse serveAndWait(HttpRequest request, HttpResponse response, int served) {
+        if (asyncHandler == null) {
+            serve(request, response, served);
+            return response;
+        }
+        AsyncExchange exchange = new AsyncExchange(request, response, served);
+        exchange.start();
+        await(exchange);
+        return exchange.response();
+    }
+
+    /**
+     * An exchange served by the asynchronous handler. It completes with the
+     * resulting connection persistence once the handler's stage completes or
+     * the request timeout passes, whichever comes first; the loser is
+     * ignored. It completes exceptionally if the handler failed, and the
+     * connection is then closed without a proper response.
+     */
+    private final class AsyncExchange extends CompletableFuture<Boolean> {
+        private final HttpRequest request;
+        private final int served;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile HttpResponse response;
+        private CompletionStage<Void> stage;
+        private ScheduledFuture<?> deadline;
+        private boolean limited;
+
+        AsyncExchange(HttpRequest request, HttpResponse response, int served) {
+            this.request = request;
+            this.response = response;
+            this.served = served;
+        }
+
+        /**
+         * Gets the response to send once the exchange has completed.
+         */
+        HttpResponse response() {
+            return response;
+        }
+
+        void start() {
+            metrics.requestStarted();
+            HttpResponse response = this.response;
+            response.onCommit(() -> prepareHead(request, response, served, true));
+            CompletionStage<Void> stage = null;
             try {
-                clientSocket.close();
-            } catch (IOException ex) {
-                logger.error("Error closing client socket", ex);
+                if (isMetricsRequest(request)) {
+                    setMetrics(response);
+                } else if (concurrencyLimiter == null || (limited = concurrencyLimiter.tryAcquire())) {
+                    stage = asyncHandler.handleAsync(request, response);
+                } else {
+                    metrics.requestShed();
+                    setServiceUnavailable(response);
+                }
+            } catch (RuntimeException e) {
+                stage = CompletableFuture.failedStage(e);
+            }
+            if (stage == null) {
+                onHandled(null, null);
+                return;
+            }
+            this.stage = stage;
+            if (timer != null && config.getRequestTimeout() != null) {
+                try {
+                    deadline = timer.schedule(this::onDeadline, config.getRequestTimeout().toNanos(),
+                            TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The server is stopping, the request keeps no deadline
+                }
+            }
+            stage.whenComplete(this::onHandled);
+        }
+
+        private void onHandled(Void result, Throwable failure) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            release();
+            HttpResponse response = this.response;
+            boolean keepAlive = false;
+            RuntimeException error = null;
+            try {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                if (cause == null || cause instanceof UncheckedIOException && request.getBodyError() != null) {
+                    keepAlive = finishExchange(request, response, served);
+                } else {
+                    error = cause instanceof RuntimeException runtimeException
+                            ? runtimeException : new CompletionException(cause);
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            // Recorded before completing, the response may be sent and reset right after
+            record(request, response, error == null, start);
+            if (error != null) {
+                completeExceptionally(error);
+            } else {
+                complete(keepAlive);
+            }
+        }
+
+        private void onDeadline() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                stage.toCompletableFuture().cancel(true);
+            } catch (UnsupportedOperationException e) {
+                // A stage that cannot be cancelled still has its result ignored
+            }
+            release();
+            metrics.requestTimedOut();
+            HttpResponse abandoned = response;
+            if (abandoned.isCommitted()) {
+                // Part of the response is on its way, the connection cannot carry another one
+                record(request, abandoned, false, start);
+                completeExceptionally(new IllegalStateException("Request timed out after its response was committed"));
+                return;
+            }
+            abandoned.closeFile();
+            // A fresh response, the handler may still be writing to its own
+            HttpResponse timeout = new HttpResponse();
+            timeout.setStatus(504, "Gateway Timeout");
+            timeout.setBody("504 Gateway Timeout");
+            // The request body may be half read, and the exchange objects are not reused
+            timeout.setHeader("Connection", "close");
+            if (request.getHttpMethod() == HttpMethod.HEAD) {
+                timeout.setHeadOnly();
+            }
+            response = timeout;
+            record(request, timeout, true, start);
+            complete(false);
+        }
+
+        private void release() {
+            if (limited) {
+                concurrencyLimiter.release(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private boolean isMetricsRequest(HttpRequest request) {
+        String metricsPath = config.getMetricsPath();
+        if (metricsPath == null) {
+            return false;
+        }
+        HttpMethod method = request.getHttpMethod();
+        String path = request.getPath();
+        return (method == HttpMethod.GET || method == HttpMethod.HEAD) && path.startsWith(metricsPath)
+                && (path.length() == metricsPath.length() || path.charAt(metricsPath.length()) == '?');
+    }
+
+    /**
+     * Marks the response with the resulting connection persistence.
+     *
+     * @return true if the connection should stay open after the response is sent
+     */
+    private boolean prepareHead(HttpRequest request, HttpResponse response, int served, boolean reusable) {
+        // Once the server is stopping, connections close after their response
+        boolean keepAlive = reusable && running && served < config.getMaxRequestsPerConnection()
+                && isKeepAlive(request, response);
+        response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+        if (request.getHttpMethod() == HttpMethod.HEAD) {
+            response.setHeadOnly();
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Sends an interim 100 Continue to a client that waits for one before
+     * sending the body of its request.
+     */
+    private static void sendContinueIfExpected(HttpRequest request, WritableByteChannel channel) throws IOException {
+        if (request.hasUnreadBody() && request.getHttpVersion() == HttpVersion.HTTP_1_1
+                && "100-continue".equalsIgnoreCase(request.getHeader("Expect"))) {
+            ByteBuffer data = ByteBuffer.wrap(CONTINUE);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Serves a batch of pipelined requests. The requests are handled in order,
+     * or concurrently if parallel pipelining is enabled and they are all GET or
+     * HEAD requests. Responses after the first one that closes the connection
+     * are dropped.
+     *
+     * <p>Sequentially served responses are attached to the connection, so a
+     * handler can stream its body; the sink sends the preceding responses of
+     * the batch first. Concurrently served responses collect a streaming body
+     * in memory.</p>
+     *
+     * <p>With an {@link AsyncRequestHandler} the calling thread waits for
+     * each exchange; see {@link #serveBatchAsync} for a transport that can
+     * release it.</p>
+     *
+     * @param requests the requests, in arrival order
+     * @param servedBefore the number of requests served on the connection before this batch
+     * @param responses receives the responses to send, in request order
+     * @param sink the connection, for streaming responses
+     * @param exchanges the pool of the connection, which supplies the responses
+     * @return true if the connection should stay open after the responses are sent
+     */
+    boolean serveBatch(List<HttpRequest> requests, int servedBefore, List<HttpResponse> responses, ResponseSink sink,
+                       ExchangePool exchanges) {
+        if (pipelineExecutor != null && requests.size() > 1 && isSafe(requests)) {
+            return serveInParallel(requests, servedBefore, responses, exchanges);
+        }
+        if (asyncHandler != null) {
+            return await(serveInSequence(requests, 0, servedBefore, responses, sink, exchanges));
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            HttpResponse response = exchanges.response();
+            response.bind(sink, requests.get(i).getHttpVersion() == HttpVersion.HTTP_1_1);
+            boolean keepAlive = serve(requests.get(i), response, servedBefore + i + 1);
+            responses.add(response);
+            if (!keepAlive) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serves a batch of pipelined requests like {@link #serveBatch}, but
+     * returns as soon as an asynchronous handler leaves an exchange pending.
+     * The rest of the batch is then served by the thread that completes it.
+     *
+     * @param requests the requests, in arrival order
+     * @param servedBefore the number of requests served on the connection before this batch
+     * @param responses receives the responses to send, in request order
+     * @param sink the connection, for streaming responses
+     * @param exchanges the pool of the connection, which supplies the responses
+     * @return a stage that completes with true if the connection should stay open after the responses are sent
+     */
+    CompletableFuture<Boolean> serveBatchAsync(List<HttpRequest> requests, int servedBefore,
+                                               List<HttpResponse> responses, ResponseSink sink,
+                                               ExchangePool exchanges) {
+        if (asyncHandler == null || pipelineExecutor != null && requests.size() > 1 && isSafe(requests)) {
+            return CompletableFuture.completedFuture(serveBatch(requests, servedBefore, responses, sink, exchanges));
+        }
+        return serveInSequence(requests, 0, servedBefore, responses, sink, exchanges);
+    }
+
+    private CompletableFuture<Boolean> serveInSequence(List<HttpRequest> requests, int from, int servedBefore,
+                                                       List<HttpResponse> responses, ResponseSink sink,
+                                                       ExchangePool exchanges) {
+        for (int i = from; i < requests.size(); i++) {
+            HttpRequest request = requests.get(i);
+            HttpResponse response = exchanges.response();
+            response.bind(sink, request.getHttpVersion() == HttpVersion.HTTP_1_1);
+            AsyncExchange exchange = new AsyncExchange(request, response, servedBefore + i + 1);
+            exchange.start();
+            if (!exchange.isDone() || exchange.isCompletedExceptionally()) {
+                int next = i + 1;
+                return exchange.thenCompose(keepAlive -> {
+                    responses.add(exchange.response());
+                    return keepAlive
+                            ? serveInSequence(requests, next, servedBefore, responses, sink, exchanges)
+                            : CompletableFuture.completedFuture(false);
+                });
+            }
+            responses.add(exchange.response());
+            if (!exchange.join()) {
+                return CompletableFuture.completedFuture(false);
             }
         }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    private boolean serveInParallel(List<HttpRequest> requests, int servedBefore, List<HttpResponse> responses,
+                                    ExchangePool exchanges) {
+        List<Future<HttpResponse>> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            HttpRequest request = requests.get(i);
+            int served = servedBefore + i + 1;
+            // Taken here, the pool belongs to the connection thread
+            HttpResponse response = exchanges.response();
+            results.add(pipelineExecutor.submit(() -> serveAndWait(request, response, served)));
+        }
+        boolean keepAlive = true;
+        for (Future<HttpResponse> result : results) {
+            HttpResponse response = join(result);
+            if (keepAlive) {
+                responses.add(response);
+                keepAlive = "keep-alive".equals(response.getHeader("Connection"));
+            } else {
+                response.closeFile();
+            }
+        }
+        return keepAlive;
+    }
+
+    private static HttpResponse join(Future<HttpResponse> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while serving a pipelined request", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static boolean isSafe(List<HttpRequest> requests) {
+        for (HttpRequest request : requests) {
+            HttpMethod method = request.getHttpMethod();
+            if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets how many pipelined requests may be served in the next batch.
+     *
+     * @param served the number of requests served on the connection so far
+     * @return the maximum batch size, at least 1
+     */
+    int pipelineLimit(int served) {
+        return Math.max(1, Math.min(config.getMaxPipelineDepth(), config.getMaxRequestsPerConnection() - served));
+    }
+
+    /**
+     * Creates a request parser for a new connection, using the configured limits.
+     *
+     * @return the parser
+     */
+    HttpRequestParser newRequestParser() {
+        return new HttpRequestParser(config.getMaxHeaderSize(), config.getMaxHeaderCount(), config.getMaxBodySize());
+    }
+
+    /**
+     * Creates the TLS side of a new connection.
+     *
+     * @param source the channel encrypted data is read from
+     * @param sink the socket channel
+     * @param http2 whether HTTP/2 may be negotiated
+     * @return the channel, before its handshake
+     */
+    TlsChannel newTlsChannel(ReadableByteChannel source, SocketChannel sink, boolean http2) {
+        return new TlsChannel(TlsChannel.createEngine(sslContext, config, http2), source, sink, tlsBuffers);
+    }
+
+    /**
+     * Checks whether the server serves HTTPS.
+     *
+     * @return true once started with TLS
+     */
+    boolean isTls() {
+        return sslContext != null;
+    }
+
+    /**
+     * Builds the response for a request that could not be parsed. The
+     * connection is always closed afterwards since the rest of the stream
+     * cannot be trusted.
+     *
+     * @param e the parse failure
+     * @return the error response
+     */
+    static HttpResponse errorResponse(HttpParseException e) {
+        HttpResponse response = new HttpResponse();
+        response.setStatus(e.getStatusCode(), e.getStatusMessage());
+        response.setBody(e.getStatusCode() + " " + e.getStatusMessage());
+        response.setHeader("Connection", "close");
+        return response;
+    }
+
+    /**
+     * Checks whether the server is accepting and serving requests.
+     *
+     * @return true between start() and stop()
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Decides whether the connection may be reused after this exchange,
+     * following HTTP/1.1 (persistent by default) and HTTP/1.0 (close by
+     * default) semantics.
+     *
+     * @param request the HTTP request
+     * @param response the HTTP response
+     * @return true if the connection should stay open
+     */
+    private boolean isKeepAlive(HttpRequest request, HttpResponse response) {
+        if (!config.isKeepAliveEnabled() || hasToken(response.getHeader("Connection"), "close")) {
+            return false;
+        }
+        String connection = request.getHeader("Connection");
+        if (request.getHttpVersion() == HttpVersion.HTTP_1_1) {
+            return !hasToken(connection, "close");
+        }
+        return hasToken(connection, "keep-alive");
+    }
+
+    static boolean hasToken(String headerValue, String token) {
+        if (headerValue == null) {
+            return false;
+        }
+        // Scans the comma-separated list in place, this runs for every request
+        int length = headerValue.length();
+        int start = 0;
+        while (start <= length) {
+            int end = headerValue.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int from = start;
+            int to = end;
+            while (from < to && headerValue.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && headerValue.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            if (to - from == token.length() && headerValue.regionMatches(true, from, token, 0, token.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static void closeQuietly(TlsChannel tls) {
+        try {
+            tls.close();
+        } catch (IOException e) {
+            logger.debug("Error closing TLS connection", e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.error("Error closing client socket", e);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.example.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Standard reason phrases and pre-encoded status lines for common status codes.
+ */
+final class HttpStatus {
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+    private static final Map<Integer, byte[]> STATUS_LINES = new HashMap<>();
+
+    static {
+        reason(100, "Continue");
+        reason(101, "Switching Protocols");
+        reason(200, "OK");
+        reason(201, "Created");
+        reason(202, "Accepted");
+        reason(204, "No Content");
+        reason(206, "Partial Content");
+        reason(301, "Moved Permanently");
+        reason(302, "Found");
+        reason(303, "See Other");
+        reason(304, "Not Modified");
+        reason(307, "Temporary Redirect");
+        reason(308, "Permanent Redirect");
+        reason(400, "Bad Request");
+        reason(401, "Unauthorized");
+        reason(403, "Forbidden");
+        reason(404, "Not Found");
+        reason(405, "Method Not Allowed");
+        reason(408, "Request Timeout");
+        reason(409, "Conflict");
+        reason(411, "Length Required");
+        reason(412, "Precondition Failed");
+        reason(413, "Content Too Large");
+        reason(414, "URI Too Long");
+        reason(415, "Unsupported Media Type");
+        reason(416, "Range Not Satisfiable");
+        reason(429, "Too Many Requests");
+        reason(431, "Request Header Fields Too Large");
+        reason(500, "Internal Server Error");
+        reason(501, "Not Implemented");
+        reason(502, "Bad Gateway");
+        reason(503, "Service Unavailable");
+        reason(504, "Gateway Timeout");
+        reason(505, "HTTP Version Not Supported");
+    }
+
+    private HttpStatus() {
+    }
+
+    private static void reason(int code, String phrase) {
+        REASONS.put(code, phrase);
+        STATUS_LINES.put(code, ("HTTP/1.1 " + code + " " + phrase + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Gets the standard reason phrase for a status code.
+     *
+     * @param code the status code
+     * @return the reason phrase, or an empty string for unknown codes
+     */
+    static String reasonPhrase(int code) {
+        return REASONS.getOrDefault(code, "");
+    }
+
+    /**
+     * Gets the pre-encoded status line for a status code and message.
+     *
+     * @param code the status code
+     * @param message the status message
+     * @return the encoded status line including CRLF, or null if the message is not the standard phrase
+     */
+    static byte[] statusLine(int code, String message) {
+        String reason = REASONS.get(code);
+        return reason != null && reason.equals(message) ? STATUS_LINES.get(code) : null;
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The protocol versions of a request.
+ */
+public enum HttpVersion {
+    HTTP_1_0("HTTP/1.0"),
+    HTTP_1_1("HTTP/1.1"),
+    // A request received on an HTTP/2 stream, never found on a request line
+    HTTP_2("HTTP/2.0");
+
+    // The versions an HTTP/1.x request line may carry
+    private static final HttpVersion[] REQUEST_LINE_VERSIONS = {HTTP_1_0, HTTP_1_1};
+
+    private final String text;
+    private final byte[] token;
+
+    HttpVersion(String text) {
+        this.text = text;
+        this.token = text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets the version as it appears on the wire.
+     *
+     * @return the version text, e.g. "HTTP/1.1"
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Looks up a version by its token without allocating.
+     *
+     * @param bytes the buffer holding the token
+     * @param offset the start of the token
+     * @param length the length of the token
+     * @return the version, or null if the token is not a supported request line version
+     */
+    static HttpVersion lookup(byte[] bytes, int offset, int length) {
+        for (HttpVersion version : REQUEST_LINE_VERSIONS) {
+            if (Arrays.equals(version.token, 0, version.token.length,
+                    bytes, offset, offset + length)) {
+                return version;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram. Every power of two is split into eight buckets, so recorded
+ * values keep a relative precision of 12.5% above a few microseconds, in a
+ * fixed array of a few hundred counters. Recording does not allocate.
+ */
+public class LatencyHistogram {
+    // Values are bucketed in units of 1024 ns, close enough to microseconds
+    private static final int UNIT_SHIFT = 10;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (Long.SIZE - UNIT_SHIFT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos >>> UNIT_SHIFT));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    private static int bucket(long units) {
+        if (units < LINEAR_BUCKETS) {
+            return (int) units;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(units);
+        int sub = (int) (units >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKET_COUNT - 1, LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Gets the exclusive upper bound of a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the upper bound in nanoseconds
+     */
+    private static long upperBoundNanos(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return (long) (bucket + 1) << UNIT_SHIFT;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS + UNIT_SHIFT);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return the sum in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Gets the number of recorded values up to a limit. Whole buckets are
+     * counted, so the result may include values up to 12.5% above the limit.
+     *
+     * @param nanos the limit in nanoseconds
+     * @return the cumulative count
+     */
+    public long getCountAtOrBelow(long nanos) {
+        long total = 0;
+        long lowerBound = 0;
+        for (int i = 0; i < BUCKET_COUNT && lowerBound <= nanos; i++) {
+            total += counts.get(i);
+            lowerBound = upperBoundNanos(i);
+        }
+        return total;
+    }
+
+    /**
+     * Gets an estimate of a percentile, as the upper bound of the bucket it
+     * falls into.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param unit the unit of the result
+     * @return the value, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile, TimeUnit unit) {
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return unit.convert(upperBoundNanos(i), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(upperBoundNanos(BUCKET_COUNT - 1), TimeUnit.NANOSECONDS);
+    }
+}
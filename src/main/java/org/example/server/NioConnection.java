@@ -0,0 +1,640 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of one connection served by a {@link NioEventLoop}. Every method is
+ * called on the loop thread, except {@link #process(HttpParseException, int)}
+ * which runs on a worker, and its completion, which runs on whichever
+ * thread completes an asynchronous handler.
+ *
+ * <p>A request with a body ends its batch and is dispatched once its head
+ * is complete. The loop goes on reading while the handler runs and passes
+ * the body through a {@link RequestBodyPipe}, pausing whenever the pipe is
+ * full, so that uploads of any size take constant memory.</p>
+ */
+class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    // The TLS layer over the channel, null for plain HTTP
+    private final TlsChannel tls;
+    // The channel requests are read from and responses written to: the TLS layer or the socket
+    private final ReadableByteChannel source;
+    private final GatheringByteChannel sink;
+    private final SelectionKey key;
+    private final HttpRequestParser parser;
+    private final ExchangePool exchanges = new ExchangePool();
+    // The batch in progress and its responses, reused from batch to batch
+    private final List<HttpRequest> batch = new ArrayList<>();
+    private final List<HttpResponse> batchResponses = new ArrayList<>();
+    private final StreamSink streamSink = new StreamSink();
+    private final RequestBodyPipe bodyPipe = new RequestBodyPipe(this::onBodySpace);
+    // The body being passed through the pipe to the handler, null without one
+    private RequestBodyInputStream body;
+    // Bytes received while a request was in progress, in read mode; null when empty
+    private ByteBuffer pending;
+    // The batch being written, its encoded buffers, and the group currently in output
+    private List<HttpResponse> responses;
+    private List<ByteBuffer[]> encoded;
+    private int groupStart;
+    private int nextResponse;
+    private ByteBuffer[] output;
+    // Body data of a streaming response, written after the responses and signalled when done
+    private ByteBuffer[] streamData;
+    private CompletableFuture<Void> streamWritten;
+    // Response whose file body follows the output buffers
+    private HttpResponse fileResponse;
+    private long fileSent;
+    private boolean busy;
+    private boolean closeAfterWrite;
+    private boolean closed;
+    private int served;
+    private long lastActive = System.currentTimeMillis();
+    // Start of the request being received, 0 between requests; the first one is timed from the connection's opening
+    private long requestStart = lastActive;
+    // Bytes of the request being received, for the minimum data rate
+    private long received;
+    // Start of the write in progress, 0 if none
+    private long writeStart;
+
+    /**
+     * Creates a new connection.
+     *
+     * @param loop the owning event loop
+     * @param channel the non-blocking channel
+     * @param tls the TLS layer over the channel, or null for plain HTTP
+     * @param key the selection key of the channel
+     */
+    NioConnection(NioEventLoop loop, SocketChannel channel, TlsChannel tls, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.tls = tls;
+        this.source = tls != null ? tls : channel;
+        this.sink = tls != null ? tls : channel;
+        this.key = key;
+        this.parser = loop.server().newRequestParser();
+        parser.setRemoteAddress((InetSocketAddress) channel.socket().getRemoteSocketAddress());
+        parser.setExchangePool(exchanges);
+        parser.setBodySource(bodyPipe);
+    }
+
+    /**
+     * Reads available bytes and dispatches a request once it is complete.
+     */
+    void onReadable() {
+        do {
+            ByteBuffer buffer = loop.readBuffer();
+            buffer.clear();
+            int read;
+            try {
+                read = source.read(buffer);
+            } catch (IOException e) {
+                logger.debug("Error reading from {}", this, e);
+                close();
+                return;
+            }
+            if (read < 0) {
+                if (body != null) {
+                    // The client may half-close after its request; the handler still answers
+                    bodyPipe.end();
+                    updateReadInterest();
+                    return;
+                }
+                close();
+                return;
+            }
+            if (read == 0) {
+                if (tls != null && tls.hasPendingOutput()) {
+                    // Handshake messages the socket did not take at once
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            received += read;
+            buffer.flip();
+            processInput(buffer);
+            // Decrypted data beyond the read buffer does not make the socket readable again
+        } while (tls != null && isReading() && tls.hasBufferedInput());
+    }
+
+    /**
+     * Checks whether received bytes can be taken: between batches, or into
+     * the body pipe while a handler runs.
+     */
+    private boolean isReading() {
+        return !closed && (!busy || body != null && pending == null && bodyPipe.isAccepting());
+    }
+
+    /**
+     * Reads while the body pipe has room, keeping any write interest.
+     */
+    private void updateReadInterest() {
+        if (!closed && busy) {
+            int write = key.interestOps() & SelectionKey.OP_WRITE;
+            key.interestOps(write | (isReading() ? SelectionKey.OP_READ : 0));
+        }
+    }
+
+    /**
+     * Called by the worker once it has made room in a full body pipe.
+     */
+    private void onBodySpace() {
+        loop.execute(() -> {
+            if (body == null || closed) {
+                return;
+            }
+            if (pending != null) {
+                ByteBuffer input = pending;
+                pending = null;
+                processInput(input);
+            }
+            updateReadInterest();
+            if (tls != null && isReading() && tls.hasBufferedInput()) {
+                onReadable();
+            }
+        });
+    }
+
+    /**
+     * Continues writing a response that did not fit into the socket buffer.
+     */
+    void onWritable() {
+        if (!busy && tls != null) {
+            // Between requests only TLS handshake messages are written
+            try {
+                if (!tls.flush()) {
+                    return;
+                }
+            } catch (IOException e) {
+                logger.debug("Error writing to {}", this, e);
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            onReadable();
+            return;
+        }
+        flush();
+    }
+
+    /**
+     * Checks whether the connection is waiting for a request, with no part of one received.
+     *
+     * @return true if closing the connection loses nothing
+     */
+    boolean isIdle() {
+        return !busy && !closed && pending == null && parser.isIdle();
+    }
+
+    /**
+     * Enforces the timeouts of the connection: the keep-alive timeout between
+     * requests, the header and body read timeouts and the minimum data rate
+     * while a request is received, and the write timeout while responses are
+     * written. A request that is received too slowly is answered with a 408
+     * and the connection closed, the other timeouts close it right away.
+     *
+     * @param now the current time in milliseconds
+     * @param config the server configuration
+     */
+    void checkTimeouts(long now, ServerConfig config) {
+        if (closed) {
+            return;
+        }
+        if (busy) {
+            int writeTimeout = config.getWriteTimeoutMillis();
+            if (writeStart != 0 && writeTimeout > 0 && now - writeStart > writeTimeout) {
+                logger.debug("Closing connection {} after a write timeout", this);
+                loop.server().getMetrics().connectionTimedOut(ServerMetrics.Timeout.WRITE);
+                close();
+                return;
+            }
+            // The handler waits for body bytes the client has not sent
+            long waitingSince = body != null ? bodyPipe.getWaitingSince() : 0;
+            if (waitingSince != 0 && now - Math.max(waitingSince, lastActive) > config.getBodyReadTimeoutMillis()) {
+                logger.debug("Request body from {} timed out", this);
+                loop.server().getMetrics().connectionTimedOut(ServerMetrics.Timeout.BODY);
+                bodyPipe.fail(HttpParseException.requestTimeout(ServerMetrics.Timeout.BODY + " timeout"));
+                updateReadInterest();
+            }
+            return;
+        }
+        if (requestStart == 0) {
+            int keepAliveTimeout = config.getKeepAliveTimeoutMillis();
+            if (keepAliveTimeout > 0 && now - lastActive > keepAliveTimeout) {
+                logger.debug("Closing idle connection {}", this);
+                loop.server().getMetrics().connectionTimedOut(ServerMetrics.Timeout.IDLE);
+                close();
+            }
+            return;
+        }
+        ServerMetrics.Timeout kind = null;
+        if (parser.isReadingBody()) {
+            if (now - lastActive > config.getBodyReadTimeoutMillis()) {
+                kind = ServerMetrics.Timeout.BODY;
+            }
+        } else if (now - requestStart > config.getHeaderReadTimeoutMillis()) {
+            kind = ServerMetrics.Timeout.HEADER;
+        }
+        long elapsed = now - requestStart;
+        int minDataRate = config.getMinDataRate();
+        if (kind == null && minDataRate > 0 && elapsed > config.getMinDataRateGracePeriodMillis()
+                && received * 1000 < elapsed * minDataRate) {
+            kind = ServerMetrics.Timeout.MIN_DATA_RATE;
+        }
+        if (kind != null) {
+            rejectSlowRequest(kind);
+        }
+    }
+
+    /**
+     * Answers a request that is received too slowly with a 408, written by
+     * the loop like a shed batch, and closes the connection after it.
+     */
+    private void rejectSlowRequest(ServerMetrics.Timeout kind) {
+        logger.debug("Request from {} timed out: {}", this, kind);
+        loop.server().getMetrics().connectionTimedOut(kind);
+        busy = true;
+        key.interestOps(0);
+        pending = null;
+        batchResponses.add(HttpServer.errorResponse(HttpParseException.requestTimeout(kind + " timeout")));
+        respond(batchResponses, false);
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (responses != null) {
+            for (int i = groupStart; i < responses.size(); i++) {
+                responses.get(i).closeFile();
+            }
+        }
+        if (streamWritten != null) {
+            streamWritten.completeExceptionally(new ClosedChannelException());
+        }
+        // A handler may be waiting for the rest of the body
+        bodyPipe.fail(new ClosedChannelException());
+        key.cancel();
+        loop.deregister(this);
+        try {
+            if (tls != null) {
+                tls.close();
+            } else {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing channel", e);
+        }
+    }
+
+    /**
+     * Feeds received bytes to the parser and dispatches the requests that are
+     * complete as one pipelined batch. Bytes that cannot be parsed yet because
+     * a batch is in progress are kept until its responses have been written.
+     */
+    private void processInput(ByteBuffer input) {
+        if (!busy && !closed && input.hasRemaining()) {
+            HttpParseException error = null;
+            int limit = loop.server().pipelineLimit(served);
+            try {
+                HttpRequest request;
+                while (batch.size() < limit && input.hasRemaining() && (request = parser.parse(input)) != null) {
+                    batch.add(request);
+                    body = parser.takeStreamedBody();
+                    if (body != null) {
+                        // The body comes next, later requests follow it
+                        break;
+                    }
+                }
+            } catch (HttpParseException e) {
+                logger.debug("Rejecting request from {}: {}", this, e.getMessage());
+                error = e;
+            }
+            if (!batch.isEmpty() || error != null) {
+                dispatch(error);
+            }
+            if (!busy && requestStart == 0 && !parser.isIdle()) {
+                requestStart = System.currentTimeMillis();
+            }
+        }
+        if (body != null && !closed) {
+            bodyPipe.offer(input);
+            updateReadInterest();
+        }
+        if (input.hasRemaining() && !closed) {
+            // The shared read buffer is reused by the next read, so keep a copy
+            pending = input == loop.readBuffer()
+                    ? ByteBuffer.allocate(input.remaining()).put(input).flip()
+                    : input;
+        }
+    }
+
+    private void dispatch(HttpParseException error) {
+        // Stop reading until the responses are written, batches are served in order
+        busy = true;
+        key.interestOps(0);
+        requestStart = 0;
+        received = 0;
+        int servedBefore = served;
+        served += batch.size();
+        try {
+            loop.workers().execute(() -> process(error, servedBefore));
+        } catch (RejectedExecutionException e) {
+            // No worker can take the batch: shed it with a 503 written by the loop
+            if (!loop.server().isRunning()) {
+                close();
+                return;
+            }
+            loop.server().getMetrics().requestShed();
+            batch.clear();
+            batchResponses.add(loop.server().serviceUnavailableResponse());
+            respond(batchResponses, false);
+        }
+    }
+
+    /**
+     * Runs the handler pipeline on a worker thread and passes the serialized
+     * responses back to the loop. An asynchronous handler releases the
+     * worker while it is pending; whichever thread completes it finishes the
+     * batch.
+     */
+    private void process(HttpParseException error, int servedBefore) {
+        try {
+            HttpServer server = loop.server();
+            if (batch.isEmpty() || !server.isAsync()) {
+                boolean keepAlive = batch.isEmpty()
+                        || server.serveBatch(batch, servedBefore, batchResponses, streamSink, exchanges);
+                complete(error, keepAlive);
+                return;
+            }
+            server.serveBatchAsync(batch, servedBefore, batchResponses, streamSink, exchanges)
+                    .whenComplete((keepAlive, failure) -> {
+                        if (failure != null) {
+                            fail(failure);
+                            return;
+                        }
+                        try {
+                            complete(error, keepAlive);
+                        } catch (RuntimeException e) {
+                            fail(e);
+                        }
+                    });
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void complete(HttpParseException error, boolean keepAlive) {
+        List<HttpResponse> responses = batchResponses;
+        if (error != null) {
+            if (keepAlive) {
+                responses.add(HttpServer.errorResponse(error));
+            }
+            keepAlive = false;
+        }
+        respond(responses, keepAlive);
+    }
+
+    private void fail(Throwable e) {
+        logger.error("Error handling request", e);
+        loop.execute(this::close);
+    }
+
+    /**
+     * Serializes responses and passes them to the loop for writing. May be
+     * called from any thread.
+     */
+    private void respond(List<HttpResponse> responses, boolean keepAlive) {
+        List<HttpResponse> pending = HttpResponse.uncommitted(responses);
+        List<ByteBuffer[]> data = encode(pending);
+        loop.execute(() -> onResponses(pending, data, keepAlive));
+    }
+
+    private static List<ByteBuffer[]> encode(List<HttpResponse> responses) {
+        List<ByteBuffer[]> data = new ArrayList<>(responses.size());
+        for (HttpResponse response : responses) {
+            data.add(response.encode());
+        }
+        return data;
+    }
+
+    /**
+     * Passes the body of a streaming response from the worker to the loop,
+     * preceded by the earlier responses of its batch. The worker waits until
+     * the data has been written, which bounds the memory a fast producer can
+     * tie up on a slow connection.
+     */
+    private final class StreamSink implements ResponseSink {
+        @Override
+        public void write(ByteBuffer[] data) throws IOException {
+            // The loop writes these while the worker goes on with the batch, so they leave it for good
+            List<HttpResponse> preceding = new ArrayList<>(HttpResponse.uncommitted(batchResponses));
+            batchResponses.clear();
+            List<ByteBuffer[]> encoded = encode(preceding);
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            loop.execute(() -> onStreamData(preceding, encoded, data, written));
+            try {
+                written.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Connection closed while streaming a response", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming a response");
+            }
+        }
+    }
+
+    private void onStreamData(List<HttpResponse> preceding, List<ByteBuffer[]> data, ByteBuffer[] streamed,
+                              CompletableFuture<Void> written) {
+        if (closed) {
+            for (int i = 0; i < preceding.size(); i++) {
+                HttpResponse.release(data.get(i));
+                preceding.get(i).closeFile();
+            }
+            written.completeExceptionally(new ClosedChannelException());
+            return;
+        }
+        this.responses = preceding;
+        this.encoded = data;
+        groupStart = 0;
+        nextResponse = 0;
+        streamData = streamed;
+        streamWritten = written;
+        writeStart = System.currentTimeMillis();
+        flush();
+    }
+
+    private void onResponses(List<HttpResponse> responses, List<ByteBuffer[]> data, boolean keepAlive) {
+        if (closed) {
+            for (int i = 0; i < responses.size(); i++) {
+                HttpResponse.release(data.get(i));
+                responses.get(i).closeFile();
+            }
+            return;
+        }
+        this.responses = responses;
+        this.encoded = data;
+        nextResponse = 0;
+        closeAfterWrite = !keepAlive;
+        writeStart = System.currentTimeMillis();
+        flush();
+    }
+
+    private void flush() {
+        try {
+            if (!writeOutput()) {
+                key.interestOps(SelectionKey.OP_WRITE | (isReading() ? SelectionKey.OP_READ : 0));
+                return;
+            }
+        } catch (IOException e) {
+            logger.debug("Error writing to {}", this, e);
+            close();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        writeStart = 0;
+        if (streamWritten != null) {
+            // Part of a streaming response; the handler is still running
+            CompletableFuture<Void> written = streamWritten;
+            streamWritten = null;
+            key.interestOps(isReading() ? SelectionKey.OP_READ : 0);
+            written.complete(null);
+            return;
+        }
+        // The worker is done with the batch, its exchanges can be reused
+        exchanges.recycle(batch, batchResponses);
+        batch.clear();
+        batchResponses.clear();
+        if (body != null) {
+            takeBodyRemainder();
+        }
+        busy = false;
+        // A stopping server closes connections once their responses are written
+        if (closeAfterWrite || !loop.server().isRunning()) {
+            close();
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (pending != null) {
+            ByteBuffer input = pending;
+            pending = null;
+            processInput(input);
+        }
+        if (tls != null && !busy && !closed && tls.hasBufferedInput()) {
+            onReadable();
+        }
+    }
+
+    /**
+     * Ends the body of a finished batch. Bytes read past it start the next
+     * request; if the handler left part of the body unread, its response
+     * closes the connection.
+     */
+    private void takeBodyRemainder() {
+        boolean finished = body.isFinished();
+        ByteBuffer buffered = body.buffered();
+        ByteBuffer piped = bodyPipe.takeRemaining();
+        body = null;
+        if (!finished) {
+            closeAfterWrite = true;
+        }
+        int size = buffered.remaining() + piped.remaining() + (pending != null ? pending.remaining() : 0);
+        if (size == 0 || closeAfterWrite) {
+            pending = null;
+            return;
+        }
+        ByteBuffer input = ByteBuffer.allocate(size).put(buffered).put(piped);
+        if (pending != null) {
+            input.put(pending);
+        }
+        pending = input.flip();
+    }
+
+    /**
+     * Writes as much of the current batch as the socket accepts. Responses
+     * are gathered into as few writes as possible; a file body is transferred
+     * after the buffers that precede it.
+     *
+     * @return true if all responses have been written completely
+     */
+    private boolean writeOutput() throws IOException {
+        while (true) {
+            if (output != null) {
+                sink.write(output);
+                if (output[output.length - 1].hasRemaining()) {
+                    return false;
+                }
+                for (int i = groupStart; i < nextResponse; i++) {
+                    HttpResponse.release(encoded.get(i));
+                }
+                output = null;
+            }
+            if (fileResponse != null) {
+                long length = fileResponse.fileBodyLength();
+                while (fileSent < length) {
+                    long transferred = fileResponse.transferFileBody(fileSent, sink);
+                    if (transferred == 0) {
+                        return false;
+                    }
+                    fileSent += transferred;
+                }
+                fileResponse.closeFile();
+                fileResponse = null;
+            }
+            if (responses == null || nextResponse == responses.size()) {
+                responses = null;
+                encoded = null;
+                groupStart = 0;
+                nextResponse = 0;
+                if (streamData != null) {
+                    output = streamData;
+                    streamData = null;
+                    continue;
+                }
+                // The TLS layer may hold records the socket has not taken yet
+                return tls == null || tls.flush();
+            }
+            List<ByteBuffer> group = new ArrayList<>();
+            groupStart = nextResponse;
+            nextResponse = HttpResponse.group(responses, encoded, groupStart, group);
+            output = group.toArray(new ByteBuffer[0]);
+            HttpResponse last = responses.get(nextResponse - 1);
+            if (last.hasFileBody()) {
+                fileResponse = last;
+                fileSent = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "closed connection";
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking transport: a set of selector event loops that accept, read and
+ * write with {@link java.nio.channels.SocketChannel}s. Only complete requests
+ * are handed to the worker executor of the loop's acceptor, so idle or slow
+ * clients cost a few hundred bytes of state instead of a thread each.
+ */
+class NioEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioEngine.class);
+
+    private final HttpServer server;
+    private final ServerConfig config;
+    private final NioEventLoop[] eventLoops;
+    private ServerSocketChannel[] serverChannels;
+
+    /**
+     * Creates a new engine.
+     *
+     * @param server the server whose handler pipeline processes requests
+     * @param config the server configuration
+     */
+    NioEngine(HttpServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+        this.eventLoops = new NioEventLoop[config.getEventLoopCount()];
+    }
+
+    /**
+     * Opens the listening channel and starts the event loops.
+     *
+     * @throws IOException if the channel or a selector cannot be opened
+     */
+    void start() throws IOException {
+        serverChannels = server.openServerChannels(Math.min(config.getAcceptorCount(), eventLoops.length));
+        // Acceptor k runs on loop k and spreads its connections round-robin over
+        // loops k, k + n, k + 2n and so on, so no two acceptors feed the same loop,
+        // and those loops hand their requests to the acceptor's worker group
+        ExecutorService[] workers = server.createWorkerGroups(serverChannels.length);
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(server, config, workers[i % workers.length]);
+            eventLoops[i].start("http-nio-" + i);
+        }
+        for (int k = 0; k < serverChannels.length; k++) {
+            serverChannels[k].configureBlocking(false);
+            eventLoops[k].registerAcceptor(serverChannels[k], new Dispatcher(k, serverChannels.length));
+        }
+    }
+
+    /**
+     * Hands the connections of one acceptor to its group of event loops.
+     * Only called on the acceptor's loop.
+     */
+    private final class Dispatcher implements Consumer<SocketChannel> {
+        private final int first;
+        private final int stride;
+        private int next;
+
+        Dispatcher(int first, int stride) {
+            this.first = first;
+            this.stride = stride;
+            this.next = first;
+        }
+
+        @Override
+        public void accept(SocketChannel channel) {
+            if (!server.admitConnection()) {
+                // Still in blocking mode, so the 503 is written right here
+                server.rejectConnection(channel);
+                return;
+            }
+            NioEventLoop loop = eventLoops[next];
+            next += stride;
+            if (next >= eventLoops.length) {
+                next = first;
+            }
+            loop.register(channel);
+        }
+    }
+
+    /**
+     * Closes the listening channels, so that no new connections are accepted.
+     *
+     * @throws IOException if an I/O error occurs when closing a listening channel
+     */
+    void closeListeners() throws IOException {
+        if (serverChannels != null) {
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                serverChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the connections that are waiting for a request.
+     */
+    void closeIdleConnections() {
+        for (NioEventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.closeIdleConnections();
+            }
+        }
+    }
+
+    /**
+     * Closes the listening channel and all connections and stops the event loops.
+     *
+     * @throws IOException if an I/O error occurs when closing the listening channel
+     */
+    void stop() throws IOException {
+        closeListeners();
+        for (NioEventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+        logger.debug("NIO engine stopped");
+    }
+}
@@ -0,0 +1,265 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * A single selector thread of the {@link NioEngine}. All connection state is
+ * owned by this thread; other threads hand work to it through {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final HttpServer server;
+    private final ServerConfig config;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<NioConnection> connections = new HashSet<>();
+    // Shared by all connections of this loop; data is only copied out when a request is incomplete
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final long sweepIntervalMillis;
+    private volatile boolean running = true;
+    private Thread thread;
+    private long lastSweep;
+
+    /**
+     * Creates a new event loop.
+     *
+     * @param server the server whose handler pipeline processes requests
+     * @param config the server configuration
+     * @param workers the executor that runs request handlers
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(HttpServer server, ServerConfig config, ExecutorService workers) throws IOException {
+        this.server = server;
+        this.config = config;
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.sweepIntervalMillis = HttpServer.sweepIntervalMillis(config.getKeepAliveTimeoutMillis(),
+                config.getHeaderReadTimeoutMillis(), config.getBodyReadTimeoutMillis(),
+                config.getWriteTimeoutMillis(), config.getMinDataRateGracePeriodMillis());
+    }
+
+    /**
+     * Starts the loop on a new thread.
+     *
+     * @param name the thread name
+     */
+    void start(String name) {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers a listening channel with this loop.
+     *
+     * @param serverChannel the non-blocking listening channel
+     * @param dispatcher receives every accepted channel
+     */
+    void registerAcceptor(ServerSocketChannel serverChannel, Consumer<SocketChannel> dispatcher) {
+        execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, dispatcher);
+            } catch (IOException e) {
+                logger.error("Error registering acceptor", e);
+            }
+        });
+    }
+
+    /**
+     * Takes ownership of an accepted connection.
+     *
+     * @param channel the accepted channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                server.configureSocket(channel);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                // HTTP/2 is only served by the blocking transport, so ALPN offers http/1.1 alone
+                TlsChannel tls = server.isTls() ? server.newTlsChannel(channel, channel, false) : null;
+                NioConnection connection = new NioConnection(this, channel, tls, key);
+                key.attach(connection);
+                connections.add(connection);
+                server.getMetrics().connectionOpened();
+            } catch (IOException e) {
+                logger.error("Error registering connection", e);
+                server.releaseConnection();
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * Stops the loop and closes all of its connections. Waits for the loop
+     * thread so that closed channels have been released when this returns.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(sweepIntervalMillis);
+                runTasks();
+                processSelectedKeys();
+                checkTimeouts();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Error in event loop", e);
+            }
+        }
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Error closing selector", e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            try {
+                if (key.isAcceptable()) {
+                    accept((ServerSocketChannel) key.channel(), (Consumer<SocketChannel>) key.attachment());
+                    continue;
+                }
+                NioConnection connection = (NioConnection) key.attachment();
+                if (key.isWritable()) {
+                    connection.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+            } catch (CancelledKeyException e) {
+                // Connection was closed while its events were pending
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, Consumer<SocketChannel> dispatcher) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                dispatcher.accept(channel);
+            }
+        } catch (IOException e) {
+            if (server.isRunning()) {
+                logger.error("Error accepting connection", e);
+            }
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < sweepIntervalMillis) {
+            return;
+        }
+        lastSweep = now;
+        // Closing deregisters, so not while iterating
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.checkTimeouts(now, config);
+        }
+    }
+
+    /**
+     * Closes the connections that are waiting for a request, for a server
+     * that is stopping. May be called from any thread.
+     */
+    void closeIdleConnections() {
+        execute(() -> {
+            for (NioConnection connection : new ArrayList<>(connections)) {
+                if (connection.isIdle()) {
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets a closed connection.
+     *
+     * @param connection the connection
+     */
+    void deregister(NioConnection connection) {
+        if (connections.remove(connection)) {
+            server.getMetrics().connectionClosed();
+            server.releaseConnection();
+        }
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    HttpServer server() {
+        return server;
+    }
+
+    ExecutorService workers() {
+        return workers;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Error closing channel", e);
+        }
+    }
+}
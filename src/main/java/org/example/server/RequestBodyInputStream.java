@@ -0,0 +1,219 @@
+package org.example.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams a request body from a connection, bounded by its Content-Length
+ * or decoded from the chunked transfer coding. Bytes the parser has already
+ * read are taken from its buffer first; the rest is read from the socket as
+ * the handler asks for it, so the body never has to fit into memory.
+ */
+class RequestBodyInputStream extends InputStream {
+    private final InputStream source;
+    // The parser's stream buffer, in read mode; bytes after the body stay in it
+    private final ByteBuffer buffer;
+    private final ChunkedDecoder decoder;
+    private final long maxBodySize;
+    private long remaining;
+    private long received;
+    private boolean finished;
+    private IOException failure;
+
+    /**
+     * Creates a stream for a body with a known length.
+     *
+     * @param source the connection stream
+     * @param buffer bytes already read from the connection
+     * @param contentLength the body length
+     */
+    RequestBodyInputStream(InputStream source, ByteBuffer buffer, long contentLength) {
+        this.source = source;
+        this.buffer = buffer;
+        this.decoder = null;
+        this.maxBodySize = contentLength;
+        this.remaining = contentLength;
+        this.finished = contentLength == 0;
+    }
+
+    /**
+     * Creates a stream for a chunked body.
+     *
+     * @param source the connection stream
+     * @param buffer bytes already read from the connection
+     * @param maxBodySize the maximum decoded size, larger bodies fail with 413
+     * @param decoder the decoder for the chunk framing
+     */
+    RequestBodyInputStream(InputStream source, ByteBuffer buffer, long maxBodySize, ChunkedDecoder decoder) {
+        this.source = source;
+        this.buffer = buffer;
+        this.decoder = decoder;
+        this.maxBodySize = maxBodySize;
+        this.remaining = -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (length == 0) {
+            return 0;
+        }
+        while (!finished) {
+            int count = decoder == null ? readFixed(target, offset, length) : readChunked(target, offset, length);
+            if (count > 0) {
+                received += count;
+                if (received > maxBodySize) {
+                    throw fail(new HttpParseException(413, "Content Too Large",
+                            "Request body exceeds " + maxBodySize + " bytes"));
+                }
+                return count;
+            }
+            if (!finished) {
+                fill();
+            }
+        }
+        return -1;
+    }
+
+    private int readFixed(byte[] target, int offset, int length) throws IOException {
+        int limit = (int) Math.min(length, remaining);
+        int count;
+        if (buffer.hasRemaining()) {
+            count = Math.min(limit, buffer.remaining());
+            buffer.get(target, offset, count);
+        } else if (limit >= buffer.capacity()) {
+            // Large reads go straight into the caller's array
+            count = readSource(target, offset, limit);
+            if (count < 0) {
+                throw fail(new EOFException("Connection closed in the middle of the request body"));
+            }
+        } else {
+            return 0;
+        }
+        remaining -= count;
+        finished = remaining == 0;
+        return count;
+    }
+
+    private int readChunked(byte[] target, int offset, int length) throws IOException {
+        int count;
+        try {
+            count = decoder.decode(buffer, target, offset, length);
+        } catch (HttpParseException e) {
+            throw fail(e);
+        }
+        finished = decoder.isFinished();
+        return count;
+    }
+
+    private void fill() throws IOException {
+        int read = readSource(buffer.array(), 0, buffer.capacity());
+        if (read < 0) {
+            buffer.clear().flip();
+            throw fail(new EOFException("Connection closed in the middle of the request body"));
+        }
+        buffer.clear().limit(read);
+    }
+
+    private int readSource(byte[] target, int offset, int length) throws IOException {
+        try {
+            return source.read(target, offset, length);
+        } catch (HttpParseException e) {
+            // A read timeout of the connection, answered like a malformed body
+            throw fail(e);
+        }
+    }
+
+    private IOException fail(IOException e) {
+        failure = e;
+        return e;
+    }
+
+    /**
+     * Reads and discards the rest of the body, so that the next request on
+     * the connection can be parsed.
+     *
+     * @throws IOException if an I/O error occurs or the body is malformed
+     */
+    void drain() throws IOException {
+        byte[] scratch = new byte[buffer.capacity()];
+        while (read(scratch, 0, scratch.length) >= 0) {
+            // Discard
+        }
+    }
+
+    /**
+     * Skips the rest of the body unless more than the given number of bytes
+     * would have to be read.
+     *
+     * @param limit the maximum number of bytes to skip
+     * @return true if the end of the body has been reached
+     */
+    boolean discard(long limit) {
+        byte[] scratch = new byte[buffer.capacity()];
+        long skipped = 0;
+        try {
+            while (!finished && skipped <= limit) {
+                int count = read(scratch, 0, scratch.length);
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return finished;
+    }
+
+    /**
+     * Checks whether the whole body has been read.
+     *
+     * @return true once the end of the body has been reached
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Gets the bytes read from the source that the body has not consumed.
+     * Once the body is finished they are the start of whatever follows it.
+     *
+     * @return the buffer, in read mode
+     */
+    ByteBuffer buffered() {
+        return buffer;
+    }
+
+    /**
+     * Gets the error that ended the body, if it was malformed or too large.
+     *
+     * @return the error, or null
+     */
+    HttpParseException getFailure() {
+        return failure instanceof HttpParseException parseException ? parseException : null;
+    }
+
+    @Override
+    public int available() {
+        if (finished) {
+            return 0;
+        }
+        return decoder == null ? (int) Math.min(buffer.remaining(), remaining) : 0;
+    }
+
+    @Override
+    public void close() {
+        // The connection stays open; the server drains what the handler left unread
+    }
+}
@@ -0,0 +1,218 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Passes the raw bytes of a request body from an event loop to the worker
+ * that runs the handler. The loop offers what it reads and stops reading
+ * while the pipe is full; the worker reads through a
+ * {@link RequestBodyInputStream}, which decodes the body, and the loop is
+ * told to read on once half of the pipe is free again. A body therefore
+ * never takes more than the pipe's capacity, however large it is.
+ *
+ * <p>The loop cannot tell where a chunked body ends, so bytes of the next
+ * request may follow the body into the pipe. Whatever the worker has not
+ * read is taken back by the loop once the batch is done.</p>
+ */
+class RequestBodyPipe extends InputStream {
+    private static final int CAPACITY = 64 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    // Run by the reader when the loop stopped on a full pipe and there is room again
+    private final Runnable onSpace;
+    // Allocated for a body and dropped with it, so that idle connections hold no buffer
+    private byte[] ring;
+    private int start;
+    private int count;
+    private boolean stalled;
+    private boolean ended;
+    private IOException failure;
+    // When the reader started waiting for bytes, 0 while it is not
+    private long waitingSince;
+
+    /**
+     * Creates a pipe.
+     *
+     * @param onSpace called by the reading thread when a full pipe has room again
+     */
+    RequestBodyPipe(Runnable onSpace) {
+        this.onSpace = onSpace;
+    }
+
+    /**
+     * Moves as many bytes from the input into the pipe as fit. Called by the loop.
+     *
+     * @param input the received bytes, in read mode; what does not fit is left in it
+     */
+    void offer(ByteBuffer input) {
+        lock.lock();
+        try {
+            if (ring == null) {
+                ring = new byte[CAPACITY];
+            }
+            while (input.hasRemaining() && count < CAPACITY) {
+                int end = (start + count) % CAPACITY;
+                int length = Math.min(input.remaining(), Math.min(CAPACITY - count, CAPACITY - end));
+                input.get(ring, end, length);
+                count += length;
+            }
+            if (count == CAPACITY) {
+                // The loop stops reading until the reader makes room
+                stalled = true;
+            }
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether the loop should read on for this pipe.
+     *
+     * @return true if the pipe has room and its input has not ended
+     */
+    boolean isAccepting() {
+        lock.lock();
+        try {
+            return count < CAPACITY && !ended && failure == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the input, after the client closed its side.
+     */
+    void end() {
+        lock.lock();
+        try {
+            ended = true;
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fails the pending and all further reads.
+     *
+     * @param e the error the reader gets
+     */
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+            }
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets when the reader started to wait for bytes that have not arrived.
+     *
+     * @return the time in milliseconds, 0 if the reader is not waiting
+     */
+    long getWaitingSince() {
+        lock.lock();
+        try {
+            return waitingSince;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the bytes the reader has left and makes the pipe ready for the next body.
+     *
+     * @return the unread bytes, in read mode
+     */
+    ByteBuffer takeRemaining() {
+        lock.lock();
+        try {
+            ByteBuffer remaining = ByteBuffer.allocate(count);
+            if (count > 0) {
+                int first = Math.min(count, CAPACITY - start);
+                remaining.put(ring, start, first).put(ring, 0, count - first);
+            }
+            ring = null;
+            start = 0;
+            count = 0;
+            stalled = false;
+            ended = false;
+            failure = null;
+            return remaining.flip();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        boolean resume;
+        int read;
+        lock.lock();
+        try {
+            if (count == 0 && failure == null && !ended) {
+                waitingSince = System.currentTimeMillis();
+                try {
+                    while (count == 0 && failure == null && !ended) {
+                        readable.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading the request body");
+                } finally {
+                    waitingSince = 0;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (count == 0) {
+                return -1;
+            }
+            read = Math.min(length, Math.min(count, CAPACITY - start));
+            System.arraycopy(ring, start, target, offset, read);
+            start = (start + read) % CAPACITY;
+            count -= read;
+            resume = stalled && count <= CAPACITY / 2;
+            if (resume) {
+                stalled = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (resume) {
+            onSpace.run();
+        }
+        return read;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,6 +2,11 @@ package org.example.server;
 
 /**
  * Interface for handling HTTP requests.
+ *
+ * <p>The server reuses request and response objects for later exchanges on
+ * the same connection once a response has been sent, so a handler must not
+ * keep references to them after it returns. Values read from them, such as
+ * header strings, remain valid.</p>
  */
 public interface RequestHandler {
     
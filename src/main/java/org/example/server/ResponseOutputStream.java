@@ -0,0 +1,214 @@
+package org.example.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body stream of a streaming {@link HttpResponse}.
+ *
+ * <p>Writes are collected in a buffer. The response is committed - status
+ * line and headers are sent - when the buffer overflows or the handler calls
+ * {@link #flush()}; from then on every buffer-full goes out as a chunk, or
+ * unframed if the handler set a Content-Length. A body that is closed before
+ * it fills the buffer is sent as an ordinary response with a Content-Length.
+ * Responses that are not attached to a connection collect the whole body in
+ * memory.</p>
+ */
+class ResponseOutputStream extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final HttpResponse response;
+    private final ResponseSink sink;
+    private ByteBuffer buffer;
+    // Status line and headers, sent with the first data after the commit
+    private ByteBuffer pendingHead;
+    private ByteArrayOutputStream unbound;
+    private boolean committed;
+    private boolean chunked;
+    private long declaredLength = -1;
+    private long written;
+    private boolean closed;
+
+    /**
+     * Creates the body stream of a response.
+     *
+     * @param response the response
+     * @param sink the connection to stream to, or null to collect the body in memory
+     * @param buffer the write buffer, in write mode
+     */
+    ResponseOutputStream(HttpResponse response, ResponseSink sink, ByteBuffer buffer) {
+        this.response = response;
+        this.sink = sink;
+        this.buffer = buffer;
+        if (sink == null) {
+            unbound = new ByteArrayOutputStream();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        written += length;
+        if (unbound != null) {
+            unbound.write(data, offset, length);
+            return;
+        }
+        if (length >= buffer.capacity()) {
+            // Large writes skip the buffer and go out as one chunk
+            if (buffer.position() > 0) {
+                send(false);
+            } else {
+                commit();
+            }
+            sendChunk(ByteBuffer.wrap(data, offset, length), false);
+            return;
+        }
+        while (length > 0) {
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+            if (!buffer.hasRemaining()) {
+                send(false);
+            }
+        }
+    }
+
+    /**
+     * Commits the response if necessary and sends everything written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (unbound == null) {
+            send(false);
+        }
+    }
+
+    /**
+     * Ends the body. An uncommitted response gets the buffered bytes as its
+     * body and is sent by the server like any other; a committed one writes
+     * its last chunk.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (unbound != null) {
+                response.setStreamedBody(ByteBuffer.wrap(unbound.toByteArray()));
+            } else if (!committed) {
+                ByteBuffer body = ByteBuffer.allocate(buffer.position()).put(buffer.flip()).flip();
+                response.setStreamedBody(body);
+            } else {
+                send(true);
+                if (declaredLength >= 0 && written != declaredLength) {
+                    throw new IOException("Response body of " + written + " bytes does not match its Content-Length of "
+                            + declaredLength);
+                }
+            }
+        } finally {
+            if (buffer != null) {
+                HttpResponse.releaseBuffer(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of body bytes written so far.
+     *
+     * @return the byte count
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Checks whether the status line and headers have been sent.
+     *
+     * @return true once the response is committed
+     */
+    boolean isCommitted() {
+        return committed;
+    }
+
+    private void send(boolean last) throws IOException {
+        commit();
+        sendChunk(buffer.flip(), last);
+        buffer.clear();
+    }
+
+    private void commit() {
+        if (committed) {
+            return;
+        }
+        committed = true;
+        String length = response.getHeader("Content-Length");
+        if (length != null) {
+            declaredLength = Long.parseLong(length.trim());
+        } else if (response.isChunkedAllowed()) {
+            chunked = true;
+            response.setHeader("Transfer-Encoding", "chunked");
+        } else {
+            // HTTP/1.0: the end of the connection marks the end of the body
+            response.setHeader("Connection", "close");
+        }
+        pendingHead = response.commitHead();
+    }
+
+    private void sendChunk(ByteBuffer data, boolean last) throws IOException {
+        List<ByteBuffer> parts = new ArrayList<>(5);
+        if (pendingHead != null) {
+            parts.add(pendingHead);
+        }
+        if (!response.isHeadOnly()) {
+            if (chunked) {
+                if (data.hasRemaining()) {
+                    parts.add(ByteBuffer.wrap((Integer.toHexString(data.remaining()) + "\r\n")
+                            .getBytes(StandardCharsets.US_ASCII)));
+                    parts.add(data);
+                    parts.add(ByteBuffer.wrap(CRLF));
+                }
+                if (last) {
+                    parts.add(ByteBuffer.wrap(LAST_CHUNK));
+                }
+            } else if (data.hasRemaining()) {
+                parts.add(data);
+            }
+        }
+        try {
+            if (!parts.isEmpty()) {
+                sink.write(parts.toArray(new ByteBuffer[0]));
+            }
+        } finally {
+            releaseHead();
+        }
+    }
+
+    private void releaseHead() {
+        if (pendingHead != null) {
+            HttpResponse.releaseBuffer(pendingHead);
+            pendingHead = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Response body stream is closed");
+        }
+    }
+}
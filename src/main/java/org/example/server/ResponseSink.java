@@ -0,0 +1,21 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The connection side of a streaming response: receives the bytes of a
+ * committed response while its handler is still running. Implemented by
+ * each transport.
+ */
+interface ResponseSink {
+
+    /**
+     * Writes data to the connection, after any earlier responses of the same
+     * pipelined batch. Returns once the buffers may be reused.
+     *
+     * @param data the buffers to write, in read mode
+     * @throws IOException if the connection fails
+     */
+    void write(ByteBuffer[] data) throws IOException;
+}
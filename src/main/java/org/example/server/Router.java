@@ -0,0 +1,347 @@
+package org.example.server;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * A {@link RequestHandler} that dispatches requests by method and path.
+ *
+ * <p>Routes are compiled into a radix tree, so a lookup walks the path once
+ * and its cost depends on the path length rather than on the number of
+ * routes. Patterns consist of literal text, parameters that match one path
+ * segment ({@code /users/{id}}) and a trailing wildcard that matches the rest
+ * of the path, including slashes ({@code /static/*} or {@code /files/*path}).
+ * Literal text takes precedence over a parameter, and a parameter over a
+ * wildcard. Matched values are available from
+ * {@link HttpRequest#getPathParameter(String)}; a bare {@code *} is named
+ * {@code "*"}.</p>
+ *
+ * <p>Handlers are kept in an array indexed by {@link HttpMethod}. HEAD falls
+ * back to the GET handler and OPTIONS is answered with the allowed methods
+ * unless routed explicitly. Unknown paths get 404 Not Found, known paths
+ * without a handler for the method 405 Method Not Allowed with an Allow
+ * header.</p>
+ *
+ * <p>Routes must be registered before the router serves requests.</p>
+ */
+public class Router implements RequestHandler {
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+
+    /**
+     * A node of the tree: literal text, a parameter or a wildcard.
+     */
+    private static final class Node {
+        // Literal text matched by this node; parameters and wildcards have none
+        String prefix;
+        // Name of the parameter or wildcard captured by this node
+        final String name;
+        // First characters of the literal children, parallel to children
+        char[] indices = new char[0];
+        Node[] children = new Node[0];
+        Node parameter;
+        Node wildcard;
+        // Handlers by method ordinal, null if no route ends here
+        RequestHandler[] handlers;
+        String allow;
+        String pattern;
+
+        Node(String prefix, String name) {
+            this.prefix = prefix;
+            this.name = name;
+        }
+
+        Node child(char first) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == first) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        void replaceChild(Node child, Node replacement) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    children[i] = replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * The values captured while matching a path. Sized for the deepest route,
+     * so a lookup does not grow it.
+     */
+    private static final class Captures {
+        final String[] parameters;
+        int count;
+
+        Captures(int maxParameters) {
+            parameters = new String[maxParameters * 2];
+        }
+
+        void push(String name, String value) {
+            parameters[count * 2] = name;
+            parameters[count * 2 + 1] = value;
+            count++;
+        }
+    }
+
+    private final Node root = new Node("", null);
+    private int maxParameters;
+
+    /**
+     * Registers a handler for a method and path pattern.
+     *
+     * @param method the request method
+     * @param pattern the path pattern, starting with a slash
+     * @param handler the handler
+     * @return this router for chaining
+     * @throws IllegalArgumentException if the pattern is malformed, conflicts with
+     *         an existing route or is already routed for the method
+     */
+    public Router route(HttpMethod method, String pattern, RequestHandler handler) {
+        if (pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with a slash: " + pattern);
+        }
+        Node node = root;
+        int parameters = 0;
+        int pos = 0;
+        while (pos < pattern.length()) {
+            char c = pattern.charAt(pos);
+            if (c == '{') {
+                int end = pattern.indexOf('}', pos);
+                if (end < 0 || end == pos + 1 || (end + 1 < pattern.length() && pattern.charAt(end + 1) != '/')
+                        || pattern.charAt(pos - 1) != '/') {
+                    throw new IllegalArgumentException("Parameter must be a whole path segment: " + pattern);
+                }
+                String name = pattern.substring(pos + 1, end);
+                if (node.parameter == null) {
+                    node.parameter = new Node(null, name);
+                } else if (!node.parameter.name.equals(name)) {
+                    throw new IllegalArgumentException("Parameter {" + name + "} in " + pattern
+                            + " conflicts with {" + node.parameter.name + "}");
+                }
+                node = node.parameter;
+                parameters++;
+                pos = end + 1;
+            } else if (c == '*') {
+                if (pattern.charAt(pos - 1) != '/' || pattern.indexOf('/', pos) >= 0) {
+                    throw new IllegalArgumentException("Wildcard must be the last path segment: " + pattern);
+                }
+                String name = pos + 1 == pattern.length() ? "*" : pattern.substring(pos + 1);
+                if (node.wildcard == null) {
+                    node.wildcard = new Node(null, name);
+                } else if (!node.wildcard.name.equals(name)) {
+                    throw new IllegalArgumentException("Wildcard *" + name + " in " + pattern
+                            + " conflicts with *" + node.wildcard.name);
+                }
+                node = node.wildcard;
+                parameters++;
+                pos = pattern.length();
+            } else {
+                int end = pos;
+                while (end < pattern.length() && pattern.charAt(end) != '{' && pattern.charAt(end) != '*') {
+                    end++;
+                }
+                node = insertLiteral(node, pattern.substring(pos, end));
+                pos = end;
+            }
+        }
+
+        if (node.handlers == null) {
+            node.handlers = new RequestHandler[METHODS.length];
+        }
+        if (node.handlers[method.ordinal()] != null) {
+            throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+        }
+        node.handlers[method.ordinal()] = handler;
+        node.allow = allow(node.handlers);
+        node.pattern = pattern;
+        maxParameters = Math.max(maxParameters, parameters);
+        return this;
+    }
+
+    /**
+     * Registers a handler for GET requests.
+     *
+     * @param pattern the path pattern
+     * @param handler the handler
+     * @return this router for chaining
+     */
+    public Router get(String pattern, RequestHandler handler) {
+        return route(HttpMethod.GET, pattern, handler);
+    }
+
+    /**
+     * Registers a handler for POST requests.
+     *
+     * @param pattern the path pattern
+     * @param handler the handler
+     * @return this router for chaining
+     */
+    public Router post(String pattern, RequestHandler handler) {
+        return route(HttpMethod.POST, pattern, handler);
+    }
+
+    /**
+     * Registers a handler for PUT requests.
+     *
+     * @param pattern the path pattern
+     * @param handler the handler
+     * @return this router for chaining
+     */
+    public Router put(String pattern, RequestHandler handler) {
+        return route(HttpMethod.PUT, pattern, handler);
+    }
+
+    /**
+     * Registers a handler for DELETE requests.
+     *
+     * @param pattern the path pattern
+     * @param handler the handler
+     * @return this router for chaining
+     */
+    public Router delete(String pattern, RequestHandler handler) {
+        return route(HttpMethod.DELETE, pattern, handler);
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) {
+        String target = request.getPath();
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+
+        Captures captures = new Captures(maxParameters);
+        Node node = find(root, path, 0, captures);
+        if (node == null) {
+            response.setStatus(404, "Not Found");
+            response.setBody("404 Not Found");
+            return;
+        }
+
+        request.setRoute(node.pattern);
+        HttpMethod method = request.getHttpMethod();
+        RequestHandler handler = method != null ? node.handlers[method.ordinal()] : null;
+        if (handler == null && method == HttpMethod.HEAD) {
+            // The server drops the body of the GET response
+            handler = node.handlers[HttpMethod.GET.ordinal()];
+        }
+        if (handler == null) {
+            if (method == HttpMethod.OPTIONS) {
+                response.setStatus(204, "No Content");
+                response.setHeader("Allow", node.allow);
+                return;
+            }
+            response.setStatus(405, "Method Not Allowed");
+            response.setHeader("Allow", node.allow);
+            response.setBody("405 Method Not Allowed");
+            return;
+        }
+        if (captures.count > 0) {
+            request.setPathParameters(Arrays.copyOf(captures.parameters, captures.count * 2));
+        }
+        handler.handle(request, response);
+    }
+
+    /**
+     * Finds the route for a path, preferring literal text over parameters
+     * and parameters over wildcards, and backtracking when a branch fails.
+     *
+     * @param node a node whose text has been matched up to pos
+     * @return the node holding the handlers, or null if no route matches
+     */
+    private static Node find(Node node, String path, int pos, Captures captures) {
+        if (pos == path.length()) {
+            if (node.handlers != null) {
+                return node;
+            }
+            if (node.wildcard != null) {
+                captures.push(node.wildcard.name, "");
+                return node.wildcard;
+            }
+            return null;
+        }
+
+        Node child = node.child(path.charAt(pos));
+        if (child != null && path.startsWith(child.prefix, pos)) {
+            Node found = find(child, path, pos + child.prefix.length(), captures);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        if (node.parameter != null) {
+            int end = path.indexOf('/', pos);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > pos) {
+                int mark = captures.count;
+                captures.push(node.parameter.name, path.substring(pos, end));
+                Node found = find(node.parameter, path, end, captures);
+                if (found != null) {
+                    return found;
+                }
+                captures.count = mark;
+            }
+        }
+
+        if (node.wildcard != null) {
+            captures.push(node.wildcard.name, path.substring(pos));
+            return node.wildcard;
+        }
+        return null;
+    }
+
+    /**
+     * Adds literal text below a node, splitting an existing edge where the
+     * text diverges from it.
+     *
+     * @return the node at the end of the text
+     */
+    private static Node insertLiteral(Node node, String text) {
+        while (!text.isEmpty()) {
+            Node child = node.child(text.charAt(0));
+            if (child == null) {
+                Node leaf = new Node(text, null);
+                node.addChild(leaf);
+                return leaf;
+            }
+            int common = 0;
+            int max = Math.min(child.prefix.length(), text.length());
+            while (common < max && child.prefix.charAt(common) == text.charAt(common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                Node split = new Node(child.prefix.substring(0, common), null);
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                node.replaceChild(child, split);
+                child = split;
+            }
+            text = text.substring(common);
+            node = child;
+        }
+        return node;
+    }
+
+    private static String allow(RequestHandler[] handlers) {
+        StringJoiner allow = new StringJoiner(", ");
+        for (HttpMethod method : METHODS) {
+            if (handlers[method.ordinal()] != null
+                    || (method == HttpMethod.HEAD && handlers[HttpMethod.GET.ordinal()] != null)
+                    || method == HttpMethod.OPTIONS) {
+                allow.add(method.name());
+            }
+        }
+        return allow.toString();
+    }
+}
@@ -0,0 +1,926 @@
+package org.example.server;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration options for an {@link HttpServer}.
+ */
+public class ServerConfig {
+    private int keepAliveTimeoutMillis = 5000;
+    private int headerReadTimeoutMillis = 10_000;
+    private int bodyReadTimeoutMillis = 30_000;
+    private int writeTimeoutMillis;
+    private int minDataRate = 240;
+    private int minDataRateGracePeriodMillis = 5000;
+    private int shutdownTimeoutMillis = 5000;
+    private int maxRequestsPerConnection = 100;
+    private Transport transport = Transport.BLOCKING;
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM_POOL;
+    private int workerThreads = 10;
+    private int maxHeaderSize = HttpRequestParser.DEFAULT_MAX_HEADER_SIZE;
+    private int maxHeaderCount = HttpRequestParser.DEFAULT_MAX_HEADER_COUNT;
+    private int maxPipelineDepth = 16;
+    private boolean parallelPipelining;
+    private long maxBodySize = HttpRequestParser.DEFAULT_MAX_BODY_SIZE;
+    private String metricsPath;
+    private AccessLog accessLog;
+    private int maxQueuedTasks = 1000;
+    private int maxConnections = 10_000;
+    private int retryAfterSeconds = 1;
+    private Duration concurrencyLatencyTarget;
+    private Duration requestTimeout;
+    private boolean http2Enabled;
+    private int maxConcurrentStreams = 100;
+    private Path keyStore;
+    private String keyStorePassword;
+    private String[] tlsProtocols = {"TLSv1.3", "TLSv1.2"};
+    private int tlsSessionCacheSize = 20_000;
+    private Duration tlsSessionTimeout = Duration.ofHours(4);
+    private int acceptorCount = 1;
+    private int backlog = 1024;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize;
+    private int receiveBufferSize;
+
+    /**
+     * Sets how long an idle persistent connection is kept open while waiting
+     * for the next request. A value of 0 disables keep-alive.
+     *
+     * @param keepAliveTimeoutMillis the idle timeout in milliseconds
+     * @return this config for chaining
+     */
+    public ServerConfig setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+        if (keepAliveTimeoutMillis < 0) {
+            throw new IllegalArgumentException("keepAliveTimeoutMillis must not be negative");
+        }
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets how long a client may take to send the request line and headers,
+     * counted from the first byte of the request, or from the connection's
+     * accept for its first request. A client that misses it is answered
+     * with 408 Request Timeout and disconnected.
+     *
+     * @param headerReadTimeoutMillis the timeout in milliseconds, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setHeaderReadTimeoutMillis(int headerReadTimeoutMillis) {
+        if (headerReadTimeoutMillis < 1) {
+            throw new IllegalArgumentException("headerReadTimeoutMillis must be at least 1");
+        }
+        this.headerReadTimeoutMillis = headerReadTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets how long the server waits for the next bytes of a request body.
+     * A client that falls silent for longer is answered with 408 Request
+     * Timeout, if the response has not started yet, and disconnected.
+     *
+     * @param bodyReadTimeoutMillis the timeout in milliseconds, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setBodyReadTimeoutMillis(int bodyReadTimeoutMillis) {
+        if (bodyReadTimeoutMillis < 1) {
+            throw new IllegalArgumentException("bodyReadTimeoutMillis must be at least 1");
+        }
+        this.bodyReadTimeoutMillis = bodyReadTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets how long writing a response, or one chunk of a streaming
+     * response, may take before the connection is closed. This covers
+     * clients that stop reading; since it bounds the whole write, it must
+     * allow for the largest response at the slowest client to be served.
+     *
+     * @param writeTimeoutMillis the timeout in milliseconds, or 0 for none
+     * @return this config for chaining
+     */
+    public ServerConfig setWriteTimeoutMillis(int writeTimeoutMillis) {
+        if (writeTimeoutMillis < 0) {
+            throw new IllegalArgumentException("writeTimeoutMillis must not be negative");
+        }
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets the minimum rate at which a client must send its request head
+     * and body, against slow clients that keep each read just within the
+     * timeouts. Only the time the server spends waiting for the client
+     * counts, not the time a handler takes between reads of the body. A
+     * client below the rate once the grace period has passed is answered
+     * with 408 Request Timeout and disconnected.
+     *
+     * @param bytesPerSecond the minimum rate, or 0 to disable the check
+     * @param gracePeriodMillis the waiting time before the rate is enforced
+     * @return this config for chaining
+     */
+    public ServerConfig setMinDataRate(int bytesPerSecond, int gracePeriodMillis) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        if (gracePeriodMillis < 0) {
+            throw new IllegalArgumentException("gracePeriodMillis must not be negative");
+        }
+        this.minDataRate = bytesPerSecond;
+        this.minDataRateGracePeriodMillis = gracePeriodMillis;
+        return this;
+    }
+
+    /**
+     * Sets how long {@link HttpServer#stop()} lets requests in progress
+     * finish. Idle connections are closed at once, busy ones after their
+     * response; those still open at the deadline are closed regardless.
+     *
+     * @param shutdownTimeoutMillis the drain deadline in milliseconds, or 0 to close everything at once
+     * @return this config for chaining
+     */
+    public ServerConfig setShutdownTimeoutMillis(int shutdownTimeoutMillis) {
+        if (shutdownTimeoutMillis < 0) {
+            throw new IllegalArgumentException("shutdownTimeoutMillis must not be negative");
+        }
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests served on a single connection
+     * before it is closed.
+     *
+     * @param maxRequestsPerConnection the maximum number of requests, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 1) {
+            throw new IllegalArgumentException("maxRequestsPerConnection must be at least 1");
+        }
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    /**
+     * Sets the I/O model used to serve connections.
+     *
+     * @param transport the transport
+     * @return this config for chaining
+     */
+    public ServerConfig setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport must not be null");
+        }
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Sets the number of selector event loops used by the {@link Transport#NIO} transport.
+     * Defaults to the number of available processors.
+     *
+     * @param eventLoopCount the number of event loops, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setEventLoopCount(int eventLoopCount) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("eventLoopCount must be at least 1");
+        }
+        this.eventLoopCount = eventLoopCount;
+        return this;
+    }
+
+    /**
+     * Sets how connection and request handling work is executed.
+     *
+     * @param executionMode the execution mode
+     * @return this config for chaining
+     */
+    public ServerConfig setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) {
+            throw new IllegalArgumentException("executionMode must not be null");
+        }
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    /**
+     * Sets the size of the worker pool used in {@link ExecutionMode#PLATFORM_POOL} mode.
+     * With several acceptors the threads are divided among their worker groups.
+     *
+     * @param workerThreads the number of worker threads, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the request line and headers. Larger requests
+     * are answered with 414 or 431.
+     *
+     * @param maxHeaderSize the maximum size in bytes
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxHeaderSize(int maxHeaderSize) {
+        if (maxHeaderSize < 256) {
+            throw new IllegalArgumentException("maxHeaderSize must be at least 256");
+        }
+        this.maxHeaderSize = maxHeaderSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of header fields in a request. Requests with
+     * more fields are answered with 431.
+     *
+     * @param maxHeaderCount the maximum number of header fields
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxHeaderCount(int maxHeaderCount) {
+        if (maxHeaderCount < 1) {
+            throw new IllegalArgumentException("maxHeaderCount must be at least 1");
+        }
+        this.maxHeaderCount = maxHeaderCount;
+        return this;
+    }
+
+    /**
+     * Sets how many pipelined requests that have already arrived on a
+     * connection are served as one batch, with their responses written
+     * together. 1 serves requests one at a time.
+     *
+     * @param maxPipelineDepth the maximum batch size, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxPipelineDepth(int maxPipelineDepth) {
+        if (maxPipelineDepth < 1) {
+            throw new IllegalArgumentException("maxPipelineDepth must be at least 1");
+        }
+        this.maxPipelineDepth = maxPipelineDepth;
+        return this;
+    }
+
+    /**
+     * Sets whether the requests of a pipelined batch are handled concurrently.
+     * Only batches of GET and HEAD requests run in parallel; responses are
+     * always sent in request order.
+     *
+     * @param parallelPipelining true to run batched requests concurrently
+     * @return this config for chaining
+     */
+    public ServerConfig setParallelPipelining(boolean parallelPipelining) {
+        this.parallelPipelining = parallelPipelining;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of a request body. Larger requests are answered
+     * with 413. Bodies are streamed to handlers on the blocking transport, so
+     * this can be raised for large uploads; the NIO transport buffers bodies
+     * in memory up to this size.
+     *
+     * @param maxBodySize the maximum size in bytes
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("maxBodySize must not be negative");
+        }
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Sets the path at which the server answers GET requests with its
+     * metrics in the Prometheus text format, bypassing the request handler.
+     *
+     * @param metricsPath the path, for example "/metrics", or null to disable the endpoint
+     * @return this config for chaining
+     */
+    public ServerConfig setMetricsPath(String metricsPath) {
+        if (metricsPath != null && !metricsPath.startsWith("/")) {
+            throw new IllegalArgumentException("metricsPath must start with a slash");
+        }
+        this.metricsPath = metricsPath;
+        return this;
+    }
+
+    /**
+     * Sets the access log that records every exchange. The log is not
+     * closed by the server.
+     *
+     * @param accessLog the access log, or null to disable access logging
+     * @return this config for chaining
+     */
+    public ServerConfig setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+        return this;
+    }
+
+    /**
+     * Sets how many tasks may wait for a thread of the platform worker pool:
+     * connections with the blocking transport, request batches with the NIO
+     * transport. Work beyond that is shed with 503 Service Unavailable
+     * instead of queueing without bound. With several acceptors the capacity
+     * is divided among their worker groups.
+     *
+     * @param maxQueuedTasks the queue capacity, 0 to hand work to idle threads only
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxQueuedTasks(int maxQueuedTasks) {
+        if (maxQueuedTasks < 0) {
+            throw new IllegalArgumentException("maxQueuedTasks must not be negative");
+        }
+        this.maxQueuedTasks = maxQueuedTasks;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of open client connections. Connections
+     * accepted beyond it are answered with 503 Service Unavailable by the
+     * acceptor and closed.
+     *
+     * @param maxConnections the maximum number of connections, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Sets the Retry-After value of 503 responses sent when load is shed.
+     *
+     * @param retryAfterSeconds the delay in seconds
+     * @return this config for chaining
+     */
+    public ServerConfig setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("retryAfterSeconds must not be negative");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Enables an adaptive limit on concurrently handled requests. The limit
+     * grows additively while requests complete within the target latency and
+     * shrinks multiplicatively when they do not (AIMD); requests above the
+     * limit are answered with 503 Service Unavailable without running the
+     * handler.
+     *
+     * @param concurrencyLatencyTarget the latency target, or null to disable the limit
+     * @return this config for chaining
+     */
+    public ServerConfig setConcurrencyLatencyTarget(Duration concurrencyLatencyTarget) {
+        if (concurrencyLatencyTarget != null && (concurrencyLatencyTarget.isNegative() || concurrencyLatencyTarget.isZero())) {
+            throw new IllegalArgumentException("concurrencyLatencyTarget must be positive");
+        }
+        this.concurrencyLatencyTarget = concurrencyLatencyTarget;
+        return this;
+    }
+
+    /**
+     * Sets a deadline for each request served by an {@link AsyncRequestHandler}.
+     * A handler whose stage has not completed by then is cancelled and the
+     * request is answered with 504 Gateway Timeout, after which the
+     * connection is closed. A synchronous handler runs to completion on its
+     * thread regardless.
+     *
+     * @param requestTimeout the time from the start of handling, or null for no deadline
+     * @return this config for chaining
+     */
+    public ServerConfig setRequestTimeout(Duration requestTimeout) {
+        if (requestTimeout != null && (requestTimeout.isNegative() || requestTimeout.isZero())) {
+            throw new IllegalArgumentException("requestTimeout must be positive");
+        }
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * Enables HTTP/2 on the blocking transport. Over TLS it is negotiated
+     * with ALPN; over cleartext TCP (h2c) it is accepted both by prior
+     * knowledge, when a connection starts with the HTTP/2 preface, and by an
+     * HTTP/1.1 request with {@code Upgrade: h2c}. The streams of a
+     * connection are handled concurrently by the same {@link RequestHandler}.
+     * The NIO transport ignores this setting.
+     *
+     * @param http2Enabled true to accept HTTP/2 connections
+     * @return this config for chaining
+     */
+    public ServerConfig setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+        return this;
+    }
+
+    /**
+     * Sets how many streams an HTTP/2 client may have open at once on one
+     * connection. Streams beyond it are refused and may be retried by the
+     * client.
+     *
+     * @param maxConcurrentStreams the maximum number of streams, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setMaxConcurrentStreams(int maxConcurrentStreams) {
+        if (maxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("maxConcurrentStreams must be at least 1");
+        }
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    /**
+     * Serves HTTPS instead of plain HTTP, with the certificate and private
+     * key from a key store. The store type, PKCS12 or JKS, is detected from
+     * its content, and the key must have the same password as the store.
+     *
+     * @param keyStore the key store file, or null for plain HTTP
+     * @param password the password of the store and its key
+     * @return this config for chaining
+     */
+    public ServerConfig setKeyStore(Path keyStore, String password) {
+        this.keyStore = keyStore;
+        this.keyStorePassword = password;
+        return this;
+    }
+
+    /**
+     * Sets the TLS protocol versions offered to clients. Defaults to TLS 1.3
+     * and TLS 1.2.
+     *
+     * @param tlsProtocols the protocol names, as known to the JSSE provider
+     * @return this config for chaining
+     */
+    public ServerConfig setTlsProtocols(String... tlsProtocols) {
+        if (tlsProtocols.length == 0) {
+            throw new IllegalArgumentException("tlsProtocols must not be empty");
+        }
+        this.tlsProtocols = tlsProtocols.clone();
+        return this;
+    }
+
+    /**
+     * Sets how many TLS sessions are cached for resumption by clients that
+     * reconnect. TLS 1.3 clients resume with stateless session tickets
+     * instead, which do not take cache space.
+     *
+     * @param tlsSessionCacheSize the maximum number of sessions, 0 for no limit
+     * @return this config for chaining
+     */
+    public ServerConfig setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        if (tlsSessionCacheSize < 0) {
+            throw new IllegalArgumentException("tlsSessionCacheSize must not be negative");
+        }
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        return this;
+    }
+
+    /**
+     * Sets how long a TLS session, cached or in a ticket, can be resumed.
+     *
+     * @param tlsSessionTimeout the session lifetime, at least one second
+     * @return this config for chaining
+     */
+    public ServerConfig setTlsSessionTimeout(Duration tlsSessionTimeout) {
+        if (tlsSessionTimeout == null || tlsSessionTimeout.getSeconds() < 1) {
+            throw new IllegalArgumentException("tlsSessionTimeout must be at least one second");
+        }
+        this.tlsSessionTimeout = tlsSessionTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the number of listening sockets opened on the port, each with its
+     * own accept loop. With more than one, the sockets share the port with
+     * {@code SO_REUSEPORT} and the kernel spreads new connections over them;
+     * where the option is not supported a single socket is used. On the NIO
+     * transport each acceptor runs on its own event loop and hands its
+     * connections to a fixed group of loops, so there are at most as many
+     * acceptors as event loops. Each acceptor has a worker pool of its own
+     * while there are at least as many worker threads as acceptors, see
+     * {@link #setWorkerThreads(int)}.
+     *
+     * @param acceptorCount the number of acceptors, at least 1
+     * @return this config for chaining
+     */
+    public ServerConfig setAcceptorCount(int acceptorCount) {
+        if (acceptorCount < 1) {
+            throw new IllegalArgumentException("acceptorCount must be at least 1");
+        }
+        this.acceptorCount = acceptorCount;
+        return this;
+    }
+
+    /**
+     * Sets the length of the queue of connections the kernel has accepted
+     * but the server has not taken yet, per listening socket. The kernel
+     * may cap it, on Linux at {@code net.core.somaxconn}.
+     *
+     * @param backlog the queue length, 0 for the system default
+     * @return this config for chaining
+     */
+    public ServerConfig setBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("backlog must not be negative");
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets whether accepted connections disable Nagle's algorithm. Responses
+     * are written whole, so there is little to coalesce, and with it enabled
+     * small writes can wait for the client's delayed acknowledgement.
+     *
+     * @param tcpNoDelay true to send small segments right away
+     * @return this config for chaining
+     */
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Sets the socket send buffer size of accepted connections.
+     *
+     * @param sendBufferSize the size in bytes, 0 for the system default
+     * @return this config for chaining
+     */
+    public ServerConfig setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize must not be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the socket receive buffer size of accepted connections. It is set
+     * on the listening socket, which accepted connections inherit it from,
+     * so that windows larger than 64 KiB can be negotiated in the handshake.
+     *
+     * @param receiveBufferSize the size in bytes, 0 for the system default
+     * @return this config for chaining
+     */
+    public ServerConfig setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Gets the idle timeout for persistent connections.
+     *
+     * @return the idle timeout in milliseconds, 0 if keep-alive is disabled
+     */
+    public int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    /**
+     * Gets the time a client may take to send a request head.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getHeaderReadTimeoutMillis() {
+        return headerReadTimeoutMillis;
+    }
+
+    /**
+     * Gets the time the server waits for the next bytes of a request body.
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getBodyReadTimeoutMillis() {
+        return bodyReadTimeoutMillis;
+    }
+
+    /**
+     * Gets the time writing a response may take.
+     *
+     * @return the timeout in milliseconds, or 0 for none
+     */
+    public int getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * Gets the minimum rate at which clients must send requests.
+     *
+     * @return the rate in bytes per second, or 0 if it is not enforced
+     */
+    public int getMinDataRate() {
+        return minDataRate;
+    }
+
+    /**
+     * Gets the waiting time before the minimum data rate is enforced.
+     *
+     * @return the grace period in milliseconds
+     */
+    public int getMinDataRateGracePeriodMillis() {
+        return minDataRateGracePeriodMillis;
+    }
+
+    /**
+     * Gets how long stopping the server waits for requests in progress.
+     *
+     * @return the drain deadline in milliseconds
+     */
+    public int getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    /**
+     * Gets the maximum number of requests served on a single connection.
+     *
+     * @return the maximum number of requests
+     */
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /**
+     * Gets the I/O model used to serve connections.
+     *
+     * @return the transport
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the number of selector event loops used by the NIO transport.
+     *
+     * @return the number of event loops
+     */
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
+    /**
+     * Gets how connection and request handling work is executed.
+     *
+     * @return the execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Gets the size of the platform worker pool.
+     *
+     * @return the number of worker threads
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Gets the maximum size of the request line and headers.
+     *
+     * @return the maximum size in bytes
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Gets the maximum number of header fields in a request.
+     *
+     * @return the maximum number of header fields
+     */
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    /**
+     * Gets the maximum number of pipelined requests served as one batch.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxPipelineDepth() {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * Checks whether pipelined requests are handled concurrently.
+     *
+     * @return true if batches of safe requests run in parallel
+     */
+    public boolean isParallelPipelining() {
+        return parallelPipelining;
+    }
+
+    /**
+     * Gets the maximum size of a request body.
+     *
+     * @return the maximum size in bytes
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Gets the path of the metrics endpoint.
+     *
+     * @return the path, or null if the endpoint is disabled
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Gets the access log.
+     *
+     * @return the access log, or null if access logging is disabled
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Gets the capacity of the platform worker pool's queue.
+     *
+     * @return the maximum number of waiting tasks
+     */
+    public int getMaxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * Gets the maximum number of open client connections.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Gets the Retry-After value of load shedding responses.
+     *
+     * @return the delay in seconds
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Gets the latency target of the adaptive concurrency limit.
+     *
+     * @return the target, or null if the limit is disabled
+     */
+    public Duration getConcurrencyLatencyTarget() {
+        return concurrencyLatencyTarget;
+    }
+
+    /**
+     * Gets the deadline for requests served by an asynchronous handler.
+     *
+     * @return the timeout, or null if requests have no deadline
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Checks whether HTTP/2 over cleartext TCP is accepted.
+     *
+     * @return true if h2c is enabled
+     */
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Gets the maximum number of concurrent streams per HTTP/2 connection.
+     *
+     * @return the maximum number of streams
+     */
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * Checks whether the server serves HTTPS.
+     *
+     * @return true if a key store is set
+     */
+    public boolean isTlsEnabled() {
+        return keyStore != null;
+    }
+
+    /**
+     * Gets the key store with the server certificate.
+     *
+     * @return the key store file, or null for plain HTTP
+     */
+    public Path getKeyStore() {
+        return keyStore;
+    }
+
+    /**
+     * Gets the password of the key store and its key.
+     *
+     * @return the password
+     */
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * Gets the TLS protocol versions offered to clients.
+     *
+     * @return a copy of the protocol names
+     */
+    public String[] getTlsProtocols() {
+        return tlsProtocols.clone();
+    }
+
+    /**
+     * Gets the maximum number of cached TLS sessions.
+     *
+     * @return the cache size, 0 for no limit
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Gets how long a TLS session can be resumed.
+     *
+     * @return the session lifetime
+     */
+    public Duration getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Gets the number of listening sockets with their own accept loops.
+     *
+     * @return the number of acceptors
+     */
+    public int getAcceptorCount() {
+        return acceptorCount;
+    }
+
+    /**
+     * Gets the accept queue length of each listening socket.
+     *
+     * @return the queue length, 0 for the system default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Checks whether accepted connections disable Nagle's algorithm.
+     *
+     * @return true if small segments are sent right away
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Gets the socket send buffer size of accepted connections.
+     *
+     * @return the size in bytes, 0 for the system default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Gets the socket receive buffer size of accepted connections.
+     *
+     * @return the size in bytes, 0 for the system default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Checks whether persistent connections are enabled.
+     *
+     * @return true if connections may be reused for several requests
+     */
+    public boolean isKeepAliveEnabled() {
+        return keepAliveTimeoutMillis > 0 && maxRequestsPerConnection > 1;
+    }
+}
@@ -0,0 +1,312 @@
+package org.example.server;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Request and connection metrics of an {@link HttpServer}.
+ *
+ * <p>Counters are striped ({@link LongAdder}) and latencies go into a
+ * {@link LatencyHistogram} per route and status class, so recording an
+ * exchange neither locks nor allocates once its route has been seen. Routes
+ * are the patterns matched by a {@link Router}; requests that were not
+ * routed share one series, so raw paths never become labels. The latency
+ * is the time from the start of the handler until the response is complete,
+ * or committed and streamed, not counting the final socket write.</p>
+ */
+public class ServerMetrics {
+    /**
+     * The route label of requests that were not dispatched by a {@link Router}.
+     */
+    public static final String UNROUTED = "unrouted";
+
+    /**
+     * The ways a connection can time out waiting for its client.
+     */
+    public enum Timeout {
+        /** No request arrived within the keep-alive timeout; closed without a response. */
+        IDLE,
+        /** The request head took longer than the header read timeout; answered with 408. */
+        HEADER,
+        /** The request body stalled for longer than the body read timeout; answered with 408. */
+        BODY,
+        /** The client sent its request below the minimum data rate; answered with 408. */
+        MIN_DATA_RATE,
+        /** The client did not take a response within the write timeout; closed. */
+        WRITE
+    }
+
+    // Upper bounds of the exported histogram buckets, in seconds as they appear in the le label
+    private static final String[] EXPORTED_BUCKETS = {
+        "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+
+    private final LongAdder[] requestsByStatusClass = new LongAdder[6];
+    private final Map<String, AtomicReferenceArray<LatencyHistogram>> latencyByRoute = new ConcurrentHashMap<>();
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder activeRequests = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder shedRequests = new LongAdder();
+    private final LongAdder timedOutRequests = new LongAdder();
+    private final LongAdder[] timeouts = new LongAdder[Timeout.values().length];
+    private volatile IntSupplier pendingTasks = () -> 0;
+
+    ServerMetrics() {
+        for (int i = 0; i < requestsByStatusClass.length; i++) {
+            requestsByStatusClass[i] = new LongAdder();
+        }
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = new LongAdder();
+        }
+    }
+
+    void connectionOpened() {
+        openConnections.increment();
+    }
+
+    void connectionClosed() {
+        openConnections.decrement();
+    }
+
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    void requestShed() {
+        shedRequests.increment();
+    }
+
+    void requestTimedOut() {
+        timedOutRequests.increment();
+    }
+
+    void connectionTimedOut(Timeout kind) {
+        timeouts[kind.ordinal()].increment();
+    }
+
+    void requestStarted() {
+        activeRequests.increment();
+    }
+
+    /**
+     * Records a completed exchange.
+     *
+     * @param route the matched route pattern, or null if the request was not routed
+     * @param statusCode the response status
+     * @param nanos the latency in nanoseconds
+     */
+    void requestFinished(String route, int statusCode, long nanos) {
+        activeRequests.decrement();
+        int statusClass = statusClass(statusCode);
+        requestsByStatusClass[statusClass].increment();
+        String key = route != null ? route : UNROUTED;
+        AtomicReferenceArray<LatencyHistogram> histograms = latencyByRoute.get(key);
+        if (histograms == null) {
+            histograms = latencyByRoute.computeIfAbsent(key, k -> new AtomicReferenceArray<>(6));
+        }
+        LatencyHistogram histogram = histograms.get(statusClass);
+        if (histogram == null) {
+            histograms.compareAndSet(statusClass, null, new LatencyHistogram());
+            histogram = histograms.get(statusClass);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Sets the source of the executor queue depth.
+     *
+     * @param pendingTasks supplies the number of queued tasks
+     */
+    void setPendingTasks(IntSupplier pendingTasks) {
+        this.pendingTasks = pendingTasks;
+    }
+
+    private static int statusClass(int statusCode) {
+        int statusClass = statusCode / 100;
+        return statusClass >= 1 && statusClass <= 5 ? statusClass : 0;
+    }
+
+    /**
+     * Gets the number of completed requests.
+     *
+     * @return the request count
+     */
+    public long getRequestCount() {
+        long total = 0;
+        for (LongAdder requests : requestsByStatusClass) {
+            total += requests.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of completed requests with a status in a class.
+     *
+     * @param statusClass the first digit of the status code, 1 to 5
+     * @return the request count
+     */
+    public long getRequestCount(int statusClass) {
+        return requestsByStatusClass[statusClass >= 1 && statusClass <= 5 ? statusClass : 0].sum();
+    }
+
+    /**
+     * Gets the latency histogram of a route and status class.
+     *
+     * @param route the route pattern, or {@link #UNROUTED}
+     * @param statusClass the first digit of the status code, 1 to 5
+     * @return the histogram, or null if no such request has completed
+     */
+    public LatencyHistogram getLatency(String route, int statusClass) {
+        AtomicReferenceArray<LatencyHistogram> histograms = latencyByRoute.get(route);
+        return histograms != null ? histograms.get(statusClass(statusClass * 100)) : null;
+    }
+
+    /**
+     * Gets the number of open client connections.
+     *
+     * @return the connection count
+     */
+    public long getOpenConnections() {
+        return openConnections.sum();
+    }
+
+    /**
+     * Gets the number of requests whose handler is running.
+     *
+     * @return the active request count
+     */
+    public long getActiveRequests() {
+        return activeRequests.sum();
+    }
+
+    /**
+     * Gets the number of connections answered with 503 and closed because
+     * the connection limit was reached or no worker could take them.
+     *
+     * @return the rejected connection count
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * Gets the number of requests answered with 503 by the adaptive
+     * concurrency limit without running the handler.
+     *
+     * @return the shed request count
+     */
+    public long getShedRequests() {
+        return shedRequests.sum();
+    }
+
+    /**
+     * Gets the number of requests answered with 504 because their
+     * asynchronous handler missed the request timeout.
+     *
+     * @return the timed out request count
+     */
+    public long getTimedOutRequests() {
+        return timedOutRequests.sum();
+    }
+
+    /**
+     * Gets the number of connections that timed out waiting for their client.
+     *
+     * @param kind the kind of timeout
+     * @return the timeout count
+     */
+    public long getTimeouts(Timeout kind) {
+        return timeouts[kind.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of tasks waiting for a worker thread. Virtual threads
+     * never queue, so this is 0 in that execution mode.
+     *
+     * @return the queue depth
+     */
+    public int getPendingTasks() {
+        return pendingTasks.getAsInt();
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics text
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP http_requests_total Completed HTTP requests.\n");
+        out.append("# TYPE http_requests_total counter\n");
+        for (int i = 1; i <= 5; i++) {
+            out.append("http_requests_total{status=\"").append(i).append("xx\"} ")
+                    .append(requestsByStatusClass[i].sum()).append('\n');
+        }
+
+        out.append("# HELP http_request_duration_seconds Time to produce a response.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : new TreeMap<>(latencyByRoute).entrySet()) {
+            for (int i = 1; i <= 5; i++) {
+                LatencyHistogram histogram = entry.getValue().get(i);
+                if (histogram != null) {
+                    appendHistogram(out, escape(entry.getKey()), i, histogram);
+                }
+            }
+        }
+
+        out.append("# HELP http_open_connections Open client connections.\n");
+        out.append("# TYPE http_open_connections gauge\n");
+        out.append("http_open_connections ").append(getOpenConnections()).append('\n');
+        out.append("# HELP http_active_requests Requests being handled.\n");
+        out.append("# TYPE http_active_requests gauge\n");
+        out.append("http_active_requests ").append(getActiveRequests()).append('\n');
+        out.append("# HELP http_executor_pending_tasks Tasks waiting for a worker thread.\n");
+        out.append("# TYPE http_executor_pending_tasks gauge\n");
+        out.append("http_executor_pending_tasks ").append(getPendingTasks()).append('\n');
+        out.append("# HELP http_connections_rejected_total Connections shed with 503 at accept time.\n");
+        out.append("# TYPE http_connections_rejected_total counter\n");
+        out.append("http_connections_rejected_total ").append(getRejectedConnections()).append('\n');
+        out.append("# HELP http_requests_shed_total Requests shed with 503 by the concurrency limit.\n");
+        out.append("# TYPE http_requests_shed_total counter\n");
+        out.append("http_requests_shed_total ").append(getShedRequests()).append('\n');
+        out.append("# HELP http_requests_timed_out_total Requests answered with 504 after the request timeout.\n");
+        out.append("# TYPE http_requests_timed_out_total counter\n");
+        out.append("http_requests_timed_out_total ").append(getTimedOutRequests()).append('\n');
+        out.append("# HELP http_connection_timeouts_total Connections that timed out waiting for the client.\n");
+        out.append("# TYPE http_connection_timeouts_total counter\n");
+        for (Timeout kind : Timeout.values()) {
+            out.append("http_connection_timeouts_total{kind=\"").append(kind.name().toLowerCase(Locale.ROOT))
+                    .append("\"} ").append(getTimeouts(kind)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, String route, int statusClass, LatencyHistogram histogram) {
+        String labels = "route=\"" + route + "\",status=\"" + statusClass + "xx\"";
+        // Read the count first, so that no bucket exceeds it when requests complete meanwhile
+        long count = histogram.getCount();
+        long sumNanos = histogram.getSumNanos();
+        for (String bound : EXPORTED_BUCKETS) {
+            long nanos = (long) (Double.parseDouble(bound) * TimeUnit.SECONDS.toNanos(1));
+            long cumulative = Math.min(count, histogram.getCountAtOrBelow(nanos));
+            out.append("http_request_duration_seconds_bucket{").append(labels).append(",le=\"").append(bound)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        out.append("http_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                .append(count).append('\n');
+        out.append("http_request_duration_seconds_sum{").append(labels).append("} ")
+                .append(sumNanos / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+        out.append("http_request_duration_seconds_count{").append(labels).append("} ")
+                .append(count).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,240 @@
+package org.example.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves files below a document root.
+ *
+ * <p>Small files are read into memory and leave with the headers in one
+ * write. Larger files are sent as a {@link FileChannel} region, which the
+ * server transfers with {@link FileChannel#transferTo} so the contents never
+ * pass through the Java heap. Responses carry Last-Modified and ETag headers
+ * and conditional requests are answered with 304.</p>
+ */
+public class StaticFileHandler implements RequestHandler {
+    private static final Logger logger = LoggerFactory.getLogger(StaticFileHandler.class);
+
+    static final int IN_MEMORY_THRESHOLD = 16 * 1024;
+
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
+
+    static {
+        MIME_TYPES.put("html", "text/html; charset=UTF-8");
+        MIME_TYPES.put("htm", "text/html; charset=UTF-8");
+        MIME_TYPES.put("css", "text/css; charset=UTF-8");
+        MIME_TYPES.put("js", "text/javascript; charset=UTF-8");
+        MIME_TYPES.put("mjs", "text/javascript; charset=UTF-8");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("txt", "text/plain; charset=UTF-8");
+        MIME_TYPES.put("csv", "text/csv; charset=UTF-8");
+        MIME_TYPES.put("xml", "application/xml");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("gif", "image/gif");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+        MIME_TYPES.put("pdf", "application/pdf");
+        MIME_TYPES.put("zip", "application/zip");
+        MIME_TYPES.put("gz", "application/gzip");
+        MIME_TYPES.put("wasm", "application/wasm");
+        MIME_TYPES.put("mp4", "video/mp4");
+    }
+
+    private final Path documentRoot;
+    private final String indexFile;
+
+    /**
+     * Creates a handler serving the given directory, with index.html as directory index.
+     *
+     * @param documentRoot the directory to serve
+     * @throws IOException if the directory does not exist
+     */
+    public StaticFileHandler(Path documentRoot) throws IOException {
+        this(documentRoot, "index.html");
+    }
+
+    /**
+     * Creates a handler serving the given directory.
+     *
+     * @param documentRoot the directory to serve
+     * @param indexFile the file served for directory requests
+     * @throws IOException if the directory does not exist
+     */
+    public StaticFileHandler(Path documentRoot, String indexFile) throws IOException {
+        this.documentRoot = documentRoot.toRealPath();
+        this.indexFile = indexFile;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) {
+        HttpMethod method = request.getHttpMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            response.setStatus(405).setHeader("Allow", "GET, HEAD");
+            response.setBody("405 Method Not Allowed");
+            return;
+        }
+
+        Path file = resolve(request.getPath());
+        if (file == null) {
+            notFound(response);
+            return;
+        }
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                file = file.resolve(indexFile);
+                if (!isContained(file)) {
+                    notFound(response);
+                    return;
+                }
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            }
+            if (!attributes.isRegularFile()) {
+                notFound(response);
+                return;
+            }
+            serveFile(request, response, file, attributes);
+        } catch (NoSuchFileException e) {
+            notFound(response);
+        } catch (IOException e) {
+            logger.error("Error serving {}", file, e);
+            response.setStatus(500);
+            response.setBody("500 Internal Server Error");
+        }
+    }
+
+    private void serveFile(HttpRequest request, HttpResponse response, Path file, BasicFileAttributes attributes)
+            throws IOException {
+        long size = attributes.size();
+        Instant modified = attributes.lastModifiedTime().toInstant();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified.toEpochMilli()) + "\"";
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", HTTP_DATE.format(modified));
+        response.setContentType(contentType(file));
+
+        if (isNotModified(request, etag, modified)) {
+            response.setStatus(304);
+            // The length of the 200 this stands for, as caches merge the headers into their copy
+            response.setHeader("Content-Length", Long.toString(size));
+            return;
+        }
+
+        if (size <= IN_MEMORY_THRESHOLD) {
+            response.setBody(Files.readAllBytes(file));
+        } else {
+            response.setBody(FileChannel.open(file, StandardOpenOption.READ), 0, size);
+        }
+    }
+
+    /**
+     * Maps a request path onto a file below the document root.
+     *
+     * @param requestPath the raw request target
+     * @return the file, or null if the path is invalid or escapes the document root
+     */
+    Path resolve(String requestPath) {
+        String path = requestPath;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        try {
+            path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (path.indexOf('\0') >= 0 || path.indexOf('\\') >= 0) {
+            return null;
+        }
+
+        try {
+            Path resolved = documentRoot.resolve(path.replaceFirst("^/+", "")).normalize();
+            if (!resolved.startsWith(documentRoot)) {
+                return null;
+            }
+            return isContained(resolved) ? resolved : null;
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that symbolic links do not lead a path out of the document root.
+     *
+     * @param file a path below the document root
+     * @return true if the file does not exist or its real path is below the document root
+     * @throws IOException if the real path cannot be determined
+     */
+    private boolean isContained(Path file) throws IOException {
+        return !Files.exists(file) || file.toRealPath().startsWith(documentRoot);
+    }
+
+    private static boolean isNotModified(HttpRequest request, String etag, Instant modified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return modified.getEpochSecond() <= since.getEpochSecond();
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String contentType(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            String type = MIME_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        String probed = Files.probeContentType(file);
+        return probed != null ? probed : "application/octet-stream";
+    }
+
+    private static void notFound(HttpResponse response) {
+        response.setStatus(404);
+        response.setBody("404 Not Found");
+    }
+}
@@ -0,0 +1,477 @@
+package org.example.server;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A TLS connection driven by an {@link SSLEngine}, read and written like the
+ * plain socket channel underneath. Both transports use it: in blocking mode
+ * every call completes its I/O, in non-blocking mode reads return 0 and
+ * writes accept less when the socket is not ready, and {@link #flush()}
+ * reports whether encrypted output is still waiting for the socket.
+ *
+ * <p>The handshake runs as part of the first reads, or explicitly with
+ * {@link #handshake()}. Encrypted data is staged in pooled direct buffers,
+ * which the socket reads and writes without a copy; they are taken only
+ * while data is in flight and returned as soon as they drain, so idle
+ * connections hold none. Outgoing records are gathered into one buffer and
+ * written together, decrypted data goes straight into the reader's buffer
+ * whenever it fits.</p>
+ *
+ * <p>One thread may read while another writes, as HTTP/2 streams do; writes
+ * are serialized by the caller, and handshake messages produced while
+ * reading share the write side under its lock.</p>
+ */
+class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final String[] HTTP_1_1 = {"http/1.1"};
+    private static final String[] H2_AND_HTTP_1_1 = {"h2", "http/1.1"};
+
+    private final SSLEngine engine;
+    private final ReadableByteChannel source;
+    private final SocketChannel sink;
+    private final BufferPool buffers;
+    private final int packetSize;
+    private final ReentrantLock outbound = new ReentrantLock();
+    // Received records not yet decrypted, in read mode; null when empty
+    private ByteBuffer netIn;
+    // Decrypted data that did not fit into the reader's buffer, in read mode; null when empty
+    private ByteBuffer appIn;
+    // Encrypted data the socket has not taken yet, in read mode; null when empty. Guarded by outbound
+    private ByteBuffer netOut;
+    private boolean inboundDone;
+    private boolean closed;
+
+    /**
+     * Creates a server-side TLS channel.
+     *
+     * @param engine the engine, in server mode
+     * @param source the channel encrypted data is read from; a channel over
+     *               the socket's input stream in blocking mode, so that the
+     *               socket timeout applies
+     * @param sink the socket channel encrypted data is written to
+     * @param buffers the pool of direct buffers for encrypted data
+     */
+    TlsChannel(SSLEngine engine, ReadableByteChannel source, SocketChannel sink, BufferPool buffers) {
+        this.engine = engine;
+        this.source = source;
+        this.sink = sink;
+        this.buffers = buffers;
+        this.packetSize = engine.getSession().getPacketBufferSize();
+    }
+
+    /**
+     * Creates the TLS context of a server from its key store, with its
+     * session cache tuned for resumption. TLS 1.3 sessions are resumed from
+     * stateless session tickets, which the JDK issues by default.
+     *
+     * @param config the server configuration, with a key store
+     * @return the context
+     * @throws IOException if the key store cannot be read or holds no usable key
+     */
+    static SSLContext createContext(ServerConfig config) throws IOException {
+        String password = config.getKeyStorePassword();
+        char[] secret = password != null ? password.toCharArray() : new char[0];
+        try {
+            KeyStore keyStore = KeyStore.getInstance(config.getKeyStore().toFile(), secret);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, secret);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(config.getTlsSessionCacheSize());
+            sessions.setSessionTimeout((int) Math.min(Integer.MAX_VALUE, config.getTlsSessionTimeout().getSeconds()));
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load key store " + config.getKeyStore(), e);
+        }
+    }
+
+    /**
+     * Creates a server engine with the configured protocols.
+     *
+     * @param context the TLS context
+     * @param config the server configuration
+     * @param http2 whether to offer h2 besides http/1.1 in ALPN
+     * @return the engine
+     */
+    static SSLEngine createEngine(SSLContext context, ServerConfig config, boolean http2) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(config.getTlsProtocols());
+        parameters.setApplicationProtocols(http2 ? H2_AND_HTTP_1_1 : HTTP_1_1);
+        // The JDK orders its cipher suites by strength and speed, clients do not always
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    /**
+     * Runs the handshake to completion. Only for blocking channels; in
+     * non-blocking mode the handshake progresses with every read.
+     *
+     * @throws IOException if the handshake fails or the client closes the connection
+     */
+    void handshake() throws IOException {
+        engine.beginHandshake();
+        while (isHandshaking()) {
+            if (read(EMPTY) < 0) {
+                throw new EOFException("Connection closed during the TLS handshake");
+            }
+        }
+    }
+
+    /**
+     * Gets the application protocol negotiated with ALPN.
+     *
+     * @return the protocol, such as "h2", or null or empty if none was negotiated
+     */
+    String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int produced = 0;
+        while (true) {
+            if (appIn != null) {
+                produced += transfer(appIn, dst);
+                if (appIn.hasRemaining()) {
+                    return produced;
+                }
+                release(appIn);
+                appIn = null;
+            }
+            if (produced > 0 && (netIn == null || !dst.hasRemaining())) {
+                // Decrypt what has arrived, but do not wait for more once there is data
+                return produced;
+            }
+            if (inboundDone) {
+                return produced > 0 ? produced : -1;
+            }
+            if (!dst.hasRemaining() && !isHandshaking()) {
+                return produced;
+            }
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runTasks();
+                continue;
+            }
+            if (status == HandshakeStatus.NEED_WRAP) {
+                outbound.lock();
+                try {
+                    if (!flush()) {
+                        return produced;
+                    }
+                    // A whole flight of handshake messages goes out in one write, not one per message
+                    do {
+                        if (status == HandshakeStatus.NEED_TASK) {
+                            runTasks();
+                        } else {
+                            wrap(new ByteBuffer[] {EMPTY}, 0, 1);
+                        }
+                        status = engine.getHandshakeStatus();
+                    } while ((status == HandshakeStatus.NEED_WRAP || status == HandshakeStatus.NEED_TASK)
+                            && (netOut == null || netOut.capacity() - netOut.limit() >= packetSize));
+                    if (!flush()) {
+                        return produced;
+                    }
+                } finally {
+                    outbound.unlock();
+                }
+                continue;
+            }
+            if (netIn != null) {
+                int unwrapped = unwrap(dst);
+                if (unwrapped >= 0) {
+                    produced += unwrapped;
+                    continue;
+                }
+            }
+            if (produced > 0) {
+                return produced;
+            }
+            int read = readNet();
+            if (read < 0) {
+                inboundDone = true;
+                try {
+                    engine.closeInbound();
+                } catch (SSLException e) {
+                    // Closed without close_notify, common among clients and harmless for HTTP
+                }
+                continue;
+            }
+            if (read == 0) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Decrypts one record from the received data.
+     *
+     * @return the number of bytes decrypted into dst, or -1 if the record is
+     *         incomplete and more data has to be read
+     */
+    private int unwrap(ByteBuffer dst) throws IOException {
+        int produced = 0;
+        SSLEngineResult result = engine.unwrap(netIn, dst);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            // The record does not fit the reader's buffer; keep it for the next reads
+            appIn = buffers.acquire();
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+                if (!appIn.hasRemaining()) {
+                    release(appIn);
+                    appIn = null;
+                }
+            }
+        } else {
+            produced = result.bytesProduced();
+        }
+        if (!netIn.hasRemaining()) {
+            release(netIn);
+            netIn = null;
+        }
+        switch (result.getStatus()) {
+            case CLOSED -> {
+                inboundDone = true;
+                return produced;
+            }
+            case BUFFER_UNDERFLOW -> {
+                if (netIn != null && netIn.remaining() == netIn.capacity()) {
+                    throw new SSLException("TLS record larger than " + netIn.capacity() + " bytes");
+                }
+                return -1;
+            }
+            default -> {
+                return produced;
+            }
+        }
+    }
+
+    private int readNet() throws IOException {
+        if (netIn == null) {
+            netIn = buffers.acquire();
+        } else {
+            netIn.compact();
+        }
+        try {
+            return source.read(netIn);
+        } finally {
+            netIn.flip();
+            if (!netIn.hasRemaining()) {
+                release(netIn);
+                netIn = null;
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        outbound.lock();
+        try {
+            long written = 0;
+            while (flush() && hasRemaining(srcs, offset, length)) {
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                } else if (status == HandshakeStatus.NEED_UNWRAP) {
+                    throw new SSLException("TLS renegotiation is not supported");
+                }
+                // Several records go out in one socket write
+                do {
+                    SSLEngineResult result = wrap(srcs, offset, length);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new ClosedChannelException();
+                    }
+                    written += result.bytesConsumed();
+                } while (netOut != null && netOut.capacity() - netOut.limit() >= packetSize
+                        && hasRemaining(srcs, offset, length));
+            }
+            return written;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Appends the records for the given data to the pending output. The
+     * caller holds the outbound lock.
+     */
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (netOut == null) {
+            netOut = buffers.acquire();
+        } else {
+            // Append behind the data not written yet
+            netOut.position(netOut.limit()).limit(netOut.capacity());
+        }
+        try {
+            return engine.wrap(srcs, offset, length, netOut);
+        } finally {
+            netOut.flip();
+            if (!netOut.hasRemaining()) {
+                release(netOut);
+                netOut = null;
+            }
+        }
+    }
+
+    /**
+     * Writes pending encrypted output to the socket.
+     *
+     * @return true if all output has been written, false if a non-blocking
+     *         socket did not take all of it
+     * @throws IOException if the socket cannot be written
+     */
+    boolean flush() throws IOException {
+        outbound.lock();
+        try {
+            while (netOut != null) {
+                int written = sink.write(netOut);
+                if (!netOut.hasRemaining()) {
+                    release(netOut);
+                    netOut = null;
+                } else if (written == 0 && !sink.isBlocking()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Checks whether encrypted output is waiting for the socket.
+     *
+     * @return true until {@link #flush()} has written everything
+     */
+    boolean hasPendingOutput() {
+        outbound.lock();
+        try {
+            return netOut != null;
+        } finally {
+            outbound.unlock();
+        }
+    }
+
+    /**
+     * Checks whether received data is buffered that a read can return or
+     * decrypt without reading from the socket.
+     *
+     * @return true if received data is waiting
+     */
+    boolean hasBufferedInput() {
+        return appIn != null || netIn != null;
+    }
+
+    private boolean isHandshaking() {
+        HandshakeStatus status = engine.getHandshakeStatus();
+        return status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED;
+    }
+
+    private void runTasks() {
+        // Certificate and key exchange work; small enough to run on the calling thread
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static int transfer(ByteBuffer from, ByteBuffer to) {
+        int length = Math.min(from.remaining(), to.remaining());
+        to.put(to.position(), from, from.position(), length);
+        to.position(to.position() + length);
+        from.position(from.position() + length);
+        return length;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffers.release(buffer);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && sink.isOpen();
+    }
+
+    /**
+     * Sends close_notify, as far as the socket takes it without blocking on
+     * a client that stopped reading, and closes the socket.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        outbound.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            engine.closeOutbound();
+            try {
+                if (netOut == null && sink.isOpen()) {
+                    wrap(new ByteBuffer[] {EMPTY}, 0, 1);
+                    if (netOut != null) {
+                        // A single attempt, the connection is closed either way
+                        sink.write(netOut);
+                    }
+                }
+            } catch (IOException e) {
+                // The client is gone already
+            }
+            // The inbound buffers may still be in use by a reader and are left to the garbage collector
+            if (netOut != null) {
+                release(netOut);
+                netOut = null;
+            }
+        } finally {
+            outbound.unlock();
+            sink.close();
+        }
+    }
+}
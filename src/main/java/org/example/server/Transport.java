@@ -0,0 +1,17 @@
+package org.example.server;
+
+/**
+ * The I/O model an {@link HttpServer} uses to serve connections.
+ */
+public enum Transport {
+    /**
+     * Blocking sockets, one worker thread per connection.
+     */
+    BLOCKING,
+
+    /**
+     * Non-blocking channels multiplexed over a few selector event loops.
+     * Worker threads are only used while a complete request is being handled.
+     */
+    NIO
+}
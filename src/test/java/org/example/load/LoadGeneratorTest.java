@@ -0,0 +1,164 @@
+package org.example.load;
+
+import org.example.server.HttpServer;
+import org.example.server.RequestHandler;
+import org.example.server.ServerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the load generator against a server on the loopback interface.
+ */
+public class LoadGeneratorTest {
+    private static final int TEST_PORT = 8893;
+    private static final URI URL = URI.create("http://localhost:" + TEST_PORT + "/hello");
+    private HttpServer server;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void start(RequestHandler handler) throws IOException {
+        server = new HttpServer(TEST_PORT, handler, new ServerConfig().setMaxRequestsPerConnection(Integer.MAX_VALUE));
+        server.start();
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static LoadConfig shortTest() {
+        return new LoadConfig(URL)
+                .setConnections(4)
+                .setWarmup(Duration.ofMillis(100))
+                .setDuration(Duration.ofMillis(500));
+    }
+
+    @Test
+    public void testClosedLoopWithPipelining() throws IOException {
+        start((request, response) -> response.setBody("Hello"));
+        LoadReport report = new LoadGenerator(shortTest().setPipelineDepth(4)).run();
+        assertTrue(report.getRequests() > 0);
+        assertEquals(report.getRequests(), report.getStatusCount(2));
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getLatency(50, TimeUnit.NANOSECONDS) > 0);
+        // Warm-up requests are served but not reported
+        assertTrue(server.getMetrics().getRequestCount() > report.getRequests());
+    }
+
+    @Test
+    public void testOpenLoopKeepsToTheRate() throws IOException {
+        start((request, response) -> response.setBody("Hello"));
+        LoadReport report = new LoadGenerator(shortTest().setRate(400).setDuration(Duration.ofSeconds(1))).run();
+        assertTrue(report.getRequests() >= 300 && report.getRequests() <= 420, "Requests: " + report.getRequests());
+        assertEquals(0, report.getErrors());
+    }
+
+    @Test
+    public void testOpenLoopCountsLatencyFromWhenRequestsWereDue() throws IOException {
+        // The first request stalls the only connection for 300 ms
+        AtomicBoolean stalled = new AtomicBoolean();
+        start((request, response) -> {
+            if (stalled.compareAndSet(false, true)) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.setBody("Hello");
+        });
+        LoadConfig config = new LoadConfig(URL)
+                .setConnections(1)
+                .setWarmup(Duration.ZERO)
+                .setDuration(Duration.ofSeconds(1));
+
+        LoadReport open = new LoadGenerator(config.setRate(200)).run();
+        // The requests due during the stall waited for it too
+        assertTrue(open.getLatency(90, TimeUnit.MILLISECONDS) >= 100,
+                "p90 " + open.getLatency(90, TimeUnit.MILLISECONDS) + " ms");
+
+        stalled.set(false);
+        LoadReport closed = new LoadGenerator(config.setRate(0)).run();
+        // A closed loop sends nothing during the stall, so only one request is slow
+        assertTrue(closed.getLatency(90, TimeUnit.MILLISECONDS) < 100,
+                "p90 " + closed.getLatency(90, TimeUnit.MILLISECONDS) + " ms");
+        assertTrue(closed.getLatency(100, TimeUnit.MILLISECONDS) >= 250);
+    }
+
+    @Test
+    public void testOpensConnectionPerRequestWithoutKeepAlive() throws IOException {
+        start((request, response) -> response.setBody("Hello"));
+        LoadReport report = new LoadGenerator(shortTest().setKeepAlive(false).setPipelineDepth(4)).run();
+        assertTrue(report.getRequests() > 0);
+        assertEquals(0, report.getErrors());
+        // Pipelining needs a persistent connection
+        assertTrue(report.format().contains("pipeline depth 1, a new connection per request"));
+    }
+
+    @Test
+    public void testCountsErrorsWhenNothingListens() {
+        LoadReport report = new LoadGenerator(shortTest().setWarmup(Duration.ZERO)).run();
+        assertEquals(0, report.getRequests());
+        assertTrue(report.getErrors() > 0);
+    }
+
+    @Test
+    public void testBaselineDetectsRegressions(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("baseline.properties");
+        new LoadBaseline(1000, 500, 2000).write(file);
+        LoadBaseline baseline = LoadBaseline.read(file);
+        assertEquals(1000, baseline.getThroughput(), 0.1);
+        assertEquals(2000, baseline.getP99Micros());
+
+        assertEquals(List.of(), baseline.regressions(new LoadBaseline(950, 600, 2300), 10, 20));
+        List<String> regressions = baseline.regressions(new LoadBaseline(850, 600, 2500), 10, 20);
+        assertEquals(2, regressions.size(), regressions.toString());
+        assertTrue(regressions.get(0).startsWith("Throughput"));
+        assertTrue(regressions.get(1).startsWith("p99 latency"));
+    }
+
+    @Test
+    public void testCommandLine(@TempDir Path directory) throws IOException {
+        start((request, response) -> response.setBody("Hello"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8);
+        Path saved = directory.resolve("saved.properties");
+
+        String[] args = {"-c", "2", "-d", "300ms", "-w", "0", "-p", "2", "--save-baseline", saved.toString(),
+                URL.toString()};
+        assertEquals(0, LoadGenerator.run(args, out), output.toString(StandardCharsets.UTF_8));
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("Closed loop for 0.3 s"));
+        assertTrue(LoadBaseline.read(saved).getThroughput() > 0);
+
+        // No loopback server reaches this throughput
+        Path unreachable = directory.resolve("unreachable.properties");
+        new LoadBaseline(1e9, 1, 1).write(unreachable);
+        args = new String[] {"-c", "2", "-d", "300ms", "-w", "0", "--baseline", unreachable.toString(), URL.toString()};
+        assertEquals(1, LoadGenerator.run(args, out));
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("REGRESSION: Throughput"));
+
+        assertEquals(2, LoadGenerator.run(new String[] {"-c", "0", URL.toString()}, out));
+        assertEquals(2, LoadGenerator.run(new String[] {"-d", "soon", URL.toString()}, out));
+        assertEquals(2, LoadGenerator.run(new String[] {"https://localhost/"}, out));
+        assertEquals(2, LoadGenerator.run(new String[0], out));
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the asynchronous access log.
+ */
+public class AccessLogTest {
+
+    @TempDir
+    Path directory;
+
+    private static HttpRequest request(String text) throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        parser.setRemoteAddress(new InetSocketAddress("127.0.0.1", 50000));
+        return parser.parse(ByteBuffer.wrap((text + "\r\n\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testWritesCombinedFormat() throws IOException {
+        Path file = directory.resolve("access.log");
+        HttpRequest request = request("GET /index.html?q=\"x\" HTTP/1.1\r\nReferer: http://example.org/\r\n"
+                + "User-Agent: curl/8.0");
+        HttpResponse response = new HttpResponse().setBody("hello");
+        HttpRequest missing = request("HEAD /missing HTTP/1.0");
+        HttpResponse notFound = new HttpResponse().setStatus(404, "Not Found");
+
+        try (AccessLog log = new AccessLog(file, AccessLog.Format.COMBINED, 16, AccessLog.OverflowPolicy.BLOCK)) {
+            log.log(request, response);
+            log.log(missing, notFound);
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).matches("127\\.0\\.0\\.1 - - \\[\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4}] "
+                + "\"GET /index.html\\?q=\\\\\"x\\\\\" HTTP/1.1\" 200 5 \"http://example.org/\" \"curl/8.0\""),
+                lines.get(0));
+        assertTrue(lines.get(1).endsWith("\"HEAD /missing HTTP/1.0\" 404 - \"-\" \"-\""), lines.get(1));
+    }
+
+    @Test
+    public void testEscapesNonAsciiAsUtf8AndCapsLongFields() throws IOException {
+        Path file = directory.resolve("escaped.log");
+        // Every field escapes to far more than the cap
+        HttpRequest request = request("GET /\u0100\uD83D\uDE00" + "\u20ac".repeat(2000) + " HTTP/1.1\r\n"
+                + "Referer: " + "\\".repeat(2000) + "\r\nUser-Agent: " + "\"".repeat(2000));
+        HttpResponse response = new HttpResponse().setBody("ok");
+
+        try (AccessLog log = new AccessLog(file, AccessLog.Format.COMBINED, 4, AccessLog.OverflowPolicy.BLOCK)) {
+            for (int i = 0; i < 100; i++) {
+                log.log(request, response);
+            }
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(100, lines.size());
+        String line = lines.get(0);
+        assertTrue(line.contains("\"GET /\\xc4\\x80\\xf0\\x9f\\x98\\x80\\xe2\\x82\\xac"), line);
+        // Cut at whole escapes
+        assertTrue(line.contains("\\xe2\\x82\\xac HTTP/1.1\" 200 2"), line);
+        assertTrue(line.endsWith("\\\"\""), line);
+        assertTrue(line.length() < 4 * 1024 + 256, "Line length " + line.length());
+    }
+
+    @Test
+    public void testLogsUnresolvedRemoteAddress() throws IOException {
+        Path file = directory.resolve("unresolved.log");
+        HttpRequestParser parser = new HttpRequestParser();
+        parser.setRemoteAddress(InetSocketAddress.createUnresolved("client.example", 50000));
+        HttpRequest request = parser.parse(ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+
+        try (AccessLog log = new AccessLog(file, AccessLog.Format.COMMON, 4, AccessLog.OverflowPolicy.BLOCK)) {
+            log.log(request, new HttpResponse().setBody("ok"));
+            log.log(request, new HttpResponse().setBody("ok"));
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size(), "The writer should survive the record");
+        assertTrue(lines.get(0).startsWith("client.example - - ["), lines.get(0));
+    }
+
+    @Test
+    public void testBlockingPolicyKeepsEveryRecord() throws IOException, InterruptedException {
+        Path file = directory.resolve("blocking.log");
+        HttpRequest request = request("GET / HTTP/1.1");
+        HttpResponse response = new HttpResponse().setBody("ok");
+
+        try (AccessLog log = new AccessLog(file, AccessLog.Format.COMMON, 4, AccessLog.OverflowPolicy.BLOCK)) {
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = Thread.ofVirtual().start(() -> {
+                    for (int i = 0; i < 2500; i++) {
+                        log.log(request, response);
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, log.getDroppedCount());
+        }
+        assertEquals(10000, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testDropPolicyAccountsForEveryRecord() throws IOException {
+        Path file = directory.resolve("dropping.log");
+        HttpRequest request = request("GET / HTTP/1.1");
+        HttpResponse response = new HttpResponse().setBody("ok");
+
+        long dropped;
+        try (AccessLog log = new AccessLog(file, AccessLog.Format.COMMON, 2, AccessLog.OverflowPolicy.DROP)) {
+            for (int i = 0; i < 10000; i++) {
+                log.log(request, response);
+            }
+            dropped = log.getDroppedCount();
+        }
+        assertTrue(dropped > 0, "A two-slot ring should overflow");
+        assertEquals(10000 - dropped, Files.readAllLines(file).size());
+    }
+}
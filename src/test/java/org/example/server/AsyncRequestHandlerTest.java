@@ -0,0 +1,176 @@
+package org.example.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for asynchronous request handlers on the blocking transport.
+ */
+public class AsyncRequestHandlerTest {
+    protected static final int TEST_PORT = 8891;
+    // Stands in for a downstream service that answers later on its own thread
+    private final ScheduledExecutorService downstream = Executors.newSingleThreadScheduledExecutor();
+    private HttpServer server;
+
+    /**
+     * Creates the configuration of the server under test.
+     */
+    protected ServerConfig createConfig() {
+        return new ServerConfig();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+        downstream.shutdownNow();
+    }
+
+    protected void start(AsyncRequestHandler handler, ServerConfig config) throws IOException {
+        server = new HttpServer(TEST_PORT, handler, config);
+        server.start();
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Completes the response with the request path after the given delay.
+     */
+    protected CompletableFuture<Void> later(HttpRequest request, HttpResponse response, long delayMillis) {
+        String path = request.getPath();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        downstream.schedule(() -> {
+            response.setContentType("text/plain");
+            response.setBody("Answer for " + path);
+            done.complete(null);
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return done;
+    }
+
+    protected static java.net.http.HttpResponse<String> get(HttpClient client, String path) throws Exception {
+        return client.send(java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + TEST_PORT + path))
+                .build(), BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testSendsResponseWhenStageCompletes() throws Exception {
+        start((request, response) -> later(request, response, 50), createConfig());
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            for (int i = 0; i < 3; i++) {
+                java.net.http.HttpResponse<String> response = get(client, "/item/" + i);
+                assertEquals(200, response.statusCode());
+                assertEquals("Answer for /item/" + i, response.body());
+            }
+        }
+        assertEquals(3, server.getMetrics().getRequestCount());
+    }
+
+    @Test
+    public void testAnswersPipelinedRequestsInOrder() throws Exception {
+        // The first request completes last
+        start((request, response) -> later(request, response, request.getPath().equals("/slow") ? 200 : 0),
+                createConfig());
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /fast HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String responses = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            int slow = responses.indexOf("Answer for /slow");
+            int fast = responses.indexOf("Answer for /fast");
+            assertTrue(slow >= 0 && fast > slow, responses);
+        }
+    }
+
+    @Test
+    public void testAnswersGatewayTimeoutAndCancelsStage() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        start((request, response) -> pending, createConfig().setRequestTimeout(Duration.ofMillis(100)));
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            java.net.http.HttpResponse<String> response = get(client, "/stuck");
+            assertEquals(504, response.statusCode());
+            assertEquals("504 Gateway Timeout", response.body());
+        }
+        assertTrue(pending.isCancelled(), "The handler's stage should be cancelled at the deadline");
+        assertEquals(1, server.getMetrics().getTimedOutRequests());
+        assertTrue(server.getMetrics().toPrometheusText().contains("http_requests_timed_out_total 1"));
+    }
+
+    @Test
+    public void testKeepsDeadlineOffRequestsThatCompleteInTime() throws Exception {
+        start((request, response) -> later(request, response, 10),
+                createConfig().setRequestTimeout(Duration.ofMillis(500)));
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(200, get(client, "/ok").statusCode());
+            }
+            // Longer than the timeout in total, each request on its own finished in time
+            Thread.sleep(600);
+            assertEquals(200, get(client, "/ok").statusCode());
+        }
+        assertEquals(0, server.getMetrics().getTimedOutRequests());
+    }
+
+    @Test
+    public void testClosesConnectionWhenStageFails() throws Exception {
+        start((request, response) -> CompletableFuture.failedFuture(new IllegalStateException("downstream failed")),
+                createConfig());
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            try {
+                assertEquals(-1, in.read(), "A failed handler should close the connection without a response");
+            } catch (IOException e) {
+                // Reset instead of closed, just as well
+            }
+        }
+    }
+
+    @Test
+    public void testAdaptsSynchronousHandler() throws Exception {
+        RequestHandler handler = (request, response) -> response.setBody("sync " + request.getPath());
+        AsyncRequestHandler adapted = AsyncRequestHandler.of(handler);
+        assertSame(adapted, AsyncRequestHandler.of(adapted));
+        start(adapted, createConfig());
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            java.net.http.HttpResponse<String> response = get(client, "/plain");
+            assertEquals(200, response.statusCode());
+            assertEquals("sync /plain", response.body());
+        }
+    }
+
+    @Test
+    public void testWaitsForAsyncHandlerUsedSynchronously() throws IOException {
+        AsyncRequestHandler handler = (request, response) -> later(request, response, 20);
+        Router router = new Router().route(HttpMethod.GET, "/nested", handler);
+        HttpRequest request = new HttpRequestParser().parse(
+                ByteBuffer.wrap("GET /nested HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        HttpResponse response = new HttpResponse();
+        router.handle(request, response);
+        assertEquals("Answer for /nested", response.getBody());
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the response cache decorator.
+ */
+public class CachingRequestHandlerTest {
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong();
+
+    private CachingRequestHandler cache(RequestHandler delegate, long maxBytes) {
+        return new CachingRequestHandler(delegate, maxBytes, Duration.ofSeconds(10), now::get);
+    }
+
+    private HttpResponse get(RequestHandler handler, String request) throws IOException {
+        HttpRequest parsed = new HttpRequestParser().parse(
+                ByteBuffer.wrap((request + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+        HttpResponse response = new HttpResponse();
+        handler.handle(parsed, response);
+        return response;
+    }
+
+    private void countingHandler(HttpRequest request, HttpResponse response) {
+        response.setBody("call " + calls.incrementAndGet() + " " + request.getPath());
+    }
+
+    @Test
+    public void testServesRepeatedRequestsFromCache() throws IOException {
+        CachingRequestHandler handler = cache(this::countingHandler, 1024 * 1024);
+
+        assertEquals("call 1 /a", get(handler, "GET /a HTTP/1.1").getBody());
+        HttpResponse cached = get(handler, "GET /a HTTP/1.1");
+        assertEquals("call 1 /a", cached.getBody());
+        assertEquals("9", cached.getHeader("Content-Length"));
+        assertEquals("call 1 /a", get(handler, "HEAD /a HTTP/1.1").getBody(), "HEAD should use the GET entry");
+
+        assertEquals(1, calls.get());
+        assertEquals(2, handler.getHitCount());
+        assertEquals(1, handler.getMissCount());
+    }
+
+    @Test
+    public void testExpiresEntries() throws IOException {
+        CachingRequestHandler handler = cache((request, response) -> {
+            countingHandler(request, response);
+            if (request.getPath().equals("/short")) {
+                response.setHeader("Cache-Control", "public, max-age=1");
+            }
+        }, 1024 * 1024);
+
+        get(handler, "GET /short HTTP/1.1");
+        get(handler, "GET /default HTTP/1.1");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertEquals("call 3 /short", get(handler, "GET /short HTTP/1.1").getBody(), "max-age should win");
+        assertEquals("call 2 /default", get(handler, "GET /default HTTP/1.1").getBody());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals("call 4 /default", get(handler, "GET /default HTTP/1.1").getBody());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws IOException {
+        CachingRequestHandler handler = cache(this::countingHandler, 150);
+
+        get(handler, "GET /a HTTP/1.1");
+        get(handler, "GET /b HTTP/1.1");
+        get(handler, "GET /a HTTP/1.1");
+        get(handler, "GET /c HTTP/1.1");
+
+        assertTrue(handler.getSize() <= 150);
+        assertEquals(1, handler.getEvictionCount());
+        assertEquals("call 1 /a", get(handler, "GET /a HTTP/1.1").getBody(), "Recently used entry should be kept");
+        assertEquals("call 4 /b", get(handler, "GET /b HTTP/1.1").getBody(), "Eldest entry should be evicted");
+    }
+
+    @Test
+    public void testHonorsCacheControlAndVary() throws IOException {
+        CachingRequestHandler handler = cache((request, response) -> {
+            countingHandler(request, response);
+            switch (request.getPath()) {
+                case "/private" -> response.setHeader("Cache-Control", "private");
+                case "/lang" -> response.setHeader("Vary", "Accept-Language");
+                default -> { }
+            }
+        }, 1024 * 1024);
+
+        get(handler, "GET /private HTTP/1.1");
+        assertEquals("call 2 /private", get(handler, "GET /private HTTP/1.1").getBody());
+
+        get(handler, "GET /lang HTTP/1.1\r\nAccept-Language: de");
+        get(handler, "GET /lang HTTP/1.1\r\nAccept-Language: en");
+        assertEquals("call 3 /lang", get(handler, "GET /lang HTTP/1.1\r\nAccept-Language: de").getBody());
+        assertEquals("call 4 /lang", get(handler, "GET /lang HTTP/1.1\r\nAccept-Language: en").getBody());
+
+        get(handler, "GET /a HTTP/1.1");
+        assertEquals("call 6 /a", get(handler, "GET /a HTTP/1.1\r\nCache-Control: no-cache").getBody());
+        assertEquals("call 6 /a", get(handler, "GET /a HTTP/1.1").getBody(), "no-cache should refresh the entry");
+    }
+
+    @Test
+    public void testBoundsVaryNamesWithTheEntries() throws IOException {
+        CachingRequestHandler handler = cache((request, response) -> {
+            countingHandler(request, response);
+            response.setHeader("Vary", "X-Variant");
+        }, 1024);
+
+        for (int i = 0; i < 100; i++) {
+            get(handler, "GET /page?" + i + " HTTP/1.1");
+        }
+        assertTrue(handler.getSize() <= 1024, "Vary names should count against the size limit");
+        assertTrue(handler.getEntryCount() < 100, "Vary names should be evicted with the entries");
+
+        get(handler, "GET /variant HTTP/1.1");
+        assertEquals("call 102 /variant", get(handler, "GET /variant HTTP/1.1\r\nX-Variant: null").getBody(),
+                "An absent header should not match the value null");
+        assertEquals("call 101 /variant", get(handler, "GET /variant HTTP/1.1").getBody());
+    }
+
+    @Test
+    public void testCoalescesConcurrentMisses() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingRequestHandler handler = cache((request, response) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            countingHandler(request, response);
+        }, 1024 * 1024);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<HttpResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> get(handler, "GET /slow HTTP/1.1")));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<HttpResponse> result : results) {
+                assertEquals("call 1 /slow", result.get(5, TimeUnit.SECONDS).getBody());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get(), "Concurrent misses should run the delegate once");
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the response compression decorator.
+ */
+public class CompressingRequestHandlerTest {
+    private static final String PAGE = "<html><body>" + "<p>Hello, compressed world!</p>".repeat(100) + "</body></html>";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private HttpResponse get(RequestHandler handler, String request) throws IOException {
+        HttpRequest parsed = new HttpRequestParser().parse(
+                ByteBuffer.wrap((request + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+        HttpResponse response = new HttpResponse();
+        handler.handle(parsed, response);
+        return response;
+    }
+
+    private void pageHandler(HttpRequest request, HttpResponse response) {
+        calls.incrementAndGet();
+        response.setContentType("text/html");
+        response.setBody(PAGE);
+    }
+
+    private static String decode(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(HttpResponse response) {
+        ByteBuffer body = response.getBodyBuffer();
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testNegotiatesEncoding() throws IOException {
+        CompressingRequestHandler handler = new CompressingRequestHandler(this::pageHandler);
+
+        HttpResponse gzip = get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: deflate, gzip");
+        assertEquals("gzip", gzip.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzip.getHeader("Vary"));
+        assertEquals(String.valueOf(bytes(gzip).length), gzip.getHeader("Content-Length"));
+        assertTrue(bytes(gzip).length < PAGE.length() / 5, "Repetitive HTML should shrink");
+        assertEquals(PAGE, decode(new GZIPInputStream(new ByteArrayInputStream(bytes(gzip)))));
+
+        HttpResponse deflate = get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: gzip;q=0.5, deflate");
+        assertEquals("deflate", deflate.getHeader("Content-Encoding"));
+        assertEquals(PAGE, decode(new InflaterInputStream(new ByteArrayInputStream(bytes(deflate)))));
+
+        HttpResponse identity = get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: gzip;q=0, br");
+        assertNull(identity.getHeader("Content-Encoding"));
+        assertEquals(PAGE, identity.getBody());
+        assertEquals("Accept-Encoding", identity.getHeader("Vary"), "Uncompressed variants must vary as well");
+
+        assertNull(get(handler, "GET / HTTP/1.1").getHeader("Content-Encoding"));
+        assertEquals("gzip", get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: *").getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testSkipsSmallAndIncompressibleBodies() throws IOException {
+        CompressingRequestHandler handler = new CompressingRequestHandler((request, response) -> {
+            switch (request.getPath()) {
+                case "/small" -> response.setContentType("text/plain").setBody("tiny");
+                case "/image" -> response.setContentType("image/png").setBody(new byte[4096]);
+                case "/encoded" -> response.setContentType("text/plain").setHeader("Content-Encoding", "br")
+                        .setBody(new byte[4096]);
+                default -> response.setContentType("application/json").setBody("[" + "1,".repeat(1000) + "1]");
+            }
+        });
+
+        for (String path : new String[] {"/small", "/image", "/encoded"}) {
+            HttpResponse response = get(handler, "GET " + path + " HTTP/1.1\r\nAccept-Encoding: gzip");
+            assertNotEquals("gzip", response.getHeader("Content-Encoding"), path + " should not be compressed");
+            assertNull(response.getHeader("Vary"));
+        }
+        HttpResponse json = get(handler, "GET /data HTTP/1.1\r\nAccept-Encoding: gzip");
+        assertEquals("gzip", json.getHeader("Content-Encoding"));
+        assertEquals(1, handler.getCompressionCount());
+    }
+
+    @Test
+    public void testCachesCompressedVariants() throws IOException {
+        CompressingRequestHandler handler = new CompressingRequestHandler(this::pageHandler);
+
+        byte[] first = bytes(get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: gzip"));
+        byte[] second = bytes(get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: gzip"));
+        assertArrayEquals(first, second);
+        assertEquals(1, handler.getCompressionCount(), "A hot response should be compressed once");
+        assertEquals(1, handler.getCacheHitCount());
+
+        // A changed body under the same path must not be answered from the stale variant
+        CompressingRequestHandler changing = new CompressingRequestHandler((request, response) ->
+                response.setContentType("text/plain").setBody(("version " + calls.incrementAndGet() + " ").repeat(200)));
+        get(changing, "GET / HTTP/1.1\r\nAccept-Encoding: gzip");
+        HttpResponse changed = get(changing, "GET / HTTP/1.1\r\nAccept-Encoding: gzip");
+        assertTrue(decode(new GZIPInputStream(new ByteArrayInputStream(bytes(changed)))).startsWith("version 4 "));
+        assertEquals(0, changing.getCacheHitCount());
+
+        // Private responses are compressed every time
+        CompressingRequestHandler uncached = new CompressingRequestHandler((request, response) -> {
+            pageHandler(request, response);
+            response.setHeader("Cache-Control", "private");
+        });
+        get(uncached, "GET / HTTP/1.1\r\nAccept-Encoding: gzip");
+        get(uncached, "GET / HTTP/1.1\r\nAccept-Encoding: gzip");
+        assertEquals(2, uncached.getCompressionCount());
+    }
+
+    @Test
+    public void testDistinguishesCompressedEtag() throws IOException {
+        CompressingRequestHandler handler = new CompressingRequestHandler((request, response) -> {
+            pageHandler(request, response);
+            response.setHeader("ETag", "\"v1\"");
+        });
+
+        assertEquals("\"v1-gzip\"", get(handler, "GET / HTTP/1.1\r\nAccept-Encoding: gzip").getHeader("ETag"));
+        assertEquals("\"v1\"", get(handler, "GET / HTTP/1.1").getHeader("ETag"));
+    }
+}
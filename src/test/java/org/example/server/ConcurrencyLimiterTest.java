@@ -0,0 +1,57 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the AIMD concurrency limit.
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testRejectsRequestsAboveLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(TARGET, 2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release(TARGET / 2);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testGrowsAdditivelyAndShrinksMultiplicatively() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(TARGET, 10, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        // Fast completions at full use add one slot per limit's worth of them
+        for (int i = 0; i < 50; i++) {
+            limiter.release(TARGET / 2);
+            assertTrue(limiter.tryAcquire());
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10 && grown < 16, "Limit should grow slowly, was " + grown);
+
+        // A burst of slow completions backs off once per target interval
+        for (int i = 0; i < 5; i++) {
+            limiter.release(TARGET * 2);
+        }
+        int reduced = limiter.getLimit();
+        assertTrue(reduced < grown && reduced >= grown * 0.9 - 1, "Limit should back off once, was " + reduced);
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 2);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, limiter.getLimit(), "The limit should not fall below the minimum");
+    }
+}
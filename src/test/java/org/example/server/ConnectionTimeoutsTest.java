@@ -0,0 +1,213 @@
+package org.example.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the connection timeouts, slow clients and draining on stop, on
+ * the blocking transport.
+ */
+public class ConnectionTimeoutsTest {
+    protected static final int TEST_PORT = 8892;
+    private HttpServer server;
+
+    /**
+     * Creates the configuration of the server under test.
+     */
+    protected ServerConfig createConfig() {
+        return new ServerConfig();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void start(RequestHandler handler, ServerConfig config) throws IOException {
+        server = new HttpServer(TEST_PORT, handler, config);
+        server.start();
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", TEST_PORT);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String data) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(data.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Reads until the server closes the connection.
+     */
+    private static String readAll(Socket socket) throws IOException {
+        return new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testAnswersRequestTimeoutToIncompleteHead() throws Exception {
+        start((request, response) -> response.setBody("ok"), createConfig().setHeaderReadTimeoutMillis(300));
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.1\r\nHost: local");
+            long start = System.nanoTime();
+            String response = readAll(socket);
+            assertTrue(response.startsWith("HTTP/1.1 408 Request Timeout"), response);
+            assertTrue(response.contains("Connection: close"), response);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+        }
+        assertEquals(1, server.getMetrics().getTimeouts(ServerMetrics.Timeout.HEADER));
+        assertTrue(server.getMetrics().toPrometheusText()
+                .contains("http_connection_timeouts_total{kind=\"header\"} 1\n"));
+    }
+
+    @Test
+    public void testAnswersRequestTimeoutToStalledBody() throws Exception {
+        start((request, response) -> response.setBody("read " + request.getBodyBytes().length),
+                createConfig().setBodyReadTimeoutMillis(300));
+        try (Socket socket = connect()) {
+            send(socket, "POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\nonly ten b");
+            String response = readAll(socket);
+            assertTrue(response.startsWith("HTTP/1.1 408 Request Timeout"), response);
+        }
+        assertEquals(1, server.getMetrics().getTimeouts(ServerMetrics.Timeout.BODY));
+    }
+
+    @Test
+    public void testAnswersRequestTimeoutToClientBelowMinimumDataRate() throws Exception {
+        start((request, response) -> response.setBody("ok"), createConfig().setMinDataRate(1000, 300));
+        try (Socket socket = connect()) {
+            // A byte every 50 ms is far below a kilobyte per second, yet well within the header timeout
+            String head = "GET /slowly HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            try {
+                for (int i = 0; i < head.length(); i++) {
+                    send(socket, head.substring(i, i + 1));
+                    Thread.sleep(50);
+                }
+            } catch (IOException e) {
+                // Closed by the server while still sending
+            }
+            String response = readAll(socket);
+            assertTrue(response.startsWith("HTTP/1.1 408 Request Timeout"), response);
+        }
+        assertEquals(1, server.getMetrics().getTimeouts(ServerMetrics.Timeout.MIN_DATA_RATE));
+    }
+
+    @Test
+    public void testClosesIdleConnectionAfterKeepAliveTimeout() throws Exception {
+        start((request, response) -> response.setBody("ok"), createConfig().setKeepAliveTimeoutMillis(300));
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            String response = readAll(socket);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            assertTrue(response.contains("Connection: keep-alive"), response);
+        }
+        assertEquals(1, server.getMetrics().getTimeouts(ServerMetrics.Timeout.IDLE));
+        assertEquals(0, server.getMetrics().getTimeouts(ServerMetrics.Timeout.HEADER));
+    }
+
+    @Test
+    public void testClosesConnectionWhenWriteTimesOut() throws Exception {
+        byte[] body = new byte[16 * 1024 * 1024];
+        start((request, response) -> response.setBody(body), createConfig().setWriteTimeoutMillis(300));
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new java.net.InetSocketAddress("localhost", TEST_PORT));
+            // The response is never read, so the server's write cannot complete
+            send(socket, "GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getMetrics().getTimeouts(ServerMetrics.Timeout.WRITE) == 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+        assertEquals(1, server.getMetrics().getTimeouts(ServerMetrics.Timeout.WRITE));
+    }
+
+    @Test
+    public void testStopLetsRequestInProgressFinish() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        start((request, response) -> {
+            entered.countDown();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.setBody("finished");
+        }, createConfig());
+        try (Socket busy = connect(); Socket idle = connect()) {
+            send(busy, "GET /work HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            CompletableFuture<String> response = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readAll(busy);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            server.stop();
+            long stopMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            server = null;
+
+            String received = response.get(5, TimeUnit.SECONDS);
+            assertTrue(received.startsWith("HTTP/1.1 200 OK"), received);
+            assertTrue(received.contains("Connection: close"), received);
+            assertTrue(received.endsWith("finished"), received);
+            assertTrue(stopMillis < 3000, "Stopped after " + stopMillis + " ms");
+            InputStream in = idle.getInputStream();
+            try {
+                assertEquals(-1, in.read(), "The idle connection should be closed");
+            } catch (IOException e) {
+                // Reset instead of closed, just as well
+            }
+        }
+    }
+
+    @Test
+    public void testStopGivesUpOnRequestAfterShutdownTimeout() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start((request, response) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, createConfig().setShutdownTimeoutMillis(200));
+        try (Socket socket = connect()) {
+            send(socket, "GET /stuck HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            server.stop();
+            long stopMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            server = null;
+            assertTrue(stopMillis >= 200 && stopMillis < 3000, "Stopped after " + stopMillis + " ms");
+        } finally {
+            release.countDown();
+        }
+    }
+}
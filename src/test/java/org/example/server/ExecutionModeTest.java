@@ -0,0 +1,116 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the execution modes under many concurrent requests whose handler blocks.
+ */
+public class ExecutionModeTest {
+
+    private static final int TEST_PORT = 8889;
+    private static final int CONCURRENT_REQUESTS = 100;
+    private static final int HANDLER_DELAY_MILLIS = 200;
+    private static final int POOL_SIZE = 10;
+
+    private static final RequestHandler BLOCKING_HANDLER = (request, response) -> {
+        try {
+            // Stands in for a slow downstream call
+            Thread.sleep(HANDLER_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        response.setBody("done");
+    };
+
+    @Test
+    public void testVirtualThreadsOutperformPlatformPoolWithBlockingHandlers() throws Exception {
+        long platformMillis = runConcurrentRequests(new ServerConfig()
+                .setExecutionMode(ExecutionMode.PLATFORM_POOL)
+                .setWorkerThreads(POOL_SIZE));
+        long virtualMillis = runConcurrentRequests(new ServerConfig()
+                .setExecutionMode(ExecutionMode.VIRTUAL_THREADS));
+
+        // The pool can only sleep POOL_SIZE handlers at a time
+        long poolLowerBound = (long) CONCURRENT_REQUESTS / POOL_SIZE * HANDLER_DELAY_MILLIS;
+        assertTrue(platformMillis >= poolLowerBound,
+                "Platform pool should be bounded by its size, took " + platformMillis + " ms");
+        assertTrue(virtualMillis < platformMillis / 2,
+                "Virtual threads should serve blocking handlers concurrently, took " + virtualMillis
+                        + " ms versus " + platformMillis + " ms");
+    }
+
+    @Test
+    public void testVirtualThreadsServeNioRequests() throws Exception {
+        long virtualMillis = runConcurrentRequests(new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setExecutionMode(ExecutionMode.VIRTUAL_THREADS));
+
+        assertTrue(virtualMillis < (long) CONCURRENT_REQUESTS / POOL_SIZE * HANDLER_DELAY_MILLIS,
+                "Requests should not queue behind a pool, took " + virtualMillis + " ms");
+    }
+
+    @Test
+    public void testParallelPipeliningOverlapsBatchedRequests() throws Exception {
+        for (Transport transport : Transport.values()) {
+            HttpServer server = new HttpServer(TEST_PORT, BLOCKING_HANDLER, new ServerConfig()
+                    .setTransport(transport)
+                    .setParallelPipelining(true));
+            server.start();
+            try (Socket socket = new Socket("localhost", TEST_PORT)) {
+                Thread.sleep(200);
+                long start = System.nanoTime();
+                socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .repeat(4).getBytes(StandardCharsets.US_ASCII));
+                InputStream in = socket.getInputStream();
+                for (int i = 0; i < 4; i++) {
+                    assertTrue(HttpServerTest.readResponse(in).endsWith("done"), "Every request should succeed");
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(millis < 2 * HANDLER_DELAY_MILLIS,
+                        transport + " should run the pipelined handlers concurrently, took " + millis + " ms");
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    private long runConcurrentRequests(ServerConfig config) throws Exception {
+        HttpServer server = new HttpServer(TEST_PORT, BLOCKING_HANDLER, config);
+        server.start();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            Thread.sleep(200);
+            long start = System.nanoTime();
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+                results.add(clients.submit(ExecutionModeTest::get));
+            }
+            for (Future<String> result : results) {
+                assertTrue(result.get().startsWith("HTTP/1.1 200 OK"), "Every request should succeed");
+            }
+            return (System.nanoTime() - start) / 1_000_000;
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static String get() throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the HPACK header compression.
+ */
+public class HpackTest {
+
+    private static List<String> decode(Hpack.Decoder decoder, String hex) throws Http2Exception {
+        byte[] block = HexFormat.of().parseHex(hex.replace(" ", ""));
+        return decoder.decode(block, 0, block.length);
+    }
+
+    @Test
+    public void testDecodesHuffmanRequestsWithDynamicTable() throws Http2Exception {
+        // RFC 7541, Appendix C.4
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decode(decoder, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                        "cache-control", "no-cache"),
+                decode(decoder, "8286 84be 5886 a8eb 1064 9cbf"));
+        assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                        ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+    }
+
+    @Test
+    public void testDecodesPlainLiterals() throws Http2Exception {
+        // RFC 7541, Appendix C.2
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertEquals(List.of("custom-key", "custom-header"),
+                decode(decoder, "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572"));
+        assertEquals(List.of(":path", "/sample/path"), decode(decoder, "040c 2f73 616d 706c 652f 7061 7468"));
+        assertEquals(List.of("custom-key", "custom-header"), decode(decoder, "be"));
+    }
+
+    @Test
+    public void testRejectsMalformedBlocks() {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        // Index beyond both tables
+        assertThrows(Http2Exception.class, () -> decode(decoder, "ff00"));
+        // Table size update above the advertised maximum
+        assertThrows(Http2Exception.class, () -> decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE), "3fe2 1f"));
+        // String longer than the block
+        assertThrows(Http2Exception.class, () -> decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE), "400a 6375"));
+    }
+
+    @Test
+    public void testEncoderRoundTrip() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        List<String> fields = List.of(":status", "200", "content-type", "text/html; charset=utf-8",
+                "x-custom", "Grüße", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "content-length", "0");
+        int firstSize = 0;
+        for (int round = 0; round < 3; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.beginBlock(out);
+            for (int i = 0; i < fields.size(); i += 2) {
+                boolean indexing = !fields.get(i).equals("date");
+                encoder.encode(fields.get(i), fields.get(i + 1), indexing, out);
+            }
+            byte[] block = out.toByteArray();
+            assertEquals(fields, decoder.decode(block, 0, block.length));
+            if (round == 0) {
+                firstSize = block.length;
+            } else {
+                // Indexed fields shrink to a byte each
+                assertTrue(block.length < firstSize / 2, "Block should shrink, was " + block.length);
+            }
+        }
+    }
+
+    @Test
+    public void testEncoderAnnouncesSmallerTable() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        encoder.setMaxTableSize(0);
+        for (int round = 0; round < 2; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.beginBlock(out);
+            encoder.encode("x-custom", "value", true, out);
+            byte[] block = out.toByteArray();
+            assertEquals(List.of("x-custom", "value"), decoder.decode(block, 0, block.length));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the precompiled HTML templates.
+ */
+public class HtmlTemplateTest {
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    public void testEscapesAndEncodesValues() {
+        HtmlTemplate template = HtmlTemplate.compile("<p title=\"{{title}}\">{{ text }}</p>", "title", "text");
+        assertEquals("<p title=\"&quot;a&quot; &amp; &#39;b&#39;\">&lt;script&gt;Grüße €😀</p>",
+                text(template.render("\"a\" & 'b'", "<script>Grüße €😀")));
+        assertEquals("<p title=\"42\"></p>", text(template.render(42, null)));
+    }
+
+    @Test
+    public void testRendersSections() {
+        HtmlTemplate template = HtmlTemplate.compile(
+                "<ul>{{#items}}<li>{{key}}={{value}}{{#note}} ({{note}}){{/note}}</li>{{/items}}</ul>"
+                        + "{{#note}}<p>{{note}}</p>{{/note}}", "items", "note");
+        Map<String, Object> items = new LinkedHashMap<>();
+        items.put("a", 1);
+        items.put("<b>", "x&y");
+
+        assertEquals("<ul><li>a=1 (n)</li><li>&lt;b&gt;=x&amp;y (n)</li></ul><p>n</p>",
+                text(template.render(items, "n")));
+        assertEquals("<ul></ul>", text(template.render(Map.of(), "")));
+        assertEquals("<ul></ul>", text(template.render(null, false)));
+    }
+
+    @Test
+    public void testRendersIntoResponse() {
+        HtmlTemplate template = HtmlTemplate.compile("<p>{{text}}</p>", "text");
+        HttpResponse response = new HttpResponse();
+        template.renderTo(response, "a < b");
+        assertEquals("<p>a &lt; b</p>", response.getBody());
+        assertEquals("15", response.getHeader("Content-Length"));
+
+        // Too large for a pooled buffer
+        String large = "é<".repeat(10_000);
+        response.reset();
+        template.renderTo(response, large);
+        assertEquals("<p>" + "é&lt;".repeat(10_000) + "</p>", response.getBody());
+    }
+
+    @Test
+    public void testRejectsMalformedTemplates() {
+        assertThrows(IllegalArgumentException.class, () -> HtmlTemplate.compile("{{missing}}", "present"));
+        assertThrows(IllegalArgumentException.class, () -> HtmlTemplate.compile("{{#a}}open", "a"));
+        assertThrows(IllegalArgumentException.class, () -> HtmlTemplate.compile("{{#a}}{{/b}}", "a", "b"));
+        assertThrows(IllegalArgumentException.class, () -> HtmlTemplate.compile("{{a", "a"));
+        assertThrows(IllegalArgumentException.class, () -> HtmlTemplate.compile("{{a}}", "a").render());
+    }
+
+    @Test
+    public void testSimpleRequestHandlerEscapesRequestData() throws Exception {
+        HttpRequest request = new HttpRequestParser().parse(ByteBuffer.wrap(("PUT /<i> HTTP/1.1\r\n"
+                + "X-Test: <b>bold</b>\r\nContent-Length: 18\r\n\r\n<script>x</script>")
+                .getBytes(StandardCharsets.UTF_8)));
+        HttpResponse response = new HttpResponse();
+        new SimpleRequestHandler().handle(request, response);
+
+        String body = response.getBody();
+        assertTrue(body.startsWith("<!DOCTYPE html>\n<html>\n<head>\n    <title>PUT Request Processed</title>"), body);
+        assertTrue(body.contains("        <li>Path: /&lt;i&gt;</li>\n"), body);
+        assertTrue(body.contains("    <h2>Request Body:</h2>\n    <pre>&lt;script&gt;x&lt;/script&gt;</pre>\n"), body);
+        assertTrue(body.contains("        <li>X-Test: &lt;b&gt;bold&lt;/b&gt;</li>\n"), body);
+        assertTrue(body.endsWith("    </ul>\n</body>\n</html>"), body);
+    }
+}
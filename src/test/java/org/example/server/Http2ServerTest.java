@@ -0,0 +1,212 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the HTTP server tests with HTTP/2 enabled, and tests h2c connections.
+ */
+public class Http2ServerTest extends HttpServerTest {
+    private static final int CONCURRENT_STREAMS = 8;
+
+    private final CountDownLatch concurrentArrivals = new CountDownLatch(CONCURRENT_STREAMS);
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig().setHttp2Enabled(true);
+    }
+
+    @Override
+    protected HttpServer createServer(RequestHandler handler) {
+        return super.createServer((request, response) -> {
+            if (request.getPath().equals("/echo")) {
+                response.setContentType("text/plain");
+                response.setHeader("X-Method", request.getMethod());
+                response.setBody(request.getHeader("X-Test") + ":" + request.getBody());
+            } else if (request.getPath().equals("/together")) {
+                // Only completes once all requests are being handled at the same time
+                concurrentArrivals.countDown();
+                try {
+                    response.setBody(String.valueOf(concurrentArrivals.await(5, TimeUnit.SECONDS)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                handler.handle(request, response);
+            }
+        });
+    }
+
+    private static URI uri(String path) {
+        return URI.create("http://localhost:" + TEST_PORT + path);
+    }
+
+    @Test
+    public void testUpgradesToHttp2() throws Exception {
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build()) {
+            java.net.http.HttpResponse<String> response = client.send(
+                    java.net.http.HttpRequest.newBuilder(uri("/test")).build(), BodyHandlers.ofString());
+            assertEquals(HttpClient.Version.HTTP_2, response.version(), "Connection should be upgraded");
+            assertEquals(200, response.statusCode());
+            assertEquals("Test response", response.body());
+            assertEquals("text/plain", response.headers().firstValue("content-type").orElse(null));
+
+            response = client.send(java.net.http.HttpRequest.newBuilder(uri("/echo"))
+                    .header("X-Test", "header").POST(BodyPublishers.ofString("request body")).build(),
+                    BodyHandlers.ofString());
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals("header:request body", response.body());
+            assertEquals("POST", response.headers().firstValue("x-method").orElse(null));
+        }
+    }
+
+    @Test
+    public void testMultiplexesStreamsOnOneConnection() throws Exception {
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build()) {
+            // Upgrades the connection that the following requests share
+            client.send(java.net.http.HttpRequest.newBuilder(uri("/test")).build(), BodyHandlers.ofString());
+
+            List<CompletableFuture<java.net.http.HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_STREAMS; i++) {
+                responses.add(client.sendAsync(java.net.http.HttpRequest.newBuilder(uri("/together")).build(),
+                        BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<java.net.http.HttpResponse<String>> response : responses) {
+                assertEquals("true", response.get(10, TimeUnit.SECONDS).body(), "Streams should run concurrently");
+                assertEquals(HttpClient.Version.HTTP_2, response.get().version());
+            }
+            assertEquals(1, getServer().getMetrics().getOpenConnections(), "Streams should share one connection");
+        }
+    }
+
+    @Test
+    public void testServesPriorKnowledgeConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.beginBlock(block);
+            encoder.encode(":method", "GET", true, block);
+            encoder.encode(":scheme", "http", true, block);
+            encoder.encode(":path", "/echo", true, block);
+            encoder.encode(":authority", "localhost", true, block);
+            encoder.encode("x-test", "raw", true, block);
+            // END_STREAM and END_HEADERS
+            writeFrame(out, 0x1, 0x5, 1, block.toByteArray());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            List<String> headers = null;
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            boolean ended = false;
+            while (!ended) {
+                int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (streamId != 1) {
+                    continue;
+                }
+                if (type == 0x1) {
+                    headers = decoder.decode(payload, 0, payload.length);
+                } else if (type == 0x0) {
+                    body.write(payload);
+                }
+                ended = (type == 0x0 || type == 0x1) && (flags & 0x1) != 0;
+            }
+
+            assertNotNull(headers, "Response headers should be sent");
+            assertEquals(List.of(":status", "200"), headers.subList(0, 2));
+            assertFalse(headers.contains("connection"), "Connection-specific headers should not be sent");
+            assertEquals("raw:null", body.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testDropsBodyOfStreamAnsweredWithContentTooLarge() throws IOException {
+        getServer().stop();
+        HttpServer server = new HttpServer(TEST_PORT, (request, response) -> response.setBody("ok"),
+                createConfig().setMaxBodySize(1024));
+        server.start();
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.beginBlock(block);
+            encoder.encode(":method", "POST", true, block);
+            encoder.encode(":scheme", "http", true, block);
+            encoder.encode(":path", "/upload", true, block);
+            encoder.encode(":authority", "localhost", true, block);
+            // END_HEADERS, the body follows
+            writeFrame(out, 0x1, 0x4, 1, block.toByteArray());
+            // The second frame exceeds the limit, the later ones arrive while the 413 is sent
+            for (int i = 0; i < 4; i++) {
+                writeFrame(out, 0x0, i == 3 ? 0x1 : 0, 1, new byte[1000]);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            List<String> headers = null;
+            int resetCode = -1;
+            while (resetCode < 0) {
+                int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                int type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                int streamId = in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (streamId != 1) {
+                    continue;
+                }
+                if (type == 0x1) {
+                    headers = decoder.decode(payload, 0, payload.length);
+                } else if (type == 0x3) {
+                    resetCode = ByteBuffer.wrap(payload).getInt();
+                }
+            }
+
+            assertNotNull(headers, "The 413 should be sent before the stream is reset");
+            assertEquals(List.of(":status", "413"), headers.subList(0, 2));
+            assertEquals(0, resetCode, "The rest of the body should be dropped, the stream reset with NO_ERROR");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(9);
+        header.put((byte) (payload.length >>> 16)).putShort((short) payload.length);
+        header.put((byte) type).put((byte) flags).putInt(streamId);
+        out.write(header.array());
+        out.write(payload);
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the header table.
+ */
+public class HttpHeadersTest {
+
+    @Test
+    public void testLooksUpNamesInAnyCase() {
+        HttpHeaders headers = new HttpHeaders()
+                .set("Content-Type", "text/plain")
+                .set("X-Custom", "1");
+        assertEquals("text/plain", headers.get("content-type"));
+        assertEquals("text/plain", headers.get("CONTENT-TYPE"));
+        assertEquals("1", headers.get("x-custom"));
+        assertTrue(headers.contains("X-CUSTOM"));
+        assertNull(headers.get("X-Other"));
+        assertNull(headers.get(""));
+    }
+
+    @Test
+    public void testSetReplacesEveryOccurrence() {
+        HttpHeaders headers = new HttpHeaders()
+                .add("Vary", "Accept")
+                .add("X-Other", "x")
+                .add("vary", "Cookie")
+                .set("VARY", "Accept-Encoding");
+        assertEquals(2, headers.size());
+        assertEquals(List.of("Accept-Encoding"), headers.getAll("Vary"));
+        assertEquals("Vary", headers.name(0), "Common names keep their usual case");
+        assertEquals("X-Other", headers.name(1));
+
+        headers.set("x-other", "y");
+        assertEquals(2, headers.size());
+        assertEquals("y", headers.get("X-Other"));
+    }
+
+    @Test
+    public void testKeepsRepeatedFields() {
+        HttpHeaders headers = new HttpHeaders()
+                .add(HttpHeaders.SET_COOKIE, "a=1")
+                .add(HttpHeaders.SET_COOKIE, "b=2")
+                .add("X-Tag", "one")
+                .add("x-tag", "two");
+        assertEquals(List.of("a=1", "b=2"), headers.getAll("set-cookie"));
+        assertEquals("b=2", headers.get(HttpHeaders.SET_COOKIE), "The last occurrence wins");
+        assertEquals(List.of("one", "two"), headers.getAll("X-Tag"));
+        assertEquals(List.of(), headers.getAll("X-Missing"));
+        assertEquals(Map.of("Set-Cookie", "a=1, b=2", "X-Tag", "one, two"), headers.toMap());
+
+        headers.remove("SET-COOKIE");
+        assertEquals(2, headers.size());
+        assertNull(headers.get(HttpHeaders.SET_COOKIE));
+        assertEquals("two", headers.get("X-Tag"));
+    }
+
+    @Test
+    public void testIteratesInOrder() {
+        HttpHeaders headers = new HttpHeaders()
+                .add("A", "1")
+                .add("Host", "example.com")
+                .add("A", "2");
+        List<String> seen = new ArrayList<>();
+        headers.forEach((name, value) -> seen.add(name + "=" + value));
+        assertEquals(List.of("A=1", "Host=example.com", "A=2"), seen);
+        assertThrows(IndexOutOfBoundsException.class, () -> headers.name(3));
+    }
+
+    @Test
+    public void testReadsParsedFieldsInPlace() {
+        String head = "GET / HTTP/1.1\r\ncontent-LENGTH: 5\r\nX-Mixed-Case: v\r\nhost: a\r\nHOST: b\r\n\r\n";
+        byte[] bytes = head.getBytes(StandardCharsets.US_ASCII);
+        int[] offsets = new int[16];
+        int count = 0;
+        int lineStart = head.indexOf("\r\n") + 2;
+        while (head.charAt(lineStart) != '\r') {
+            int colon = head.indexOf(':', lineStart);
+            int lineEnd = head.indexOf("\r\n", lineStart);
+            offsets[count * 4] = lineStart;
+            offsets[count * 4 + 1] = colon;
+            offsets[count * 4 + 2] = colon + 2;
+            offsets[count * 4 + 3] = lineEnd;
+            count++;
+            lineStart = lineEnd + 2;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.load(bytes, bytes.length, offsets, count);
+        assertEquals(4, headers.size());
+        assertEquals("5", headers.get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("v", headers.get("x-mixed-case"));
+        assertEquals("b", headers.get("Host"));
+        assertEquals(List.of("a", "b"), headers.getAll("host"));
+        assertSame(HttpHeaders.CONTENT_LENGTH, headers.name(0), "Common names should be the shared constant");
+        assertEquals("X-Mixed-Case", headers.name(1), "Other names should keep the case they were sent in");
+        assertEquals("content-length", headers.lowerCaseName(0));
+        assertArrayEquals("Content-Length: ".getBytes(StandardCharsets.US_ASCII), headers.linePrefix(0));
+        assertNull(headers.linePrefix(1));
+
+        HttpHeaders untouched = new HttpHeaders();
+        untouched.load(bytes, bytes.length, offsets, count);
+        untouched.remove("HOST").add("X-Added", "1");
+        assertEquals(3, untouched.size());
+        assertEquals("X-Mixed-Case", untouched.name(1));
+        assertEquals("1", untouched.get("x-added"));
+
+        headers.remove("host");
+        headers.set("X-Mixed-Case", "w");
+        assertEquals(2, headers.size());
+        assertEquals("w", headers.get("X-MIXED-CASE"));
+        assertEquals("5", headers.get("Content-Length"));
+
+        headers.clear();
+        assertEquals(0, headers.size());
+        assertNull(headers.get(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testCopiesAndMergesTables() {
+        HttpHeaders source = new HttpHeaders()
+                .add("Cache-Control", "max-age=60")
+                .add("X-Tag", "one")
+                .add("X-Tag", "two");
+        HttpHeaders copy = new HttpHeaders(source);
+        source.set("Cache-Control", "no-store");
+        assertEquals("max-age=60", copy.get("Cache-Control"), "A copy should not follow the original");
+
+        HttpHeaders target = new HttpHeaders()
+                .set("Content-Type", "text/plain")
+                .set("x-tag", "zero");
+        target.setAll(copy);
+        assertEquals("text/plain", target.get("Content-Type"));
+        assertEquals("max-age=60", target.get("Cache-Control"));
+        assertEquals(List.of("one", "two"), target.getAll("X-Tag"));
+    }
+}
@@ -0,0 +1,259 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the incremental request parser.
+ */
+public class HttpRequestParserTest {
+
+    private static final String REQUEST = "PUT /resource?id=1 HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Content-Type: text/plain; charset=UTF-8\r\n"
+            + "content-length: 8\r\n"
+            + "X-Padded:   value  \r\n"
+            + "\r\n"
+            + "Grüße!";
+
+    @Test
+    public void testParsesCompleteRequest() throws IOException {
+        HttpRequest request = new HttpRequestParser().parse(ascii(REQUEST));
+
+        assertNotNull(request, "Request should be complete");
+        assertEquals(HttpMethod.PUT, request.getHttpMethod());
+        assertEquals("PUT", request.getMethod());
+        assertEquals("/resource?id=1", request.getPath());
+        assertEquals(HttpVersion.HTTP_1_1, request.getHttpVersion());
+        assertEquals("localhost", request.getHeader("Host"));
+        assertEquals("value", request.getHeader("X-Padded"), "Header values should be trimmed");
+        assertEquals("Grüße!", request.getBody(), "Body should be decoded as UTF-8 by byte length");
+    }
+
+    @Test
+    public void testFindsCharsetWhateverTheDefaultLocale() throws IOException {
+        Locale defaultLocale = Locale.getDefault();
+        // A locale with case rules of its own must not affect protocol tokens
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            HttpRequest request = new HttpRequestParser().parse(ByteBuffer.wrap(("POST / HTTP/1.1\r\n"
+                    + "Content-Type: text/plain; CHARSET=ISO-8859-1\r\nContent-Length: 5\r\n\r\nGrüße")
+                    .getBytes(StandardCharsets.ISO_8859_1)));
+            assertEquals("Grüße", request.getBody());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testResumesAfterEveryPossibleSplit() throws IOException {
+        byte[] bytes = REQUEST.getBytes(StandardCharsets.UTF_8);
+        for (int split = 1; split < bytes.length; split++) {
+            HttpRequestParser parser = new HttpRequestParser();
+            assertNull(parser.parse(ByteBuffer.wrap(bytes, 0, split)), "Request should be incomplete at " + split);
+            HttpRequest request = parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertNotNull(request, "Request should complete after split at " + split);
+            assertEquals("Grüße!", request.getBody());
+        }
+    }
+
+    @Test
+    public void testLeavesFollowingRequestInBuffer() throws IOException {
+        ByteBuffer input = ascii("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.0\n\n");
+        HttpRequestParser parser = new HttpRequestParser();
+
+        assertEquals("/a", parser.parse(input).getPath());
+        assertTrue(parser.isIdle(), "Parser should be reset after a request");
+        HttpRequest second = parser.parse(input);
+        assertEquals("/b", second.getPath());
+        assertEquals(HttpVersion.HTTP_1_0, second.getHttpVersion(), "Bare line feeds should be accepted");
+        assertFalse(input.hasRemaining());
+    }
+
+    @Test
+    public void testExtensionMethodKeepsItsName() throws IOException {
+        HttpRequest request = new HttpRequestParser().parse(ascii("PROPFIND / HTTP/1.1\r\n\r\n"));
+        assertNull(request.getHttpMethod());
+        assertEquals("PROPFIND", request.getMethod());
+    }
+
+    @Test
+    public void testRejectsTooManyHeaders() {
+        HttpRequestParser parser = new HttpRequestParser(1024, 2);
+        HttpParseException e = assertThrows(HttpParseException.class,
+                () -> parser.parse(ascii("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n")));
+        assertEquals(431, e.getStatusCode());
+    }
+
+    @Test
+    public void testRejectsOversizedHeaders() {
+        HttpRequestParser parser = new HttpRequestParser(256, 100);
+        HttpParseException e = assertThrows(HttpParseException.class,
+                () -> parser.parse(ascii("GET / HTTP/1.1\r\nCookie: " + "x".repeat(300) + "\r\n\r\n")));
+        assertEquals(431, e.getStatusCode());
+    }
+
+    @Test
+    public void testRejectsMalformedInput() {
+        assertEquals(400, assertThrows(HttpParseException.class,
+                () -> new HttpRequestParser().parse(ascii("GET /\r\n\r\n"))).getStatusCode());
+        assertEquals(400, assertThrows(HttpParseException.class,
+                () -> new HttpRequestParser().parse(ascii("GET / HTTP/1.1\r\nNo colon\r\n\r\n"))).getStatusCode());
+        assertEquals(505, assertThrows(HttpParseException.class,
+                () -> new HttpRequestParser().parse(ascii("GET / HTTP/3.0\r\n\r\n"))).getStatusCode());
+    }
+
+    @Test
+    public void testReadsConsecutiveRequestsFromStream() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(
+                "GET /1 HTTP/1.1\r\n\r\nPOST /2 HTTP/1.1\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser();
+
+        assertEquals("/1", parser.readRequest(in).getPath());
+        assertEquals("ok", parser.readRequest(in).getBody());
+        assertNull(parser.readRequest(in), "End of stream between requests should yield null");
+    }
+
+    @Test
+    public void testDecodesChunkedBodiesAfterEveryPossibleSplit() throws IOException {
+        String chunked = "POST /upload HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;name=value\r\nHello\r\n7\r\n, world\r\n0\r\nX-Trailer: 1\r\n\r\n"
+                + "GET /next HTTP/1.1\r\n\r\n";
+        byte[] bytes = chunked.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 1; split < bytes.length; split++) {
+            HttpRequestParser parser = new HttpRequestParser();
+            List<HttpRequest> requests = new ArrayList<>();
+            for (ByteBuffer input : new ByteBuffer[] {
+                    ByteBuffer.wrap(bytes, 0, split), ByteBuffer.wrap(bytes, split, bytes.length - split)}) {
+                HttpRequest request;
+                while ((request = parser.parse(input)) != null) {
+                    requests.add(request);
+                }
+            }
+            assertEquals(2, requests.size(), "Split at " + split);
+            assertEquals("Hello, world", requests.get(0).getBody(), "Split at " + split);
+            assertEquals("/next", requests.get(1).getPath(), "Split at " + split);
+        }
+    }
+
+    @Test
+    public void testStreamsBodyFromConnection() throws IOException {
+        byte[] body = new byte[100_000];
+        body[body.length - 1] = 7;
+        SlowInputStream in = new SlowInputStream(concat(
+                "PUT /big HTTP/1.1\r\nContent-Length: 100000\r\n\r\n", body, "GET /next HTTP/1.1\r\n\r\n"));
+        HttpRequestParser parser = new HttpRequestParser();
+
+        HttpRequest request = parser.readRequest(in);
+        assertTrue(in.consumed < 10_000, "Headers should be returned before the body has been read");
+        byte[] received = request.getBodyStream().readAllBytes();
+        assertArrayEquals(body, received);
+        assertEquals("/next", parser.readRequest(in).getPath());
+    }
+
+    @Test
+    public void testSkipsUnreadStreamedBody() throws IOException {
+        SlowInputStream in = new SlowInputStream(concat("POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "3\r\nabc\r\n0\r\n\r\n", new byte[0], "GET /b HTTP/1.1\r\n\r\n"));
+        HttpRequestParser parser = new HttpRequestParser();
+
+        assertTrue(parser.readRequest(in).hasBody());
+        assertNull(parser.readBufferedRequest(), "The unread body comes before the next request");
+        assertEquals("/b", parser.readRequest(in).getPath());
+    }
+
+    @Test
+    public void testEnforcesBodyLimitsAndFraming() throws IOException {
+        HttpRequestParser limited = new HttpRequestParser(1024, 100, 16);
+        assertEquals(413, assertThrows(HttpParseException.class,
+                () -> limited.parse(ascii("POST / HTTP/1.1\r\nContent-Length: 17\r\n\r\n"))).getStatusCode());
+        assertEquals(413, assertThrows(HttpParseException.class, () -> new HttpRequestParser(1024, 100, 16)
+                .parse(ascii("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n11\r\n"
+                        + "x".repeat(17)))).getStatusCode());
+
+        HttpRequest streamed = new HttpRequestParser(1024, 100, 16).readRequest(new ByteArrayInputStream(
+                ("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n11\r\n" + "x".repeat(17) + "\r\n0\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII)));
+        assertThrows(HttpParseException.class, () -> streamed.getBodyStream().readAllBytes());
+        assertEquals(413, streamed.getBodyError().getStatusCode());
+
+        assertEquals(400, assertThrows(HttpParseException.class, () -> new HttpRequestParser().parse(ascii(
+                "POST / HTTP/1.1\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n"))).getStatusCode());
+        assertEquals(501, assertThrows(HttpParseException.class, () -> new HttpRequestParser().parse(ascii(
+                "POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n"))).getStatusCode());
+        assertEquals(400, assertThrows(HttpParseException.class, () -> new HttpRequestParser().parse(ascii(
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n"))).getStatusCode());
+    }
+
+    @Test
+    public void testLooksUpHeadersInAnyCase() throws IOException {
+        HttpRequest request = new HttpRequestParser().parse(ascii("GET / HTTP/1.1\r\nhost: example.com\r\n"
+                + "ACCEPT-ENCODING: gzip\r\nX-Tag: one\r\nx-tag: two\r\n\r\n"));
+        assertEquals("example.com", request.getHeader("Host"));
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        assertEquals("two", request.getHeader("X-TAG"), "The last occurrence should win");
+        assertEquals(List.of("one", "two"), request.getHttpHeaders().getAll("x-tag"));
+        assertEquals("one, two", request.getHeaders().get("X-Tag"));
+    }
+
+    @Test
+    public void testRecycledRequestsKeepNothingOfTheirPreviousExchange() throws IOException {
+        ExchangePool exchanges = new ExchangePool();
+        HttpRequestParser parser = new HttpRequestParser();
+        parser.setExchangePool(exchanges);
+
+        HttpRequest first = parser.parse(ascii("POST /first HTTP/1.1\r\nX-One: 1\r\nX-Two: 2\r\nX-Three: 3\r\n"
+                + "Content-Length: 2\r\n\r\nhi"));
+        assertEquals("3", first.getHeader("X-Three"));
+        assertEquals(4, first.getHeaders().size());
+        first.setRoute("/first");
+        exchanges.recycle(List.of(first), List.of());
+
+        HttpRequest second = parser.parse(ascii("GET /second HTTP/1.1\r\nX-One: uno\r\n\r\n"));
+        assertSame(first, second, "The spare request should be reused");
+        assertEquals("/second", second.getPath());
+        assertEquals("uno", second.getHeader("X-One"));
+        assertNull(second.getHeader("X-Three"));
+        assertEquals(List.of("X-One"), List.copyOf(second.getHeaders().keySet()));
+        assertNull(second.getBody());
+        assertNull(second.getRoute());
+    }
+
+    /**
+     * Hands out at most 4 KB per read and counts what has been consumed.
+     */
+    private static class SlowInputStream extends ByteArrayInputStream {
+        int consumed;
+
+        SlowInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int count = super.read(b, off, Math.min(len, 4096));
+            consumed += Math.max(count, 0);
+            return count;
+        }
+    }
+
+    private static byte[] concat(String head, byte[] body, String tail) {
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] tailBytes = tail.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer all = ByteBuffer.allocate(headBytes.length + body.length + tailBytes.length);
+        return all.put(headBytes).put(body).put(tailBytes).array();
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for response serialization.
+ */
+public class HttpResponseTest {
+
+    /**
+     * Records how often write is called.
+     */
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void testSerializesWithCrlfAndByteLength() throws IOException {
+        HttpResponse response = new HttpResponse().setBody("Grüße");
+        CountingOutputStream out = new CountingOutputStream();
+
+        response.send(out);
+
+        String wire = out.toString(StandardCharsets.UTF_8);
+        assertTrue(wire.startsWith("HTTP/1.1 200 OK\r\n"), "Status line should end with CRLF");
+        assertTrue(wire.contains("Content-Length: 7\r\n"), "Content-Length should count bytes, not chars");
+        assertTrue(wire.endsWith("\r\n\r\nGrüße"), "Body should follow an empty CRLF line");
+        assertEquals(1, out.writes, "Small responses should be written with a single write");
+    }
+
+    @Test
+    public void testSendsBinaryBodies() throws IOException {
+        byte[] body = new byte[64 * 1024];
+        body[body.length - 1] = 42;
+        HttpResponse response = new HttpResponse()
+                .setStatus(201)
+                .setContentType("application/octet-stream")
+                .setBody(ByteBuffer.wrap(body));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        response.send(out);
+        response.send(out);
+
+        byte[] wire = out.toByteArray();
+        String head = new String(wire, 0, 17, StandardCharsets.US_ASCII);
+        assertEquals("HTTP/1.1 201 Crea", head);
+        assertEquals(42, wire[wire.length - 1], "Body should be sent unchanged, also the second time");
+        assertEquals("65536", response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testCustomStatusMessage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HttpResponse().setStatus(299, "Custom").send(out);
+        assertTrue(out.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 299 Custom\r\n"));
+    }
+
+    @Test
+    public void testHeadResponseOmitsBody() throws IOException {
+        HttpResponse response = new HttpResponse().setBody("hidden");
+        response.setHeadOnly();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        response.send(out);
+
+        String wire = out.toString(StandardCharsets.US_ASCII);
+        assertTrue(wire.contains("Content-Length: 6\r\n"), "HEAD keeps the length of the GET body");
+        assertTrue(wire.endsWith("\r\n\r\n"), "HEAD responses have no body");
+    }
+
+    @Test
+    public void testResetRestoresInitialState() throws IOException {
+        HttpResponse response = new HttpResponse().setStatus(404).setHeader("X-Custom", "1").setBody("missing");
+        response.setHeadOnly();
+        response.reset();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.setBody("ok").send(out);
+        String text = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(text.startsWith("HTTP/1.1 200 OK\r\n"), text);
+        assertFalse(text.contains("X-Custom"), text);
+        assertTrue(text.endsWith("\r\n\r\nok"), text);
+    }
+
+    @Test
+    public void testSendsRepeatedHeadersAndReplacesInAnyCase() throws IOException {
+        HttpResponse response = new HttpResponse()
+                .setHeader("content-type", "application/json")
+                .addHeader("Set-Cookie", "a=1")
+                .addHeader("Set-Cookie", "b=2")
+                .setBody("{}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.send(out);
+        String text = out.toString(StandardCharsets.US_ASCII);
+        assertTrue(text.contains("\r\nContent-Type: application/json\r\n"), text);
+        assertFalse(text.contains("text/plain"), "The default Content-Type should be replaced");
+        assertTrue(text.contains("\r\nSet-Cookie: a=1\r\nSet-Cookie: b=2\r\n"), text);
+        assertEquals("2", response.getHeader("CONTENT-LENGTH"));
+    }
+}
@@ -5,11 +5,22 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -19,7 +30,7 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class HttpServerTest {
 
-    private static final int TEST_PORT = 8888;
+    protected static final int TEST_PORT = 8888;
     private HttpServer server;
 
     @BeforeEach
@@ -31,7 +42,7 @@ public class HttpServerTest {
         };
 
         // Create and start the server
-        server = new HttpServer(TEST_PORT, handler);
+        server = createServer(handler);
         server.start();
 
         // Wait a bit for the server to start
@@ -42,6 +53,32 @@ public class HttpServerTest {
         }
     }
 
+    /**
+     * Creates the server under test.
+     */
+    protected HttpServer createServer(RequestHandler handler) {
+        return new HttpServer(TEST_PORT, handler, createConfig());
+    }
+
+    /**
+     * Gets the server under test.
+     */
+    protected HttpServer getServer() {
+        return server;
+    }
+
+    private static HttpServer createServer(ServerConfig config) {
+        return new HttpServer(TEST_PORT, (request, response) -> response.setBody("Test response"), config);
+    }
+
+    /**
+     * Creates the configuration of the server under test. Subclasses override
+     * this to run the same tests against other server configurations.
+     */
+    protected ServerConfig createConfig() {
+        return new ServerConfig();
+    }
+
     @AfterEach
     public void tearDown() throws IOException {
         // Stop the server after each test
@@ -125,7 +162,7 @@ public class HttpServerTest {
         };
 
         // Start a new server with the custom handler
-        server = new HttpServer(TEST_PORT, customHandler);
+        server = createServer(customHandler);
         server.start();
 
         // Wait a bit for the server to start
@@ -178,7 +215,7 @@ public class HttpServerTest {
         };
 
         // Start a new server with the custom handler
-        server = new HttpServer(TEST_PORT, putHandler);
+        server = createServer(putHandler);
         server.start();
 
         // Wait a bit for the server to start
@@ -223,4 +260,401 @@ public class HttpServerTest {
         assertEquals("PUT request received with body: " + requestBody, response.toString(), 
                 "Response should echo the PUT request body");
     }
+
+    @Test
+    public void testKeepAliveServesSeveralRequestsOnOneConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String first = readResponse(in);
+            assertTrue(first.startsWith("HTTP/1.1 200 OK"), "First response should be 200 OK");
+            assertTrue(first.contains("Connection: keep-alive"), "Connection should be kept alive");
+
+            out.write("GET /second HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            String second = readResponse(in);
+            assertTrue(second.contains("Connection: close"), "Connection should be closed on request");
+            assertTrue(second.endsWith("Test response"), "Second response body should match");
+
+            assertEquals(-1, in.read(), "Server should close the connection");
+        }
+    }
+
+    @Test
+    public void testHttp10ClosesConnectionByDefault() throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            String response = readResponse(in);
+            assertTrue(response.contains("Connection: close"), "HTTP/1.0 should not be persistent by default");
+            assertEquals(-1, in.read(), "Server should close the connection");
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsAreAnsweredInOrder() throws IOException {
+        server.stop();
+        server = createServer((request, response) -> response.setBody("You requested: " + request.getPath()));
+        server.start();
+
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            // All three requests leave in one segment, before any response is read
+            socket.getOutputStream().write(("GET /one HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "POST /two HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nbody"
+                    + "GET /three HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    + "GET /ignored HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+
+            assertTrue(readResponse(in).endsWith("You requested: /one"));
+            assertTrue(readResponse(in).endsWith("You requested: /two"));
+            String last = readResponse(in);
+            assertTrue(last.contains("Connection: close"), "Connection should be closed on request");
+            assertTrue(last.endsWith("You requested: /three"));
+            assertEquals(-1, in.read(), "Requests after Connection: close should not be answered");
+        }
+    }
+
+    @Test
+    public void testStreamsChunkedUploadToHandler() throws IOException {
+        server.stop();
+        server = createServer((request, response) -> {
+            long total = 0;
+            try (InputStream body = request.getBodyStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    total += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            response.setBody("received " + total);
+        });
+        server.start();
+
+        // A raw socket, since pooled HttpURLConnections may still point at the stopped server
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("PUT /upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            byte[] block = new byte[64 * 1024];
+            for (int i = 0; i < 64; i++) {
+                out.write((Integer.toHexString(block.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(block);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+            String response = readResponse(socket.getInputStream());
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), "Upload should succeed");
+            assertTrue(response.endsWith("received " + 64 * 64 * 1024), "Handler should see the decoded body");
+        }
+    }
+
+    @Test
+    public void testStreamsBodyToHandlerWhileItArrives() throws Exception {
+        server.stop();
+        CountDownLatch started = new CountDownLatch(1);
+        server = createServer((request, response) -> {
+            try (InputStream body = request.getBodyStream()) {
+                long total = body.readNBytes(5).length;
+                started.countDown();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    total += read;
+                }
+                response.setBody("received " + total);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.start();
+
+        int length = 4 * 1024 * 1024;
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("PUT /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + length + "\r\n\r\nfirst")
+                    .getBytes(StandardCharsets.US_ASCII));
+            assertTrue(started.await(5, TimeUnit.SECONDS), "The handler should run before the body has arrived");
+
+            byte[] block = new byte[64 * 1024];
+            for (int sent = 5; sent < length; sent += block.length) {
+                out.write(block, 0, Math.min(block.length, length - sent));
+            }
+            // Follows the body in the same stream
+            out.write("GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+            InputStream in = socket.getInputStream();
+            assertTrue(readResponse(in).endsWith("received " + length), "Handler should see the whole body");
+            assertTrue(readResponse(in).endsWith("received 0"), "The request after the body should be served");
+        }
+    }
+
+    @Test
+    public void testRejectsBodyAboveLimit() throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.getOutputStream().write(("PUT / HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                    + (HttpRequestParser.DEFAULT_MAX_BODY_SIZE + 1) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            String response = readResponse(in);
+            assertTrue(response.startsWith("HTTP/1.1 413 "), "Oversized bodies should be rejected before reading");
+            assertEquals(-1, in.read(), "Server should close the connection");
+        }
+    }
+
+    @Test
+    public void testStreamsResponseBodies() throws IOException {
+        server.stop();
+        server = createServer((request, response) -> {
+            response.setContentType("text/plain");
+            try {
+                OutputStream body = response.getOutputStream();
+                if (request.getPath().equals("/large")) {
+                    byte[] block = new byte[8192];
+                    Arrays.fill(block, (byte) 'x');
+                    for (int i = 0; i < 128; i++) {
+                        body.write(block);
+                    }
+                } else {
+                    body.write(("streamed " + request.getPath()).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.start();
+
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            // Pipelined, so the responses around the streamed one share its batch
+            socket.getOutputStream().write(("GET /small HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /last HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+
+            String small = readResponse(in);
+            assertTrue(small.contains("Content-Length: 15"), "A short streamed body should get a Content-Length");
+            assertTrue(small.endsWith("streamed /small"));
+
+            String head = readHead(in);
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(head.contains("Transfer-Encoding: chunked"), "A long body should be sent in chunks");
+            assertFalse(head.contains("Content-Length"));
+            assertEquals(128 * 8192, readChunkedBody(in).length);
+
+            assertTrue(readResponse(in).endsWith("streamed /last"), "The connection should stay usable");
+        }
+    }
+
+    @Test
+    public void testStreamsHttp10ResponseUntilClose() throws IOException {
+        server.stop();
+        server = createServer((request, response) -> {
+            try {
+                OutputStream body = response.getOutputStream();
+                body.write("first ".getBytes(StandardCharsets.UTF_8));
+                body.flush();
+                body.write("second".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.start();
+
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            String head = readHead(in);
+            assertTrue(head.contains("Connection: close"), "HTTP/1.0 clients get a close-delimited body");
+            assertFalse(head.contains("Transfer-Encoding"));
+            assertEquals("first second", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testServesMetrics() throws IOException {
+        server.stop();
+        Router router = new Router()
+                .get("/users/{id}", (request, response) -> response.setBody("user " + request.getPathParameter("id")));
+        server = new HttpServer(TEST_PORT, router, createConfig().setMetricsPath("/metrics"));
+        server.start();
+
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            for (String path : new String[] {"/users/1", "/users/2", "/missing"}) {
+                out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                readResponse(in);
+            }
+            out.write("GET /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String response = readResponse(in);
+
+            assertTrue(response.contains("Content-Type: text/plain; version=0.0.4"));
+            assertTrue(response.contains("http_requests_total{status=\"2xx\"} 2\n"));
+            assertTrue(response.contains("http_requests_total{status=\"4xx\"} 1\n"));
+            assertTrue(response.contains(
+                    "http_request_duration_seconds_count{route=\"/users/{id}\",status=\"2xx\"} 2\n"));
+            assertTrue(response.contains("http_request_duration_seconds_bucket{route=\"unrouted\",status=\"4xx\",le=\"+Inf\"} 1\n"));
+            assertTrue(response.contains("http_open_connections 1\n"), "The scraping connection is open");
+            assertTrue(response.contains("http_active_requests 1\n"), "The scrape itself is in progress");
+        }
+        assertEquals(4, server.getMetrics().getRequestCount());
+    }
+
+    @Test
+    public void testShedsConnectionsAboveLimit() throws IOException {
+        server.stop();
+        server = createServer(createConfig().setMaxConnections(1).setRetryAfterSeconds(7));
+        server.start();
+
+        try (Socket first = new Socket("localhost", TEST_PORT)) {
+            first.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(readResponse(first.getInputStream()).startsWith("HTTP/1.1 200 OK"));
+
+            // Only connected once the first is admitted, other acceptors could otherwise take it first
+            try (Socket second = new Socket("localhost", TEST_PORT)) {
+                InputStream in = second.getInputStream();
+                String response = readResponse(in);
+                assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable"), response);
+                assertTrue(response.contains("Retry-After: 7\r\n"), response);
+                assertEquals(-1, in.read(), "A shed connection should be closed");
+            }
+        }
+        assertEquals(1, server.getMetrics().getRejectedConnections());
+    }
+
+    @Test
+    public void testShedsWorkWhenNoWorkerIsFree() throws Exception {
+        server.stop();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server = new HttpServer(TEST_PORT, (request, response) -> {
+            if (request.getPath().equals("/block")) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.setBody("done");
+        }, createConfig().setWorkerThreads(1).setMaxQueuedTasks(0));
+        server.start();
+
+        try (Socket blocked = new Socket("localhost", TEST_PORT)) {
+            blocked.getOutputStream().write("GET /block HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            assertTrue(entered.await(5, TimeUnit.SECONDS), "The only worker should be busy");
+
+            // Connected only now, since with several acceptors connections may be taken in any order
+            try (Socket shed = new Socket("localhost", TEST_PORT)) {
+                shed.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                assertTrue(readResponse(shed.getInputStream()).startsWith("HTTP/1.1 503 Service Unavailable"));
+            }
+
+            release.countDown();
+            assertTrue(readResponse(blocked.getInputStream()).endsWith("done"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testAdaptiveLimitShedsExcessRequests() throws Exception {
+        server.stop();
+        CountDownLatch entered = new CountDownLatch(20);
+        CountDownLatch release = new CountDownLatch(1);
+        server = new HttpServer(TEST_PORT, (request, response) -> {
+            if (request.getPath().equals("/block")) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.setBody("done");
+        }, createConfig().setExecutionMode(ExecutionMode.VIRTUAL_THREADS)
+                .setConcurrencyLatencyTarget(Duration.ofSeconds(10)));
+        server.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            // The limit starts at 20 concurrent requests
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket("localhost", TEST_PORT);
+                socket.getOutputStream().write("GET /block HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                sockets.add(socket);
+            }
+            assertTrue(entered.await(5, TimeUnit.SECONDS), "Requests up to the limit should run");
+
+            try (Socket socket = new Socket("localhost", TEST_PORT)) {
+                socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                String response = readResponse(socket.getInputStream());
+                assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable"), response);
+                assertTrue(response.contains("Retry-After: 1\r\n"), response);
+            }
+            assertEquals(1, server.getMetrics().getShedRequests());
+        } finally {
+            release.countDown();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a single response with a Content-Length delimited body from a raw stream.
+     */
+    static String readResponse(InputStream in) throws IOException {
+        String head = readHead(in);
+        int contentLength = 0;
+        for (String line : head.split("\r?\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = in.readNBytes(contentLength);
+        return head + new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the status line and headers of a response from a raw stream.
+     */
+    static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n") && !head.toString().endsWith("\n\n")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    /**
+     * Reads a chunked body from a raw stream, up to and including the last chunk.
+     */
+    static byte[] readChunkedBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            StringBuilder sizeLine = new StringBuilder();
+            for (int b = in.read(); b >= 0 && b != '\n'; b = in.read()) {
+                sizeLine.append((char) b);
+            }
+            int size = Integer.parseInt(sizeLine.toString().trim(), 16);
+            if (size == 0) {
+                in.readNBytes(2);
+                return body.toByteArray();
+            }
+            body.write(in.readNBytes(size));
+            in.readNBytes(2);
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package org.example.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for HTTPS on the blocking transport, with a certificate generated
+ * for the test run.
+ */
+public class HttpsServerTest {
+    protected static final int TEST_PORT = 8889;
+    private HttpServer server;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ServerConfig config = createConfig()
+                .setKeyStore(TestCertificates.keyStore(), TestCertificates.PASSWORD)
+                .setHttp2Enabled(true);
+        server = new HttpServer(TEST_PORT, (request, response) -> {
+            response.setContentType("text/plain");
+            if (request.getPath().equals("/echo")) {
+                response.setBody(request.getBodyBytes());
+            } else {
+                response.setBody("Test response");
+            }
+        }, config);
+        server.start();
+        Thread.sleep(200);
+    }
+
+    /**
+     * Creates the configuration of the server under test, before TLS is set up.
+     */
+    protected ServerConfig createConfig() {
+        return new ServerConfig();
+    }
+
+    /**
+     * Gets the protocol a client that prefers HTTP/2 ends up with.
+     */
+    protected HttpClient.Version negotiatedVersion() {
+        return HttpClient.Version.HTTP_2;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static HttpClient client(HttpClient.Version version) {
+        return HttpClient.newBuilder().sslContext(TestCertificates.clientContext()).version(version).build();
+    }
+
+    private static URI uri(String path) {
+        return URI.create("https://localhost:" + TEST_PORT + path);
+    }
+
+    @Test
+    public void testServesHttps() throws Exception {
+        try (HttpClient client = client(HttpClient.Version.HTTP_1_1)) {
+            for (int i = 0; i < 3; i++) {
+                java.net.http.HttpResponse<String> response = client.send(
+                        java.net.http.HttpRequest.newBuilder(uri("/test")).build(), BodyHandlers.ofString());
+                assertEquals(200, response.statusCode());
+                assertEquals("Test response", response.body());
+                assertEquals(HttpClient.Version.HTTP_1_1, response.version());
+                assertEquals("TLSv1.3", response.sslSession().map(SSLSession::getProtocol).orElse(null));
+            }
+        }
+    }
+
+    @Test
+    public void testNegotiatesProtocolWithAlpn() throws Exception {
+        try (HttpClient client = client(HttpClient.Version.HTTP_2)) {
+            java.net.http.HttpResponse<String> response = client.send(
+                    java.net.http.HttpRequest.newBuilder(uri("/test")).build(), BodyHandlers.ofString());
+            assertEquals(negotiatedVersion(), response.version());
+            assertEquals("Test response", response.body());
+        }
+    }
+
+    @Test
+    public void testTransfersLargeBodiesBothWays() throws Exception {
+        byte[] body = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(body);
+        try (HttpClient client = client(HttpClient.Version.HTTP_1_1)) {
+            java.net.http.HttpResponse<byte[]> response = client.send(java.net.http.HttpRequest.newBuilder(uri("/echo"))
+                    .POST(BodyPublishers.ofByteArray(body)).build(), BodyHandlers.ofByteArray());
+            assertEquals(200, response.statusCode());
+            assertArrayEquals(body, response.body(), "Body should survive encryption in both directions");
+        }
+    }
+
+    @Test
+    public void testResumesTls12Sessions() throws IOException {
+        SSLContext context = TestCertificates.clientContext();
+        byte[] first = exchangeOverTls12(context);
+        byte[] second = exchangeOverTls12(context);
+        assertTrue(Arrays.equals(first, second), "Second connection should resume the cached session");
+    }
+
+    private static byte[] exchangeOverTls12(SSLContext context) throws IOException {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", TEST_PORT)) {
+            socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /test HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String response = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            assertTrue(response.endsWith("Test response"), response);
+            return socket.getSession().getId();
+        }
+    }
+
+    @Test
+    public void testRejectsPlainHttp() throws IOException {
+        try (java.net.Socket socket = new java.net.Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            byte[] reply = socket.getInputStream().readAllBytes();
+            assertFalse(new String(reply, StandardCharsets.US_ASCII).contains("Test response"),
+                    "Plain HTTP should not be served on the TLS port");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the asynchronous handler tests against the non-blocking transport,
+ * which releases its workers while handlers are pending.
+ */
+public class NioAsyncRequestHandlerTest extends AsyncRequestHandlerTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setEventLoopCount(2);
+    }
+
+    @Test
+    public void testServesMorePendingRequestsThanWorkers() throws Exception {
+        // Answered only once all are pending at the same time, which two blocked workers could not reach
+        int count = 20;
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        start((request, response) -> {
+            response.setBody("released");
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            synchronized (waiting) {
+                waiting.add(done);
+                if (waiting.size() == count) {
+                    waiting.forEach(pending -> pending.complete(null));
+                }
+            }
+            return done;
+        }, createConfig().setWorkerThreads(2));
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            List<CompletableFuture<java.net.http.HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                responses.add(client.sendAsync(java.net.http.HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + TEST_PORT + "/wait")).build(), BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<java.net.http.HttpResponse<String>> response : responses) {
+                java.net.http.HttpResponse<String> received = response.get(10, TimeUnit.SECONDS);
+                assertEquals(200, received.statusCode());
+                assertEquals("released", received.body());
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.server;
+
+/**
+ * Runs the connection timeout tests against the non-blocking transport,
+ * whose event loops check the timeouts in their periodic sweep.
+ */
+public class NioConnectionTimeoutsTest extends ConnectionTimeoutsTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setEventLoopCount(2);
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the HTTP server tests against the non-blocking transport.
+ */
+public class NioHttpServerTest extends HttpServerTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setEventLoopCount(2);
+    }
+
+    @Test
+    public void testSlowClientsDoNotBlockOtherRequests() throws IOException {
+        // More silent connections than the server has worker threads
+        List<Socket> slowClients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                Socket socket = new Socket("localhost", TEST_PORT);
+                socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes());
+                slowClients.add(socket);
+            }
+
+            URL url = new URL("http://localhost:" + TEST_PORT + "/test");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setReadTimeout(2000);
+            assertEquals(200, connection.getResponseCode(), "Response code should be 200 OK");
+            try (InputStream in = connection.getInputStream()) {
+                assertEquals("Test response", new String(in.readAllBytes()), "Response body should match");
+            }
+        } finally {
+            for (Socket socket : slowClients) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.server;
+
+import java.net.http.HttpClient;
+
+/**
+ * Runs the HTTPS tests against the non-blocking transport.
+ */
+public class NioHttpsServerTest extends HttpsServerTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig()
+                .setTransport(Transport.NIO)
+                .setEventLoopCount(2);
+    }
+
+    @Override
+    protected HttpClient.Version negotiatedVersion() {
+        // HTTP/2 is only served by the blocking transport
+        return HttpClient.Version.HTTP_1_1;
+    }
+}
@@ -0,0 +1,16 @@
+package org.example.server;
+
+/**
+ * Runs the multi-acceptor tests against the non-blocking transport, with
+ * two acceptors each feeding two of four event loops.
+ */
+public class NioReusePortHttpServerTest extends ReusePortHttpServerTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return super.createConfig()
+                .setTransport(Transport.NIO)
+                .setEventLoopCount(4)
+                .setAcceptorCount(2);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the HTTP server tests with several acceptors listening on the port
+ * with {@code SO_REUSEPORT}, and explicit socket options.
+ */
+public class ReusePortHttpServerTest extends HttpServerTest {
+
+    @Override
+    protected ServerConfig createConfig() {
+        return new ServerConfig()
+                .setAcceptorCount(4)
+                .setBacklog(256)
+                .setSendBufferSize(256 * 1024)
+                .setReceiveBufferSize(256 * 1024);
+    }
+
+    @Test
+    public void testServesConnectionChurnOnAllAcceptors() throws Exception {
+        try (ExecutorService clients = Executors.newFixedThreadPool(8)) {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                responses.add(clients.submit(() -> exchangeOnNewConnection()));
+            }
+            for (Future<String> response : responses) {
+                String text = response.get();
+                assertTrue(text.startsWith("HTTP/1.1 200 OK"), text);
+                assertTrue(text.endsWith("Test response"), text);
+            }
+        }
+    }
+
+    @Test
+    public void testHandsConnectionsToWorkerGroupOfTheirAcceptor() throws Exception {
+        getServer().stop();
+        Set<String> pools = ConcurrentHashMap.newKeySet();
+        HttpServer server = createServer((request, response) -> {
+            // Named pool-<pool>-thread-<thread>
+            String thread = Thread.currentThread().getName();
+            pools.add(thread.substring(0, thread.lastIndexOf('-')));
+            response.setBody("Test response");
+        });
+        server.start();
+        try (ExecutorService clients = Executors.newFixedThreadPool(8)) {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                responses.add(clients.submit(() -> exchangeOnNewConnection()));
+            }
+            for (Future<String> response : responses) {
+                assertTrue(response.get().endsWith("Test response"));
+            }
+        } finally {
+            server.stop();
+        }
+        // The kernel spreads the connections over the acceptors, and each has a pool of its own
+        assertTrue(pools.size() > 1, "Pools: " + pools);
+    }
+
+    private static String exchangeOnNewConnection() {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /test HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
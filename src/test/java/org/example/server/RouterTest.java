@@ -0,0 +1,108 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the radix tree router.
+ */
+public class RouterTest {
+
+    private HttpResponse send(RequestHandler handler, String requestLine) throws IOException {
+        HttpRequest parsed = new HttpRequestParser().parse(
+                ByteBuffer.wrap((requestLine + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+        HttpResponse response = new HttpResponse();
+        handler.handle(parsed, response);
+        return response;
+    }
+
+    private static RequestHandler reply(String name) {
+        return (request, response) -> {
+            StringBuilder body = new StringBuilder(name);
+            for (String parameter : new String[] {"id", "item", "path", "*"}) {
+                String value = request.getPathParameter(parameter);
+                if (value != null) {
+                    body.append(' ').append(parameter).append('=').append(value);
+                }
+            }
+            response.setBody(body.toString());
+        };
+    }
+
+    @Test
+    public void testMatchesLiteralsParametersAndWildcards() throws IOException {
+        Router router = new Router()
+                .get("/", reply("root"))
+                .get("/users", reply("users"))
+                .get("/users/me", reply("me"))
+                .get("/users/{id}", reply("user"))
+                .get("/users/{id}/items/{item}", reply("item"))
+                .get("/useful", reply("useful"))
+                .get("/static/*", reply("static"))
+                .get("/files/*path", reply("file"));
+
+        assertEquals("root", send(router, "GET / HTTP/1.1").getBody());
+        assertEquals("users", send(router, "GET /users HTTP/1.1").getBody());
+        assertEquals("useful", send(router, "GET /useful HTTP/1.1").getBody());
+        assertEquals("me", send(router, "GET /users/me HTTP/1.1").getBody(), "Literals take precedence");
+        assertEquals("user id=42", send(router, "GET /users/42?full=true HTTP/1.1").getBody());
+        assertEquals("user id=mex", send(router, "GET /users/mex HTTP/1.1").getBody(), "Backtracks into parameters");
+        assertEquals("item id=7 item=9", send(router, "GET /users/7/items/9 HTTP/1.1").getBody());
+        assertEquals("static *=css/site.css", send(router, "GET /static/css/site.css HTTP/1.1").getBody());
+        assertEquals("static *=", send(router, "GET /static/ HTTP/1.1").getBody());
+        assertEquals("file path=a/b/c.txt", send(router, "GET /files/a/b/c.txt HTTP/1.1").getBody());
+
+        assertEquals(404, send(router, "GET /users/7/items HTTP/1.1").getStatusCode());
+        assertEquals(404, send(router, "GET /users/ HTTP/1.1").getStatusCode(), "Parameters must not be empty");
+        assertEquals(404, send(router, "GET /nothing HTTP/1.1").getStatusCode());
+    }
+
+    @Test
+    public void testDispatchesByMethod() throws IOException {
+        Router router = new Router()
+                .get("/items/{id}", reply("get"))
+                .put("/items/{id}", reply("put"))
+                .delete("/items/{id}", reply("delete"));
+
+        assertEquals("put id=1", send(router, "PUT /items/1 HTTP/1.1").getBody());
+        assertEquals("delete id=1", send(router, "DELETE /items/1 HTTP/1.1").getBody());
+        assertEquals("get id=1", send(router, "HEAD /items/1 HTTP/1.1").getBody(), "HEAD falls back to GET");
+
+        HttpResponse notAllowed = send(router, "POST /items/1 HTTP/1.1");
+        assertEquals(405, notAllowed.getStatusCode());
+        assertEquals("GET, HEAD, PUT, DELETE, OPTIONS", notAllowed.getHeader("Allow"));
+
+        HttpResponse options = send(router, "OPTIONS /items/1 HTTP/1.1");
+        assertEquals(204, options.getStatusCode());
+        assertEquals("GET, HEAD, PUT, DELETE, OPTIONS", options.getHeader("Allow"));
+    }
+
+    @Test
+    public void testRejectsInvalidRoutes() {
+        Router router = new Router().get("/users/{id}", reply("user"));
+
+        assertThrows(IllegalArgumentException.class, () -> router.get("users", reply("x")));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/users/{id}", reply("x")));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/users/{name}/posts", reply("x")));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/a/{id}.json", reply("x")));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/a/*/b", reply("x")));
+        router.post("/users/{id}", reply("post"));
+    }
+
+    @Test
+    public void testScalesToManyRoutes() throws IOException {
+        Router router = new Router();
+        for (int i = 0; i < 1000; i++) {
+            router.get("/api/v1/resource" + i + "/{id}", reply("resource" + i));
+        }
+        for (int i = 0; i < 1000; i += 97) {
+            assertEquals("resource" + i + " id=x", send(router, "GET /api/v1/resource" + i + "/x HTTP/1.1").getBody());
+        }
+        assertEquals(404, send(router, "GET /api/v1/resource1000/x HTTP/1.1").getStatusCode());
+    }
+}
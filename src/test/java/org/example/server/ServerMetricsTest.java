@@ -0,0 +1,56 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the latency histogram and the metrics registry.
+ */
+public class ServerMetricsTest {
+
+    @Test
+    public void testHistogramPercentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 10L));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        long median = histogram.getValueAtPercentile(50, TimeUnit.MICROSECONDS);
+        assertTrue(median >= 5000 && median <= 5000 * 1.15, "Median was " + median);
+        long p99 = histogram.getValueAtPercentile(99, TimeUnit.MICROSECONDS);
+        assertTrue(p99 >= 9900 && p99 <= 9900 * 1.15, "p99 was " + p99);
+
+        long belowOneMillisecond = histogram.getCountAtOrBelow(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(belowOneMillisecond >= 100 && belowOneMillisecond <= 115, "Count was " + belowOneMillisecond);
+        assertEquals(1000, histogram.getCountAtOrBelow(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void testRecordsByRouteAndStatusClass() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionOpened();
+        for (int status : new int[] {200, 204, 404, 503}) {
+            metrics.requestStarted();
+            metrics.requestFinished(status == 404 ? null : "/items/{id}", status, 1_000_000);
+        }
+
+        assertEquals(4, metrics.getRequestCount());
+        assertEquals(2, metrics.getRequestCount(2));
+        assertEquals(2, metrics.getLatency("/items/{id}", 2).getCount());
+        assertEquals(1, metrics.getLatency(ServerMetrics.UNROUTED, 4).getCount());
+        assertNull(metrics.getLatency("/items/{id}", 4));
+        assertEquals(1, metrics.getOpenConnections());
+        assertEquals(0, metrics.getActiveRequests());
+
+        String text = metrics.toPrometheusText();
+        assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"/items/{id}\",status=\"2xx\",le=\"0.0005\"} 0\n"));
+        assertTrue(text.contains("http_request_duration_seconds_bucket{route=\"/items/{id}\",status=\"2xx\",le=\"0.0025\"} 2\n"));
+        assertTrue(text.contains("http_request_duration_seconds_sum{route=\"/items/{id}\",status=\"5xx\"} 0.001\n"));
+        assertTrue(text.contains("http_executor_pending_tasks 0\n"));
+    }
+}
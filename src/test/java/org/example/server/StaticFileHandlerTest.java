@@ -0,0 +1,138 @@
+package org.example.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for serving files from a document root.
+ */
+public class StaticFileHandlerTest {
+
+    private static final int TEST_PORT = 8890;
+
+    @TempDir
+    Path tempDir;
+
+    private Path root;
+    private byte[] largeFile;
+    private HttpServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        root = Files.createDirectory(tempDir.resolve("www"));
+        Files.writeString(root.resolve("index.html"), "<h1>Home</h1>");
+        Files.writeString(tempDir.resolve("secret.txt"), "do not serve");
+        largeFile = new byte[3 * StaticFileHandler.IN_MEMORY_THRESHOLD + 17];
+        new Random(1).nextBytes(largeFile);
+        Files.write(root.resolve("data.bin"), largeFile);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testServesIndexWithValidators() throws IOException {
+        start(Transport.BLOCKING);
+        Response response = request("GET / HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertEquals(200, response.status);
+        assertTrue(response.head.contains("Content-Type: text/html; charset=UTF-8"));
+        assertTrue(response.head.contains("Last-Modified: "));
+        assertTrue(response.head.contains("ETag: \""));
+        assertEquals("<h1>Home</h1>", new String(response.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransfersLargeFilesOnBothTransports() throws IOException {
+        for (Transport transport : Transport.values()) {
+            start(transport);
+            Response response = request("GET /data.bin HTTP/1.1\r\nConnection: close\r\n\r\n");
+            assertEquals(200, response.status, transport + " should serve the file");
+            assertArrayEquals(largeFile, response.body, transport + " should send the file unchanged");
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testRejectsPathTraversal() throws IOException {
+        start(Transport.BLOCKING);
+        assertEquals(404, request("GET /../secret.txt HTTP/1.1\r\nConnection: close\r\n\r\n").status);
+        assertEquals(404, request("GET /%2e%2e/secret.txt HTTP/1.1\r\nConnection: close\r\n\r\n").status);
+        assertEquals(404, request("GET /..%2fsecret.txt HTTP/1.1\r\nConnection: close\r\n\r\n").status);
+    }
+
+    @Test
+    public void testRejectsIndexLinkedOutOfTheRoot() throws IOException {
+        Path directory = Files.createDirectory(root.resolve("linked"));
+        Files.createSymbolicLink(directory.resolve("index.html"), tempDir.resolve("secret.txt"));
+        start(Transport.BLOCKING);
+        assertEquals(404, request("GET /linked/ HTTP/1.1\r\nConnection: close\r\n\r\n").status);
+    }
+
+    @Test
+    public void testAnswersConditionalRequestsWithNotModified() throws IOException {
+        start(Transport.BLOCKING);
+        String head = request("HEAD /data.bin HTTP/1.1\r\nConnection: close\r\n\r\n").head;
+        String etag = head.substring(head.indexOf("ETag: ") + 6, head.indexOf("\r\n", head.indexOf("ETag: ")));
+
+        Response response = request("GET /data.bin HTTP/1.1\r\nIf-None-Match: " + etag + "\r\nConnection: close\r\n\r\n");
+        assertEquals(304, response.status);
+        assertEquals(0, response.body.length);
+        // A cache would otherwise record an empty body
+        assertTrue(response.head.contains("Content-Length: " + largeFile.length), response.head);
+    }
+
+    @Test
+    public void testRejectsUnsupportedMethods() throws IOException {
+        start(Transport.BLOCKING);
+        Response response = request("DELETE /index.html HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertEquals(405, response.status);
+        assertTrue(response.head.contains("Allow: GET, HEAD"));
+    }
+
+    private void start(Transport transport) throws IOException {
+        server = new HttpServer(TEST_PORT, new StaticFileHandler(root), new ServerConfig().setTransport(transport));
+        server.start();
+    }
+
+    private static class Response {
+        int status;
+        String head;
+        byte[] body;
+    }
+
+    private static Response request(String rawRequest) throws IOException {
+        try (Socket socket = new Socket("localhost", TEST_PORT)) {
+            socket.getOutputStream().write(rawRequest.getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            byte[] all = in.readAllBytes();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            Response response = new Response();
+            String text = new String(all, StandardCharsets.ISO_8859_1);
+            int end = text.indexOf("\r\n\r\n");
+            response.head = text.substring(0, end);
+            response.status = Integer.parseInt(text.substring(9, 12));
+            body.write(all, end + 4, all.length - end - 4);
+            response.body = body.toByteArray();
+            return response;
+        }
+    }
+}
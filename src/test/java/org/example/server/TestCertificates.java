@@ -0,0 +1,77 @@
+package org.example.server;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * A self-signed certificate for localhost, generated with the JDK's keytool
+ * on first use and shared by the tests and benchmarks of one JVM.
+ */
+public final class TestCertificates {
+    public static final String PASSWORD = "changeit";
+
+    private static Path keyStore;
+
+    private TestCertificates() {
+    }
+
+    /**
+     * Gets the PKCS12 key store with the certificate and its EC private key.
+     *
+     * @return the key store file, deleted when the JVM exits
+     */
+    public static synchronized Path keyStore() {
+        if (keyStore == null) {
+            try {
+                Path directory = Files.createTempDirectory("http-server-tls");
+                Path file = directory.resolve("localhost.p12");
+                Process keytool = new ProcessBuilder(
+                        Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                        "-genkeypair", "-keystore", file.toString(), "-storetype", "PKCS12",
+                        "-storepass", PASSWORD, "-alias", "localhost", "-keyalg", "EC", "-groupname", "secp256r1",
+                        "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2")
+                        .redirectErrorStream(true)
+                        .start();
+                byte[] output = keytool.getInputStream().readAllBytes();
+                if (keytool.waitFor() != 0) {
+                    throw new IOException("keytool failed: " + new String(output));
+                }
+                file.toFile().deleteOnExit();
+                directory.toFile().deleteOnExit();
+                keyStore = file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return keyStore;
+    }
+
+    /**
+     * Creates a client context that trusts the generated certificate.
+     *
+     * @return the context
+     */
+    public static SSLContext clientContext() {
+        try {
+            KeyStore trusted = KeyStore.getInstance(keyStore().toFile(), PASSWORD.toCharArray());
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trusted);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}